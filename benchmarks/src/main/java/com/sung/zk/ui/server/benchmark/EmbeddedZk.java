@@ -0,0 +1,85 @@
+package com.sung.zk.ui.server.benchmark;
+
+import com.github.zkclient.ZkClient;
+import com.github.zkclient.ZkServer;
+import org.apache.commons.io.FileUtils;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.Op;
+import org.apache.zookeeper.ZooDefs.Ids;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 在临时目录上启动 {@link ZkServer}, 供各个基准测试使用
+ */
+final class EmbeddedZk {
+
+    private static final int BATCH = 1000;
+
+    private final File dir;
+
+    private final ZkServer server;
+
+    private EmbeddedZk(File dir, ZkServer server) {
+        this.dir = dir;
+        this.server = server;
+    }
+
+    static EmbeddedZk start() throws IOException {
+        File dir = Files.createTempDirectory("zk-bench").toFile();
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        ZkServer server = new ZkServer(new File(dir, "data").getPath(), new File(dir, "log").getPath(), port);
+        server.start();
+        return new EmbeddedZk(dir, server);
+    }
+
+    ZkClient client() {
+        return server.getZkClient();
+    }
+
+    /**
+     * 在 root 下按广度优先建 nodes 个节点 (含 root), 每个节点最多 fanout 个子节点, 每个节点带 dataSize 字节数据
+     */
+    void populate(String root, int nodes, int fanout, int dataSize) {
+        byte[] data = payload(dataSize);
+        String[] paths = new String[nodes];
+        paths[0] = root;
+        client().createPersistent(root, data, true);
+        List<Op> ops = new ArrayList<Op>(BATCH);
+        for (int i = 1; i < nodes; i++) {
+            paths[i] = paths[(i - 1) / fanout] + "/n" + i;
+            ops.add(Op.create(paths[i], data, Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT));
+            if (ops.size() == BATCH) {
+                client().multi(ops);
+                ops.clear();
+            }
+        }
+        if (!ops.isEmpty()) {
+            client().multi(ops);
+        }
+    }
+
+    /**
+     * 固定内容的数据, 保证多次运行结果可比
+     */
+    static byte[] payload(int size) {
+        byte[] data = new byte[size];
+        for (int i = 0; i < size; i++) {
+            data[i] = (byte) ('a' + i % 26);
+        }
+        return data;
+    }
+
+    void stop() throws IOException {
+        server.shutdown();
+        FileUtils.deleteDirectory(dir);
+    }
+}
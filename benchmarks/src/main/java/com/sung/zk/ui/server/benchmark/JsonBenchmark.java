@@ -0,0 +1,72 @@
+package com.sung.zk.ui.server.benchmark;
+
+import com.alibaba.fastjson.JSON;
+import com.sung.zk.ui.server.zookeeper.tree.ZTreeNode;
+import com.sung.zk.ui.server.zookeeper.tree.ZkTreeBuildUtils;
+import com.sung.zk.ui.server.zookeeper.utils.JsonArrayWriter;
+import org.apache.commons.io.output.NullOutputStream;
+import org.apache.zookeeper.data.Stat;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 树节点 JSON 输出: 整体序列化成字符串 (ResponseUtils) 与逐个节点流式输出 (JsonArrayWriter) 的对比
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class JsonBenchmark {
+
+    @Param({"1000", "10000", "100000"})
+    public int nodes;
+
+    private List<ZTreeNode> zTreeNodes;
+
+    @Setup
+    public void setUp() {
+        zTreeNodes = new ArrayList<ZTreeNode>(nodes);
+        Stat stat = new Stat();
+        stat.setNumChildren(10);
+        zTreeNodes.add(ZkTreeBuildUtils.toTreeNode("/tree", true, stat));
+        for (int i = 1; i < nodes; i++) {
+            zTreeNodes.add(ZkTreeBuildUtils.toTreeNode("/tree/n" + (i - 1) / 10 + "/n" + i, false, stat));
+        }
+    }
+
+    @Benchmark
+    public void toJSONString() throws IOException {
+        String json = JSON.toJSONString(zTreeNodes);
+        Writer out = new OutputStreamWriter(NullOutputStream.NULL_OUTPUT_STREAM, Charset.forName("UTF-8"));
+        out.append(json);
+        out.close();
+    }
+
+    @Benchmark
+    public void streaming() throws IOException {
+        JsonArrayWriter out = new JsonArrayWriter(NullOutputStream.NULL_OUTPUT_STREAM);
+        for (ZTreeNode node : zTreeNodes) {
+            out.write(node);
+        }
+        out.close();
+    }
+}
@@ -0,0 +1,65 @@
+package com.sung.zk.ui.server.benchmark;
+
+import com.sung.zk.ui.server.zookeeper.tree.ZTreeNode;
+import com.sung.zk.ui.server.zookeeper.tree.ZkTreeBuildUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ZkTreeBuildUtils 构建整棵树 / 加载一级节点的延迟
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+@Warmup(iterations = 2, time = 10)
+@Measurement(iterations = 5, time = 10)
+public class TreeBuildBenchmark {
+
+    private static final String ROOT = "/tree";
+
+    @Param({"1000", "10000", "100000"})
+    public int nodes;
+
+    private EmbeddedZk zk;
+
+    @Setup
+    public void setUp() throws IOException {
+        zk = EmbeddedZk.start();
+        zk.populate(ROOT, nodes, 10, 64);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        zk.stop();
+    }
+
+    @Benchmark
+    public List<ZTreeNode> fullTree() {
+        List<ZTreeNode> zTreeNodes = new ArrayList<ZTreeNode>(nodes);
+        ZkTreeBuildUtils.getZkTreeData(zTreeNodes, ROOT, zk.client());
+        return zTreeNodes;
+    }
+
+    @Benchmark
+    public List<ZTreeNode> firstLevel() {
+        List<ZTreeNode> zTreeNodes = new ArrayList<ZTreeNode>();
+        ZkTreeBuildUtils.getZkTreeLevel(zTreeNodes, ROOT, true, zk.client());
+        return zTreeNodes;
+    }
+}
@@ -0,0 +1,85 @@
+package com.sung.zk.ui.server.benchmark;
+
+import com.github.zkclient.ZkClient;
+import com.github.zkclient.ZkFuture;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ZkClient 单个读写操作的吞吐量
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(value = 1, jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class ZkClientBenchmark {
+
+    private static final String ROOT = "/bench";
+
+    private static final int PIPELINE = 100;
+
+    private EmbeddedZk zk;
+
+    private ZkClient client;
+
+    private byte[] data;
+
+    @Setup
+    public void setUp() throws IOException {
+        zk = EmbeddedZk.start();
+        client = zk.client();
+        // ROOT 下 100 个子节点, 每个 1KB 数据
+        zk.populate(ROOT, 101, 100, 1024);
+        data = EmbeddedZk.payload(1024);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        zk.stop();
+    }
+
+    @Benchmark
+    public byte[] readData() {
+        return client.readData(ROOT + "/n1");
+    }
+
+    @Benchmark
+    public List<String> getChildren() {
+        return client.getChildren(ROOT);
+    }
+
+    @Benchmark
+    public Object writeData() {
+        return client.writeData(ROOT + "/n2", data);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PIPELINE)
+    public void readDataAsync(Blackhole bh) {
+        List<ZkFuture<byte[]>> futures = new ArrayList<ZkFuture<byte[]>>(PIPELINE);
+        for (int i = 1; i <= PIPELINE; i++) {
+            futures.add(client.readDataAsync(ROOT + "/n" + i));
+        }
+        for (ZkFuture<byte[]> future : futures) {
+            bh.consume(future.join());
+        }
+    }
+}
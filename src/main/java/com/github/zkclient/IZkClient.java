@@ -26,6 +26,7 @@ import org.apache.zookeeper.CreateMode;
 import org.apache.zookeeper.Watcher;
 import org.apache.zookeeper.Watcher.Event.KeeperState;
 import org.apache.zookeeper.ZooKeeper;
+import org.apache.zookeeper.data.ACL;
 import org.apache.zookeeper.data.Stat;
 
 import java.io.Closeable;
@@ -83,6 +84,19 @@ public interface IZkClient extends Closeable {
      */
     String create(final String path, byte[] data, final CreateMode mode);
 
+    /**
+     * Create a node with the given acl.
+     *
+     * @param path zk path
+     * @param data node data
+     * @param acl  the acl for the node
+     * @param mode create mode {@link CreateMode}
+     * @return created path
+     * @throws ZkException if any ZooKeeper exception occurred
+     * @see #create(String, byte[], CreateMode)
+     */
+    String create(final String path, byte[] data, final List<ACL> acl, final CreateMode mode);
+
     /**
      * Create an ephemeral node with empty data
      *
@@ -170,6 +184,22 @@ public interface IZkClient extends Closeable {
      */
     void createPersistent(String path, byte[] data);
 
+    /**
+     * Create a persistent node with data, and optionally all missing parents (with empty data).
+     * <p>
+     * The missing parents are found with one pipelined pass of asynchronous <code>exists</code> calls and
+     * created together with the node in one {@link #multi(Iterable)} transaction.
+     * </p>
+     *
+     * @param path          the path for the node
+     * @param data          node data
+     * @param createParents if true all missing parent dirs are created as well
+     * @throws ZkNodeExistsException if the node exists
+     * @throws ZkNoNodeException     if the parent node not exists and createParents is false
+     * @throws ZkException           if any ZooKeeper exception occurred
+     */
+    void createPersistent(String path, byte[] data, boolean createParents);
+
     /**
      * Create a persistent, sequental node.
      *
@@ -201,6 +231,20 @@ public interface IZkClient extends Closeable {
      */
     boolean deleteRecursive(String path);
 
+    /**
+     * delete a node with all children
+     * <p>
+     * The nodes are collected with a pipelined walk and deleted bottom-up in batched
+     * {@link #multi(Iterable)} transactions. Deleting stops at the first batch which fails because a
+     * child was created concurrently; nodes of earlier batches stay deleted.
+     * </p>
+     *
+     * @param path     the path for the node
+     * @param listener notified after every batch (may be null)
+     * @return true if all deleted; otherwise false
+     */
+    boolean deleteRecursive(String path, ProgressListener listener);
+
     /**
      * check the node exists
      *
@@ -261,6 +305,130 @@ public interface IZkClient extends Closeable {
      */
     byte[] readData(String path, Stat stat);
 
+    /**
+     * read the data for the node asynchronously
+     * <p>
+     * Like the synchronous reads the request is re-sent after a connection loss or session expiration,
+     * so many requests may be kept in flight on one session.
+     * </p>
+     *
+     * @param path the path for the node
+     * @return the future data; it fails with {@link ZkNoNodeException} if the node not exists
+     * @see #readData(String)
+     */
+    ZkFuture<byte[]> readDataAsync(String path);
+
+    /**
+     * read the data and stat for the node asynchronously
+     *
+     * @param path the path for the node
+     * @param stat the stat for the node, filled before the future completes (may be null)
+     * @return the future data; it fails with {@link ZkNoNodeException} if the node not exists
+     * @see #readDataAsync(String)
+     */
+    ZkFuture<byte[]> readDataAsync(String path, Stat stat);
+
+    /**
+     * read the data and stat for the node asynchronously and leave a one-shot watch
+     * <p>
+     * The watch is independent of the registered listeners: the watcher is notified once of the next
+     * change or deletion of the node, and of every connection state change until then. Nothing is
+     * watched if the node not exists.
+     * </p>
+     *
+     * @param path    the path for the node
+     * @param stat    the stat for the node, filled before the future completes (may be null)
+     * @param watcher the watcher
+     * @return the future data; it fails with {@link ZkNoNodeException} if the node not exists
+     */
+    ZkFuture<byte[]> readDataAsync(String path, Stat stat, Watcher watcher);
+
+    /**
+     * get the children for the node asynchronously
+     *
+     * @param path the path for the node
+     * @return the future children node names or null (then node not exists)
+     * @see #getChildren(String)
+     */
+    ZkFuture<List<String>> getChildrenAsync(String path);
+
+    /**
+     * get the children and stat for the node asynchronously
+     *
+     * @param path the path for the node
+     * @param stat the stat for the node, filled before the future completes (may be null)
+     * @return the future children node names or null (then node not exists)
+     * @see #getChildren(String)
+     */
+    ZkFuture<List<String>> getChildrenAsync(String path, Stat stat);
+
+    /**
+     * get the children and stat for the node asynchronously and leave a one-shot watch
+     *
+     * @param path    the path for the node
+     * @param stat    the stat for the node, filled before the future completes (may be null)
+     * @param watcher notified once of the next child change or deletion of the node, see
+     *                {@link #readDataAsync(String, Stat, Watcher)}
+     * @return the future children node names or null (then node not exists)
+     */
+    ZkFuture<List<String>> getChildrenAsync(String path, Stat stat, Watcher watcher);
+
+    /**
+     * check the node exists asynchronously
+     *
+     * @param path the path for the node
+     * @return the future stat of the node or null if the node not exists
+     * @see #exists(String)
+     */
+    ZkFuture<Stat> existsAsync(String path);
+
+    /**
+     * check the node exists asynchronously and leave a one-shot watch
+     *
+     * @param path    the path for the node
+     * @param watcher notified once of the creation, deletion or next data change of the node, see
+     *                {@link #readDataAsync(String, Stat, Watcher)}; unlike the reads this also watches a missing node
+     * @return the future stat of the node or null if the node not exists
+     */
+    ZkFuture<Stat> existsAsync(String path, Watcher watcher);
+
+    /**
+     * read the acl of the node asynchronously
+     *
+     * @param path the path for the node
+     * @param stat the stat for the node (may be null)
+     * @return the future acl of the node
+     * @throws ZkNoNodeException if the node not exists (from the future)
+     */
+    ZkFuture<List<ACL>> getAclAsync(String path, Stat stat);
+
+    /**
+     * walk the subtree breadth-first without fetching node data
+     *
+     * @param root        the path for the subtree root
+     * @param visitor     receives every node
+     * @param maxInFlight max number of pending asynchronous reads
+     * @param maxDepth    max depth relative to the root (the root is 0), negative for no limit
+     * @see #walk(String, IZkTreeVisitor, int, int, boolean)
+     */
+    void walk(String root, IZkTreeVisitor visitor, int maxInFlight, int maxDepth);
+
+    /**
+     * walk the subtree breadth-first, pipelining the reads with the asynchronous api
+     * <p>
+     * The visitor is called on the current thread. The walk is aborted by any exception thrown from the visitor
+     * or from zookeeper, except for nodes which are deleted while walking: those are skipped.
+     * </p>
+     *
+     * @param root        the path for the subtree root
+     * @param visitor     receives every node
+     * @param maxInFlight max number of pending asynchronous reads
+     * @param maxDepth    max depth relative to the root (the root is 0), negative for no limit
+     * @param withData    if true the data for every node is read as well
+     * @see IZkTreeVisitor
+     */
+    void walk(String root, IZkTreeVisitor visitor, int maxInFlight, int maxDepth, boolean withData);
+
     /**
      * subscribe the changing for children
      *
@@ -271,6 +439,15 @@ public interface IZkClient extends Closeable {
      */
     List<String> subscribeChildChanges(String path, IZkChildListener listener);
 
+    /**
+     * like {@link #subscribeChildChanges(String, IZkChildListener)}, closing the returned handle unsubscribes
+     *
+     * @param path     the path for the node
+     * @param listener the listener
+     * @return the subscription
+     */
+    ZkSubscription watchChildren(String path, IZkChildListener listener);
+
     /**
      * subscribe the data changing for the node
      *
@@ -280,6 +457,15 @@ public interface IZkClient extends Closeable {
      */
     void subscribeDataChanges(String path, IZkDataListener listener);
 
+    /**
+     * like {@link #subscribeDataChanges(String, IZkDataListener)}, closing the returned handle unsubscribes
+     *
+     * @param path     the path for the node
+     * @param listener the data changing listener
+     * @return the subscription
+     */
+    ZkSubscription watchData(String path, IZkDataListener listener);
+
     /**
      * subscribe the connection state
      *
@@ -294,7 +480,8 @@ public interface IZkClient extends Closeable {
     void unsubscribeAll();
 
     /**
-     * unsubscribe the child listener
+     * unsubscribe the child listener. A listener subscribed to the path several times stays subscribed until
+     * it was unsubscribed as often
      *
      * @param path          the path for the node
      * @param childListener the listener
@@ -302,7 +489,8 @@ public interface IZkClient extends Closeable {
     void unsubscribeChildChanges(String path, IZkChildListener childListener);
 
     /**
-     * unsubscribe the data changing for the node
+     * unsubscribe the data changing for the node. A listener subscribed to the path several times stays
+     * subscribed until it was unsubscribed as often
      *
      * @param path         the path for the node
      * @param dataListener the data changing listener
@@ -414,6 +602,26 @@ public interface IZkClient extends Closeable {
      */
     boolean isConnected();
 
+    /**
+     * request counters and latency histograms of this client
+     *
+     * @return the metrics, may be shared with other clients
+     */
+    ZkMetrics getMetrics();
+
+    /**
+     * Progress of a long running bulk operation
+     */
+    interface ProgressListener {
+
+        /**
+         * @param done  nodes processed so far
+         * @param total nodes to process
+         */
+        public void onProgress(int done, int total);
+
+    }
+
     /**
      * A CAS operation
      */
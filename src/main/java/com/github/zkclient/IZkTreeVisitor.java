@@ -0,0 +1,42 @@
+/**
+ * Copyright 2010 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.zkclient;
+
+import java.util.List;
+
+import org.apache.zookeeper.data.Stat;
+
+/**
+ * An {@link IZkTreeVisitor} receives the nodes of a subtree walked by {@link IZkClient#walk(String, IZkTreeVisitor, int, int)}.
+ * <p/>
+ * Nodes are visited breadth-first on the thread which called <code>walk</code>, a parent is always visited before its
+ * children. Nodes deleted while the walk is running are silently skipped.
+ */
+public interface IZkTreeVisitor {
+
+    /**
+     * Called once for every node of the subtree.
+     *
+     * @param path     the path for the node
+     * @param depth    the depth relative to the walk root (the root is 0)
+     * @param stat     the stat for the node
+     * @param data     the data for the node, or null if the walk does not fetch data
+     * @param children the children node names, the walk reads them again later so they must not be modified
+     * @return true to walk into the children of this node
+     * @throws Exception aborts the walk
+     */
+    public boolean visit(String path, int depth, Stat stat, byte[] data, List<String> children) throws Exception;
+}
@@ -22,8 +22,10 @@ import com.github.zkclient.exception.ZkInterruptedException;
 import com.github.zkclient.exception.ZkNoNodeException;
 import com.github.zkclient.exception.ZkNodeExistsException;
 import com.github.zkclient.exception.ZkTimeoutException;
+import org.apache.zookeeper.AsyncCallback;
 import org.apache.zookeeper.CreateMode;
 import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.KeeperException.Code;
 import org.apache.zookeeper.KeeperException.ConnectionLossException;
 import org.apache.zookeeper.KeeperException.SessionExpiredException;
 import org.apache.zookeeper.WatchedEvent;
@@ -31,20 +33,22 @@ import org.apache.zookeeper.Watcher;
 import org.apache.zookeeper.Watcher.Event.EventType;
 import org.apache.zookeeper.Watcher.Event.KeeperState;
 import org.apache.zookeeper.ZooKeeper;
-import org.apache.zookeeper.ZooKeeper.States;
+import org.apache.zookeeper.data.ACL;
 import org.apache.zookeeper.data.Stat;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.Date;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
-import java.util.Map.Entry;
 import java.util.Set;
 import java.util.concurrent.Callable;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Zookeeper client
@@ -58,9 +62,9 @@ public class ZkClient implements Watcher, IZkClient {
 
     protected ZkConnection _connection;
 
-    private final Map<String, Set<IZkChildListener>> _childListener = new ConcurrentHashMap<String, Set<IZkChildListener>>();
+    private final ZkListenerRegistry<IZkChildListener> _childListener = new ZkListenerRegistry<IZkChildListener>();
 
-    private final Map<String, Set<IZkDataListener>> _dataListener = new ConcurrentHashMap<String, Set<IZkDataListener>>();
+    private final ZkListenerRegistry<IZkDataListener> _dataListener = new ZkListenerRegistry<IZkDataListener>();
 
     private final Set<IZkStateListener> _stateListener = new CopyOnWriteArraySet<IZkStateListener>();
 
@@ -68,12 +72,27 @@ public class ZkClient implements Watcher, IZkClient {
 
     private final ZkLock _zkEventLock = new ZkLock();
 
+    private final ZkSignal _stateChanged = new ZkSignal();
+
+    private final ZkSignal _zNodeEvent = new ZkSignal();
+
     private volatile boolean _shutdownTriggered;
 
     private ZkEventThread _eventThread;
 
     private Thread _zookeeperEventThread;
 
+    private final Object _asyncRetryLock = new Object();
+
+    private ExecutorService _asyncRetryExecutor;
+
+    private final ZkMetrics _metrics;
+
+    /**
+     * set while a {@link #retryUntilConnected(ZkMetrics.Op, Callable)} call is measured on the thread
+     */
+    private final ThreadLocal<Boolean> _measuring = new ThreadLocal<Boolean>();
+
     /**
      * Create a client with default connection timeout and default session timeout
      *
@@ -137,56 +156,85 @@ public class ZkClient implements Watcher, IZkClient {
      * @param connectionTimeout connection timeout in milliseconds
      */
     public ZkClient(ZkConnection zkConnection, int connectionTimeout) {
+        this(zkConnection, connectionTimeout, new ZkMetrics());
+    }
+
+    /**
+     * Create a client with special implementation which records into the given metrics
+     *
+     * @param zkConnection      special client
+     * @param connectionTimeout connection timeout in milliseconds
+     * @param metrics           the metrics, may be shared with other clients
+     */
+    public ZkClient(ZkConnection zkConnection, int connectionTimeout, ZkMetrics metrics) {
+        if (metrics == null) {
+            throw new NullPointerException("metrics must not be null.");
+        }
         _connection = zkConnection;
+        _metrics = metrics;
         connect(connectionTimeout, this);
     }
 
 
     public List<String> subscribeChildChanges(String path, IZkChildListener listener) {
-        synchronized (_childListener) {
-            Set<IZkChildListener> listeners = _childListener.get(path);
-            if (listeners == null) {
-                listeners = new CopyOnWriteArraySet<IZkChildListener>();
-                _childListener.put(path, listeners);
-            }
-            listeners.add(listener);
-        }
+        addChildListener(path, listener);
         return watchForChilds(path);
     }
 
-    public void unsubscribeChildChanges(String path, IZkChildListener childListener) {
-        synchronized (_childListener) {
-            final Set<IZkChildListener> listeners = _childListener.get(path);
-            if (listeners != null) {
-                listeners.remove(childListener);
+    public ZkSubscription watchChildren(final String path, final IZkChildListener listener) {
+        subscribeChildChanges(path, listener);
+        return new ZkSubscription(path) {
+
+            @Override
+            void unsubscribe() {
+                unsubscribeChildChanges(path, listener);
             }
-        }
+        };
+    }
+
+    /**
+     * register the listener without installing a watch; the next read of the path (including the
+     * asynchronous ones) installs it
+     */
+    void addChildListener(String path, IZkChildListener listener) {
+        _childListener.add(path, listener);
+    }
+
+    public void unsubscribeChildChanges(String path, IZkChildListener childListener) {
+        _childListener.remove(path, childListener);
     }
 
     public void subscribeDataChanges(String path, IZkDataListener listener) {
-        Set<IZkDataListener> listeners;
-        synchronized (_dataListener) {
-            listeners = _dataListener.get(path);
-            if (listeners == null) {
-                listeners = new CopyOnWriteArraySet<IZkDataListener>();
-                _dataListener.put(path, listeners);
-            }
-            listeners.add(listener);
+        // a path which already has data listeners has its watch armed, it is re-armed whenever it fires
+        if (addDataListener(path, listener)) {
+            watchForData(path);
         }
-        watchForData(path);
         LOG.debug("Subscribed data changes for " + path);
     }
 
-    public void unsubscribeDataChanges(String path, IZkDataListener dataListener) {
-        synchronized (_dataListener) {
-            final Set<IZkDataListener> listeners = _dataListener.get(path);
-            if (listeners != null) {
-                listeners.remove(dataListener);
-            }
-            if (listeners == null || listeners.isEmpty()) {
-                _dataListener.remove(path);
+    public ZkSubscription watchData(final String path, final IZkDataListener listener) {
+        subscribeDataChanges(path, listener);
+        return new ZkSubscription(path) {
+
+            @Override
+            void unsubscribe() {
+                unsubscribeDataChanges(path, listener);
             }
-        }
+        };
+    }
+
+    /**
+     * register the listener without installing a watch; the next read of the path (including the
+     * asynchronous ones) installs it
+     *
+     * @return true if the path had no data listener before
+     */
+    boolean addDataListener(String path, IZkDataListener listener) {
+        return _dataListener.add(path, listener);
+    }
+
+    public void unsubscribeDataChanges(String path, IZkDataListener dataListener) {
+        _dataListener.remove(path, dataListener);
     }
 
     public void subscribeStateChanges(final IZkStateListener listener) {
@@ -202,12 +250,8 @@ public class ZkClient implements Watcher, IZkClient {
     }
 
     public void unsubscribeAll() {
-        synchronized (_childListener) {
-            _childListener.clear();
-        }
-        synchronized (_dataListener) {
-            _dataListener.clear();
-        }
+        _childListener.clear();
+        _dataListener.clear();
         synchronized (_stateListener) {
             _stateListener.clear();
         }
@@ -242,6 +286,21 @@ public class ZkClient implements Watcher, IZkClient {
     }
 
 
+    public void createPersistent(String path, byte[] data, boolean createParents) {
+        if (!createParents) {
+            createPersistent(path, data);
+        } else if (ZkClientUtils.zkVersion == ZkClientUtils.ZkVersion.V33) {
+            String parentDir = path.substring(0, path.lastIndexOf('/'));
+            if (parentDir.length() > 0) {
+                createPersistent(parentDir, true);
+            }
+            createPersistent(path, data);
+        } else {
+            ZkCreateWithParents.create(this, path, data);
+        }
+    }
+
+
     public String createPersistentSequential(String path, byte[] data) {
         return create(path, data, CreateMode.PERSISTENT_SEQUENTIAL);
     }
@@ -257,7 +316,7 @@ public class ZkClient implements Watcher, IZkClient {
         }
         final byte[] bytes = data;
 
-        return retryUntilConnected(new Callable<String>() {
+        return retryUntilConnected(ZkMetrics.Op.CREATE, new Callable<String>() {
 
             @Override
             public String call() throws Exception {
@@ -266,6 +325,19 @@ public class ZkClient implements Watcher, IZkClient {
         });
     }
 
+    public String create(final String path, final byte[] data, final List<ACL> acl, final CreateMode mode) {
+        if (path == null) {
+            throw new NullPointerException("path must not be null.");
+        }
+        return retryUntilConnected(ZkMetrics.Op.CREATE, new Callable<String>() {
+
+            @Override
+            public String call() throws Exception {
+                return _connection.create(path, data, acl, mode);
+            }
+        });
+    }
+
     public void createEphemeral(final String path, final byte[] data) {
         create(path, data, CreateMode.EPHEMERAL);
     }
@@ -285,9 +357,7 @@ public class ZkClient implements Watcher, IZkClient {
                 event.getType() == EventType.NodeCreated || //
                 event.getType() == EventType.NodeChildrenChanged;
 
-        getEventLock().lock();
         try {
-
             // We might have to install child change event listener if a new node was created
             if (getShutdownTrigger()) {
                 LOG.debug("ignoring event '{" + event.getType() + " | " + event.getPath() + "}' since shutdown triggered");
@@ -301,35 +371,30 @@ public class ZkClient implements Watcher, IZkClient {
             }
         } finally {
             if (stateChanged) {
-                getEventLock().getStateChangedCondition().signalAll();
+                _stateChanged.signalAll();
 
-                // If the session expired we have to signal all conditions, because watches might have been removed and
+                // If the session expired we have to signal all waiters, because watches might have been removed and
                 // there is no guarantee that those
-                // conditions will be signaled at all after an Expired event
+                // waiters will be signaled at all after an Expired event
                 if (event.getState() == KeeperState.Expired) {
-                    getEventLock().getZNodeEventCondition().signalAll();
-                    getEventLock().getDataChangedCondition().signalAll();
+                    _zNodeEvent.signalAll();
                     // We also have to notify all listeners that something might have changed
                     fireAllEvents();
                 }
             }
             if (znodeChanged) {
-                getEventLock().getZNodeEventCondition().signalAll();
-            }
-            if (dataChanged) {
-                getEventLock().getDataChangedCondition().signalAll();
+                _zNodeEvent.signalAll();
             }
-            getEventLock().unlock();
             LOG.debug("Leaving process event");
         }
     }
 
     private void fireAllEvents() {
-        for (Entry<String, Set<IZkChildListener>> entry : _childListener.entrySet()) {
-            fireChildChangedEvents(entry.getKey(), entry.getValue());
+        for (String path : _childListener.paths()) {
+            fireChildChangedEvents(path);
         }
-        for (Entry<String, Set<IZkDataListener>> entry : _dataListener.entrySet()) {
-            fireDataChangedEvents(entry.getKey(), entry.getValue());
+        for (String path : _dataListener.paths()) {
+            fireDataChangedEvents(path);
         }
     }
 
@@ -339,7 +404,7 @@ public class ZkClient implements Watcher, IZkClient {
 
     protected List<String> getChildren(final String path, final boolean watch) {
         try {
-            return retryUntilConnected(new Callable<List<String>>() {
+            return retryUntilConnected(ZkMetrics.Op.CHILDREN, new Callable<List<String>>() {
 
                 @Override
                 public List<String> call() throws Exception {
@@ -364,7 +429,7 @@ public class ZkClient implements Watcher, IZkClient {
     }
 
     protected boolean exists(final String path, final boolean watch) {
-        return retryUntilConnected(new Callable<Boolean>() {
+        return retryUntilConnected(ZkMetrics.Op.EXISTS, new Callable<Boolean>() {
 
             @Override
             public Boolean call() throws Exception {
@@ -420,27 +485,28 @@ public class ZkClient implements Watcher, IZkClient {
     }
 
     private boolean hasListeners(String path) {
-        Set<IZkDataListener> dataListeners = _dataListener.get(path);
-        if (dataListeners != null && dataListeners.size() > 0) {
-            return true;
-        }
-        Set<IZkChildListener> childListeners = _childListener.get(path);
-        if (childListeners != null && childListeners.size() > 0) {
-            return true;
-        }
-        return false;
+        return _dataListener.has(path) || _childListener.has(path);
     }
 
     public boolean deleteRecursive(String path) {
-        List<String> children;
-        try {
-            children = getChildren(path, false);
-        } catch (ZkNoNodeException e) {
+        return deleteRecursive(path, null);
+    }
+
+    public boolean deleteRecursive(String path, ProgressListener listener) {
+        if (ZkClientUtils.zkVersion == ZkClientUtils.ZkVersion.V33) {
+            return deleteRecursiveOneByOne(path);
+        }
+        return new ZkRecursiveDelete(this, listener).delete(path);
+    }
+
+    private boolean deleteRecursiveOneByOne(String path) {
+        List<String> children = getChildren(path, false);
+        if (children == null) {
             return true;
         }
 
         for (String subPath : children) {
-            if (!deleteRecursive(path + "/" + subPath)) {
+            if (!deleteRecursiveOneByOne(path + "/" + subPath)) {
                 return false;
             }
         }
@@ -448,90 +514,130 @@ public class ZkClient implements Watcher, IZkClient {
         return delete(path);
     }
 
+    public void walk(String root, IZkTreeVisitor visitor, int maxInFlight, int maxDepth) {
+        walk(root, visitor, maxInFlight, maxDepth, false);
+    }
+
+    public void walk(String root, IZkTreeVisitor visitor, int maxInFlight, int maxDepth, boolean withData) {
+        new ZkTreeWalker(this, visitor, maxInFlight, maxDepth, withData).walk(root);
+    }
+
     private void processDataOrChildChange(WatchedEvent event) {
         final String path = event.getPath();
 
         if (event.getType() == EventType.NodeChildrenChanged ||
                 event.getType() == EventType.NodeCreated ||
                 event.getType() == EventType.NodeDeleted) {
-            Set<IZkChildListener> childListeners = _childListener.get(path);
-            if (childListeners != null && !childListeners.isEmpty()) {
-                fireChildChangedEvents(path, childListeners);
+            if (_childListener.has(path)) {
+                fireChildChangedEvents(path);
             }
         }
 
         if (event.getType() == EventType.NodeDataChanged ||
                 event.getType() == EventType.NodeDeleted ||
                 event.getType() == EventType.NodeCreated) {
-            Set<IZkDataListener> listeners = _dataListener.get(path);
-            if (listeners != null && !listeners.isEmpty()) {
-                fireDataChangedEvents(event.getPath(), listeners);
+            if (_dataListener.has(path)) {
+                fireDataChangedEvents(path);
             }
         }
     }
 
-    private void fireDataChangedEvents(final String path, Set<IZkDataListener> listeners) {
-        for (final IZkDataListener listener : listeners) {
-            _eventThread.send(new ZkEvent("Data of " + path + " changed sent to " + listener) {
+    /**
+     * One event per path for all data listeners: the watch is re-armed and the data is read once, then
+     * every listener registered at delivery time gets its own copy.
+     */
+    private void fireDataChangedEvents(final String path) {
+        _eventThread.send(new ZkEvent("Data of " + path + " changed", path,
+                Arrays.asList(EventType.NodeDataChanged, path)) {
 
-                @Override
-                public void run() throws Exception {
-                    // reinstall watch
-                    exists(path, true);
+            @Override
+            public void run() throws Exception {
+                Set<IZkDataListener> listeners = _dataListener.get(path);
+                if (listeners.isEmpty()) {
+                    return;
+                }
+                // reinstall watch
+                exists(path, true);
+                byte[] data;
+                try {
+                    data = readData(path, null, true);
+                } catch (ZkNoNodeException e) {
+                    data = null;
+                }
+                for (IZkDataListener listener : listeners) {
                     try {
-                        byte[] data = readData(path, null, true);
-                        listener.handleDataChange(path, data);
-                    } catch (ZkNoNodeException e) {
-                        listener.handleDataDeleted(path);
+                        if (data == null) {
+                            listener.handleDataDeleted(path);
+                        } else {
+                            listener.handleDataChange(path, data.clone());
+                        }
+                    } catch (InterruptedException e) {
+                        throw e;
+                    } catch (ZkInterruptedException e) {
+                        throw e;
+                    } catch (Exception e) {
+                        LOG.error("Error handling data change of " + path + " in " + listener, e);
                     }
                 }
-            });
-        }
+            }
+        });
     }
 
-    private void fireChildChangedEvents(final String path, Set<IZkChildListener> childListeners) {
-        try {
-            // reinstall the watch
-            for (final IZkChildListener listener : childListeners) {
-                _eventThread.send(new ZkEvent("Children of " + path + " changed sent to " + listener) {
+    /**
+     * One event per path for all child listeners: the watches are re-armed and the children are read once,
+     * then every listener registered at delivery time gets its own copy.
+     */
+    private void fireChildChangedEvents(final String path) {
+        _eventThread.send(new ZkEvent("Children of " + path + " changed", path,
+                Arrays.asList(EventType.NodeChildrenChanged, path)) {
 
-                    @Override
-                    public void run() throws Exception {
-                        try {
-                            // if the node doesn't exist we should listen for the root node to reappear
-                            exists(path);
-                            List<String> children = getChildren(path);
-                            listener.handleChildChange(path, children);
-                        } catch (ZkNoNodeException e) {
-                            listener.handleChildChange(path, null);
-                        }
+            @Override
+            public void run() throws Exception {
+                Set<IZkChildListener> listeners = _childListener.get(path);
+                if (listeners.isEmpty()) {
+                    return;
+                }
+                List<String> children;
+                try {
+                    // if the node doesn't exist we should listen for the root node to reappear
+                    exists(path);
+                    children = getChildren(path);
+                } catch (ZkNoNodeException e) {
+                    children = null;
+                }
+                for (IZkChildListener listener : listeners) {
+                    try {
+                        listener.handleChildChange(path, children == null ? null : new ArrayList<String>(children));
+                    } catch (InterruptedException e) {
+                        throw e;
+                    } catch (ZkInterruptedException e) {
+                        throw e;
+                    } catch (Exception e) {
+                        LOG.error("Error handling child change of " + path + " in " + listener, e);
                     }
-                });
+                }
             }
-        } catch (Exception e) {
-            LOG.error("Failed to fire child changed event. Unable to getChildren.  ", e);
-        }
+        });
     }
 
     public boolean waitUntilExists(String path, TimeUnit timeUnit, long time) throws ZkInterruptedException {
-        Date timeout = new Date(System.currentTimeMillis() + timeUnit.toMillis(time));
+        long deadline = ZkSignal.deadline(timeUnit.toNanos(time));
         LOG.debug("Waiting until znode '" + path + "' becomes available.");
         if (exists(path)) {
             return true;
         }
-        acquireEventLock();
         try {
-            while (!exists(path, true)) {
-                boolean gotSignal = getEventLock().getZNodeEventCondition().awaitUntil(timeout);
-                if (!gotSignal) {
+            while (true) {
+                long generation = _zNodeEvent.generation();
+                if (exists(path, true)) {
+                    return true;
+                }
+                if (!_zNodeEvent.await(generation, deadline)) {
                     return false;
                 }
             }
-            return true;
         } catch (InterruptedException e) {
             throw new ZkInterruptedException(e);
-        } finally {
-            getEventLock().unlock();
         }
     }
 
@@ -548,30 +654,20 @@ public class ZkClient implements Watcher, IZkClient {
         if (_zookeeperEventThread != null && Thread.currentThread() == _zookeeperEventThread) {
             throw new IllegalArgumentException("Must not be done in the zookeeper event thread.");
         }
-        Date timeout = new Date(System.currentTimeMillis() + timeUnit.toMillis(time));
+        long deadline = ZkSignal.deadline(timeUnit.toNanos(time));
 
         LOG.debug("Waiting for keeper state " + keeperState);
-        acquireEventLock();
         try {
-            boolean stillWaiting = true;
-            while (_currentState != keeperState) {
-                if (!stillWaiting) {
+            while (true) {
+                long generation = _stateChanged.generation();
+                if (_currentState == keeperState) {
+                    LOG.debug("State is " + _currentState);
+                    return true;
+                }
+                if (!_stateChanged.await(generation, deadline)) {
                     return false;
                 }
-                stillWaiting = getEventLock().getStateChangedCondition().awaitUntil(timeout);
             }
-            LOG.debug("State is " + _currentState);
-            return true;
-        } catch (InterruptedException e) {
-            throw new ZkInterruptedException(e);
-        } finally {
-            getEventLock().unlock();
-        }
-    }
-
-    private void acquireEventLock() {
-        try {
-            getEventLock().lockInterruptibly();
         } catch (InterruptedException e) {
             throw new ZkInterruptedException(e);
         }
@@ -588,53 +684,98 @@ public class ZkClient implements Watcher, IZkClient {
      * @throws RuntimeException         if any other exception occurs from invoking the Callable
      */
     public <E> E retryUntilConnected(Callable<E> callable) {
+        return retryUntilConnected(ZkMetrics.Op.OTHER, callable);
+    }
+
+    /**
+     * Same as {@link #retryUntilConnected(Callable)}, the request is recorded in the metrics as the given type.
+     * A call made from inside the callable of another one on the same thread is part of the outer request:
+     * only the outer one is recorded, reconnect waits are recorded where they happen.
+     *
+     * @param op       the request type
+     * @param callable the callable object
+     * @return result of Callable
+     * @see #getMetrics()
+     */
+    public <E> E retryUntilConnected(ZkMetrics.Op op, Callable<E> callable) {
         if (_zookeeperEventThread != null && Thread.currentThread() == _zookeeperEventThread) {
             throw new IllegalArgumentException("Must not be done in the zookeeper event thread.");
         }
-        while (true) {
-            try {
-                return callable.call();
-            } catch (ConnectionLossException e) {
-                // we give the event thread some time to update the status to 'Disconnected'
-                Thread.yield();
-                waitUntilConnected();
-            } catch (SessionExpiredException e) {
-                // we give the event thread some time to update the status to 'Expired'
-                Thread.yield();
-                waitUntilConnected();
-            } catch (KeeperException e) {
-                throw ZkException.create(e);
-            } catch (InterruptedException e) {
-                throw new ZkInterruptedException(e);
-            } catch (Exception e) {
-                throw ZkClientUtils.convertToRuntimeException(e);
+        final boolean nested = _measuring.get() != null;
+        if (!nested) {
+            _measuring.set(Boolean.TRUE);
+        }
+        final long start = System.nanoTime();
+        boolean error = true;
+        try {
+            while (true) {
+                try {
+                    E result = callable.call();
+                    error = false;
+                    return result;
+                } catch (ConnectionLossException e) {
+                    // we give the event thread some time to update the status to 'Disconnected'
+                    Thread.yield();
+                    waitForReconnect(op, ZkMetrics.Wait.CONNECTION_LOSS);
+                } catch (SessionExpiredException e) {
+                    // we give the event thread some time to update the status to 'Expired'
+                    Thread.yield();
+                    waitForReconnect(op, ZkMetrics.Wait.SESSION_EXPIRED);
+                } catch (KeeperException e) {
+                    throw ZkException.create(e);
+                } catch (InterruptedException e) {
+                    throw new ZkInterruptedException(e);
+                } catch (Exception e) {
+                    throw ZkClientUtils.convertToRuntimeException(e);
+                }
+            }
+        } finally {
+            if (!nested) {
+                _measuring.remove();
+                _metrics.record(op, System.nanoTime() - start, error);
             }
         }
     }
 
-    public void setCurrentState(KeeperState currentState) {
-        getEventLock().lock();
+    private void waitForReconnect(ZkMetrics.Op op, ZkMetrics.Wait reason) {
+        _metrics.recordRetry(op);
+        final long start = System.nanoTime();
         try {
-            _currentState = currentState;
+            waitUntilConnected();
         } finally {
-            getEventLock().unlock();
+            _metrics.recordWait(reason, System.nanoTime() - start);
         }
     }
 
+    @Override
+    public ZkMetrics getMetrics() {
+        return _metrics;
+    }
+
+    public void setCurrentState(KeeperState currentState) {
+        _currentState = currentState;
+        _stateChanged.signalAll();
+    }
+
     /**
-     * Returns a mutex all zookeeper events are synchronized aginst. So in case you need to do
-     * something without getting any zookeeper event interruption synchronize against this
-     * mutex. Also all threads waiting on this mutex object will be notified on an event.
+     * Returns the mutex guarding reconnects against {@link #close()}.
+     * <p>
+     * Zookeeper events are no longer processed under this lock and its conditions are not signaled anymore;
+     * use {@link #waitForKeeperState(KeeperState, long, TimeUnit)} or
+     * {@link #waitUntilExists(String, TimeUnit, long)} instead.
+     * </p>
      *
      * @return the mutex.
+     * @deprecated events are dispatched without a process-wide lock
      */
+    @Deprecated
     public ZkLock getEventLock() {
         return _zkEventLock;
     }
 
     public boolean delete(final String path) {
         try {
-            retryUntilConnected(new Callable<byte[]>() {
+            retryUntilConnected(ZkMetrics.Op.DELETE, new Callable<byte[]>() {
 
                 @Override
                 public byte[] call() throws Exception {
@@ -670,7 +811,7 @@ public class ZkClient implements Watcher, IZkClient {
     }
 
     protected byte[] readData(final String path, final Stat stat, final boolean watch) {
-        byte[] data = retryUntilConnected(new Callable<byte[]>() {
+        byte[] data = retryUntilConnected(ZkMetrics.Op.READ, new Callable<byte[]>() {
 
             @Override
             public byte[] call() throws Exception {
@@ -680,6 +821,293 @@ public class ZkClient implements Watcher, IZkClient {
         return data;
     }
 
+    public ZkFuture<byte[]> readDataAsync(String path) {
+        return readDataAsync(path, null);
+    }
+
+    public ZkFuture<byte[]> readDataAsync(String path, Stat stat) {
+        return readDataAsync(path, stat, hasListeners(path), null);
+    }
+
+    public ZkFuture<byte[]> readDataAsync(String path, Stat stat, Watcher watcher) {
+        if (watcher == null) {
+            throw new NullPointerException("watcher must not be null.");
+        }
+        return readDataAsync(path, stat, false, watcher);
+    }
+
+    private ZkFuture<byte[]> readDataAsync(final String path, final Stat stat, final boolean watch, final Watcher watcher) {
+        return new AsyncRequest<byte[]>(ZkMetrics.Op.READ, path) {
+
+            @Override
+            void send() throws KeeperException {
+                AsyncCallback.DataCallback cb = new AsyncCallback.DataCallback() {
+
+                    @Override
+                    public void processResult(int rc, String p, Object ctx, byte[] data, Stat s) {
+                        if (rc == Code.OK.intValue()) {
+                            copyStat(s, stat);
+                            succeed(data);
+                        } else {
+                            fail(rc);
+                        }
+                    }
+                };
+                if (watcher != null) {
+                    _connection.readDataAsync(path, watcher, cb);
+                } else {
+                    _connection.readDataAsync(path, watch, cb);
+                }
+            }
+        }.start();
+    }
+
+    public ZkFuture<List<String>> getChildrenAsync(String path) {
+        return getChildrenAsync(path, null);
+    }
+
+    public ZkFuture<List<String>> getChildrenAsync(String path, Stat stat) {
+        return getChildrenAsync(path, stat, hasListeners(path), null);
+    }
+
+    public ZkFuture<List<String>> getChildrenAsync(String path, Stat stat, Watcher watcher) {
+        if (watcher == null) {
+            throw new NullPointerException("watcher must not be null.");
+        }
+        return getChildrenAsync(path, stat, false, watcher);
+    }
+
+    private ZkFuture<List<String>> getChildrenAsync(final String path, final Stat stat, final boolean watch,
+                                                    final Watcher watcher) {
+        return new AsyncRequest<List<String>>(ZkMetrics.Op.CHILDREN, path) {
+
+            @Override
+            void send() throws KeeperException {
+                AsyncCallback.Children2Callback cb = new AsyncCallback.Children2Callback() {
+
+                    @Override
+                    public void processResult(int rc, String p, Object ctx, List<String> children, Stat s) {
+                        if (rc == Code.OK.intValue()) {
+                            copyStat(s, stat);
+                            succeed(children);
+                        } else if (rc == Code.NONODE.intValue()) {
+                            succeed(null);
+                        } else {
+                            fail(rc);
+                        }
+                    }
+                };
+                if (watcher != null) {
+                    _connection.getChildrenAsync(path, watcher, cb);
+                } else {
+                    _connection.getChildrenAsync(path, watch, cb);
+                }
+            }
+        }.start();
+    }
+
+    public ZkFuture<Stat> existsAsync(String path) {
+        return existsAsync(path, hasListeners(path), null);
+    }
+
+    public ZkFuture<Stat> existsAsync(String path, Watcher watcher) {
+        if (watcher == null) {
+            throw new NullPointerException("watcher must not be null.");
+        }
+        return existsAsync(path, false, watcher);
+    }
+
+    private ZkFuture<Stat> existsAsync(final String path, final boolean watch, final Watcher watcher) {
+        return new AsyncRequest<Stat>(ZkMetrics.Op.EXISTS, path) {
+
+            @Override
+            void send() throws KeeperException {
+                AsyncCallback.StatCallback cb = new AsyncCallback.StatCallback() {
+
+                    @Override
+                    public void processResult(int rc, String p, Object ctx, Stat s) {
+                        if (rc == Code.OK.intValue() || rc == Code.NONODE.intValue()) {
+                            succeed(s);
+                        } else {
+                            fail(rc);
+                        }
+                    }
+                };
+                if (watcher != null) {
+                    _connection.existsAsync(path, watcher, cb);
+                } else {
+                    _connection.existsAsync(path, watch, cb);
+                }
+            }
+        }.start();
+    }
+
+    public ZkFuture<List<ACL>> getAclAsync(final String path, final Stat stat) {
+        return new AsyncRequest<List<ACL>>(ZkMetrics.Op.OTHER, path) {
+
+            @Override
+            void send() throws KeeperException {
+                _connection.getAclAsync(path, new AsyncCallback.ACLCallback() {
+
+                    @Override
+                    public void processResult(int rc, String p, Object ctx, List<ACL> acl, Stat s) {
+                        if (rc == Code.OK.intValue()) {
+                            copyStat(s, stat);
+                            succeed(acl);
+                        } else {
+                            fail(rc);
+                        }
+                    }
+                });
+            }
+        }.start();
+    }
+
+    private static void copyStat(Stat from, Stat to) {
+        if (from == null || to == null) {
+            return;
+        }
+        to.setAversion(from.getAversion());
+        to.setCtime(from.getCtime());
+        to.setCversion(from.getCversion());
+        to.setCzxid(from.getCzxid());
+        to.setMtime(from.getMtime());
+        to.setMzxid(from.getMzxid());
+        to.setPzxid(from.getPzxid());
+        to.setVersion(from.getVersion());
+        to.setEphemeralOwner(from.getEphemeralOwner());
+        to.setDataLength(from.getDataLength());
+        to.setNumChildren(from.getNumChildren());
+    }
+
+    /**
+     * An asynchronous request with the same retry semantics as {@link #retryUntilConnected(Callable)}:
+     * on connection loss or session expiration the request is re-sent from the retry thread once the
+     * client is connected again, every other error completes the future exceptionally.
+     */
+    private abstract class AsyncRequest<T> implements Runnable {
+
+        final ZkMetrics.Op op;
+
+        final String path;
+
+        final ZkFuture<T> future = new ZkFuture<T>();
+
+        final long startNanos = System.nanoTime();
+
+        volatile ZkMetrics.Wait waitReason;
+
+        private final AtomicBoolean completed = new AtomicBoolean();
+
+        AsyncRequest(ZkMetrics.Op op, String path) {
+            if (path == null) {
+                throw new NullPointerException("path must not be null.");
+            }
+            this.op = op;
+            this.path = path;
+        }
+
+        /**
+         * send the request, the callback must call {@link #succeed(Object)} or {@link #fail(int)}
+         */
+        abstract void send() throws KeeperException;
+
+        ZkFuture<T> start() {
+            if (getShutdownTrigger()) {
+                failWith(new ZkException("zk client has been closed"));
+                return future;
+            }
+            try {
+                send();
+            } catch (KeeperException e) {
+                fail(e.code().intValue());
+            } catch (RuntimeException e) {
+                failWith(e);
+            }
+            return future;
+        }
+
+        void succeed(T value) {
+            if (complete(false)) {
+                future.set(value);
+            }
+        }
+
+        void failWith(RuntimeException error) {
+            if (complete(true)) {
+                future.setException(error);
+            }
+        }
+
+        /**
+         * record the request before its future runs the listeners inline, so neither the latency nor the
+         * visibility of the count depends on them
+         *
+         * @return false if the request was completed already
+         */
+        private boolean complete(boolean error) {
+            if (!completed.compareAndSet(false, true)) {
+                return false;
+            }
+            _metrics.record(op, System.nanoTime() - startNanos, error);
+            return true;
+        }
+
+        void fail(int rc) {
+            Code code = Code.get(rc);
+            if (code == Code.CONNECTIONLOSS || code == Code.SESSIONEXPIRED) {
+                waitReason = code == Code.CONNECTIONLOSS ? ZkMetrics.Wait.CONNECTION_LOSS : ZkMetrics.Wait.SESSION_EXPIRED;
+                retryAsync(this);
+            } else {
+                failWith(ZkException.create(KeeperException.create(code, path)));
+            }
+        }
+
+        /**
+         * executed by the retry thread
+         */
+        @Override
+        public void run() {
+            try {
+                waitForReconnect(op, waitReason);
+            } catch (RuntimeException e) {
+                failWith(e);
+                return;
+            }
+            start();
+        }
+
+        void cancel() {
+            failWith(new ZkException("zk client has been closed"));
+        }
+
+        @Override
+        public String toString() {
+            return "AsyncRequest[" + path + "]";
+        }
+    }
+
+    private void retryAsync(AsyncRequest<?> request) {
+        synchronized (_asyncRetryLock) {
+            if (getShutdownTrigger()) {
+                request.cancel();
+                return;
+            }
+            if (_asyncRetryExecutor == null) {
+                _asyncRetryExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "ZkClient-AsyncRetry-" + _connection.getServers());
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+            }
+            _asyncRetryExecutor.execute(request);
+        }
+    }
+
     public Stat writeData(String path, byte[] object) {
         return writeData(path, object, -1);
     }
@@ -700,7 +1128,7 @@ public class ZkClient implements Watcher, IZkClient {
     }
 
     public Stat writeData(final String path, final byte[] data, final int expectedVersion) {
-        return retryUntilConnected(new Callable<Stat>() {
+        return retryUntilConnected(ZkMetrics.Op.SET, new Callable<Stat>() {
 
             @Override
             public Stat call() throws Exception {
@@ -710,7 +1138,7 @@ public class ZkClient implements Watcher, IZkClient {
     }
 
     public void watchForData(final String path) {
-        retryUntilConnected(new Callable<Object>() {
+        retryUntilConnected(ZkMetrics.Op.EXISTS, new Callable<Object>() {
 
             @Override
             public Object call() throws Exception {
@@ -724,7 +1152,7 @@ public class ZkClient implements Watcher, IZkClient {
         if (_zookeeperEventThread != null && Thread.currentThread() == _zookeeperEventThread) {
             throw new IllegalArgumentException("Must not be done in the zookeeper event thread.");
         }
-        return retryUntilConnected(new Callable<List<String>>() {
+        return retryUntilConnected(ZkMetrics.Op.CHILDREN, new Callable<List<String>>() {
 
             @Override
             public List<String> call() throws Exception {
@@ -746,7 +1174,6 @@ public class ZkClient implements Watcher, IZkClient {
         }
         boolean started = false;
         try {
-            getEventLock().lockInterruptibly();
             setShutdownTrigger(false);
             _eventThread = new ZkEventThread(_connection.getServers());
             _eventThread.start();
@@ -758,12 +1185,7 @@ public class ZkClient implements Watcher, IZkClient {
                         "Unable to connect to zookeeper server[%s] within timeout %dms", _connection.getServers(), maxMsToWaitUntilConnected));
             }
             started = true;
-        } catch (InterruptedException e) {
-            States state = _connection.getZookeeperState();
-            throw new IllegalStateException("Not connected with zookeeper server yet. Current state is " + state);
         } finally {
-            getEventLock().unlock();
-
             // we should close the zookeeper instance, otherwise it would keep
             // on trying to connect
             if (!started) {
@@ -774,14 +1196,11 @@ public class ZkClient implements Watcher, IZkClient {
 
     public long getCreationTime(String path) {
         try {
-            getEventLock().lockInterruptibly();
             return _connection.getCreateTime(path);
         } catch (KeeperException e) {
             throw ZkException.create(e);
         } catch (InterruptedException e) {
             throw new ZkInterruptedException(e);
-        } finally {
-            getEventLock().unlock();
         }
     }
 
@@ -790,31 +1209,39 @@ public class ZkClient implements Watcher, IZkClient {
             return;
         }
         LOG.debug("Closing ZkClient...");
-        getEventLock().lock();
+        _zkEventLock.lock();
         try {
             setShutdownTrigger(true);
-            _currentState = null;
-            _eventThread.interrupt();
+            setCurrentState(null);
+            _eventThread.shutdown();
             _eventThread.join(2000);
             _connection.close();
             _eventThread = null;
+            synchronized (_asyncRetryLock) {
+                if (_asyncRetryExecutor != null) {
+                    for (Runnable pending : _asyncRetryExecutor.shutdownNow()) {
+                        ((AsyncRequest<?>) pending).cancel();
+                    }
+                    _asyncRetryExecutor = null;
+                }
+            }
         } catch (InterruptedException e) {
             throw new ZkInterruptedException(e);
         } finally {
-            getEventLock().unlock();
+            _zkEventLock.unlock();
         }
         LOG.debug("Closing ZkClient...done");
     }
 
     private void reconnect() {
-        getEventLock().lock();
+        _zkEventLock.lock();
         try {
             _connection.close();
             _connection.connect(this);
         } catch (InterruptedException e) {
             throw new ZkInterruptedException(e);
         } finally {
-            getEventLock().unlock();
+            _zkEventLock.unlock();
         }
     }
 
@@ -827,21 +1254,12 @@ public class ZkClient implements Watcher, IZkClient {
     }
 
     public int numberOfListeners() {
-        int listeners = 0;
-        for (Set<IZkChildListener> childListeners : _childListener.values()) {
-            listeners += childListeners.size();
-        }
-        for (Set<IZkDataListener> dataListeners : _dataListener.values()) {
-            listeners += dataListeners.size();
-        }
-        listeners += _stateListener.size();
-
-        return listeners;
+        return _childListener.size() + _dataListener.size() + _stateListener.size();
     }
 
     @Override
     public List<?> multi(final Iterable<?> ops) {
-        return retryUntilConnected(new Callable<List<?>>() {
+        return retryUntilConnected(ZkMetrics.Op.MULTI, new Callable<List<?>>() {
             @Override
             public List<?> call() throws Exception {
                 return _connection.multi(ops);
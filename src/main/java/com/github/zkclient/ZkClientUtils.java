@@ -76,6 +76,15 @@ public class ZkClientUtils {
         }
     }
 
+    /**
+     * @param parent an absolute path, the root is <code>/</code>
+     * @param child  a child node name
+     * @return the absolute path of the child
+     */
+    public static String childPath(String parent, String child) {
+        return parent.endsWith("/") ? parent + child : parent + "/" + child;
+    }
+
     public static String leadingZeros(long number, int numberOfLeadingZeros) {
         return String.format("%0" + numberOfLeadingZeros + "d", number);
     }
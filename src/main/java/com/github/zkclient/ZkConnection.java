@@ -17,12 +17,14 @@ package com.github.zkclient;
 
 import com.github.zkclient.exception.ZkException;
 import com.sung.zk.ui.server.zk.util.ConfUtils;
+import org.apache.zookeeper.AsyncCallback;
 import org.apache.zookeeper.CreateMode;
 import org.apache.zookeeper.KeeperException;
 import org.apache.zookeeper.Watcher;
 import org.apache.zookeeper.ZooDefs.Ids;
 import org.apache.zookeeper.ZooKeeper;
 import org.apache.zookeeper.ZooKeeper.States;
+import org.apache.zookeeper.data.ACL;
 import org.apache.zookeeper.data.Stat;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -39,7 +41,7 @@ public class ZkConnection {
 
     private static final Logger LOG = LoggerFactory.getLogger(ZkConnection.class);
 
-    private ZooKeeper _zk = null;
+    private volatile ZooKeeper _zk = null;
     private final Lock _zookeeperLock = new ReentrantLock();
 
     private final String _servers;
@@ -79,7 +81,9 @@ public class ZkConnection {
                 LOG.debug("Creating new ZookKeeper instance to connect to " + _servers + ".");
                 _zk = new ZooKeeper(_servers, _sessionTimeOut, watcher);
                 Properties props = ConfUtils.getConxtions();
-                _zk.addAuthInfo(props.getProperty("zk.auth.type"), props.getProperty("zk.auth.passwd").getBytes());
+                if (props != null && props.getProperty("zk.auth.type") != null) {
+                    _zk.addAuthInfo(props.getProperty("zk.auth.type"), props.getProperty("zk.auth.passwd", "").getBytes());
+                }
             } catch (IOException e) {
                 throw new ZkException("Unable to connect to " + _servers, e);
             }
@@ -105,6 +109,10 @@ public class ZkConnection {
         return _zk.create(path, data, Ids.OPEN_ACL_UNSAFE, mode);
     }
 
+    public String create(String path, byte[] data, List<ACL> acl, CreateMode mode) throws KeeperException, InterruptedException {
+        return _zk.create(path, data, acl, mode);
+    }
+
     public void delete(String path) throws InterruptedException, KeeperException {
         _zk.delete(path, -1);
     }
@@ -121,14 +129,55 @@ public class ZkConnection {
         return _zk.getData(path, watch, stat);
     }
 
+    public void readDataAsync(String path, boolean watch, AsyncCallback.DataCallback cb) throws KeeperException {
+        connected().getData(path, watch, cb, null);
+    }
+
+    public void readDataAsync(String path, Watcher watcher, AsyncCallback.DataCallback cb) throws KeeperException {
+        connected().getData(path, watcher, cb, null);
+    }
+
+    public void getChildrenAsync(String path, boolean watch, AsyncCallback.Children2Callback cb) throws KeeperException {
+        connected().getChildren(path, watch, cb, null);
+    }
+
+    public void getChildrenAsync(String path, Watcher watcher, AsyncCallback.Children2Callback cb) throws KeeperException {
+        connected().getChildren(path, watcher, cb, null);
+    }
+
+    public void existsAsync(String path, boolean watch, AsyncCallback.StatCallback cb) throws KeeperException {
+        connected().exists(path, watch, cb, null);
+    }
+
+    public void existsAsync(String path, Watcher watcher, AsyncCallback.StatCallback cb) throws KeeperException {
+        connected().exists(path, watcher, cb, null);
+    }
+
+    public void getAclAsync(String path, AsyncCallback.ACLCallback cb) throws KeeperException {
+        connected().getACL(path, new Stat(), cb, null);
+    }
+
+    private ZooKeeper connected() throws KeeperException {
+        ZooKeeper zk = _zk;
+        if (zk == null) {
+            // closed or in the middle of a reconnect
+            throw new KeeperException.ConnectionLossException();
+        }
+        return zk;
+    }
+
     /**
      * wrapper for 3.3.x/3.4.x
+     * <p>
+     * The ops are untyped and the method is looked up reflectively, so this class and {@link ZkClient} still
+     * load against zookeeper 3.3, which has no <code>Op</code>. Code that builds ops links against 3.4+ and
+     * therefore lives in its own classes, which are only loaded once such an operation is used.
+     * </p>
      *
      * @param ops multi operations
      * @return OpResult list
      */
-    @SuppressWarnings("unchecked")
-    public List<?> multi(Iterable<?> ops) {
+    public List<?> multi(Iterable<?> ops) throws KeeperException, InterruptedException {
         if (method == null) throw new UnsupportedOperationException("multi operation must use zookeeper 3.4+");
         try {
             return (List<?>) method.invoke(_zk, ops);
@@ -137,7 +186,15 @@ public class ZkConnection {
         } catch (IllegalAccessException e) {
             throw new UnsupportedOperationException(e);
         } catch (InvocationTargetException e) {
-            throw new RuntimeException(e);
+            // unwrap so that connection loss is retried like any other operation
+            Throwable cause = e.getCause();
+            if (cause instanceof KeeperException) {
+                throw (KeeperException) cause;
+            }
+            if (cause instanceof InterruptedException) {
+                throw (InterruptedException) cause;
+            }
+            throw new RuntimeException(cause);
         }
     }
 
@@ -0,0 +1,82 @@
+/**
+ * Copyright 2010 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.zkclient;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.Op;
+import org.apache.zookeeper.ZooDefs.Ids;
+import org.apache.zookeeper.data.Stat;
+
+import com.github.zkclient.exception.ZkNoNodeException;
+import com.github.zkclient.exception.ZkNodeExistsException;
+
+/**
+ * Creates a node together with its missing parents: one pipelined <code>exists</code> pass finds the deepest
+ * existing ancestor, then the missing parents and the node are created in a single
+ * {@link IZkClient#multi(Iterable) multi} transaction.
+ */
+class ZkCreateWithParents {
+
+    /**
+     * attempts when a parent is created or deleted concurrently between the exists pass and the transaction
+     */
+    private static final int MAX_ATTEMPTS = 5;
+
+    static void create(IZkClient client, String path, byte[] data) {
+        List<String> ancestors = new ArrayList<String>();
+        for (int i = path.indexOf('/', 1); i > 0; i = path.indexOf('/', i + 1)) {
+            ancestors.add(path.substring(0, i));
+        }
+        for (int attempt = 1; ; attempt++) {
+            List<ZkFuture<Stat>> stats = new ArrayList<ZkFuture<Stat>>(ancestors.size());
+            for (String ancestor : ancestors) {
+                stats.add(client.existsAsync(ancestor));
+            }
+            // a node can not exist without its parent, so every ancestor after the first missing one is missing too
+            int firstMissing = ancestors.size();
+            for (int i = stats.size() - 1; i >= 0; i--) {
+                if (stats.get(i).join() != null) {
+                    break;
+                }
+                firstMissing = i;
+            }
+            try {
+                if (firstMissing == ancestors.size()) {
+                    client.create(path, data, CreateMode.PERSISTENT);
+                    return;
+                }
+                List<Op> ops = new ArrayList<Op>(ancestors.size() - firstMissing + 1);
+                for (int i = firstMissing; i < ancestors.size(); i++) {
+                    ops.add(Op.create(ancestors.get(i), null, Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT));
+                }
+                ops.add(Op.create(path, data, Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT));
+                client.multi(ops);
+                return;
+            } catch (ZkNodeExistsException e) {
+                if (attempt >= MAX_ATTEMPTS || client.exists(path)) {
+                    throw e;
+                }
+            } catch (ZkNoNodeException e) {
+                if (attempt >= MAX_ATTEMPTS) {
+                    throw e;
+                }
+            }
+        }
+    }
+}
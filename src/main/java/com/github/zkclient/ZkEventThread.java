@@ -15,9 +15,14 @@
  */
 package com.github.zkclient;
 
+import java.util.Collections;
+import java.util.Set;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 
 import com.github.zkclient.exception.ZkInterruptedException;
@@ -25,30 +30,79 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * All listeners registered at the {@link ZkClient} will be notified from this event thread.
+ * All listeners registered at the {@link ZkClient} will be notified from these event threads.
  * This is to prevent dead-lock situations. The {@link ZkClient} pulls some information out of
- * the {@link org.apache.zookeeper.ZooKeeper} events to signal {@link ZkLock} conditions. Re-using the
+ * the {@link org.apache.zookeeper.ZooKeeper} events to wake threads waiting for a state or znode change. Re-using the
  * {@link org.apache.zookeeper.ZooKeeper} event thread to also notify {@link ZkClient} listeners, would stop the
  * ZkClient from receiving events from {@link org.apache.zookeeper.ZooKeeper} as soon as one of the listeners blocks
  * (because it is waiting for something). {@link ZkClient} would then for instance not be able
  * to maintain it's connection state anymore.
+ * <p>
+ * Events are striped over several worker threads by the hash of their key (the znode path), so events
+ * for one path are delivered in order while a slow listener only stalls the paths of its own stripe.
+ * Events without a key (state changes) always go to the first stripe.
+ * </p>
+ * <p>
+ * Every stripe has a bounded queue, and a full queue blocks the sender until the stripe has room; no
+ * event is ever discarded. Listener events re-arm the watch of their path when they run, so a dropped
+ * one would silence that path for good, and state events must reach every listener. The sender is the
+ * zookeeper event thread, so a full queue is backpressure on zookeeper notifications, which only
+ * happens when a stripe watches more paths than its queue holds, as coalescing keeps at most one queued
+ * event per path and type.
+ * </p>
+ * <p>
+ * An event with a coalesce key is dropped while another event with an equal key is still queued: listener
+ * events read the current state of the znode when they are delivered, so the queued one already reports the
+ * latest state. This keeps the queues bounded by the number of watched paths under write storms.
+ * </p>
+ * <p>
+ * Defaults can be changed with the system properties {@value #WORKERS_PROPERTY} and
+ * {@value #QUEUE_SIZE_PROPERTY}.
+ * </p>
  */
-class ZkEventThread extends Thread {
+class ZkEventThread {
 
     private static final Logger LOG = LoggerFactory.getLogger(ZkEventThread.class);
 
-    private final BlockingQueue<ZkEvent> _events = new LinkedBlockingQueue<ZkEvent>();
+    static final String WORKERS_PROPERTY = "zkclient.event.workers";
+
+    static final String QUEUE_SIZE_PROPERTY = "zkclient.event.queueSize";
+
+    static final int DEFAULT_WORKERS = 4;
+
+    static final int DEFAULT_QUEUE_SIZE = 10000;
 
     private static final AtomicInteger _eventId = new AtomicInteger(0);
 
+    private final Worker[] _workers;
+
+    private final AtomicLong _blocked = new AtomicLong();
+
+    private final AtomicLong _coalesced = new AtomicLong();
+
     private volatile boolean shutdown = false;
 
     static abstract class ZkEvent {
 
         private final String _description;
 
+        private final String _key;
+
+        private final Object _coalesceKey;
+
         public ZkEvent(String description) {
+            this(description, null, null);
+        }
+
+        /**
+         * @param description the description for logging
+         * @param key         events with the same key are delivered in order by the same thread
+         * @param coalesceKey events with an equal coalesce key are merged while queued, null for never
+         */
+        public ZkEvent(String description, String key, Object coalesceKey) {
             _description = description;
+            _key = key;
+            _coalesceKey = coalesceKey;
         }
 
         public abstract void run() throws Exception;
@@ -60,31 +114,23 @@ class ZkEventThread extends Thread {
     }
 
     ZkEventThread(String name) {
-        setDaemon(true);
-        setName("ZkClient-EventThread-" + getId() + "-" + name);
+        this(name, Integer.getInteger(WORKERS_PROPERTY, DEFAULT_WORKERS),
+                Integer.getInteger(QUEUE_SIZE_PROPERTY, DEFAULT_QUEUE_SIZE));
     }
 
-    @Override
-    public void run() {
-        LOG.info("Starting ZkClient event thread.");
-        try {
-            while (!isShutdown()) {
-                ZkEvent zkEvent = _events.take();
-                int eventId = _eventId.incrementAndGet();
-                LOG.debug("Delivering event #" + eventId + " " + zkEvent);
-                try {
-                    zkEvent.run();
-                } catch (InterruptedException e) {
-                    shutdown();
-                } catch (ZkInterruptedException e) {
-                    shutdown();
-                } catch (Throwable e) {
-                    LOG.error("Error handling event " + zkEvent, e);
-                }
-                LOG.debug("Delivering event #" + eventId + " done");
-            }
-        } catch (InterruptedException e) {
-            LOG.info("Terminate ZkClient event thread.");
+    ZkEventThread(String name, int workers, int queueSize) {
+        if (workers < 1 || queueSize < 1) {
+            throw new IllegalArgumentException("workers and queueSize must be positive");
+        }
+        _workers = new Worker[workers];
+        for (int i = 0; i < workers; i++) {
+            _workers[i] = new Worker(name, i, queueSize);
+        }
+    }
+
+    public void start() {
+        for (Worker worker : _workers) {
+            worker.start();
         }
     }
 
@@ -92,18 +138,135 @@ class ZkEventThread extends Thread {
      * @return the shutdown
      */
     public boolean isShutdown() {
-        return shutdown || isInterrupted();
+        return shutdown;
     }
 
     public void shutdown() {
         this.shutdown = true;
-        this.interrupt();
+        for (Worker worker : _workers) {
+            worker.interrupt();
+        }
+    }
+
+    /**
+     * wait for all workers to terminate, the calling worker itself is skipped
+     *
+     * @param millis max time to wait for all workers together
+     */
+    public void join(long millis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + millis;
+        for (Worker worker : _workers) {
+            long left = deadline - System.currentTimeMillis();
+            if (left <= 0) {
+                return;
+            }
+            if (worker != Thread.currentThread()) {
+                worker.join(left);
+            }
+        }
+    }
+
+    /**
+     * @return number of events which had to wait because the queue of their stripe was full
+     */
+    public long getBlockedCount() {
+        return _blocked.get();
+    }
+
+    /**
+     * @return number of events dropped because an equal event was still queued
+     */
+    public long getCoalescedCount() {
+        return _coalesced.get();
     }
 
     public void send(ZkEvent event) {
-        if (!isShutdown()) {
-            LOG.debug("New event: " + event);
-            _events.add(event);
+        if (isShutdown()) {
+            return;
+        }
+        Worker stripe = stripeOf(event);
+        if (event._coalesceKey != null && !stripe._pending.add(event._coalesceKey)) {
+            _coalesced.incrementAndGet();
+            LOG.debug("Coalesced event: " + event);
+            return;
+        }
+        LOG.debug("New event: " + event);
+        if (!stripe._events.offer(event)) {
+            put(stripe, event);
+        }
+    }
+
+    /**
+     * wait until the stripe has room for the event
+     */
+    private void put(Worker stripe, ZkEvent event) {
+        _blocked.incrementAndGet();
+        LOG.warn("Event queue full, waiting to enqueue " + event);
+        try {
+            while (!stripe._events.offer(event, 1, TimeUnit.SECONDS)) {
+                if (isShutdown()) {
+                    stripe.dequeued(event);
+                    return;
+                }
+            }
+        } catch (InterruptedException e) {
+            stripe.dequeued(event);
+            throw new ZkInterruptedException(e);
+        }
+    }
+
+    private Worker stripeOf(ZkEvent event) {
+        if (event._key == null || _workers.length == 1) {
+            return _workers[0];
+        }
+        return _workers[(event._key.hashCode() & Integer.MAX_VALUE) % _workers.length];
+    }
+
+    private class Worker extends Thread {
+
+        private final BlockingQueue<ZkEvent> _events;
+
+        /**
+         * coalesce keys of the queued events
+         */
+        private final Set<Object> _pending = Collections.newSetFromMap(new ConcurrentHashMap<Object, Boolean>());
+
+        Worker(String name, int index, int queueSize) {
+            _events = new LinkedBlockingQueue<ZkEvent>(queueSize);
+            setDaemon(true);
+            setName("ZkClient-EventThread-" + getId() + "-" + index + "-" + name);
+        }
+
+        @Override
+        public void run() {
+            LOG.info("Starting ZkClient event thread.");
+            try {
+                while (!isShutdown() && !isInterrupted()) {
+                    ZkEvent zkEvent = _events.take();
+                    // from now on a new change must be queued again, this event may already have read the old state
+                    dequeued(zkEvent);
+                    int eventId = _eventId.incrementAndGet();
+                    LOG.debug("Delivering event #" + eventId + " " + zkEvent);
+                    try {
+                        zkEvent.run();
+                    } catch (InterruptedException e) {
+                        shutdown();
+                    } catch (ZkInterruptedException e) {
+                        shutdown();
+                    } catch (Throwable e) {
+                        LOG.error("Error handling event " + zkEvent, e);
+                    }
+                    LOG.debug("Delivering event #" + eventId + " done");
+                }
+            } catch (InterruptedException e) {
+                LOG.info("Terminate ZkClient event thread.");
+            }
+        }
+
+        void dequeued(ZkEvent event) {
+            if (event._coalesceKey != null) {
+                _pending.remove(event._coalesceKey);
+            }
         }
     }
 }
@@ -0,0 +1,172 @@
+/**
+ * Copyright 2010 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.zkclient;
+
+import com.github.zkclient.exception.ZkInterruptedException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * The pending result of an asynchronous {@link IZkClient} operation.
+ * <p>
+ * Listeners registered by {@link #addListener(Runnable)} are invoked by the thread completing the
+ * future, which is usually the zookeeper event thread. They must not block and must not call any
+ * synchronous {@link IZkClient} method.
+ * </p>
+ *
+ * @param <T> the result type
+ */
+public class ZkFuture<T> implements Future<T> {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ZkFuture.class);
+
+    private final CountDownLatch _done = new CountDownLatch(1);
+
+    private List<Runnable> _listeners = new ArrayList<Runnable>(1);
+
+    private T _value;
+
+    private RuntimeException _error;
+
+    /**
+     * complete the future with a value
+     *
+     * @param value the result
+     * @return false if the future was already completed
+     */
+    public boolean set(T value) {
+        return complete(value, null);
+    }
+
+    /**
+     * complete the future with an error
+     *
+     * @param error the failure, usually a {@link com.github.zkclient.exception.ZkException}
+     * @return false if the future was already completed
+     */
+    public boolean setException(RuntimeException error) {
+        return complete(null, error);
+    }
+
+    private boolean complete(T value, RuntimeException error) {
+        List<Runnable> listeners;
+        synchronized (this) {
+            if (_listeners == null) {
+                return false;
+            }
+            _value = value;
+            _error = error;
+            listeners = _listeners;
+            _listeners = null;
+        }
+        _done.countDown();
+        for (Runnable listener : listeners) {
+            fire(listener);
+        }
+        return true;
+    }
+
+    /**
+     * run the listener once the future completes, or at once if it is already done
+     *
+     * @param listener the listener
+     */
+    public void addListener(Runnable listener) {
+        synchronized (this) {
+            if (_listeners != null) {
+                _listeners.add(listener);
+                return;
+            }
+        }
+        fire(listener);
+    }
+
+    private static void fire(Runnable listener) {
+        try {
+            listener.run();
+        } catch (RuntimeException e) {
+            LOG.error("Error notifying future listener " + listener, e);
+        }
+    }
+
+    /**
+     * wait for the result and rethrow the original failure
+     *
+     * @return the result
+     * @throws ZkInterruptedException if interrupted while waiting
+     * @throws RuntimeException       the failure of the operation
+     */
+    public T join() {
+        try {
+            _done.await();
+        } catch (InterruptedException e) {
+            throw new ZkInterruptedException(e);
+        }
+        if (_error != null) {
+            throw _error;
+        }
+        return _value;
+    }
+
+    /**
+     * zookeeper requests can not be revoked once sent
+     *
+     * @return always false
+     */
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        return false;
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return false;
+    }
+
+    @Override
+    public boolean isDone() {
+        return _done.getCount() == 0;
+    }
+
+    @Override
+    public T get() throws InterruptedException, ExecutionException {
+        _done.await();
+        return result();
+    }
+
+    @Override
+    public T get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+        if (!_done.await(timeout, unit)) {
+            throw new TimeoutException();
+        }
+        return result();
+    }
+
+    private T result() throws ExecutionException {
+        if (_error != null) {
+            throw new ExecutionException(_error);
+        }
+        return _value;
+    }
+}
@@ -0,0 +1,129 @@
+/**
+ * Copyright 2010 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.zkclient;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Listeners by path with reference counts.
+ * <p>
+ * A listener subscribed to the same path more than once is registered once, so it is notified once per event,
+ * and stays registered until every subscription was released; callers sharing a listener cannot unsubscribe
+ * each other. A path is removed as soon as its last listener is, so the registry only grows with the paths
+ * actually watched. Readers get an immutable snapshot and never lock or copy while events are fired.
+ * </p>
+ */
+class ZkListenerRegistry<T> {
+
+    private final Map<String, Entry<T>> _entries = new ConcurrentHashMap<String, Entry<T>>();
+
+    private int _size;
+
+    /**
+     * @return true if the path had no listener before, i.e. no watch is armed for it yet
+     */
+    synchronized boolean add(String path, T listener) {
+        Entry<T> entry = _entries.get(path);
+        boolean first = entry == null;
+        if (first) {
+            entry = new Entry<T>();
+            _entries.put(path, entry);
+        }
+        Integer refs = entry._refs.get(listener);
+        if (refs == null) {
+            entry._refs.put(listener, 1);
+            entry.publish();
+            _size++;
+        } else {
+            entry._refs.put(listener, refs + 1);
+        }
+        return first;
+    }
+
+    /**
+     * release one subscription of the listener
+     *
+     * @return true if that was the last one and the listener is not registered for the path anymore
+     */
+    synchronized boolean remove(String path, T listener) {
+        Entry<T> entry = _entries.get(path);
+        Integer refs = entry == null ? null : entry._refs.get(listener);
+        if (refs == null) {
+            return false;
+        }
+        if (refs > 1) {
+            entry._refs.put(listener, refs - 1);
+            return false;
+        }
+        entry._refs.remove(listener);
+        _size--;
+        if (entry._refs.isEmpty()) {
+            _entries.remove(path);
+        } else {
+            entry.publish();
+        }
+        return true;
+    }
+
+    /**
+     * @return the listeners of the path, an empty set if there are none
+     */
+    Set<T> get(String path) {
+        Entry<T> entry = _entries.get(path);
+        return entry == null ? Collections.<T>emptySet() : entry._snapshot;
+    }
+
+    boolean has(String path) {
+        return _entries.containsKey(path);
+    }
+
+    /**
+     * @return a view of the paths having listeners
+     */
+    Set<String> paths() {
+        return Collections.unmodifiableSet(_entries.keySet());
+    }
+
+    /**
+     * @return number of distinct (path, listener) registrations
+     */
+    synchronized int size() {
+        return _size;
+    }
+
+    synchronized void clear() {
+        _entries.clear();
+        _size = 0;
+    }
+
+    private static class Entry<T> {
+        /**
+         * guarded by the registry
+         */
+        final Map<T, Integer> _refs = new LinkedHashMap<T, Integer>();
+
+        volatile Set<T> _snapshot = Collections.emptySet();
+
+        void publish() {
+            _snapshot = Collections.unmodifiableSet(new LinkedHashSet<T>(_refs.keySet()));
+        }
+    }
+}
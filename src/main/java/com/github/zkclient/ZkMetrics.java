@@ -0,0 +1,218 @@
+/**
+ * Copyright 2010 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.zkclient;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Request counters and latency histograms of one or more {@link ZkClient} instances.
+ * <p>
+ * All counters only grow and are updated without locks, so one instance can be shared by every client
+ * of a cluster. The latency of a request is measured from the first attempt until it completes,
+ * including the time spent waiting for a reconnection.
+ * </p>
+ */
+public class ZkMetrics {
+
+    /**
+     * Request types
+     */
+    public enum Op {
+        READ, CHILDREN, EXISTS, CREATE, SET, DELETE, MULTI, OTHER;
+
+        private final String _label = name().toLowerCase();
+
+        public String label() {
+            return _label;
+        }
+    }
+
+    /**
+     * Reasons for waiting until the client is connected again
+     */
+    public enum Wait {
+        CONNECTION_LOSS, SESSION_EXPIRED;
+
+        private final String _label = name().toLowerCase();
+
+        public String label() {
+            return _label;
+        }
+    }
+
+    /**
+     * Upper bounds of the latency buckets in microseconds, the last bucket is unbounded
+     */
+    private static final long[] BUCKET_BOUNDS = {
+            100, 250, 500,
+            1000, 2500, 5000,
+            10000, 25000, 50000,
+            100000, 250000, 500000,
+            1000000, 2500000, 5000000, 10000000};
+
+    private final Map<Op, OpStats> _ops = new EnumMap<Op, OpStats>(Op.class);
+
+    private final Map<Wait, AtomicLong[]> _waits = new EnumMap<Wait, AtomicLong[]>(Wait.class);
+
+    public ZkMetrics() {
+        for (Op op : Op.values()) {
+            _ops.put(op, new OpStats());
+        }
+        for (Wait wait : Wait.values()) {
+            _waits.put(wait, new AtomicLong[]{new AtomicLong(), new AtomicLong()});
+        }
+    }
+
+    /**
+     * record a completed request
+     *
+     * @param op    the request type
+     * @param nanos the latency in nanoseconds
+     * @param error true if the request failed
+     */
+    public void record(Op op, long nanos, boolean error) {
+        OpStats stats = _ops.get(op);
+        stats.count.incrementAndGet();
+        if (error) {
+            stats.errors.incrementAndGet();
+        }
+        stats.nanos.addAndGet(nanos);
+        stats.buckets.incrementAndGet(bucketOf(TimeUnit.NANOSECONDS.toMicros(nanos)));
+    }
+
+    /**
+     * record that a request is sent again after a reconnection
+     *
+     * @param op the request type
+     */
+    public void recordRetry(Op op) {
+        _ops.get(op).retries.incrementAndGet();
+    }
+
+    /**
+     * record the time spent waiting for a reconnection
+     *
+     * @param wait  the reason
+     * @param nanos the waiting time in nanoseconds
+     */
+    public void recordWait(Wait wait, long nanos) {
+        AtomicLong[] counters = _waits.get(wait);
+        counters[0].incrementAndGet();
+        counters[1].addAndGet(nanos);
+    }
+
+    private static int bucketOf(long micros) {
+        for (int i = 0; i < BUCKET_BOUNDS.length; i++) {
+            if (micros <= BUCKET_BOUNDS[i]) {
+                return i;
+            }
+        }
+        return BUCKET_BOUNDS.length;
+    }
+
+    public long getCount(Op op) {
+        return _ops.get(op).count.get();
+    }
+
+    public long getErrors(Op op) {
+        return _ops.get(op).errors.get();
+    }
+
+    public long getRetries(Op op) {
+        return _ops.get(op).retries.get();
+    }
+
+    /**
+     * @param op the request type
+     * @return the summed latency of all requests in nanoseconds
+     */
+    public long getTotalNanos(Op op) {
+        return _ops.get(op).nanos.get();
+    }
+
+    /**
+     * @return the upper bounds of the latency buckets in microseconds, without the unbounded last bucket
+     */
+    public static long[] getBucketBounds() {
+        return BUCKET_BOUNDS.clone();
+    }
+
+    /**
+     * @param op the request type
+     * @return the number of requests per latency bucket (not cumulative), one more than {@link #getBucketBounds()}
+     */
+    public long[] getBucketCounts(Op op) {
+        AtomicLongArray buckets = _ops.get(op).buckets;
+        long[] counts = new long[buckets.length()];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = buckets.get(i);
+        }
+        return counts;
+    }
+
+    /**
+     * estimate a latency quantile from the histogram
+     *
+     * @param op       the request type
+     * @param quantile the quantile, e.g. 0.99
+     * @return the upper bound of the bucket holding the quantile in microseconds, -1 if no request was
+     * recorded, {@link Long#MAX_VALUE} if it falls into the unbounded bucket
+     */
+    public long getQuantileMicros(Op op, double quantile) {
+        long[] counts = getBucketCounts(op);
+        long total = 0;
+        for (long count : counts) {
+            total += count;
+        }
+        if (total == 0) {
+            return -1;
+        }
+        long rank = (long) Math.ceil(quantile * total);
+        long seen = 0;
+        for (int i = 0; i < BUCKET_BOUNDS.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return BUCKET_BOUNDS[i];
+            }
+        }
+        return Long.MAX_VALUE;
+    }
+
+    public long getWaitCount(Wait wait) {
+        return _waits.get(wait)[0].get();
+    }
+
+    public long getWaitNanos(Wait wait) {
+        return _waits.get(wait)[1].get();
+    }
+
+    private static class OpStats {
+
+        final AtomicLong count = new AtomicLong();
+
+        final AtomicLong errors = new AtomicLong();
+
+        final AtomicLong retries = new AtomicLong();
+
+        final AtomicLong nanos = new AtomicLong();
+
+        final AtomicLongArray buckets = new AtomicLongArray(BUCKET_BOUNDS.length + 1);
+    }
+}
@@ -0,0 +1,134 @@
+/**
+ * Copyright 2010 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.zkclient;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.Op;
+import org.apache.zookeeper.data.Stat;
+
+import com.github.zkclient.IZkClient.ProgressListener;
+import com.github.zkclient.exception.ZkException;
+import com.github.zkclient.exception.ZkNoNodeException;
+
+/**
+ * Deletes a subtree with few, large transactions: the paths are collected with a pipelined
+ * {@link IZkClient#walk(String, IZkTreeVisitor, int, int) walk} and deleted deepest first in
+ * {@link IZkClient#multi(Iterable) multi} batches which stay below the jute buffer limit.
+ */
+class ZkRecursiveDelete {
+
+    static final int MAX_IN_FLIGHT = 256;
+
+    static final int MAX_BATCH_OPS = 1000;
+
+    /**
+     * serialized size of a delete op besides its path: op header, version and length prefixes
+     */
+    private static final int OP_OVERHEAD = 32;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final IZkClient _client;
+
+    private final ProgressListener _listener;
+
+    private final int _maxBatchBytes;
+
+    private int _deleted;
+
+    private int _total;
+
+    ZkRecursiveDelete(IZkClient client, ProgressListener listener) {
+        _client = client;
+        _listener = listener;
+        // half of the server's request limit leaves room for the multi header and the client's own framing
+        _maxBatchBytes = Integer.getInteger("jute.maxbuffer", 0xfffff) / 2;
+    }
+
+    /**
+     * @return true if the whole subtree is gone, false if deleting stopped because a node was created meanwhile
+     */
+    boolean delete(String root) {
+        final List<String> paths = new ArrayList<String>();
+        _client.walk(root, new IZkTreeVisitor() {
+
+            @Override
+            public boolean visit(String path, int depth, Stat stat, byte[] data, List<String> children) {
+                paths.add(path);
+                return true;
+            }
+        }, MAX_IN_FLIGHT, -1);
+        _total = paths.size();
+        // breadth-first order reversed: every node comes after all of its descendants
+        List<String> batch = new ArrayList<String>();
+        int batchBytes = 0;
+        for (int i = paths.size() - 1; i >= 0; i--) {
+            String path = paths.get(i);
+            paths.set(i, null);
+            int size = path.getBytes(UTF_8).length + OP_OVERHEAD;
+            if (!batch.isEmpty() && (batch.size() >= MAX_BATCH_OPS || batchBytes + size > _maxBatchBytes)) {
+                if (!flush(batch)) {
+                    return false;
+                }
+                batch.clear();
+                batchBytes = 0;
+            }
+            batch.add(path);
+            batchBytes += size;
+        }
+        return batch.isEmpty() || flush(batch);
+    }
+
+    private boolean flush(List<String> batch) {
+        List<Op> ops = new ArrayList<Op>(batch.size());
+        for (String path : batch) {
+            ops.add(Op.delete(path, -1));
+        }
+        try {
+            _client.multi(ops);
+        } catch (ZkNoNodeException e) {
+            // somebody else deleted part of the batch, which rolled back the whole transaction
+            for (String path : batch) {
+                try {
+                    _client.delete(path);
+                } catch (ZkException ex) {
+                    if (isNotEmpty(ex)) {
+                        return false;
+                    }
+                    throw ex;
+                }
+            }
+        } catch (ZkException e) {
+            if (isNotEmpty(e)) {
+                return false;
+            }
+            throw e;
+        }
+        _deleted += batch.size();
+        if (_listener != null) {
+            _listener.onProgress(_deleted, _total);
+        }
+        return true;
+    }
+
+    private static boolean isNotEmpty(ZkException e) {
+        return e.getCause() instanceof KeeperException.NotEmptyException;
+    }
+}
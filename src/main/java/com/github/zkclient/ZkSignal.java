@@ -0,0 +1,85 @@
+/**
+ * Copyright 2010 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.zkclient;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A lock-free condition: a generation counter plus a queue of parked waiters.
+ * <p>
+ * A waiter reads {@link #generation()} before it checks its predicate and then calls
+ * {@link #await(long, long)} with that generation, so a signal between the check and parking is never lost.
+ * {@link #signalAll()} never blocks, it is safe to call from the zookeeper event thread.
+ * </p>
+ */
+class ZkSignal {
+
+    private final AtomicLong _generation = new AtomicLong();
+
+    private final Queue<Thread> _waiters = new ConcurrentLinkedQueue<Thread>();
+
+    long generation() {
+        return _generation.get();
+    }
+
+    void signalAll() {
+        _generation.incrementAndGet();
+        for (Thread waiter : _waiters) {
+            LockSupport.unpark(waiter);
+        }
+    }
+
+    /**
+     * wait until signaled after the given generation or until the deadline passed
+     *
+     * @param generation the generation read before checking the predicate
+     * @param deadline   the deadline in {@link System#nanoTime()} units, see {@link #deadline(long)}
+     * @return false if the deadline passed without a signal
+     * @throws InterruptedException if interrupted while waiting
+     */
+    boolean await(long generation, long deadline) throws InterruptedException {
+        Thread current = Thread.currentThread();
+        _waiters.add(current);
+        try {
+            while (_generation.get() == generation) {
+                long left = deadline - System.nanoTime();
+                if (left <= 0) {
+                    return false;
+                }
+                LockSupport.parkNanos(this, left);
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+            }
+            return true;
+        } finally {
+            _waiters.remove(current);
+        }
+    }
+
+    /**
+     * @param timeoutNanos the timeout, may be huge
+     * @return the deadline for {@link #await(long, long)}
+     */
+    static long deadline(long timeoutNanos) {
+        long now = System.nanoTime();
+        long deadline = now + timeoutNanos;
+        return deadline < now ? now + Long.MAX_VALUE / 2 : deadline;
+    }
+}
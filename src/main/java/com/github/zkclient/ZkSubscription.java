@@ -0,0 +1,54 @@
+/**
+ * Copyright 2010 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.zkclient;
+
+import java.io.Closeable;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * One subscription of a listener to a path. Closing it releases exactly this subscription, closing it
+ * again is a no-op.
+ *
+ * @see IZkClient#watchChildren(String, IZkChildListener)
+ * @see IZkClient#watchData(String, IZkDataListener)
+ */
+public abstract class ZkSubscription implements Closeable {
+
+    private final String _path;
+
+    private final AtomicBoolean _closed = new AtomicBoolean(false);
+
+    ZkSubscription(String path) {
+        _path = path;
+    }
+
+    public String getPath() {
+        return _path;
+    }
+
+    public boolean isClosed() {
+        return _closed.get();
+    }
+
+    @Override
+    public void close() {
+        if (_closed.compareAndSet(false, true)) {
+            unsubscribe();
+        }
+    }
+
+    abstract void unsubscribe();
+}
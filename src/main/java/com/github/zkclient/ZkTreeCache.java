@@ -0,0 +1,775 @@
+/**
+ * Copyright 2010 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.zkclient;
+
+import java.io.Closeable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.Watcher.Event.EventType;
+import org.apache.zookeeper.Watcher.Event.KeeperState;
+import org.apache.zookeeper.data.Stat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.zkclient.exception.ZkException;
+import com.github.zkclient.exception.ZkInterruptedException;
+import com.github.zkclient.exception.ZkNoNodeException;
+
+/**
+ * In-memory mirror of a subtree: data, {@link Stat} and children of every node below a root, kept up to
+ * date by one-shot watches on each node.
+ * <p>
+ * The initial load and every refresh use the asynchronous reads of {@link ZkClient}, and every read
+ * leaves a raw {@link Watcher} of the cache instead of going through the {@link IZkDataListener} and
+ * {@link IZkChildListener} fan-out, which would read the node once more for the listener before the
+ * cache reads it with its Stat. A change therefore costs exactly one read, which also sets the next
+ * watch. Results are applied only if their Stat is not older than the cached one, so a late response
+ * never overwrites a newer state. At most {@link #MAX_IN_FLIGHT} reads are outstanding, the rest are
+ * queued.
+ * </p>
+ * <p>
+ * Watches do not survive an expired session, so every cached node is read again on a new session.
+ * Zookeeper 3.4 cannot remove watches, after {@link #close()} the remaining ones fire once and are
+ * ignored.
+ * </p>
+ * <p>
+ * Reads never touch zookeeper. A path is {@link #covers(String) covered} once the initial load is
+ * done, as long as it lies below the root and is not being (re)loaded; a covered path without a
+ * cached node does not exist.
+ * </p>
+ * <p>
+ * {@link ChangeListener}s see every node as it is loaded, changed or removed, in the order the cache
+ * applies the changes.
+ * </p>
+ */
+public class ZkTreeCache implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ZkTreeCache.class);
+
+    static final int MAX_IN_FLIGHT = 256;
+
+    private final ZkClient _client;
+
+    private final String _root;
+
+    private final ConcurrentMap<String, Node> _nodes = new ConcurrentHashMap<String, Node>();
+
+    private final Watcher _dataWatcher = new DataWatcher();
+
+    private final Watcher _childWatcher = new ChildWatcher();
+
+    private final IZkStateListener _sessionListener = new SessionListener();
+
+    private final List<ChangeListener> _changeListeners = new CopyOnWriteArrayList<ChangeListener>();
+
+    private final CountDownLatch _initialized = new CountDownLatch(1);
+
+    private final Deque<Read> _queue = new ArrayDeque<Read>();
+
+    private int _inFlight;
+
+    private volatile boolean _closed;
+
+    private long _startNanos;
+
+    private volatile long _initNanos = -1;
+
+    private final AtomicLong _hits = new AtomicLong();
+
+    private final AtomicLong _misses = new AtomicLong();
+
+    private final AtomicLong _updates = new AtomicLong();
+
+    private final AtomicLong _dataBytes = new AtomicLong();
+
+    private final AtomicLong _lagCount = new AtomicLong();
+
+    private final AtomicLong _lagNanos = new AtomicLong();
+
+    private volatile long _maxLagNanos;
+
+    public ZkTreeCache(ZkClient client, String root) {
+        if (root == null || !root.startsWith("/") || (root.length() > 1 && root.endsWith("/"))) {
+            throw new IllegalArgumentException("invalid root path: " + root);
+        }
+        _client = client;
+        _root = root;
+    }
+
+    /**
+     * start loading the subtree in the background
+     */
+    public void start() {
+        synchronized (this) {
+            _startNanos = System.nanoTime();
+            _nodes.put(_root, new Node(_root));
+            // hold a slot until both reads of the root are sent, or the first to complete would end the load
+            _inFlight++;
+        }
+        _client.subscribeStateChanges(_sessionListener);
+        load(_root, 0);
+        Read next = completed();
+        if (next != null) {
+            send(next);
+        }
+    }
+
+    /**
+     * @return true once the initial load finished, false if the timeout elapsed first
+     */
+    public boolean awaitInitialized(long time, TimeUnit unit) {
+        try {
+            return _initialized.await(time, unit);
+        } catch (InterruptedException e) {
+            throw new ZkInterruptedException(e);
+        }
+    }
+
+    public boolean isInitialized() {
+        return _initialized.getCount() == 0;
+    }
+
+    public String getRoot() {
+        return _root;
+    }
+
+    /**
+     * check whether reads of the path can be answered from memory; the outcome is counted as hit or miss
+     *
+     * @param path the path
+     * @return true if {@link #get(String)} reflects the current state of the path
+     */
+    public boolean covers(String path) {
+        boolean covered = !_closed && isInitialized() && isBelowRoot(path);
+        if (covered) {
+            Node node = _nodes.get(path);
+            covered = node == null || node.isLoaded();
+        }
+        (covered ? _hits : _misses).incrementAndGet();
+        return covered;
+    }
+
+    /**
+     * @param path a {@link #covers(String) covered} path
+     * @return the cached node, null if the node does not exist (or is not cached)
+     */
+    public Node get(String path) {
+        Node node = _nodes.get(path);
+        return node != null && node.isLoaded() ? node : null;
+    }
+
+    /**
+     * unlike {@link #get(String)} this also answers while the node is read again, with the state it had before
+     *
+     * @param path the path
+     * @return the last loaded state of the node, null if the node does not exist or was never loaded
+     */
+    public Node getLatest(String path) {
+        Node node = _nodes.get(path);
+        return node != null && node._stat != null ? node : null;
+    }
+
+    /**
+     * read the node again, e.g. after writing it through another client; the path is not covered until
+     * the reads completed
+     *
+     * @param path the path
+     */
+    public void refresh(String path) {
+        if (_closed || !isBelowRoot(path)) {
+            return;
+        }
+        synchronized (this) {
+            Node node = _nodes.get(path);
+            if (node != null) {
+                _nodes.put(path, node.stale());
+            }
+        }
+        readData(path, 0);
+        readChildren(path, 0);
+    }
+
+    /**
+     * register a listener; it is first called for every node loaded so far, so no change is missed
+     *
+     * @param listener the listener
+     */
+    public synchronized void addChangeListener(ChangeListener listener) {
+        for (Node node : _nodes.values()) {
+            if (node._dataLoaded) {
+                listener.nodeChanged(node);
+            }
+        }
+        _changeListeners.add(listener);
+    }
+
+    public void removeChangeListener(ChangeListener listener) {
+        _changeListeners.remove(listener);
+    }
+
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (_closed) {
+                return;
+            }
+            _closed = true;
+            _queue.clear();
+            _nodes.clear();
+        }
+        _client.unsubscribeStateChanges(_sessionListener);
+    }
+
+    public int getNodeCount() {
+        return _nodes.size();
+    }
+
+    /**
+     * @return summed data size of all cached nodes
+     */
+    public long getDataBytes() {
+        return _dataBytes.get();
+    }
+
+    public long getHits() {
+        return _hits.get();
+    }
+
+    public long getMisses() {
+        return _misses.get();
+    }
+
+    /**
+     * @return number of applied data and children changes, the initial load included
+     */
+    public long getUpdates() {
+        return _updates.get();
+    }
+
+    /**
+     * @return reads sent or queued but not completed yet
+     */
+    public synchronized int getPendingReads() {
+        return _inFlight + _queue.size();
+    }
+
+    /**
+     * @return duration of the initial load in nanoseconds, -1 while loading
+     */
+    public long getInitNanos() {
+        return _initNanos;
+    }
+
+    /**
+     * @return number of watch notifications applied to the cache
+     */
+    public long getSyncCount() {
+        return _lagCount.get();
+    }
+
+    /**
+     * @return summed time from a watch notification until the new state is visible in the cache, in nanoseconds
+     */
+    public long getSyncLagNanos() {
+        return _lagNanos.get();
+    }
+
+    public long getMaxSyncLagNanos() {
+        return _maxLagNanos;
+    }
+
+    private boolean isBelowRoot(String path) {
+        if (path == null) {
+            return false;
+        }
+        if (_root.equals("/")) {
+            return path.startsWith("/");
+        }
+        return path.equals(_root) || (path.startsWith(_root) && path.charAt(_root.length()) == '/');
+    }
+
+    private void load(String path, long since) {
+        readData(path, since);
+        readChildren(path, since);
+    }
+
+    /**
+     * the watches of the expired session are gone, read every node again to set new ones
+     */
+    private void reload() {
+        List<String> paths;
+        synchronized (this) {
+            if (_closed) {
+                return;
+            }
+            paths = new ArrayList<String>(_nodes.keySet());
+            // a deleted root is not in the mirror but was watched for its creation
+            if (!_nodes.containsKey(_root)) {
+                paths.add(_root);
+            }
+        }
+        for (String path : paths) {
+            load(path, 0);
+        }
+    }
+
+    private void readData(final String path, final long since) {
+        submit(new Read() {
+
+            @Override
+            ZkFuture<?> send() {
+                final Stat stat = new Stat();
+                final ZkFuture<byte[]> future = _client.readDataAsync(path, stat, _dataWatcher);
+                future.addListener(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        try {
+                            applyData(path, future.join(), stat, since);
+                        } catch (ZkNoNodeException e) {
+                            applyDeleted(path);
+                        } catch (ZkException e) {
+                            LOG.warn("Unable to read " + path + " into the tree cache", e);
+                        }
+                    }
+                });
+                return future;
+            }
+        });
+    }
+
+    private void readChildren(final String path, final long since) {
+        submit(new Read() {
+
+            @Override
+            ZkFuture<?> send() {
+                final Stat stat = new Stat();
+                final ZkFuture<List<String>> future = _client.getChildrenAsync(path, stat, _childWatcher);
+                future.addListener(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        try {
+                            List<String> children = future.join();
+                            if (children == null) {
+                                applyDeleted(path);
+                            } else {
+                                applyChildren(path, children, stat, since);
+                            }
+                        } catch (ZkException e) {
+                            LOG.warn("Unable to read children of " + path + " into the tree cache", e);
+                        }
+                    }
+                });
+                return future;
+            }
+        });
+    }
+
+    private void submit(Read read) {
+        synchronized (this) {
+            if (_closed) {
+                return;
+            }
+            if (_inFlight >= MAX_IN_FLIGHT) {
+                _queue.addLast(read);
+                return;
+            }
+            _inFlight++;
+        }
+        send(read);
+    }
+
+    private void send(Read read) {
+        // the future listeners run in the zookeeper event thread, so the next read is sent from there too
+        while (read != null) {
+            ZkFuture<?> future;
+            try {
+                future = read.send();
+            } catch (RuntimeException e) {
+                LOG.warn("Unable to send tree cache read", e);
+                read = completed();
+                continue;
+            }
+            future.addListener(new Runnable() {
+
+                @Override
+                public void run() {
+                    Read next = completed();
+                    if (next != null) {
+                        send(next);
+                    }
+                }
+            });
+            return;
+        }
+    }
+
+    /**
+     * @return the next queued read, which takes over the slot of the completed one
+     */
+    private Read completed() {
+        synchronized (this) {
+            Read next = _queue.pollFirst();
+            if (next != null) {
+                return next;
+            }
+            _inFlight--;
+            if (_inFlight > 0 || _initNanos >= 0 || _closed) {
+                return null;
+            }
+            _initNanos = System.nanoTime() - _startNanos;
+        }
+        LOG.info("Tree cache of " + _root + " loaded " + _nodes.size() + " nodes in "
+                + TimeUnit.NANOSECONDS.toMillis(_initNanos) + " ms");
+        _initialized.countDown();
+        return null;
+    }
+
+    private synchronized void applyData(String path, byte[] data, Stat stat, long since) {
+        Node node = _nodes.get(path);
+        if (_closed || (node == null && !path.equals(_root)) || !isNewer(stat, node)) {
+            return;
+        }
+        Node updated = node == null ? new Node(path).withData(data, stat) : node.withData(data, stat);
+        _nodes.put(path, updated);
+        _dataBytes.addAndGet(length(data) - (node == null ? 0 : length(node._data)));
+        applied(since);
+        for (ChangeListener listener : _changeListeners) {
+            try {
+                listener.nodeChanged(updated);
+            } catch (RuntimeException e) {
+                LOG.warn("Tree cache listener failed on " + path, e);
+            }
+        }
+    }
+
+    private synchronized void applyChildren(String path, List<String> children, Stat stat, long since) {
+        Node node = _nodes.get(path);
+        if (_closed || (node == null && !path.equals(_root)) || !isNewer(stat, node)) {
+            return;
+        }
+        if (node == null) {
+            node = new Node(path);
+            _nodes.put(path, node);
+        }
+        Collections.sort(children);
+        Set<String> added = new HashSet<String>(children);
+        added.removeAll(node._children);
+        for (String child : node._children) {
+            if (Collections.binarySearch(children, child) < 0) {
+                removeSubtree(ZkClientUtils.childPath(path, child));
+            }
+        }
+        _nodes.put(path, node.withChildren(Collections.unmodifiableList(children), stat));
+        for (String child : added) {
+            String childPath = ZkClientUtils.childPath(path, child);
+            if (!_nodes.containsKey(childPath)) {
+                _nodes.put(childPath, new Node(childPath));
+                load(childPath, since);
+            }
+        }
+        applied(since);
+    }
+
+    private synchronized void applyDeleted(String path) {
+        if (_closed) {
+            return;
+        }
+        if (path.equals(_root)) {
+            // keep watching the root, it may be created again
+            Node root = _nodes.get(_root);
+            if (root != null) {
+                for (String child : root._children) {
+                    removeSubtree(ZkClientUtils.childPath(_root, child));
+                }
+                _dataBytes.addAndGet(-length(root._data));
+                _nodes.remove(_root);
+                removed(_root);
+                _updates.incrementAndGet();
+            }
+            watchRootCreation();
+            return;
+        }
+        if (_nodes.containsKey(path)) {
+            removeSubtree(path);
+            _updates.incrementAndGet();
+        }
+    }
+
+    /**
+     * reads of a missing node leave no watch, only exists does
+     */
+    private void watchRootCreation() {
+        final ZkFuture<Stat> future = _client.existsAsync(_root, _dataWatcher);
+        future.addListener(new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    if (future.join() != null) {
+                        // created before the watch was set
+                        readData(_root, 0);
+                        readChildren(_root, 0);
+                    }
+                } catch (ZkException e) {
+                    LOG.warn("Unable to watch " + _root + " for the tree cache", e);
+                }
+            }
+        });
+    }
+
+    private void removeSubtree(String path) {
+        Node node = _nodes.remove(path);
+        if (node == null) {
+            return;
+        }
+        _dataBytes.addAndGet(-length(node._data));
+        removed(path);
+        for (String child : node._children) {
+            removeSubtree(ZkClientUtils.childPath(path, child));
+        }
+    }
+
+    private void removed(String path) {
+        for (ChangeListener listener : _changeListeners) {
+            try {
+                listener.nodeRemoved(path);
+            } catch (RuntimeException e) {
+                LOG.warn("Tree cache listener failed on " + path, e);
+            }
+        }
+    }
+
+    private void applied(long since) {
+        _updates.incrementAndGet();
+        if (since > 0) {
+            long lag = System.nanoTime() - since;
+            _lagCount.incrementAndGet();
+            _lagNanos.addAndGet(lag);
+            if (lag > _maxLagNanos) {
+                _maxLagNanos = lag;
+            }
+        }
+    }
+
+    /**
+     * a Stat of the same node is newer if neither its data nor its children changed earlier than the cached one
+     */
+    private static boolean isNewer(Stat stat, Node node) {
+        if (node == null || node._stat == null || node._stat.getCzxid() != stat.getCzxid()) {
+            return true;
+        }
+        return stat.getMzxid() >= node._stat.getMzxid() && stat.getPzxid() >= node._stat.getPzxid();
+    }
+
+    private static int length(byte[] data) {
+        return data == null ? 0 : data.length;
+    }
+
+    private abstract static class Read {
+
+        abstract ZkFuture<?> send();
+    }
+
+    /**
+     * set by the data reads and the exists watch of a deleted root
+     */
+    private class DataWatcher implements Watcher {
+
+        @Override
+        public void process(WatchedEvent event) {
+            if (_closed || event.getType() == EventType.None) {
+                return;
+            }
+            String path = event.getPath();
+            switch (event.getType()) {
+            case NodeCreated:
+                load(path, System.nanoTime());
+                break;
+            case NodeDataChanged:
+                readData(path, System.nanoTime());
+                break;
+            case NodeDeleted:
+                applyDeleted(path);
+                break;
+            default:
+                break;
+            }
+        }
+    }
+
+    /**
+     * set by the children reads
+     */
+    private class ChildWatcher implements Watcher {
+
+        @Override
+        public void process(WatchedEvent event) {
+            if (_closed || event.getType() == EventType.None) {
+                return;
+            }
+            String path = event.getPath();
+            switch (event.getType()) {
+            case NodeChildrenChanged:
+                readChildren(path, System.nanoTime());
+                break;
+            case NodeDeleted:
+                // the data watch of the node reports the deletion as well, removing twice is harmless
+                applyDeleted(path);
+                break;
+            default:
+                break;
+            }
+        }
+    }
+
+    private class SessionListener implements IZkStateListener {
+
+        @Override
+        public void handleStateChanged(KeeperState state) {
+        }
+
+        @Override
+        public void handleNewSession() {
+            reload();
+        }
+    }
+
+    /**
+     * Notified while the cache applies a change, so implementations must be quick and must not block
+     * on zookeeper.
+     */
+    public interface ChangeListener {
+
+        /**
+         * @param node the node whose data was loaded or read again
+         */
+        void nodeChanged(Node node);
+
+        /**
+         * @param path the removed node; a removed subtree reports every node of it
+         */
+        void nodeRemoved(String path);
+    }
+
+    /**
+     * An immutable snapshot of a cached node
+     */
+    public static class Node {
+
+        private final String _path;
+
+        private final byte[] _data;
+
+        private final Stat _stat;
+
+        private final List<String> _children;
+
+        private final boolean _dataLoaded;
+
+        private final boolean _childrenLoaded;
+
+        Node(String path) {
+            this(path, null, null, Collections.<String>emptyList(), false, false);
+        }
+
+        private Node(String path, byte[] data, Stat stat, List<String> children, boolean dataLoaded, boolean childrenLoaded) {
+            _path = path;
+            _data = data;
+            _stat = stat;
+            _children = children;
+            _dataLoaded = dataLoaded;
+            _childrenLoaded = childrenLoaded;
+        }
+
+        Node withData(byte[] data, Stat stat) {
+            return new Node(_path, data, stat, _children, true, _childrenLoaded);
+        }
+
+        Node withChildren(List<String> children, Stat stat) {
+            return new Node(_path, _data, stat, children, _dataLoaded, true);
+        }
+
+        Node stale() {
+            return new Node(_path, _data, _stat, _children, false, false);
+        }
+
+        boolean isLoaded() {
+            return _dataLoaded && _childrenLoaded;
+        }
+
+        public String getPath() {
+            return _path;
+        }
+
+        /**
+         * @return a copy of the data, may be null
+         */
+        public byte[] getData() {
+            return _data == null ? null : _data.clone();
+        }
+
+        public int getDataLength() {
+            return length(_data);
+        }
+
+        /**
+         * @return a copy of the latest Stat
+         */
+        public Stat getStat() {
+            Stat stat = new Stat();
+            stat.setCzxid(_stat.getCzxid());
+            stat.setMzxid(_stat.getMzxid());
+            stat.setCtime(_stat.getCtime());
+            stat.setMtime(_stat.getMtime());
+            stat.setVersion(_stat.getVersion());
+            stat.setCversion(_stat.getCversion());
+            stat.setAversion(_stat.getAversion());
+            stat.setEphemeralOwner(_stat.getEphemeralOwner());
+            stat.setDataLength(_stat.getDataLength());
+            stat.setNumChildren(_stat.getNumChildren());
+            stat.setPzxid(_stat.getPzxid());
+            return stat;
+        }
+
+        /**
+         * @return the sorted child names, unmodifiable
+         */
+        public List<String> getChildren() {
+            return _children;
+        }
+
+        @Override
+        public String toString() {
+            return "Node[" + _path + "]";
+        }
+    }
+}
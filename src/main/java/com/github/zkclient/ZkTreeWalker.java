@@ -0,0 +1,207 @@
+/**
+ * Copyright 2010 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.zkclient;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+
+import org.apache.zookeeper.data.Stat;
+
+import com.github.zkclient.exception.ZkNoNodeException;
+
+/**
+ * Breadth-first subtree walk which keeps up to <code>maxInFlight</code> asynchronous reads pending on the
+ * session, so the walk costs roughly N / maxInFlight round trips instead of N.
+ * <p>
+ * Results are consumed in request order, which keeps the visit order deterministic and lets a slow visitor
+ * throttle the walk: no new request is sent while the visitor is busy.
+ * </p>
+ * <p>
+ * The frontier keeps the child name lists of the visited nodes, a request and its {@link Stat} are only
+ * created when the read is sent. Once more than <code>maxBufferedChildren</code> names are waiting, a parent
+ * is queued by its path alone and its children are listed again when the walk reaches it, so a wide level
+ * costs one path per parent rather than its whole name list. A level listed again is held whole until it
+ * is consumed, so the names held may exceed the cap by the width of that level.
+ * </p>
+ */
+class ZkTreeWalker {
+
+    static final int DEFAULT_MAX_BUFFERED_CHILDREN = 100000;
+
+    private final IZkClient _client;
+
+    private final IZkTreeVisitor _visitor;
+
+    private final int _maxInFlight;
+
+    private final int _maxDepth;
+
+    private final boolean _withData;
+
+    private final int _maxBufferedChildren;
+
+    private final Deque<Level> _pending = new ArrayDeque<Level>();
+
+    private final Deque<Node> _inFlight = new ArrayDeque<Node>();
+
+    private int _bufferedChildren;
+
+    ZkTreeWalker(IZkClient client, IZkTreeVisitor visitor, int maxInFlight, int maxDepth, boolean withData) {
+        this(client, visitor, maxInFlight, maxDepth, withData, DEFAULT_MAX_BUFFERED_CHILDREN);
+    }
+
+    ZkTreeWalker(IZkClient client, IZkTreeVisitor visitor, int maxInFlight, int maxDepth, boolean withData,
+                 int maxBufferedChildren) {
+        if (visitor == null) {
+            throw new NullPointerException("visitor must not be null.");
+        }
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("maxInFlight must be positive: " + maxInFlight);
+        }
+        _client = client;
+        _visitor = visitor;
+        _maxInFlight = maxInFlight;
+        _maxDepth = maxDepth;
+        _withData = withData;
+        _maxBufferedChildren = maxBufferedChildren;
+    }
+
+    void walk(String root) {
+        _pending.add(new Level(null, 0, Collections.singletonList(root)));
+        _bufferedChildren++;
+        while (!_pending.isEmpty() || !_inFlight.isEmpty()) {
+            while (_inFlight.size() < _maxInFlight && !_pending.isEmpty()) {
+                Node node = nextNode();
+                if (node != null) {
+                    node.send();
+                    _inFlight.add(node);
+                }
+            }
+            Node node = _inFlight.poll();
+            if (node == null) {
+                continue;
+            }
+            List<String> children = node.children.join();
+            if (children == null) {
+                continue;
+            }
+            Stat stat = node.childrenStat;
+            byte[] data = null;
+            if (node.data != null) {
+                try {
+                    data = node.data.join();
+                    stat = node.dataStat;
+                } catch (ZkNoNodeException e) {
+                    continue;
+                }
+            }
+            boolean descend;
+            try {
+                descend = _visitor.visit(node.path, node.depth, stat, data, children);
+            } catch (Exception e) {
+                throw ZkClientUtils.convertToRuntimeException(e);
+            }
+            if (descend && (_maxDepth < 0 || node.depth < _maxDepth) && !children.isEmpty()) {
+                if (_bufferedChildren > 0 && _bufferedChildren + children.size() > _maxBufferedChildren) {
+                    _pending.add(new Level(node.path, node.depth + 1, null));
+                } else {
+                    _bufferedChildren += children.size();
+                    _pending.add(new Level(node.path, node.depth + 1, children));
+                }
+            }
+        }
+    }
+
+    /**
+     * @return child names held by the pending levels
+     */
+    int getBufferedChildren() {
+        return _bufferedChildren;
+    }
+
+    /**
+     * @return the next child of the oldest pending level, null if that level has been deleted meanwhile
+     */
+    private Node nextNode() {
+        Level level = _pending.peek();
+        if (level.children == null) {
+            List<String> children = _client.getChildrenAsync(level.parent, null).join();
+            if (children == null || children.isEmpty()) {
+                _pending.poll();
+                return null;
+            }
+            level.children = children;
+            _bufferedChildren += children.size();
+        }
+        String name = level.children.get(level.next++);
+        if (level.next == level.children.size()) {
+            _pending.poll();
+            _bufferedChildren -= level.children.size();
+        }
+        return new Node(level.parent == null ? name : ZkClientUtils.childPath(level.parent, name), level.depth);
+    }
+
+    /**
+     * the children of one visited node which are still to be read
+     */
+    private static class Level {
+
+        final String parent;
+
+        final int depth;
+
+        List<String> children;
+
+        int next;
+
+        Level(String parent, int depth, List<String> children) {
+            this.parent = parent;
+            this.depth = depth;
+            this.children = children;
+        }
+    }
+
+    private class Node {
+
+        final String path;
+
+        final int depth;
+
+        Stat childrenStat;
+
+        Stat dataStat;
+
+        ZkFuture<List<String>> children;
+
+        ZkFuture<byte[]> data;
+
+        Node(String path, int depth) {
+            this.path = path;
+            this.depth = depth;
+        }
+
+        void send() {
+            childrenStat = new Stat();
+            children = _client.getChildrenAsync(path, childrenStat);
+            if (_withData) {
+                dataStat = new Stat();
+                data = _client.readDataAsync(path, dataStat);
+            }
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package com.sung.zk.ui.server.zk.entity;
+
+import java.util.List;
+
+/**
+ * 两棵子树的比较结果, 路径相对于各自的根 (根为 /)
+ */
+public class ZkDiffResult {
+
+   private String leftRoot;
+   private String rightRoot;
+   private int leftNodes;
+   private int rightNodes;
+   private boolean leftCached;
+   private boolean rightCached;
+   private int compared;
+   private List<String> added;
+   private List<String> removed;
+   private List<String> changed;
+   private int addedCount;
+   private int removedCount;
+   private int changedCount;
+   private long millis;
+
+   public String getLeftRoot() {
+      return leftRoot;
+   }
+
+   public void setLeftRoot(String leftRoot) {
+      this.leftRoot = leftRoot;
+   }
+
+   public String getRightRoot() {
+      return rightRoot;
+   }
+
+   public void setRightRoot(String rightRoot) {
+      this.rightRoot = rightRoot;
+   }
+
+   /**
+    * @return left 子树的节点数
+    */
+   public int getLeftNodes() {
+      return leftNodes;
+   }
+
+   public void setLeftNodes(int leftNodes) {
+      this.leftNodes = leftNodes;
+   }
+
+   public int getRightNodes() {
+      return rightNodes;
+   }
+
+   public void setRightNodes(int rightNodes) {
+      this.rightNodes = rightNodes;
+   }
+
+   /**
+    * @return left 的摘要由树缓存计算, 没有读取 zookeeper
+    */
+   public boolean isLeftCached() {
+      return leftCached;
+   }
+
+   public void setLeftCached(boolean leftCached) {
+      this.leftCached = leftCached;
+   }
+
+   public boolean isRightCached() {
+      return rightCached;
+   }
+
+   public void setRightCached(boolean rightCached) {
+      this.rightCached = rightCached;
+   }
+
+   /**
+    * @return 比较过的节点对数; 摘要相同的子树整体跳过, 不计入
+    */
+   public int getCompared() {
+      return compared;
+   }
+
+   public void setCompared(int compared) {
+      this.compared = compared;
+   }
+
+   /**
+    * @return right 中有而 left 中没有的路径, 最多 limit 个
+    */
+   public List<String> getAdded() {
+      return added;
+   }
+
+   public void setAdded(List<String> added) {
+      this.added = added;
+   }
+
+   /**
+    * @return left 中有而 right 中没有的路径, 最多 limit 个
+    */
+   public List<String> getRemoved() {
+      return removed;
+   }
+
+   public void setRemoved(List<String> removed) {
+      this.removed = removed;
+   }
+
+   /**
+    * @return 两边都有但数据不同的路径, 最多 limit 个
+    */
+   public List<String> getChanged() {
+      return changed;
+   }
+
+   public void setChanged(List<String> changed) {
+      this.changed = changed;
+   }
+
+   public int getAddedCount() {
+      return addedCount;
+   }
+
+   public void setAddedCount(int addedCount) {
+      this.addedCount = addedCount;
+   }
+
+   public int getRemovedCount() {
+      return removedCount;
+   }
+
+   public void setRemovedCount(int removedCount) {
+      this.removedCount = removedCount;
+   }
+
+   public int getChangedCount() {
+      return changedCount;
+   }
+
+   public void setChangedCount(int changedCount) {
+      this.changedCount = changedCount;
+   }
+
+   public long getMillis() {
+      return millis;
+   }
+
+   public void setMillis(long millis) {
+      this.millis = millis;
+   }
+
+   @Override
+   public String toString() {
+      return "ZkDiffResult [left=" + leftRoot + ",right=" + rightRoot + ",added=" + addedCount + ",removed=" + removedCount
+            + ",changed=" + changedCount + ",compared=" + compared + ",millis=" + millis + "]";
+   }
+}
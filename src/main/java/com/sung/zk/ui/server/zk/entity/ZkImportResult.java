@@ -0,0 +1,56 @@
+package com.sung.zk.ui.server.zk.entity;
+
+/**
+ * 一次子树导入的统计
+ */
+public class ZkImportResult {
+
+   private long read;
+   private long created;
+   private long updated;
+   private long skipped;
+   private long millis;
+
+   public ZkImportResult(long read, long created, long updated, long skipped, long millis) {
+      this.read = read;
+      this.created = created;
+      this.updated = updated;
+      this.skipped = skipped;
+      this.millis = millis;
+   }
+
+   /**
+    * @return 从导入文件读取的节点数
+    */
+   public long getRead() {
+      return read;
+   }
+
+   public long getCreated() {
+      return created;
+   }
+
+   /**
+    * @return 按 OVERWRITE 覆盖了数据的已存在节点数
+    */
+   public long getUpdated() {
+      return updated;
+   }
+
+   /**
+    * @return 已存在而保留的节点数, 以及不导入的临时节点数
+    */
+   public long getSkipped() {
+      return skipped;
+   }
+
+   public long getMillis() {
+      return millis;
+   }
+
+   @Override
+   public String toString() {
+      return "ZkImportResult [read=" + read + ",created=" + created + ",updated=" + updated + ",skipped=" + skipped
+            + ",millis=" + millis + "]";
+   }
+}
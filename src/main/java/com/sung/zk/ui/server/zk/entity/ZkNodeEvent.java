@@ -0,0 +1,95 @@
+package com.sung.zk.ui.server.zk.entity;
+
+import java.util.List;
+
+/**
+ * 推送给页面的节点变化, 同一变化只生成一次, 由订阅该节点的所有页面共用
+ */
+public class ZkNodeEvent {
+
+   public static final String DATA = "data";
+   public static final String CHILDREN = "children";
+   public static final String DELETED = "deleted";
+
+   private String type;
+   private String path;
+   private long time;
+   private List<String> children;
+   private Integer size;
+   private Boolean binary;
+   private String preview;
+   private String previewView;
+   private Integer previewEnd;
+
+   private ZkNodeEvent(String type, String path) {
+      this.type = type;
+      this.path = path;
+      this.time = System.currentTimeMillis();
+   }
+
+   public static ZkNodeEvent deleted(String path) {
+      return new ZkNodeEvent(DELETED, path);
+   }
+
+   /**
+    * @param children 已排序的子节点
+    */
+   public static ZkNodeEvent children(String path, List<String> children) {
+      ZkNodeEvent event = new ZkNodeEvent(CHILDREN, path);
+      event.children = children;
+      return event;
+   }
+
+   /**
+    * 数据只带与节点页面相同的预览, 其余部分仍由 /read/data 按需加载
+    */
+   public static ZkNodeEvent data(String path, int size, boolean binary, String preview, String previewView,
+                                  int previewEnd) {
+      ZkNodeEvent event = new ZkNodeEvent(DATA, path);
+      event.size = size;
+      event.binary = binary;
+      event.preview = preview;
+      event.previewView = previewView;
+      event.previewEnd = previewEnd;
+      return event;
+   }
+
+   /**
+    * @return data / children / deleted
+    */
+   public String getType() {
+      return type;
+   }
+
+   public String getPath() {
+      return path;
+   }
+
+   public long getTime() {
+      return time;
+   }
+
+   public List<String> getChildren() {
+      return children;
+   }
+
+   public Integer getSize() {
+      return size;
+   }
+
+   public Boolean getBinary() {
+      return binary;
+   }
+
+   public String getPreview() {
+      return preview;
+   }
+
+   public String getPreviewView() {
+      return previewView;
+   }
+
+   public Integer getPreviewEnd() {
+      return previewEnd;
+   }
+}
@@ -0,0 +1,48 @@
+package com.sung.zk.ui.server.zk.entity;
+
+import java.util.List;
+
+import org.apache.zookeeper.data.ACL;
+import org.apache.zookeeper.data.Stat;
+
+/**
+ * 导出文件中的一个节点
+ */
+public class ZkNodeRecord {
+
+   /**
+    * 相对导出根节点的路径, 根节点本身为 ""
+    */
+   private String path;
+   private byte[] data;
+   private Stat stat;
+   private List<ACL> acl;
+
+   public ZkNodeRecord(String path, byte[] data, Stat stat, List<ACL> acl) {
+      this.path = path;
+      this.data = data;
+      this.stat = stat;
+      this.acl = acl;
+   }
+
+   public String getPath() {
+      return path;
+   }
+
+   public byte[] getData() {
+      return data;
+   }
+
+   public Stat getStat() {
+      return stat;
+   }
+
+   public List<ACL> getAcl() {
+      return acl;
+   }
+
+   @Override
+   public String toString() {
+      return "ZkNodeRecord [path=" + path + ",stat=" + stat + "]";
+   }
+}
@@ -0,0 +1,64 @@
+package com.sung.zk.ui.server.zk.entity;
+
+import java.util.List;
+
+/**
+ * 一次搜索的结果, 按路径排序
+ */
+public class ZkSearchResult {
+
+   private List<Hit> hits;
+   private boolean truncated;
+   private boolean initialized;
+   private long micros;
+
+   public ZkSearchResult(List<Hit> hits, boolean truncated, boolean initialized, long micros) {
+      this.hits = hits;
+      this.truncated = truncated;
+      this.initialized = initialized;
+      this.micros = micros;
+   }
+
+   public List<Hit> getHits() {
+      return hits;
+   }
+
+   /**
+    * @return 匹配数超过 limit, 只返回了前 limit 个
+    */
+   public boolean isTruncated() {
+      return truncated;
+   }
+
+   /**
+    * @return 索引已完成首次加载; 为 false 时结果可能不完整
+    */
+   public boolean isInitialized() {
+      return initialized;
+   }
+
+   public long getMicros() {
+      return micros;
+   }
+
+   public static class Hit {
+      private String path;
+      private String snippet;
+
+      public Hit(String path, String snippet) {
+         this.path = path;
+         this.snippet = snippet;
+      }
+
+      public String getPath() {
+         return path;
+      }
+
+      /**
+       * @return 数据中第一处匹配及其前后的内容, 只有 substring 搜索才有
+       */
+      public String getSnippet() {
+         return snippet;
+      }
+   }
+}
@@ -1,6 +1,8 @@
 package com.sung.zk.ui.server.zk.op;
 
 import javax.servlet.http.HttpSession;
+import javax.servlet.http.HttpSessionBindingEvent;
+import javax.servlet.http.HttpSessionBindingListener;
 
 import org.springframework.web.context.request.RequestContextHolder;
 import org.springframework.web.context.request.ServletRequestAttributes;
@@ -8,21 +10,45 @@ import org.springframework.web.context.request.ServletRequestAttributes;
 import com.github.zkclient.ZkClient;
 
 public class ClientCacheManager {
-	
+
 	private static final String PRE = "zk-client-";
 
 	public static ZkClient getClient(String cxnString) {
 		HttpSession session = ((ServletRequestAttributes) RequestContextHolder.getRequestAttributes()).getRequest().getSession();
+		return getClient(session, cxnString, ZkClientRegistry.getInstance());
+	}
+
+	static ZkClient getClient(HttpSession session, String cxnString, ZkClientRegistry registry) {
 		String key = PRE + cxnString;
-		ZkClient client = null;
-		Object obj = session.getAttribute(key);
-		if(obj == null) {
-			client = new ZkClient(cxnString, 5000);
-			session.setAttribute(key, client);
-		} else {
-			client = (ZkClient) obj;
+		synchronized (session) {
+			Object obj = session.getAttribute(key);
+			if (obj instanceof SessionLease) {
+				return ((SessionLease) obj).lease.getClient();
+			}
+			SessionLease sessionLease = new SessionLease(registry.acquire(cxnString));
+			session.setAttribute(key, sessionLease);
+			return sessionLease.lease.getClient();
+		}
+	}
+
+	/**
+	 * 会话失效或超时后释放共享的客户端
+	 */
+	private static class SessionLease implements HttpSessionBindingListener {
+		private final ZkClientRegistry.Lease lease;
+
+		SessionLease(ZkClientRegistry.Lease lease) {
+			this.lease = lease;
+		}
+
+		@Override
+		public void valueBound(HttpSessionBindingEvent event) {
+		}
+
+		@Override
+		public void valueUnbound(HttpSessionBindingEvent event) {
+			lease.close();
 		}
-		return client;
 	}
-	
+
 }
@@ -1,66 +1,233 @@
 package com.sung.zk.ui.server.zk.op;
 
+import com.github.zkclient.IZkClient;
 import com.github.zkclient.ZkClient;
+import com.github.zkclient.ZkTreeCache;
+import com.github.zkclient.exception.ZkInterruptedException;
+import com.github.zkclient.exception.ZkNoNodeException;
+import com.github.zkclient.exception.ZkNodeExistsException;
 import com.sung.zk.ui.server.zk.entity.ZkData;
+import com.sung.zk.ui.server.zk.entity.ZkDiffResult;
+import com.sung.zk.ui.server.zk.entity.ZkImportResult;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.zookeeper.data.Stat;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 public class Zk {
     private static final Logger LOGGER = LoggerFactory.getLogger(Zk.class);
+
+    /**
+     * 计算比较另一侧摘要的线程, 所有请求共用; 线程用尽时由请求线程依次计算两侧
+     */
+    private static final int DIFF_THREADS = 4;
+
+    private static final ThreadPoolExecutor DIFF_EXECUTOR = new ThreadPoolExecutor(DIFF_THREADS, DIFF_THREADS,
+            60, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(), new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "zk-diff");
+            thread.setDaemon(true);
+            return thread;
+        }
+    }, new ThreadPoolExecutor.CallerRunsPolicy());
+
+    static {
+        DIFF_EXECUTOR.allowCoreThreadTimeOut(true);
+    }
     // 192.168.161.61:2181,192.168.161.83:2181
     private ZkClient client;
+    private String cxnString;
 
     public boolean exists(String path) {
         if (path == null || path.trim().equals("")) {
             throw new IllegalArgumentException("path can not be null or empty");
         }
+        ZkTreeCache cache = getTreeCache(path);
+        if (cache != null) {
+            return cache.get(path) != null;
+        }
+        ZkNodeCache nodeCache = getNodeCache();
+        if (nodeCache != null && nodeCache.stat(path) != null) {
+            return true;
+        }
         return getClient().exists(path);
     }
 
     public ZkData readData(String path) {
+        path = getPath(path);
         ZkData zkdata = new ZkData();
+        ZkTreeCache cache = getTreeCache(path);
+        if (cache != null) {
+            ZkTreeCache.Node node = cached(cache, path);
+            zkdata.setData(node.getData());
+            zkdata.setStat(node.getStat());
+            return zkdata;
+        }
         Stat stat = new Stat();
-        zkdata.setData(getClient().readData(getPath(path), stat));
+        ZkNodeCache nodeCache = getNodeCache();
+        zkdata.setData(nodeCache != null ? nodeCache.readData(path, stat) : getClient().readData(path, stat));
         zkdata.setStat(stat);
         return zkdata;
     }
 
+    /**
+     * @return 节点的 Stat, 节点不存在时为 null
+     */
+    public Stat stat(String path) {
+        path = getPath(path);
+        ZkTreeCache cache = getTreeCache(path);
+        if (cache != null) {
+            ZkTreeCache.Node node = cache.get(path);
+            return node == null ? null : node.getStat();
+        }
+        ZkNodeCache nodeCache = getNodeCache();
+        Stat stat = nodeCache == null ? null : nodeCache.stat(path);
+        return stat != null ? stat : getClient().existsAsync(path).join();
+    }
+
     public List<String> getChildren(String path) {
-        return getClient().getChildren(getPath(path));
+        path = getPath(path);
+        ZkTreeCache cache = getTreeCache(path);
+        if (cache != null) {
+            ZkTreeCache.Node node = cache.get(path);
+            return node == null ? null : new ArrayList<String>(node.getChildren());
+        }
+        ZkNodeCache nodeCache = getNodeCache();
+        return nodeCache != null ? nodeCache.getChildren(path, null) : getClient().getChildren(path);
     }
 
     public void create(String path, byte[] data) {
         path = getPath(path);
-        getClient().createPersistent(path, true);
-        Stat stat = getClient().writeData(path, data);
-        LOGGER.info("create: node:{}, stat{}:", path, stat);
+        try {
+            getClient().createPersistent(path, data, true);
+            LOGGER.info("create: node:{}", path);
+        } catch (ZkNodeExistsException e) {
+            Stat stat = getClient().writeData(path, data);
+            LOGGER.info("create: node:{} exists, stat{}:", path, stat);
+        }
+        refreshCaches(path, true);
     }
 
     public void edit(String path, byte[] data) {
         path = getPath(path);
         Stat stat = getClient().writeData(path, data);
         LOGGER.info("edit: node:{}, stat{}:", path, stat);
+        refreshCaches(path, false);
     }
 
     public void delete(String path) {
         path = getPath(path);
         boolean del = getClient().delete(path);
         LOGGER.info("delete: node:{}, boolean{}:", path, del);
+        refreshCaches(path, true);
     }
 
     public void deleteRecursive(String path) {
         path = getPath(path);
-        boolean deleteRecursive = getClient().deleteRecursive(path);
+        final String root = path;
+        boolean deleteRecursive = getClient().deleteRecursive(path, new IZkClient.ProgressListener() {
+            @Override
+            public void onProgress(int done, int total) {
+                LOGGER.info("rmr: node:{}, deleted {}/{}", root, done, total);
+            }
+        });
         LOGGER.info("rmr: node:{}, boolean{}:", path, deleteRecursive);
+        refreshCaches(path, true);
+    }
+
+    /**
+     * 将子树导出到 out, 边遍历边写出, 不在内存中保存整棵树; 导出完成后 out 被关闭
+     *
+     * @param gzip 是否 gzip 压缩
+     * @return 导出的节点数
+     */
+    public long export(String path, OutputStream out, boolean gzip) throws IOException {
+        path = getPath(path);
+        long start = System.currentTimeMillis();
+        long count = ZkExporter.export(getClient(), path, out, gzip);
+        LOGGER.info("export: node:{}, {} nodes in {}ms", path, count, System.currentTimeMillis() - start);
+        return count;
+    }
+
+    /**
+     * 从导出文件导入子树, 导出时的根节点对应 path
+     *
+     * @param concurrency 同时提交的 multi 批次数
+     * @param listener    进度通知, 可以为 null
+     */
+    public ZkImportResult importFrom(String path, InputStream in, ZkImportPolicy policy, int concurrency,
+                                     IZkClient.ProgressListener listener) throws IOException {
+        path = getPath(path);
+        ZkExportFormat.Reader reader = new ZkExportFormat.Reader(in);
+        ZkImportResult result = ZkImporter.load(getClient(), path, reader, policy, concurrency, listener);
+        LOGGER.info("import: node:{}, from:{}, policy:{}, {}", path, reader.getRoot(), policy, result);
+        refreshCaches(path, true);
+        return result;
+    }
+
+    /**
+     * 比较本集群的 path 与 other 集群的 otherPath (可以是同一集群). 两棵子树的摘要并行计算,
+     * 树缓存完整覆盖的子树直接用缓存计算, 其余按流水线方式遍历
+     *
+     * @param limit 每类最多列出的路径数
+     */
+    public ZkDiffResult diff(String path, final Zk other, String otherPath, int limit) {
+        path = getPath(path);
+        final String rightPath = getPath(otherPath);
+        long start = System.currentTimeMillis();
+        Future<ZkMerkleTree> right = DIFF_EXECUTOR.submit(new Callable<ZkMerkleTree>() {
+            @Override
+            public ZkMerkleTree call() {
+                return other.merkleTree(rightPath);
+            }
+        });
+        ZkMerkleTree left;
+        ZkMerkleTree rightTree;
+        try {
+            left = merkleTree(path);
+            rightTree = right.get();
+        } catch (RuntimeException e) {
+            // 一侧失败时另一侧的遍历不再需要, 中断以释放线程
+            right.cancel(true);
+            throw e;
+        } catch (InterruptedException e) {
+            right.cancel(true);
+            throw new ZkInterruptedException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+        ZkDiffResult result = ZkMerkleTree.diff(left, rightTree, limit, System.currentTimeMillis() - start);
+        LOGGER.info("diff: node:{}, other:{}, {}", path, rightPath, result);
+        return result;
+    }
+
+    ZkMerkleTree merkleTree(String path) {
+        ZkTreeCache cache = getTreeCache(path);
+        ZkMerkleTree tree = cache == null ? null : ZkMerkleTree.build(cache, path);
+        return tree != null ? tree : ZkMerkleTree.build(getClient(), path);
     }
 
     public Zk(String cxnString) {
         LOGGER.info("cxnString:{}", cxnString);
         this.client = ClientCacheManager.getClient(cxnString);
+        this.cxnString = cxnString;
     }
 
     public ZkClient getClient() {
@@ -71,6 +238,59 @@ public class Zk {
         this.client = client;
     }
 
+    /**
+     * @return 可以回答 path 的树缓存, 未配置或暂时无法回答时为 null (回退到直接读 zookeeper)
+     */
+    private ZkTreeCache getTreeCache(String path) {
+        if (cxnString == null) {
+            return null;
+        }
+        ZkTreeCache cache = ZkClusterServices.getInstance().getTreeCache(cxnString);
+        return cache != null && cache.covers(path) ? cache : null;
+    }
+
+    private static ZkTreeCache.Node cached(ZkTreeCache cache, String path) {
+        ZkTreeCache.Node node = cache.get(path);
+        if (node == null) {
+            throw new ZkNoNodeException("node not exists: " + path);
+        }
+        return node;
+    }
+
+    private ZkNodeCache getNodeCache() {
+        return cxnString == null ? null : ZkClusterServices.getInstance().getNodeCache(cxnString);
+    }
+
+    /**
+     * 本次写入后立即跳转到节点页面, 不等 watch 事件, 先让缓存失效或重新读取
+     *
+     * @param parent 子节点列表是否也变化了
+     */
+    private void refreshCaches(String path, boolean parent) {
+        if (cxnString == null) {
+            return;
+        }
+        String parentPath = null;
+        if (parent && path.length() > 1) {
+            int index = path.lastIndexOf('/');
+            parentPath = index == 0 ? "/" : path.substring(0, index);
+        }
+        ZkNodeCache nodeCache = getNodeCache();
+        if (nodeCache != null) {
+            nodeCache.invalidate(path);
+            if (parentPath != null) {
+                nodeCache.invalidate(parentPath);
+            }
+        }
+        ZkTreeCache cache = ZkClusterServices.getInstance().getTreeCache(cxnString);
+        if (cache != null) {
+            cache.refresh(path);
+            if (parentPath != null) {
+                cache.refresh(parentPath);
+            }
+        }
+    }
+
     private String getPath(String path) {
         path = path == null ? "/" : path.trim();
         if (!StringUtils.startsWith(path, "/")) {
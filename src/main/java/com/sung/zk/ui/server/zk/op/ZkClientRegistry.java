@@ -0,0 +1,379 @@
+package com.sung.zk.ui.server.zk.op;
+
+import com.github.zkclient.IZkClient;
+import com.github.zkclient.ZkClient;
+import com.github.zkclient.ZkConnection;
+import com.github.zkclient.ZkMetrics;
+import com.github.zkclient.exception.ZkInterruptedException;
+import com.sung.zk.ui.server.zk.util.ConfUtils;
+import org.apache.commons.lang3.math.NumberUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 进程内按连接串共享的 {@link ZkClient}.
+ * <p>
+ * 每个使用者 (通常是一个 http 会话) 取得一个 {@link Lease}. 同一集群的租约最多共用 {@code zk.pool.maxClients} 个客户端,
+ * 只有已有的客户端都承担了 {@code zk.pool.sessionsPerClient} 个租约时才打开新的客户端.
+ * 最后一个租约释放后, 客户端空闲 {@code zk.pool.idleTimeout} 毫秒后关闭 (为 0 时立即关闭).
+ * </p>
+ * <p>
+ * 每个集群的缓存、索引、订阅与复制由 {@link ZkClusterServices} 管理, 它们通过内部租约使用这里的客户端.
+ * </p>
+ */
+public class ZkClientRegistry {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ZkClientRegistry.class);
+
+    public static final int DEFAULT_MAX_CLIENTS = 2;
+    public static final int DEFAULT_SESSIONS_PER_CLIENT = 64;
+    public static final long DEFAULT_IDLE_TIMEOUT = 5 * 60 * 1000L;
+
+    private static final int CONNECTION_TIMEOUT = 5000;
+    private static final long REAP_INTERVAL = 30 * 1000L;
+
+    private static final ZkClientRegistry INSTANCE = create(ConfUtils.getConxtions());
+
+    private final ConcurrentMap<String, Cluster> clusters = new ConcurrentHashMap<String, Cluster>();
+    private final List<Runnable> idleTasks = new CopyOnWriteArrayList<Runnable>();
+    private final int maxClients;
+    private final int sessionsPerClient;
+    private final long idleTimeout;
+    private final ScheduledExecutorService reaper;
+
+    public ZkClientRegistry(int maxClients, int sessionsPerClient, long idleTimeout) {
+        if (maxClients < 1 || sessionsPerClient < 1) {
+            throw new IllegalArgumentException("maxClients and sessionsPerClient must be positive");
+        }
+        this.maxClients = maxClients;
+        this.sessionsPerClient = sessionsPerClient;
+        this.idleTimeout = idleTimeout;
+        this.reaper = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "ZkClientRegistry-reaper");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        long interval = Math.max(1000L, Math.min(REAP_INTERVAL, idleTimeout));
+        reaper.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    evictIdle();
+                } catch (Throwable e) {
+                    LOGGER.error("evict idle zk clients failed", e);
+                }
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    public static ZkClientRegistry getInstance() {
+        return INSTANCE;
+    }
+
+    private static ZkClientRegistry create(Properties props) {
+        if (props == null) {
+            return new ZkClientRegistry(DEFAULT_MAX_CLIENTS, DEFAULT_SESSIONS_PER_CLIENT, DEFAULT_IDLE_TIMEOUT);
+        }
+        return new ZkClientRegistry(
+                NumberUtils.toInt(props.getProperty("zk.pool.maxClients"), DEFAULT_MAX_CLIENTS),
+                NumberUtils.toInt(props.getProperty("zk.pool.sessionsPerClient"), DEFAULT_SESSIONS_PER_CLIENT),
+                NumberUtils.toLong(props.getProperty("zk.pool.idleTimeout"), DEFAULT_IDLE_TIMEOUT));
+    }
+
+    /**
+     * 取得连接到指定集群的客户端的租约
+     *
+     * @param cxnString zookeeper 连接串
+     * @return 租约, 不再使用客户端时关闭
+     */
+    public Lease acquire(String cxnString) {
+        return acquire(cxnString, true);
+    }
+
+    /**
+     * @param user 为 false 时是 {@link ZkClusterServices} 的内部租约, 不算作集群在使用中
+     */
+    Lease acquire(String cxnString, boolean user) {
+        Cluster cluster = cluster(cxnString);
+        synchronized (cluster) {
+            while (true) {
+                PooledClient target = null;
+                for (PooledClient pooled : cluster.clients) {
+                    if (target == null || pooled.refs < target.refs) {
+                        target = pooled;
+                    }
+                }
+                boolean open = target == null || target.refs >= sessionsPerClient;
+                if (!open || cluster.clients.size() + cluster.opening >= maxClients) {
+                    if (target != null) {
+                        target.refs++;
+                        if (user) {
+                            cluster.userLeases++;
+                        }
+                        return new Lease(cluster, target, user);
+                    }
+                    // 能打开的客户端都还在连接
+                    waitFor(cluster);
+                    continue;
+                }
+                cluster.opening++;
+                LOGGER.info("open zk client #{} for {}", cluster.clients.size() + cluster.opening, cxnString);
+                break;
+            }
+        }
+        // 连接最多需要 CONNECTION_TIMEOUT, 已打开的客户端上的租约不必等待
+        PooledClient opened = null;
+        try {
+            ZkConnection connection = new ZkConnection(cxnString, IZkClient.DEFAULT_SESSION_TIMEOUT);
+            opened = new PooledClient(new ZkClient(connection, CONNECTION_TIMEOUT, cluster.metrics));
+        } finally {
+            synchronized (cluster) {
+                cluster.opening--;
+                if (opened != null) {
+                    opened.refs++;
+                    cluster.clients.add(opened);
+                    if (user) {
+                        cluster.userLeases++;
+                    }
+                }
+                cluster.notifyAll();
+            }
+        }
+        return new Lease(cluster, opened, user);
+    }
+
+    private static void waitFor(Cluster cluster) {
+        try {
+            cluster.wait();
+        } catch (InterruptedException e) {
+            throw new ZkInterruptedException(e);
+        }
+    }
+
+    private Cluster cluster(String cxnString) {
+        Cluster cluster = clusters.get(cxnString);
+        if (cluster == null) {
+            Cluster created = new Cluster(cxnString);
+            cluster = clusters.putIfAbsent(cxnString, created);
+            if (cluster == null) {
+                cluster = created;
+            }
+        }
+        return cluster;
+    }
+
+    /**
+     * @return 通过 {@link #acquire(String)} 取得的租约已全部释放并超过空闲时间, 或从未取得过
+     */
+    boolean isUserIdle(String cxnString, long now) {
+        Cluster cluster = clusters.get(cxnString);
+        if (cluster == null) {
+            return true;
+        }
+        synchronized (cluster) {
+            return cluster.userLeases == 0 && now - cluster.userIdleSince >= idleTimeout;
+        }
+    }
+
+    /**
+     * 每次回收空闲客户端之前执行, 任务中释放的租约在同一次回收中即可关闭
+     */
+    void addIdleTask(Runnable task) {
+        idleTasks.add(task);
+    }
+
+    private void release(Cluster cluster, PooledClient pooled, boolean user) {
+        boolean close = false;
+        synchronized (cluster) {
+            long now = System.currentTimeMillis();
+            if (user && --cluster.userLeases == 0) {
+                cluster.userIdleSince = now;
+            }
+            pooled.refs--;
+            if (pooled.refs == 0) {
+                pooled.idleSince = now;
+                if (idleTimeout <= 0) {
+                    cluster.clients.remove(pooled);
+                    close = true;
+                }
+            }
+        }
+        if (close) {
+            closeQuietly(cluster.cxnString, pooled);
+        }
+    }
+
+    /**
+     * 执行 {@link #addIdleTask(Runnable) 空闲任务}, 然后关闭没有租约且空闲超过空闲时间的客户端
+     */
+    public void evictIdle() {
+        for (Runnable task : idleTasks) {
+            task.run();
+        }
+        long now = System.currentTimeMillis();
+        for (Cluster cluster : clusters.values()) {
+            List<PooledClient> evicted = new ArrayList<PooledClient>();
+            synchronized (cluster) {
+                for (Iterator<PooledClient> it = cluster.clients.iterator(); it.hasNext(); ) {
+                    PooledClient pooled = it.next();
+                    if (pooled.refs == 0 && now - pooled.idleSince >= idleTimeout) {
+                        it.remove();
+                        evicted.add(pooled);
+                    }
+                }
+            }
+            for (PooledClient pooled : evicted) {
+                closeQuietly(cluster.cxnString, pooled);
+            }
+        }
+    }
+
+    /**
+     * 关闭所有客户端, 不论是否还有租约
+     */
+    public void shutdown() {
+        reaper.shutdownNow();
+        for (Cluster cluster : clusters.values()) {
+            List<PooledClient> all;
+            synchronized (cluster) {
+                all = new ArrayList<PooledClient>(cluster.clients);
+                cluster.clients.clear();
+            }
+            for (PooledClient pooled : all) {
+                closeQuietly(cluster.cxnString, pooled);
+            }
+        }
+    }
+
+    /**
+     * @param cxnString zookeeper 连接串
+     * @return 集群已打开的客户端数
+     */
+    public int getClientCount(String cxnString) {
+        Cluster cluster = clusters.get(cxnString);
+        if (cluster == null) {
+            return 0;
+        }
+        synchronized (cluster) {
+            return cluster.clients.size();
+        }
+    }
+
+    /**
+     * @param cxnString zookeeper 连接串
+     * @return 集群已打开的客户端上注册的监听器数
+     */
+    public int getListenerCount(String cxnString) {
+        Cluster cluster = clusters.get(cxnString);
+        if (cluster == null) {
+            return 0;
+        }
+        int count = 0;
+        synchronized (cluster) {
+            for (PooledClient pooled : cluster.clients) {
+                count += pooled.client.numberOfListeners();
+            }
+        }
+        return count;
+    }
+
+    /**
+     * 指标按集群保存, 该集群的所有客户端共用, 客户端关闭后重新打开时不丢失.
+     *
+     * @return 取得过租约的集群的指标, 按连接串
+     */
+    public Map<String, ZkMetrics> getMetrics() {
+        Map<String, ZkMetrics> metrics = new TreeMap<String, ZkMetrics>();
+        for (Cluster cluster : clusters.values()) {
+            metrics.put(cluster.cxnString, cluster.metrics);
+        }
+        return metrics;
+    }
+
+    private static void closeQuietly(String cxnString, PooledClient pooled) {
+        LOGGER.info("close idle zk client for {}", cxnString);
+        try {
+            pooled.client.close();
+        } catch (Exception e) {
+            LOGGER.warn("close zk client for " + cxnString + " failed", e);
+        }
+    }
+
+    private static class Cluster {
+        final String cxnString;
+        final List<PooledClient> clients = new ArrayList<PooledClient>();
+        final ZkMetrics metrics = new ZkMetrics();
+        /**
+         * 在锁外连接中的客户端, 计入 maxClients
+         */
+        int opening;
+        /**
+         * 通过 {@link #acquire(String)} 取得的租约数, 以及从何时起没有
+         */
+        int userLeases;
+        long userIdleSince;
+
+        Cluster(String cxnString) {
+            this.cxnString = cxnString;
+        }
+    }
+
+    private static class PooledClient {
+        final ZkClient client;
+        int refs;
+        long idleSince;
+
+        PooledClient(ZkClient client) {
+            this.client = client;
+        }
+    }
+
+    /**
+     * 共享客户端的引用. 关闭租约即释放引用, 重复关闭无效.
+     */
+    public class Lease implements Closeable {
+        private final Cluster cluster;
+        private final PooledClient pooled;
+        private final boolean user;
+        private final AtomicBoolean released = new AtomicBoolean(false);
+
+        private Lease(Cluster cluster, PooledClient pooled, boolean user) {
+            this.cluster = cluster;
+            this.pooled = pooled;
+            this.user = user;
+        }
+
+        public ZkClient getClient() {
+            return pooled.client;
+        }
+
+        public String getCxnString() {
+            return cluster.cxnString;
+        }
+
+        @Override
+        public void close() {
+            if (released.compareAndSet(false, true)) {
+                release(cluster, pooled, user);
+            }
+        }
+    }
+}
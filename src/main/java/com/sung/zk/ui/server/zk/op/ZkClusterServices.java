@@ -0,0 +1,498 @@
+package com.sung.zk.ui.server.zk.op;
+
+import com.github.zkclient.ZkTreeCache;
+import com.sung.zk.ui.server.zk.util.ConfUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.math.NumberUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * 每个集群共用的缓存、索引、订阅与复制, 各自通过 {@link ZkClientRegistry} 的内部租约使用客户端.
+ * <p>
+ * 配置了 {@code zk.cache.root} 时, 每个集群第一次用到时为该子树建立 {@link ZkTreeCache}.
+ * 配置了 {@code zk.search.root} 时, 第一次搜索时为该子树建立 {@link ZkSearchIndex}; 根路径与树缓存相同时共用树缓存,
+ * 否则使用自己的树缓存. 索引要在内存中保存整棵子树, 默认不开启. 这些缓存以及页面共用订阅的 {@link ZkWatchHub}
+ * 一直持有租约, 直到 {@link #shutdown()}; 运行中的 {@link ZkReplicator 复制} 持有源与目标集群的租约, 直到停止.
+ * </p>
+ * <p>
+ * 每个集群还有一个 {@code zk.cache.maxBytes} 字节的 {@link ZkNodeCache} (为 0 时不启用). 它只在集群使用中持有租约:
+ * 会话租约全部释放并超过空闲时间后, 随注册表的空闲回收丢弃, 客户端随后照常空闲关闭.
+ * </p>
+ */
+public class ZkClusterServices {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ZkClusterServices.class);
+
+    public static final long DEFAULT_NODE_CACHE_BYTES = 16 * 1024 * 1024L;
+
+    private static final ZkClusterServices INSTANCE = create(ConfUtils.getConxtions(), ZkClientRegistry.getInstance());
+
+    private final ZkClientRegistry registry;
+    private final ConcurrentMap<String, Cluster> clusters = new ConcurrentHashMap<String, Cluster>();
+    private final Map<String, Replication> replications = new TreeMap<String, Replication>();
+    private final String treeCacheRoot;
+    private final long nodeCacheBytes;
+    private final String searchRoot;
+
+    /**
+     * @param treeCacheRoot  树缓存的根路径, 为 null 时不启用
+     * @param nodeCacheBytes 节点缓存的字节数, 为 0 时不启用
+     * @param searchRoot     搜索索引的根路径, 为 null 时不启用
+     */
+    public ZkClusterServices(ZkClientRegistry registry, String treeCacheRoot, long nodeCacheBytes, String searchRoot) {
+        this.registry = registry;
+        this.treeCacheRoot = treeCacheRoot;
+        this.nodeCacheBytes = nodeCacheBytes;
+        this.searchRoot = searchRoot;
+        registry.addIdleTask(new Runnable() {
+            @Override
+            public void run() {
+                dropIdleNodeCaches();
+            }
+        });
+    }
+
+    public static ZkClusterServices getInstance() {
+        return INSTANCE;
+    }
+
+    private static ZkClusterServices create(Properties props, ZkClientRegistry registry) {
+        if (props == null) {
+            return new ZkClusterServices(registry, null, DEFAULT_NODE_CACHE_BYTES, null);
+        }
+        return new ZkClusterServices(registry,
+                StringUtils.trimToNull(props.getProperty("zk.cache.root")),
+                NumberUtils.toLong(StringUtils.trim(props.getProperty("zk.cache.maxBytes")), DEFAULT_NODE_CACHE_BYTES),
+                StringUtils.trimToNull(props.getProperty("zk.search.root")));
+    }
+
+    private Cluster cluster(String cxnString) {
+        Cluster cluster = clusters.get(cxnString);
+        if (cluster == null) {
+            Cluster created = new Cluster(cxnString);
+            cluster = clusters.putIfAbsent(cxnString, created);
+            if (cluster == null) {
+                cluster = created;
+            }
+        }
+        return cluster;
+    }
+
+    /**
+     * 第一次调用时启动, 在后台加载; 加载完成之前不 {@link ZkTreeCache#covers(String) 覆盖} 任何路径,
+     * 调用方直接回退到 zookeeper.
+     *
+     * @param cxnString zookeeper 连接串
+     * @return 集群的树缓存, 未配置 {@code zk.cache.root} 时为 null
+     */
+    public ZkTreeCache getTreeCache(String cxnString) {
+        if (treeCacheRoot == null) {
+            return null;
+        }
+        Cluster cluster = cluster(cxnString);
+        synchronized (cluster) {
+            if (cluster.treeCache != null) {
+                return cluster.treeCache;
+            }
+        }
+        // 取得租约可能要连接, 在锁外进行; 并发时落选者的租约随即释放
+        ZkClientRegistry.Lease lease = registry.acquire(cxnString, false);
+        ZkTreeCache cache;
+        synchronized (cluster) {
+            if (cluster.treeCache == null) {
+                LOGGER.info("start tree cache of {} for {}", treeCacheRoot, cxnString);
+                cluster.treeCacheLease = lease;
+                cluster.treeCache = new ZkTreeCache(lease.getClient(), treeCacheRoot);
+                cluster.treeCache.start();
+                lease = null;
+            }
+            cache = cluster.treeCache;
+        }
+        if (lease != null) {
+            lease.close();
+        }
+        return cache;
+    }
+
+    /**
+     * @param cxnString zookeeper 连接串
+     * @return 集群的节点缓存, {@code zk.cache.maxBytes} 为 0 时为 null
+     */
+    public ZkNodeCache getNodeCache(String cxnString) {
+        if (nodeCacheBytes <= 0) {
+            return null;
+        }
+        Cluster cluster = cluster(cxnString);
+        synchronized (cluster) {
+            if (cluster.nodeCache != null) {
+                return cluster.nodeCache;
+            }
+        }
+        ZkClientRegistry.Lease lease = registry.acquire(cxnString, false);
+        ZkNodeCache cache;
+        synchronized (cluster) {
+            if (cluster.nodeCache == null) {
+                cluster.nodeCacheLease = lease;
+                cluster.nodeCache = new ZkNodeCache(lease.getClient(), nodeCacheBytes);
+                lease = null;
+            }
+            cache = cluster.nodeCache;
+        }
+        if (lease != null) {
+            lease.close();
+        }
+        return cache;
+    }
+
+    /**
+     * 第一次调用时建立索引; 缓存加载完成之前搜索可能漏掉节点.
+     *
+     * @param cxnString zookeeper 连接串
+     * @return 集群的搜索索引, 未启用搜索时为 null
+     */
+    public ZkSearchIndex getSearchIndex(String cxnString) {
+        if (searchRoot == null) {
+            return null;
+        }
+        Cluster cluster = cluster(cxnString);
+        synchronized (cluster) {
+            if (cluster.searchIndex != null) {
+                return cluster.searchIndex;
+            }
+        }
+        ZkTreeCache shared = searchRoot.equals(treeCacheRoot) ? getTreeCache(cxnString) : null;
+        ZkClientRegistry.Lease lease = shared == null ? registry.acquire(cxnString, false) : null;
+        ZkSearchIndex index;
+        synchronized (cluster) {
+            if (cluster.searchIndex == null) {
+                ZkTreeCache cache = shared;
+                if (cache == null) {
+                    LOGGER.info("start search cache of {} for {}", searchRoot, cxnString);
+                    cluster.searchCacheLease = lease;
+                    cluster.searchCache = new ZkTreeCache(lease.getClient(), searchRoot);
+                    cache = cluster.searchCache;
+                    lease = null;
+                }
+                cluster.searchIndex = new ZkSearchIndex(cache);
+                // 在自己的缓存开始加载之前监听; 共用的缓存会重放已有的节点
+                cluster.searchIndex.start();
+                if (cache == cluster.searchCache) {
+                    cache.start();
+                }
+            }
+            index = cluster.searchIndex;
+        }
+        if (lease != null) {
+            lease.close();
+        }
+        return index;
+    }
+
+    /**
+     * @param cxnString zookeeper 连接串
+     * @return 集群的订阅中心, 第一次调用时创建
+     */
+    public ZkWatchHub getWatchHub(String cxnString) {
+        Cluster cluster = cluster(cxnString);
+        synchronized (cluster) {
+            if (cluster.watchHub != null) {
+                return cluster.watchHub;
+            }
+        }
+        ZkClientRegistry.Lease lease = registry.acquire(cxnString, false);
+        ZkWatchHub hub;
+        synchronized (cluster) {
+            if (cluster.watchHub == null) {
+                cluster.watchHubLease = lease;
+                cluster.watchHub = new ZkWatchHub(lease.getClient());
+                lease = null;
+            }
+            hub = cluster.watchHub;
+        }
+        if (lease != null) {
+            lease.close();
+        }
+        return hub;
+    }
+
+    /**
+     * @return 已启动的树缓存, 按连接串
+     */
+    public Map<String, ZkTreeCache> getTreeCaches() {
+        Map<String, ZkTreeCache> caches = new TreeMap<String, ZkTreeCache>();
+        for (Cluster cluster : clusters.values()) {
+            synchronized (cluster) {
+                if (cluster.treeCache != null) {
+                    caches.put(cluster.cxnString, cluster.treeCache);
+                }
+            }
+        }
+        return caches;
+    }
+
+    /**
+     * @return 节点缓存, 按连接串
+     */
+    public Map<String, ZkNodeCache> getNodeCaches() {
+        Map<String, ZkNodeCache> caches = new TreeMap<String, ZkNodeCache>();
+        for (Cluster cluster : clusters.values()) {
+            synchronized (cluster) {
+                if (cluster.nodeCache != null) {
+                    caches.put(cluster.cxnString, cluster.nodeCache);
+                }
+            }
+        }
+        return caches;
+    }
+
+    /**
+     * @return 已建立的搜索索引, 按连接串
+     */
+    public Map<String, ZkSearchIndex> getSearchIndexes() {
+        Map<String, ZkSearchIndex> indexes = new TreeMap<String, ZkSearchIndex>();
+        for (Cluster cluster : clusters.values()) {
+            synchronized (cluster) {
+                if (cluster.searchIndex != null) {
+                    indexes.put(cluster.cxnString, cluster.searchIndex);
+                }
+            }
+        }
+        return indexes;
+    }
+
+    /**
+     * @return 已创建的订阅中心, 按连接串
+     */
+    public Map<String, ZkWatchHub> getWatchHubs() {
+        Map<String, ZkWatchHub> hubs = new TreeMap<String, ZkWatchHub>();
+        for (Cluster cluster : clusters.values()) {
+            synchronized (cluster) {
+                if (cluster.watchHub != null) {
+                    hubs.put(cluster.cxnString, cluster.watchHub);
+                }
+            }
+        }
+        return hubs;
+    }
+
+    /**
+     * 把一棵子树持续复制到另一个集群 (或同一集群的另一路径), 同样的复制已在运行时直接返回它.
+     *
+     * @return 运行中的复制
+     * @throws IllegalArgumentException 源与目标重叠
+     */
+    public ZkReplicator startReplication(String sourceCxn, String sourceRoot, String targetCxn, String targetRoot) {
+        if (sourceCxn.equals(targetCxn) && (isSameOrBelow(sourceRoot, targetRoot) || isSameOrBelow(targetRoot, sourceRoot))) {
+            throw new IllegalArgumentException("source " + sourceRoot + " and target " + targetRoot + " overlap");
+        }
+        synchronized (replications) {
+            ZkReplicator running = findReplication(sourceCxn, sourceRoot, targetCxn, targetRoot);
+            if (running != null) {
+                return running;
+            }
+        }
+        // 连接与启动可能很慢 (目标集群可能不可用), 其他调用方不必等待
+        Replication replication = startReplication(sourceCxn, sourceRoot, targetCxn, targetRoot,
+                registry.acquire(sourceCxn, false));
+        synchronized (replications) {
+            ZkReplicator running = findReplication(sourceCxn, sourceRoot, targetCxn, targetRoot);
+            if (running == null) {
+                replications.put(replication.replicator.getId(), replication);
+                return replication.replicator;
+            }
+            // 其他调用方已同时启动
+            replication.close();
+            return running;
+        }
+    }
+
+    private Replication startReplication(String sourceCxn, String sourceRoot, String targetCxn, String targetRoot,
+                                         ZkClientRegistry.Lease source) {
+        ZkClientRegistry.Lease target = null;
+        ZkReplicator replicator = null;
+        try {
+            target = registry.acquire(targetCxn, false);
+            replicator = new ZkReplicator(sourceCxn, source.getClient(), sourceRoot, targetCxn, target.getClient(),
+                    targetRoot);
+            replicator.start();
+            return new Replication(replicator, source, target);
+        } catch (RuntimeException e) {
+            if (replicator != null) {
+                replicator.stop();
+            }
+            if (target != null) {
+                target.close();
+            }
+            source.close();
+            throw e;
+        }
+    }
+
+    /**
+     * 由 replications 保护
+     */
+    private ZkReplicator findReplication(String sourceCxn, String sourceRoot, String targetCxn, String targetRoot) {
+        for (Replication replication : replications.values()) {
+            ZkReplicator running = replication.replicator;
+            if (running.getSourceCxn().equals(sourceCxn) && running.getSourceRoot().equals(sourceRoot)
+                    && running.getTargetCxn().equals(targetCxn) && running.getTargetRoot().equals(targetRoot)) {
+                return running;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param id {@link ZkReplicator#getId()}
+     * @return 没有这个复制在运行时为 false
+     */
+    public boolean stopReplication(String id) {
+        Replication replication;
+        synchronized (replications) {
+            replication = replications.remove(id);
+        }
+        if (replication == null) {
+            return false;
+        }
+        replication.close();
+        return true;
+    }
+
+    /**
+     * @return 运行中的复制, 按 id
+     */
+    public Map<String, ZkReplicator> getReplications() {
+        Map<String, ZkReplicator> running = new TreeMap<String, ZkReplicator>();
+        synchronized (replications) {
+            for (Map.Entry<String, Replication> entry : replications.entrySet()) {
+                running.put(entry.getKey(), entry.getValue().replicator);
+            }
+        }
+        return running;
+    }
+
+    private static boolean isSameOrBelow(String path, String root) {
+        return "/".equals(root) || path.equals(root) || path.startsWith(root + "/");
+    }
+
+    /**
+     * 丢弃会话租约已空闲超过空闲时间的集群的节点缓存, 在注册表回收空闲客户端之前执行
+     */
+    private void dropIdleNodeCaches() {
+        long now = System.currentTimeMillis();
+        for (Cluster cluster : clusters.values()) {
+            ZkClientRegistry.Lease lease = null;
+            synchronized (cluster) {
+                if (cluster.nodeCache != null && registry.isUserIdle(cluster.cxnString, now)) {
+                    LOGGER.info("drop idle node cache of {}", cluster.cxnString);
+                    cluster.nodeCache.clear();
+                    cluster.nodeCache = null;
+                    lease = cluster.nodeCacheLease;
+                    cluster.nodeCacheLease = null;
+                }
+            }
+            if (lease != null) {
+                // 客户端随后照常空闲关闭
+                lease.close();
+            }
+        }
+    }
+
+    /**
+     * 停止所有复制, 关闭所有缓存、索引与订阅中心并释放它们的租约
+     */
+    public void shutdown() {
+        List<Replication> running;
+        synchronized (replications) {
+            running = new ArrayList<Replication>(replications.values());
+            replications.clear();
+        }
+        for (Replication replication : running) {
+            replication.close();
+        }
+        for (Cluster cluster : clusters.values()) {
+            List<ZkClientRegistry.Lease> leases = new ArrayList<ZkClientRegistry.Lease>();
+            synchronized (cluster) {
+                if (cluster.searchIndex != null) {
+                    cluster.searchIndex.close();
+                    cluster.searchIndex = null;
+                }
+                if (cluster.searchCache != null) {
+                    cluster.searchCache.close();
+                    cluster.searchCache = null;
+                    leases.add(cluster.searchCacheLease);
+                    cluster.searchCacheLease = null;
+                }
+                if (cluster.treeCache != null) {
+                    cluster.treeCache.close();
+                    cluster.treeCache = null;
+                    leases.add(cluster.treeCacheLease);
+                    cluster.treeCacheLease = null;
+                }
+                if (cluster.watchHub != null) {
+                    cluster.watchHub.close();
+                    cluster.watchHub = null;
+                    leases.add(cluster.watchHubLease);
+                    cluster.watchHubLease = null;
+                }
+                if (cluster.nodeCache != null) {
+                    cluster.nodeCache.clear();
+                    cluster.nodeCache = null;
+                    leases.add(cluster.nodeCacheLease);
+                    cluster.nodeCacheLease = null;
+                }
+            }
+            for (ZkClientRegistry.Lease lease : leases) {
+                lease.close();
+            }
+        }
+    }
+
+    /**
+     * 一个集群的缓存、索引与订阅中心, 以及它们各自的租约; 由自身保护
+     */
+    private static class Cluster {
+        final String cxnString;
+        ZkTreeCache treeCache;
+        ZkClientRegistry.Lease treeCacheLease;
+        ZkNodeCache nodeCache;
+        ZkClientRegistry.Lease nodeCacheLease;
+        ZkSearchIndex searchIndex;
+        ZkTreeCache searchCache;
+        ZkClientRegistry.Lease searchCacheLease;
+        ZkWatchHub watchHub;
+        ZkClientRegistry.Lease watchHubLease;
+
+        Cluster(String cxnString) {
+            this.cxnString = cxnString;
+        }
+    }
+
+    private static class Replication implements Closeable {
+        final ZkReplicator replicator;
+        final ZkClientRegistry.Lease source;
+        final ZkClientRegistry.Lease target;
+
+        Replication(ZkReplicator replicator, ZkClientRegistry.Lease source, ZkClientRegistry.Lease target) {
+            this.replicator = replicator;
+            this.source = source;
+            this.target = target;
+        }
+
+        @Override
+        public void close() {
+            replicator.stop();
+            source.close();
+            target.close();
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package com.sung.zk.ui.server.zk.op;
+
+import com.sung.zk.ui.server.zk.entity.ZkNodeRecord;
+import org.apache.zookeeper.data.ACL;
+import org.apache.zookeeper.data.Id;
+import org.apache.zookeeper.data.Stat;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * 子树导出文件格式, 所有字段定长或带长度前缀, 可以边读边写:
+ * <pre>
+ * header : int magic "ZKX1", int version, string root
+ * node   : byte 1, string path (相对 root), bytes data (-1 表示 null), stat, int aclCount, (int perms, string scheme, string id)*
+ * end    : byte 0, long nodeCount
+ * string : int length, UTF-8 bytes
+ * stat   : long czxid, long mzxid, long ctime, long mtime, int version, int cversion, int aversion,
+ *          long ephemeralOwner, int dataLength, int numChildren, long pzxid
+ * </pre>
+ * 父节点总是在子节点之前. 整个文件可以 gzip 压缩, 读取时自动识别.
+ */
+public class ZkExportFormat {
+
+    public static final int MAGIC = 0x5A4B5831;
+    public static final int VERSION = 1;
+
+    private static final byte NODE = 1;
+    private static final byte END = 0;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    public static class Writer implements Closeable {
+        private final DataOutputStream out;
+        private long count;
+
+        public Writer(OutputStream output, String root, boolean gzip) throws IOException {
+            OutputStream stream = new BufferedOutputStream(output, BUFFER_SIZE);
+            if (gzip) {
+                stream = new GZIPOutputStream(stream, BUFFER_SIZE);
+            }
+            out = new DataOutputStream(stream);
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            writeString(root);
+        }
+
+        public void write(String path, byte[] data, Stat stat, List<ACL> acl) throws IOException {
+            out.writeByte(NODE);
+            writeString(path);
+            if (data == null) {
+                out.writeInt(-1);
+            } else {
+                out.writeInt(data.length);
+                out.write(data);
+            }
+            out.writeLong(stat.getCzxid());
+            out.writeLong(stat.getMzxid());
+            out.writeLong(stat.getCtime());
+            out.writeLong(stat.getMtime());
+            out.writeInt(stat.getVersion());
+            out.writeInt(stat.getCversion());
+            out.writeInt(stat.getAversion());
+            out.writeLong(stat.getEphemeralOwner());
+            out.writeInt(stat.getDataLength());
+            out.writeInt(stat.getNumChildren());
+            out.writeLong(stat.getPzxid());
+            out.writeInt(acl.size());
+            for (ACL entry : acl) {
+                out.writeInt(entry.getPerms());
+                writeString(entry.getId().getScheme());
+                writeString(entry.getId().getId());
+            }
+            count++;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * 写入结束标记; 未调用 close 的文件 (例如导出中途失败) 读取时会报告不完整
+         */
+        @Override
+        public void close() throws IOException {
+            out.writeByte(END);
+            out.writeLong(count);
+            out.close();
+        }
+
+        private void writeString(String value) throws IOException {
+            byte[] bytes = value.getBytes(UTF8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    public static class Reader implements Closeable {
+        private final DataInputStream in;
+        private final String root;
+        private long count;
+        private boolean end;
+
+        public Reader(InputStream input) throws IOException {
+            InputStream stream = new BufferedInputStream(input, BUFFER_SIZE);
+            stream.mark(2);
+            int b1 = stream.read();
+            int b2 = stream.read();
+            stream.reset();
+            if (b1 == (GZIPInputStream.GZIP_MAGIC & 0xff) && b2 == (GZIPInputStream.GZIP_MAGIC >> 8)) {
+                stream = new BufferedInputStream(new GZIPInputStream(stream, BUFFER_SIZE), BUFFER_SIZE);
+            }
+            in = new DataInputStream(stream);
+            if (in.readInt() != MAGIC) {
+                throw new IOException("not a zk export file");
+            }
+            int version = in.readInt();
+            if (version != VERSION) {
+                throw new IOException("unsupported zk export version " + version);
+            }
+            root = readString();
+        }
+
+        /**
+         * @return 导出时的根节点路径
+         */
+        public String getRoot() {
+            return root;
+        }
+
+        /**
+         * @return 下一个节点, 读完时为 null
+         * @throws IOException 文件损坏或不完整
+         */
+        public ZkNodeRecord next() throws IOException {
+            if (end) {
+                return null;
+            }
+            byte tag;
+            try {
+                tag = in.readByte();
+            } catch (EOFException e) {
+                throw new IOException("truncated zk export file after " + count + " nodes");
+            }
+            if (tag == END) {
+                long expected = in.readLong();
+                if (expected != count) {
+                    throw new IOException("zk export file holds " + count + " nodes, expected " + expected);
+                }
+                end = true;
+                return null;
+            }
+            if (tag != NODE) {
+                throw new IOException("corrupt zk export file after " + count + " nodes");
+            }
+            String path = readString();
+            int length = in.readInt();
+            byte[] data = null;
+            if (length >= 0) {
+                data = new byte[length];
+                in.readFully(data);
+            }
+            Stat stat = new Stat(in.readLong(), in.readLong(), in.readLong(), in.readLong(), in.readInt(),
+                    in.readInt(), in.readInt(), in.readLong(), in.readInt(), in.readInt(), in.readLong());
+            int aclCount = in.readInt();
+            List<ACL> acl = new ArrayList<ACL>(aclCount);
+            for (int i = 0; i < aclCount; i++) {
+                int perms = in.readInt();
+                acl.add(new ACL(perms, new Id(readString(), readString())));
+            }
+            count++;
+            return new ZkNodeRecord(path, data, stat, acl);
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+
+        private String readString() throws IOException {
+            int length = in.readInt();
+            if (length < 0) {
+                throw new IOException("corrupt zk export file after " + count + " nodes");
+            }
+            byte[] bytes = new byte[length];
+            in.readFully(bytes);
+            return new String(bytes, UTF8);
+        }
+    }
+}
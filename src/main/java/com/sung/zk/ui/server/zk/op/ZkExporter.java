@@ -0,0 +1,101 @@
+package com.sung.zk.ui.server.zk.op;
+
+import com.github.zkclient.IZkTreeVisitor;
+import com.github.zkclient.ZkClient;
+import com.github.zkclient.ZkFuture;
+import com.github.zkclient.exception.ZkNoNodeException;
+import org.apache.zookeeper.data.ACL;
+import org.apache.zookeeper.data.Stat;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * 子树导出: walk 读取数据与 Stat, 每个节点的 ACL 异步读取, 按遍历顺序边读边写.
+ * <p>
+ * 同时等待 ACL 的节点不超过 {@link #MAX_IN_FLIGHT} 个, 已写出的节点不再保留. 遍历队列保存待展开节点的子节点名,
+ * 超过上限后只保存父节点路径 (见 ZkTreeWalker), 因此内存随子树的宽度增长, 但与节点数据和总节点数无关.
+ * </p>
+ */
+class ZkExporter implements IZkTreeVisitor {
+
+    static final int MAX_IN_FLIGHT = 256;
+
+    private final ZkClient client;
+    private final String root;
+    private final ZkExportFormat.Writer writer;
+    private final Deque<Pending> pending = new ArrayDeque<Pending>(MAX_IN_FLIGHT);
+
+    private ZkExporter(ZkClient client, String root, ZkExportFormat.Writer writer) {
+        this.client = client;
+        this.root = root;
+        this.writer = writer;
+    }
+
+    /**
+     * @return 导出的节点数
+     */
+    static long export(ZkClient client, String root, OutputStream out, boolean gzip) throws IOException {
+        ZkExportFormat.Writer writer = new ZkExportFormat.Writer(out, root, gzip);
+        ZkExporter exporter = new ZkExporter(client, root, writer);
+        try {
+            client.walk(root, exporter, MAX_IN_FLIGHT, -1, true);
+        } catch (RuntimeException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw e;
+        }
+        while (!exporter.pending.isEmpty()) {
+            exporter.writeOldest();
+        }
+        // 只有完整导出才写结束标记
+        writer.close();
+        return writer.getCount();
+    }
+
+    @Override
+    public boolean visit(String path, int depth, Stat stat, byte[] data, List<String> children) throws IOException {
+        if (pending.size() >= MAX_IN_FLIGHT) {
+            writeOldest();
+        }
+        pending.addLast(new Pending(path, data, stat, client.getAclAsync(path, null)));
+        return true;
+    }
+
+    private void writeOldest() throws IOException {
+        Pending node = pending.removeFirst();
+        List<ACL> acl;
+        try {
+            acl = node.acl.join();
+        } catch (ZkNoNodeException e) {
+            // 遍历过程中被删除
+            return;
+        }
+        writer.write(relativePath(node.path), node.data, node.stat, acl);
+    }
+
+    private String relativePath(String path) {
+        if (path.equals(root)) {
+            return "";
+        }
+        return "/".equals(root) ? path : path.substring(root.length());
+    }
+
+    private static class Pending {
+        final String path;
+        final byte[] data;
+        final Stat stat;
+        final ZkFuture<List<ACL>> acl;
+
+        Pending(String path, byte[] data, Stat stat, ZkFuture<List<ACL>> acl) {
+            this.path = path;
+            this.data = data;
+            this.stat = stat;
+            this.acl = acl;
+        }
+    }
+}
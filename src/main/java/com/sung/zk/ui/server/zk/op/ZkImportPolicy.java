@@ -0,0 +1,31 @@
+package com.sung.zk.ui.server.zk.op;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * 导入时目标节点已存在的处理方式
+ */
+public enum ZkImportPolicy {
+    /**
+     * 保留已存在的节点, 只创建缺少的节点
+     */
+    SKIP_EXISTING,
+    /**
+     * 用导入的数据覆盖已存在的节点 (ACL 不变)
+     */
+    OVERWRITE,
+    /**
+     * 遇到已存在的节点时停止导入, 已提交的批次不回滚
+     */
+    FAIL_FAST;
+
+    /**
+     * @param name 例如 skip-existing, 为空时返回 SKIP_EXISTING
+     */
+    public static ZkImportPolicy parse(String name) {
+        if (StringUtils.isBlank(name)) {
+            return SKIP_EXISTING;
+        }
+        return valueOf(StringUtils.upperCase(StringUtils.trim(name)).replace('-', '_'));
+    }
+}
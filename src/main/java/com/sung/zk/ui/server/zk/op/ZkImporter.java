@@ -0,0 +1,360 @@
+package com.sung.zk.ui.server.zk.op;
+
+import com.github.zkclient.IZkClient;
+import com.github.zkclient.ZkClient;
+import com.github.zkclient.ZkFuture;
+import com.github.zkclient.exception.ZkInterruptedException;
+import com.github.zkclient.exception.ZkNoNodeException;
+import com.github.zkclient.exception.ZkNodeExistsException;
+import com.sung.zk.ui.server.zk.entity.ZkImportResult;
+import com.sung.zk.ui.server.zk.entity.ZkNodeRecord;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.Op;
+import org.apache.zookeeper.OpResult;
+import org.apache.zookeeper.ZooDefs;
+import org.apache.zookeeper.data.ACL;
+import org.apache.zookeeper.data.Stat;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 子树导入: 顺序读取导出文件, 以 multi 批量创建节点, 多个批次并发提交.
+ * <p>
+ * 同一深度的节点互不依赖, 可以并发写入; 深度变化时先等待已提交的批次全部完成, 保证父节点先于子节点存在.
+ * 导出文件按广度优先排列, 因此每一层只等待一次. 提交中的批次不超过 concurrency 个, 读取线程在此之前阻塞,
+ * 内存占用与文件大小无关.
+ * </p>
+ * <p>
+ * 每批先直接创建; 有节点已存在时整批回滚, 再按 policy 用 exists 结果重新组织该批次.
+ * 临时节点属于导出时的会话, 不导入.
+ * </p>
+ */
+class ZkImporter {
+
+    static final int MAX_BATCH_OPS = 1000;
+
+    /**
+     * create 操作除路径、数据和 ACL 之外的序列化大小: 操作头, 长度前缀和 flags
+     */
+    private static final int OP_OVERHEAD = 32;
+
+    /**
+     * 批次与其他客户端的创建或删除冲突时的重试次数
+     */
+    private static final int MAX_ATTEMPTS = 5;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final ZkClient client;
+    private final String target;
+    private final ZkImportPolicy policy;
+    private final IZkClient.ProgressListener listener;
+    private final int maxBatchBytes;
+    private final Semaphore permits;
+    private final ExecutorService executor;
+    private final List<Future<?>> inFlight = new ArrayList<Future<?>>();
+
+    private final AtomicInteger read = new AtomicInteger();
+    private final AtomicInteger done = new AtomicInteger();
+    private final AtomicLong created = new AtomicLong();
+    private final AtomicLong updated = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+    private volatile RuntimeException failure;
+
+    private ZkImporter(ZkClient client, String target, ZkImportPolicy policy, int concurrency,
+                       IZkClient.ProgressListener listener) {
+        this.client = client;
+        this.target = target;
+        this.policy = policy;
+        this.listener = listener;
+        // 服务端请求上限的一半, 给 multi 头和客户端的封包留出余量
+        this.maxBatchBytes = Integer.getInteger("jute.maxbuffer", 0xfffff) / 2;
+        this.permits = new Semaphore(concurrency);
+        this.executor = Executors.newFixedThreadPool(concurrency, new ThreadFactory() {
+            private final AtomicInteger seq = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "zk-import-" + seq.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    /**
+     * @param target      导入到的节点, 对应导出文件的根节点
+     * @param concurrency 同时提交的批次数
+     * @param listener    每批完成后通知 (done: 已处理节点数, total: 已读取节点数), 可以为 null
+     */
+    static ZkImportResult load(ZkClient client, String target, ZkExportFormat.Reader reader, ZkImportPolicy policy,
+                               int concurrency, IZkClient.ProgressListener listener) throws IOException {
+        ZkImporter importer = new ZkImporter(client, target, policy, concurrency, listener);
+        long start = System.currentTimeMillis();
+        try {
+            importer.run(reader);
+        } finally {
+            importer.executor.shutdownNow();
+        }
+        return new ZkImportResult(importer.read.get(), importer.created.get(), importer.updated.get(),
+                importer.skipped.get(), System.currentTimeMillis() - start);
+    }
+
+    private void run(ZkExportFormat.Reader reader) throws IOException {
+        ensureParent(target);
+        List<ZkNodeRecord> batch = new ArrayList<ZkNodeRecord>();
+        int batchBytes = 0;
+        int batchDepth = -1;
+        ZkNodeRecord record;
+        while ((record = reader.next()) != null) {
+            read.incrementAndGet();
+            if (record.getPath().isEmpty()) {
+                importRoot(record);
+                continue;
+            }
+            int depth = depthOf(record.getPath());
+            int size = sizeOf(record);
+            if (!batch.isEmpty() && (depth != batchDepth || batch.size() >= MAX_BATCH_OPS
+                    || batchBytes + size > maxBatchBytes)) {
+                submit(batch);
+                batch = new ArrayList<ZkNodeRecord>();
+                batchBytes = 0;
+            }
+            if (depth != batchDepth) {
+                // 上一层的节点全部写入后才能创建这一层
+                barrier();
+                batchDepth = depth;
+            }
+            batch.add(record);
+            batchBytes += size;
+        }
+        if (!batch.isEmpty()) {
+            submit(batch);
+        }
+        barrier();
+    }
+
+    private void submit(final List<ZkNodeRecord> batch) {
+        if (failure != null) {
+            barrier();
+        }
+        // 很宽的一层会提交大量批次, 只保留未完成的
+        for (Iterator<Future<?>> it = inFlight.iterator(); it.hasNext(); ) {
+            if (it.next().isDone()) {
+                it.remove();
+            }
+        }
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            throw new ZkInterruptedException(e);
+        }
+        try {
+            inFlight.add(executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        if (failure == null) {
+                            apply(batch);
+                        }
+                    } catch (RuntimeException e) {
+                        if (failure == null) {
+                            failure = e;
+                        }
+                    } finally {
+                        permits.release();
+                    }
+                }
+            }));
+        } catch (RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * 等待所有已提交的批次, 有批次失败时抛出第一个错误
+     */
+    private void barrier() {
+        for (Future<?> future : inFlight) {
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                throw new ZkInterruptedException(e);
+            } catch (ExecutionException e) {
+                throw new IllegalStateException(e.getCause());
+            }
+        }
+        inFlight.clear();
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private void apply(List<ZkNodeRecord> batch) {
+        for (int attempt = 1; ; attempt++) {
+            List<Op> ops = new ArrayList<Op>(batch.size());
+            int creates = 0;
+            int sets = 0;
+            int skips = 0;
+            if (attempt == 1) {
+                for (ZkNodeRecord record : batch) {
+                    if (isEphemeral(record)) {
+                        skips++;
+                    } else {
+                        ops.add(createOp(record));
+                        creates++;
+                    }
+                }
+            } else {
+                List<ZkFuture<Stat>> stats = new ArrayList<ZkFuture<Stat>>(batch.size());
+                for (ZkNodeRecord record : batch) {
+                    stats.add(isEphemeral(record) ? null : client.existsAsync(pathOf(record)));
+                }
+                for (int i = 0; i < batch.size(); i++) {
+                    ZkNodeRecord record = batch.get(i);
+                    if (stats.get(i) == null) {
+                        skips++;
+                    } else if (stats.get(i).join() == null) {
+                        ops.add(createOp(record));
+                        creates++;
+                    } else if (policy == ZkImportPolicy.OVERWRITE) {
+                        ops.add(Op.setData(pathOf(record), record.getData(), -1));
+                        sets++;
+                    } else if (policy == ZkImportPolicy.FAIL_FAST) {
+                        throw new ZkNodeExistsException("node already exists: " + pathOf(record));
+                    } else {
+                        skips++;
+                    }
+                }
+            }
+            try {
+                if (!ops.isEmpty()) {
+                    client.multi(ops);
+                }
+                created.addAndGet(creates);
+                updated.addAndGet(sets);
+                skipped.addAndGet(skips);
+                progress(batch.size());
+                return;
+            } catch (ZkNodeExistsException e) {
+                if (policy == ZkImportPolicy.FAIL_FAST) {
+                    KeeperException cause = e.getCause() instanceof KeeperException ? (KeeperException) e.getCause() : null;
+                    throw new ZkNodeExistsException("node already exists: " + existingPath(cause, ops), cause);
+                }
+                if (attempt >= MAX_ATTEMPTS) {
+                    throw e;
+                }
+            } catch (ZkNoNodeException e) {
+                // 覆盖的节点在 exists 之后被删除
+                if (attempt >= MAX_ATTEMPTS) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    private void importRoot(ZkNodeRecord record) {
+        try {
+            client.create(target, record.getData(), aclOf(record), CreateMode.PERSISTENT);
+            created.incrementAndGet();
+        } catch (ZkNodeExistsException e) {
+            // 导入到已存在的节点下是正常用法, 根节点本身不算冲突
+            if (policy == ZkImportPolicy.OVERWRITE) {
+                client.writeData(target, record.getData());
+                updated.incrementAndGet();
+            } else {
+                skipped.incrementAndGet();
+            }
+        }
+        progress(1);
+    }
+
+    private void ensureParent(String path) {
+        int index = path.lastIndexOf('/');
+        if (index > 0) {
+            client.createPersistent(path.substring(0, index), true);
+        }
+    }
+
+    private void progress(int count) {
+        int processed = done.addAndGet(count);
+        if (listener != null) {
+            synchronized (listener) {
+                listener.onProgress(processed, read.get());
+            }
+        }
+    }
+
+    private Op createOp(ZkNodeRecord record) {
+        return Op.create(pathOf(record), record.getData(), aclOf(record), CreateMode.PERSISTENT);
+    }
+
+    private String pathOf(ZkNodeRecord record) {
+        return "/".equals(target) ? record.getPath() : target + record.getPath();
+    }
+
+    private static List<ACL> aclOf(ZkNodeRecord record) {
+        List<ACL> acl = record.getAcl();
+        return acl == null || acl.isEmpty() ? ZooDefs.Ids.OPEN_ACL_UNSAFE : acl;
+    }
+
+    private static boolean isEphemeral(ZkNodeRecord record) {
+        return record.getStat() != null && record.getStat().getEphemeralOwner() != 0;
+    }
+
+    private static int depthOf(String path) {
+        int depth = 0;
+        for (int i = 0; i < path.length(); i++) {
+            if (path.charAt(i) == '/') {
+                depth++;
+            }
+        }
+        return depth;
+    }
+
+    private static int sizeOf(ZkNodeRecord record) {
+        int size = record.getPath().getBytes(UTF_8).length + OP_OVERHEAD;
+        if (record.getData() != null) {
+            size += record.getData().length;
+        }
+        if (record.getAcl() != null) {
+            for (ACL acl : record.getAcl()) {
+                size += acl.getId().getScheme().length() + acl.getId().getId().length() + 12;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * 失败的 multi 在结果中标出第一个出错的操作
+     */
+    private static String existingPath(KeeperException e, List<Op> ops) {
+        if (e != null) {
+            List<OpResult> results = e.getResults();
+            if (results != null) {
+                for (int i = 0; i < results.size() && i < ops.size(); i++) {
+                    OpResult result = results.get(i);
+                    if (result instanceof OpResult.ErrorResult
+                            && ((OpResult.ErrorResult) result).getErr() == KeeperException.Code.NODEEXISTS.intValue()) {
+                        return ops.get(i).getPath();
+                    }
+                }
+            }
+        }
+        return "unknown";
+    }
+}
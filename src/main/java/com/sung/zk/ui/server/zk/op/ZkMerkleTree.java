@@ -0,0 +1,427 @@
+package com.sung.zk.ui.server.zk.op;
+
+import com.github.zkclient.IZkTreeVisitor;
+import com.github.zkclient.ZkClient;
+import com.github.zkclient.ZkClientUtils;
+import com.github.zkclient.ZkFuture;
+import com.github.zkclient.ZkTreeCache;
+import com.github.zkclient.exception.ZkNoNodeException;
+import com.sung.zk.ui.server.zk.entity.ZkDiffResult;
+import org.apache.zookeeper.data.Stat;
+
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * 子树的 Merkle 树: 每个节点的数据摘要, 与子节点名称和子树摘要一起逐层汇总为子树摘要.
+ * <p>
+ * 只保存摘要不保存数据, 内存占用与数据大小无关. 比较两棵树时自上而下进行, 子树摘要相同即整体跳过,
+ * 只深入到真正有差异的分支.
+ * </p>
+ */
+class ZkMerkleTree {
+
+    static final int MAX_IN_FLIGHT = 256;
+
+    /**
+     * 每个集群缓存的数据摘要数的初始上限, 超出时淘汰最久未用的. 一次遍历的节点比上限多时上限随之扩大,
+     * 否则按顺序访问的遍历会在再次用到摘要之前把它们全部淘汰
+     */
+    static final int MAX_CONTENT_HASHES = 64 * 1024;
+
+    /**
+     * 数据摘要按客户端 (即集群) 分开缓存, 客户端关闭后随之回收
+     */
+    private static final Map<ZkClient, ContentHashes> CONTENT_HASHES = new WeakHashMap<ZkClient, ContentHashes>();
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final byte[] NULL_DATA = new byte[0];
+
+    private static final Comparator<Node> BY_NAME = new Comparator<Node>() {
+        @Override
+        public int compare(Node a, Node b) {
+            return a.name.compareTo(b.name);
+        }
+    };
+
+    private final String root;
+    private final Node top;
+    private final int size;
+    private final boolean cached;
+
+    private ZkMerkleTree(String root, Node top, boolean cached) {
+        this.root = root;
+        this.top = top;
+        this.size = top == null ? 0 : top.size;
+        this.cached = cached;
+    }
+
+    /**
+     * 用流水线方式遍历子树, 每个节点读取一次子节点及 Stat; 数据只在 (czxid, mzxid) 与上次计算时不同
+     * 时才读取, 未变化的节点直接使用缓存的数据摘要. 同一集群第一次比较时仍需读取所有节点的数据.
+     */
+    static ZkMerkleTree build(final ZkClient client, final String root) {
+        final MessageDigest digest = sha1();
+        final ContentHashes hashes = contentHashes(client);
+        final Map<String, Node> nodes = new HashMap<String, Node>();
+        // 读取数据的请求与遍历同时在途, 按发出顺序完成
+        final Deque<Read> reads = new ArrayDeque<Read>();
+        try {
+            client.walk(root, new IZkTreeVisitor() {
+                @Override
+                public boolean visit(String path, int depth, Stat stat, byte[] data, List<String> children) {
+                    Node parent = depth == 0 ? null : nodes.get(parentOf(path));
+                    Node node = new Node(depth == 0 ? "" : path.substring(path.lastIndexOf('/') + 1),
+                            hashes.visit(path, stat), children.size());
+                    if (parent != null) {
+                        parent.children.add(node);
+                    }
+                    nodes.put(path, node);
+                    if (node.content == null) {
+                        Stat dataStat = new Stat();
+                        reads.add(new Read(path, node, parent, dataStat, client.readDataAsync(path, dataStat)));
+                        if (reads.size() >= MAX_IN_FLIGHT) {
+                            complete(digest, hashes, reads.poll());
+                        }
+                    }
+                    return true;
+                }
+            }, MAX_IN_FLIGHT, -1, false);
+            while (!reads.isEmpty()) {
+                complete(digest, hashes, reads.poll());
+            }
+        } finally {
+            hashes.finished(nodes.size());
+        }
+        Node top = nodes.get(root);
+        if (top != null && top.content == null) {
+            // 根节点在遍历期间被删除
+            top = null;
+        }
+        if (top != null) {
+            rollUp(digest, top);
+        }
+        return new ZkMerkleTree(root, top, false);
+    }
+
+    private static void complete(MessageDigest digest, ContentHashes hashes, Read read) {
+        byte[] data;
+        try {
+            data = read.data.join();
+        } catch (ZkNoNodeException e) {
+            // 遍历之后被删除, 与遍历时跳过已删除的节点一致
+            if (read.parent != null) {
+                read.parent.children.remove(read.node);
+            }
+            return;
+        }
+        read.node.content = contentHash(digest, data);
+        hashes.put(read.path, read.stat, read.node.content);
+    }
+
+    private static ContentHashes contentHashes(ZkClient client) {
+        synchronized (CONTENT_HASHES) {
+            ContentHashes hashes = CONTENT_HASHES.get(client);
+            if (hashes == null) {
+                hashes = new ContentHashes(MAX_CONTENT_HASHES);
+                CONTENT_HASHES.put(client, hashes);
+            }
+            return hashes;
+        }
+    }
+
+    /**
+     * 从树缓存中的镜像计算, 不访问 zookeeper
+     *
+     * @param root 缓存覆盖的路径
+     * @return 子树中有节点正在 (重新) 加载时为 null
+     */
+    static ZkMerkleTree build(ZkTreeCache cache, String root) {
+        MessageDigest digest = sha1();
+        Node top = null;
+        ZkTreeCache.Node cached = cache.get(root);
+        if (cached != null) {
+            top = fromCache(digest, cache, cached, "");
+            if (top == null) {
+                return null;
+            }
+            rollUp(digest, top);
+        }
+        return new ZkMerkleTree(root, top, true);
+    }
+
+    private static Node fromCache(MessageDigest digest, ZkTreeCache cache, ZkTreeCache.Node cached, String name) {
+        List<String> children = cached.getChildren();
+        Node node = new Node(name, contentHash(digest, cached.getData()), children.size());
+        String path = cached.getPath();
+        for (String child : children) {
+            ZkTreeCache.Node childCached = cache.get(ZkClientUtils.childPath(path, child));
+            Node childNode = childCached == null ? null : fromCache(digest, cache, childCached, child);
+            if (childNode == null) {
+                return null;
+            }
+            node.children.add(childNode);
+        }
+        return node;
+    }
+
+    /**
+     * 自上而下比较, 路径相对于各自的根 (根为 /). left 中有而 right 中没有的为 removed, 反之为 added
+     *
+     * @param limit 每类最多列出的路径数, 超出的只计数
+     */
+    static ZkDiffResult diff(ZkMerkleTree left, ZkMerkleTree right, int limit, long millis) {
+        Diff diff = new Diff(limit);
+        diff.compare(left.top, right.top, "");
+        ZkDiffResult result = new ZkDiffResult();
+        result.setLeftRoot(left.root);
+        result.setRightRoot(right.root);
+        result.setLeftNodes(left.size);
+        result.setRightNodes(right.size);
+        result.setLeftCached(left.cached);
+        result.setRightCached(right.cached);
+        result.setCompared(diff.compared);
+        result.setAdded(diff.added);
+        result.setRemoved(diff.removed);
+        result.setChanged(diff.changed);
+        result.setAddedCount(diff.addedCount);
+        result.setRemovedCount(diff.removedCount);
+        result.setChangedCount(diff.changedCount);
+        result.setMillis(millis);
+        return result;
+    }
+
+    private static void rollUp(MessageDigest digest, Node node) {
+        int size = 1;
+        Collections.sort(node.children, BY_NAME);
+        for (Node child : node.children) {
+            rollUp(digest, child);
+            size += child.size;
+        }
+        digest.reset();
+        digest.update(node.content);
+        for (Node child : node.children) {
+            digest.update(child.name.getBytes(UTF_8));
+            digest.update((byte) 0);
+            digest.update(child.hash);
+        }
+        node.hash = digest.digest();
+        node.size = size;
+    }
+
+    private static byte[] contentHash(MessageDigest digest, byte[] data) {
+        digest.reset();
+        // 区分 null 与空数据
+        digest.update(data == null ? (byte) 0 : (byte) 1);
+        digest.update(data == null ? NULL_DATA : data);
+        return digest.digest();
+    }
+
+    private static String parentOf(String path) {
+        int index = path.lastIndexOf('/');
+        return index == 0 ? "/" : path.substring(0, index);
+    }
+
+    private static MessageDigest sha1() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static class Node {
+        final String name;
+        /**
+         * 数据摘要, 数据尚未读取时为 null
+         */
+        byte[] content;
+        final List<Node> children;
+        byte[] hash;
+        int size;
+
+        Node(String name, byte[] content, int childCount) {
+            this.name = name;
+            this.content = content;
+            this.children = new ArrayList<Node>(childCount);
+        }
+    }
+
+    private static class Read {
+        final String path;
+        final Node node;
+        final Node parent;
+        final Stat stat;
+        final ZkFuture<byte[]> data;
+
+        Read(String path, Node node, Node parent, Stat stat, ZkFuture<byte[]> data) {
+            this.path = path;
+            this.node = node;
+            this.parent = parent;
+            this.stat = stat;
+            this.data = data;
+        }
+    }
+
+    /**
+     * 节点数据摘要的缓存. 数据每次修改 mzxid 都会变化, 节点删除后重建 czxid 会变化, 因此同一路径的
+     * (czxid, mzxid) 不变时数据一定相同.
+     * <p>
+     * 容量不小于同时进行的遍历访问过的节点总数: 遍历中被访问的摘要都排在最近使用的一端, 淘汰的只会是
+     * 本次没有访问的路径, 下一次遍历同一子树时所有未变化的节点都能命中.
+     * </p>
+     */
+    static class ContentHashes {
+        private int capacity;
+        private int visiting;
+        private final Map<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+
+        ContentHashes(int capacity) {
+            this.capacity = capacity;
+        }
+
+        /**
+         * 遍历访问一个节点, 需要时扩大容量
+         *
+         * @return 缓存的数据摘要, 没有或节点已变化时为 null
+         */
+        synchronized byte[] visit(String path, Stat stat) {
+            if (++visiting > capacity) {
+                capacity = visiting;
+            }
+            return get(path, stat);
+        }
+
+        /**
+         * 一次遍历结束
+         *
+         * @param visited 该遍历访问过的节点数
+         */
+        synchronized void finished(int visited) {
+            visiting -= visited;
+        }
+
+        synchronized int capacity() {
+            return capacity;
+        }
+
+        /**
+         * @return 缓存的数据摘要, 没有或节点已变化时为 null
+         */
+        synchronized byte[] get(String path, Stat stat) {
+            Entry entry = entries.get(path);
+            return entry != null && entry.czxid == stat.getCzxid() && entry.mzxid == stat.getMzxid()
+                    ? entry.hash : null;
+        }
+
+        synchronized void put(String path, Stat stat, byte[] hash) {
+            entries.put(path, new Entry(stat.getCzxid(), stat.getMzxid(), hash));
+            if (entries.size() > capacity) {
+                // 按访问顺序排列, 第一个是最久未使用的
+                Iterator<String> eldest = entries.keySet().iterator();
+                eldest.next();
+                eldest.remove();
+            }
+        }
+
+        private static class Entry {
+            final long czxid;
+            final long mzxid;
+            final byte[] hash;
+
+            Entry(long czxid, long mzxid, byte[] hash) {
+                this.czxid = czxid;
+                this.mzxid = mzxid;
+                this.hash = hash;
+            }
+        }
+    }
+
+    private static class Diff {
+        final int limit;
+        final List<String> added = new ArrayList<String>();
+        final List<String> removed = new ArrayList<String>();
+        final List<String> changed = new ArrayList<String>();
+        int addedCount;
+        int removedCount;
+        int changedCount;
+        int compared;
+
+        Diff(int limit) {
+            this.limit = limit;
+        }
+
+        void compare(Node left, Node right, String path) {
+            if (left == null || right == null) {
+                if (left != null) {
+                    removed(left, path);
+                } else if (right != null) {
+                    added(right, path);
+                }
+                return;
+            }
+            compared++;
+            if (Arrays.equals(left.hash, right.hash)) {
+                return;
+            }
+            if (!Arrays.equals(left.content, right.content)) {
+                changedCount++;
+                add(changed, path);
+            }
+            // 两边的子节点都已按名称排序, 归并比较
+            int i = 0;
+            int j = 0;
+            while (i < left.children.size() || j < right.children.size()) {
+                Node l = i < left.children.size() ? left.children.get(i) : null;
+                Node r = j < right.children.size() ? right.children.get(j) : null;
+                int order = l == null ? 1 : r == null ? -1 : l.name.compareTo(r.name);
+                if (order == 0) {
+                    compare(l, r, path + "/" + l.name);
+                    i++;
+                    j++;
+                } else if (order < 0) {
+                    removed(l, path + "/" + l.name);
+                    i++;
+                } else {
+                    added(r, path + "/" + r.name);
+                    j++;
+                }
+            }
+        }
+
+        private void removed(Node node, String path) {
+            removedCount++;
+            add(removed, path);
+            for (Node child : node.children) {
+                removed(child, path + "/" + child.name);
+            }
+        }
+
+        private void added(Node node, String path) {
+            addedCount++;
+            add(added, path);
+            for (Node child : node.children) {
+                added(child, path + "/" + child.name);
+            }
+        }
+
+        private void add(List<String> paths, String path) {
+            if (paths.size() < limit) {
+                paths.add(path.isEmpty() ? "/" : path);
+            }
+        }
+    }
+}
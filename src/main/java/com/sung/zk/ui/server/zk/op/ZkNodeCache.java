@@ -0,0 +1,329 @@
+package com.sung.zk.ui.server.zk.op;
+
+import com.github.zkclient.ZkClient;
+import com.github.zkclient.ZkFuture;
+import com.github.zkclient.exception.ZkException;
+import com.github.zkclient.exception.ZkNoNodeException;
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.data.Stat;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 按字节数限制大小的 LRU 缓存, 缓存 readData 与 getChildren 的结果, 同一集群的所有会话共用.
+ * <p>
+ * 每个缓存项读取时留下一次性 watch, 节点变化、删除或连接状态变化时 watch 触发, 缓存项随即失效.
+ * 结果在 zookeeper 事件线程中放入缓存, 早于同一节点之后的 watch 事件, 因此不会留下已经过期的缓存项.
+ * </p>
+ * <p>
+ * zookeeper 3.4 无法注销 watch, 淘汰缓存项后 watch 仍留在客户端. 因此每个 key 只保留一个 watcher,
+ * 在它触发之前再次读取时复用, 客户端的 watch 表不会因同一节点反复淘汰、读取而增长.
+ * </p>
+ */
+public class ZkNodeCache {
+
+    /**
+     * 缓存项对象、Stat、watcher 与链表节点的大致开销
+     */
+    private static final int ENTRY_OVERHEAD = 200;
+    private static final int CHILD_OVERHEAD = 40;
+
+    private final ZkClient client;
+    private final long maxBytes;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(256, 0.75f, true);
+    private long bytes;
+
+    /**
+     * 已交给 zookeeper 且尚未触发的 watcher, 由 this 保护
+     */
+    private final Map<String, Invalidator> armed = new HashMap<String, Invalidator>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+
+    public ZkNodeCache(ZkClient client, long maxBytes) {
+        this.client = client;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * @param stat 节点的 Stat, 可以为 null
+     * @return 节点数据的副本
+     * @throws com.github.zkclient.exception.ZkNoNodeException 节点不存在
+     */
+    public byte[] readData(String path, Stat stat) {
+        final String key = dataKey(path);
+        synchronized (this) {
+            Entry entry = entries.get(key);
+            if (entry != null) {
+                hits.incrementAndGet();
+                copyStat(entry.stat, stat);
+                return entry.data == null ? null : entry.data.clone();
+            }
+        }
+        misses.incrementAndGet();
+        final Invalidator watcher = watcher(key);
+        final Stat read = new Stat();
+        final ZkFuture<byte[]> future = client.readDataAsync(path, read, watcher);
+        future.addListener(new Runnable() {
+            @Override
+            public void run() {
+                byte[] data;
+                try {
+                    data = future.join();
+                } catch (ZkNoNodeException e) {
+                    // 节点不存在时 zookeeper 没有登记 watch
+                    disarm(key, watcher);
+                    return;
+                } catch (ZkException e) {
+                    return;
+                }
+                put(key, new Entry(data, null, read, watcher, ENTRY_OVERHEAD + key.length() * 2 + length(data)));
+            }
+        });
+        byte[] data = future.join();
+        copyStat(read, stat);
+        return data == null ? null : data.clone();
+    }
+
+    /**
+     * @param stat 节点的 Stat, 可以为 null
+     * @return 子节点名称的副本, 节点不存在时为 null
+     */
+    public List<String> getChildren(String path, Stat stat) {
+        final String key = childrenKey(path);
+        synchronized (this) {
+            Entry entry = entries.get(key);
+            if (entry != null) {
+                hits.incrementAndGet();
+                copyStat(entry.stat, stat);
+                return new ArrayList<String>(entry.children);
+            }
+        }
+        misses.incrementAndGet();
+        final Invalidator watcher = watcher(key);
+        final Stat read = new Stat();
+        final ZkFuture<List<String>> future = client.getChildrenAsync(path, read, watcher);
+        future.addListener(new Runnable() {
+            @Override
+            public void run() {
+                List<String> children;
+                try {
+                    children = future.join();
+                } catch (ZkException e) {
+                    return;
+                }
+                // 节点不存在时没有留下 watch, 不能缓存
+                if (children == null) {
+                    disarm(key, watcher);
+                } else {
+                    int size = ENTRY_OVERHEAD + key.length() * 2;
+                    for (String child : children) {
+                        size += CHILD_OVERHEAD + child.length() * 2;
+                    }
+                    put(key, new Entry(null, children, read, watcher, size));
+                }
+            }
+        });
+        List<String> children = future.join();
+        copyStat(read, stat);
+        return children == null ? null : new ArrayList<String>(children);
+    }
+
+    /**
+     * 数据与子节点列表都在缓存中时, 两者的 watch 覆盖了节点的所有变化, 较新的 Stat 就是当前值
+     *
+     * @return 节点的 Stat, 无法从缓存得出时为 null
+     */
+    public synchronized Stat stat(String path) {
+        Entry data = entries.get(dataKey(path));
+        Entry children = entries.get(childrenKey(path));
+        if (data == null || children == null) {
+            return null;
+        }
+        Stat newer = children.stat.getMzxid() >= data.stat.getMzxid() && children.stat.getPzxid() >= data.stat.getPzxid()
+                ? children.stat : data.stat;
+        Stat stat = new Stat();
+        copyStat(newer, stat);
+        return stat;
+    }
+
+    /**
+     * 立即移除 path 的缓存项, 用于本进程写入之后 (watch 事件可能晚于下一次读取)
+     */
+    public synchronized void invalidate(String path) {
+        remove(dataKey(path), null);
+        remove(childrenKey(path), null);
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        bytes = 0;
+    }
+
+    /**
+     * @return key 上仍然有效的 watcher, 没有时新建一个
+     */
+    private synchronized Invalidator watcher(String key) {
+        Invalidator watcher = armed.get(key);
+        if (watcher == null) {
+            watcher = new Invalidator(key);
+            armed.put(key, watcher);
+        }
+        return watcher;
+    }
+
+    /**
+     * @return 仍留在 zookeeper 客户端中的 watcher 数, 读取不存在的节点不留 watcher
+     */
+    public synchronized int getWatcherCount() {
+        return armed.size();
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    public synchronized int getEntryCount() {
+        return entries.size();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * @return 因超出大小限制被淘汰的缓存项数
+     */
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    /**
+     * @return 因 watch 触发或写入而失效的缓存项数
+     */
+    public long getInvalidations() {
+        return invalidations.get();
+    }
+
+    private synchronized void put(String key, Entry entry) {
+        // 单个缓存项不超过总大小的 1/4, 避免一个大节点挤掉其余缓存
+        if (armed.get(key) != entry.watcher || entry.size > maxBytes / 4) {
+            return;
+        }
+        Entry old = entries.put(key, entry);
+        if (old != null) {
+            bytes -= old.size;
+        }
+        bytes += entry.size;
+        for (Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator(); bytes > maxBytes && it.hasNext(); ) {
+            Entry eldest = it.next().getValue();
+            it.remove();
+            bytes -= eldest.size;
+            evictions.incrementAndGet();
+        }
+    }
+
+    /**
+     * @param watcher 只移除由该 watcher 保护的缓存项, null 时无条件移除
+     */
+    private synchronized void remove(String key, Invalidator watcher) {
+        Entry entry = entries.get(key);
+        if (entry != null && (watcher == null || entry.watcher == watcher)) {
+            entries.remove(key);
+            bytes -= entry.size;
+            invalidations.incrementAndGet();
+        }
+    }
+
+    private static String dataKey(String path) {
+        return "d" + path;
+    }
+
+    private static String childrenKey(String path) {
+        return "c" + path;
+    }
+
+    private static int length(byte[] data) {
+        return data == null ? 0 : data.length;
+    }
+
+    private static void copyStat(Stat from, Stat to) {
+        if (to == null) {
+            return;
+        }
+        to.setCzxid(from.getCzxid());
+        to.setMzxid(from.getMzxid());
+        to.setCtime(from.getCtime());
+        to.setMtime(from.getMtime());
+        to.setVersion(from.getVersion());
+        to.setCversion(from.getCversion());
+        to.setAversion(from.getAversion());
+        to.setEphemeralOwner(from.getEphemeralOwner());
+        to.setDataLength(from.getDataLength());
+        to.setNumChildren(from.getNumChildren());
+        to.setPzxid(from.getPzxid());
+    }
+
+    private static class Entry {
+        final byte[] data;
+        final List<String> children;
+        final Stat stat;
+        final Invalidator watcher;
+        final int size;
+
+        Entry(byte[] data, List<String> children, Stat stat, Invalidator watcher, int size) {
+            this.data = data;
+            this.children = children;
+            this.stat = stat;
+            this.watcher = watcher;
+            this.size = size;
+        }
+    }
+
+    /**
+     * 一次性 watch: 节点事件与连接状态变化 (断开、会话过期) 都使缓存项失效.
+     * <p>
+     * 节点事件之后 zookeeper 已移除该 watch, 会话过期时 watch 随会话一起消失, 此后读取需要新的 watcher;
+     * 断开与重连时 watch 仍然注册着 (重连后由客户端重新设置), 只让缓存项失效, 继续复用.
+     * </p>
+     */
+    private class Invalidator implements Watcher {
+        private final String key;
+
+        Invalidator(String key) {
+            this.key = key;
+        }
+
+        @Override
+        public void process(WatchedEvent event) {
+            if (event.getType() != Event.EventType.None || event.getState() == Event.KeeperState.Expired) {
+                disarm(key, this);
+            }
+            remove(key, this);
+        }
+    }
+
+    private synchronized void disarm(String key, Invalidator watcher) {
+        if (armed.get(key) == watcher) {
+            armed.remove(key);
+        }
+    }
+}
@@ -0,0 +1,637 @@
+package com.sung.zk.ui.server.zk.op;
+
+import com.github.zkclient.ZkClient;
+import com.github.zkclient.ZkFuture;
+import com.github.zkclient.ZkTreeCache;
+import com.github.zkclient.exception.ZkException;
+import com.github.zkclient.exception.ZkNodeExistsException;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.Op;
+import org.apache.zookeeper.ZooDefs;
+import org.apache.zookeeper.data.Stat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 增量复制: 把源集群的一棵子树持续镜像到目标集群.
+ * <p>
+ * 源端用一个 {@link ZkTreeCache} 跟踪子树, 它的首次加载就是初始的全量复制, 之后只有 watch 通知到的变化节点进入队列.
+ * 队列按路径合并, 同一节点在写入前多次变化只写最后一次. 写入线程按与 {@link ZkImporter} 相同的上限把队列打包为
+ * multi 批次; 已复制到目标端的路径记在内存中, 据此直接选择 create 或 setData, 每批通常只需一次往返.
+ * </p>
+ * <p>
+ * 目标端状态与预期不符 (冲突, 例如目标端已有该节点或被其他客户端修改) 时整批回滚, 先按 exists 结果重新组织该批次,
+ * 仍失败时逐个节点写入. 逐个写入仍失败的节点间隔递增地重试 {@link #MAX_ATTEMPTS} 次, 期间该节点的新变化取代重试;
+ * 仍失败时放弃该变化并标记为 {@link #isOutOfSync() 不一致}, 需要重新启动复制 (重新全量复制).
+ * 目标集群不可用时写入线程等待重连, 期间的变化在队列中合并.
+ * 临时节点与 /zookeeper 不复制; 目标端新建的节点使用开放 ACL, ACL 不同步; 目标端原有而源端没有的节点不删除.
+ * </p>
+ */
+public class ZkReplicator {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ZkReplicator.class);
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int OP_OVERHEAD = 32;
+    private static final AtomicInteger SEQ = new AtomicInteger();
+
+    /**
+     * 同一变化最多写入的次数
+     */
+    static final int MAX_ATTEMPTS = 5;
+
+    /**
+     * 第一次重试前的等待, 之后每次加倍
+     */
+    private static final long RETRY_MILLIS = 1000;
+
+    private static final Comparator<Change> DEEPEST_FIRST = new Comparator<Change>() {
+        @Override
+        public int compare(Change a, Change b) {
+            return depthOf(b.path) - depthOf(a.path);
+        }
+    };
+
+    public enum State {
+        /**
+         * 初始全量复制
+         */
+        COPYING,
+        /**
+         * 全量复制完成, 只写入变化
+         */
+        STREAMING,
+        STOPPED
+    }
+
+    private final String sourceCxn;
+    private final String sourceRoot;
+    private final String targetCxn;
+    private final String targetRoot;
+    private final ZkClient target;
+    private final ZkTreeCache cache;
+    private final Listener listener = new Listener();
+    private final Thread applier;
+    private final int maxBatchBytes;
+    private final long retryMillis;
+
+    /**
+     * 待写入的变化, 按路径合并; 由 this 保护
+     */
+    private final LinkedHashMap<String, Change> pending = new LinkedHashMap<String, Change>();
+
+    /**
+     * 写入失败, 等待重试的变化, 按路径; 由 this 保护
+     */
+    private final LinkedHashMap<String, Change> retries = new LinkedHashMap<String, Change>();
+
+    /**
+     * 已在目标端创建的源路径, 只由写入线程访问
+     */
+    private final Set<String> mirrored = new HashSet<String>();
+
+    private volatile boolean stopped;
+    private volatile boolean outOfSync;
+    private volatile long startMillis;
+    private volatile long initialCopyMillis = -1;
+
+    private final AtomicLong creates = new AtomicLong();
+    private final AtomicLong updates = new AtomicLong();
+    private final AtomicLong deletes = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong conflicts = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private final AtomicLong lagCount = new AtomicLong();
+    private final AtomicLong lagNanos = new AtomicLong();
+    private volatile long maxLagNanos;
+    private volatile long lastAppliedMillis;
+
+    public ZkReplicator(String sourceCxn, ZkClient source, String sourceRoot, String targetCxn, ZkClient target,
+                        String targetRoot) {
+        this(sourceCxn, source, sourceRoot, targetCxn, target, targetRoot, RETRY_MILLIS);
+    }
+
+    /**
+     * @param retryMillis 第一次重试前的等待, 测试用来缩短重试
+     */
+    ZkReplicator(String sourceCxn, ZkClient source, String sourceRoot, String targetCxn, ZkClient target,
+                 String targetRoot, long retryMillis) {
+        this.sourceCxn = sourceCxn;
+        this.sourceRoot = sourceRoot;
+        this.targetCxn = targetCxn;
+        this.targetRoot = targetRoot;
+        this.target = target;
+        this.cache = new ZkTreeCache(source, sourceRoot);
+        this.maxBatchBytes = Integer.getInteger("jute.maxbuffer", 0xfffff) / 2;
+        this.retryMillis = retryMillis;
+        this.applier = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                applyLoop();
+            }
+        }, "zk-replicate-" + SEQ.incrementAndGet());
+        this.applier.setDaemon(true);
+    }
+
+    public void start() {
+        startMillis = System.currentTimeMillis();
+        int index = targetRoot.lastIndexOf('/');
+        if (index > 0) {
+            target.createPersistent(targetRoot.substring(0, index), true);
+        }
+        cache.addChangeListener(listener);
+        applier.start();
+        cache.start();
+        LOGGER.info("replication started: {}", getId());
+    }
+
+    public void stop() {
+        stopped = true;
+        cache.removeChangeListener(listener);
+        cache.close();
+        synchronized (this) {
+            pending.clear();
+            retries.clear();
+            notifyAll();
+        }
+        applier.interrupt();
+        LOGGER.info("replication stopped: {}", getId());
+    }
+
+    public String getId() {
+        return sourceCxn + sourceRoot + " -> " + targetCxn + targetRoot;
+    }
+
+    public String getSourceCxn() {
+        return sourceCxn;
+    }
+
+    public String getSourceRoot() {
+        return sourceRoot;
+    }
+
+    public String getTargetCxn() {
+        return targetCxn;
+    }
+
+    public String getTargetRoot() {
+        return targetRoot;
+    }
+
+    public State getState() {
+        if (stopped) {
+            return State.STOPPED;
+        }
+        return initialCopyMillis < 0 ? State.COPYING : State.STREAMING;
+    }
+
+    public long getStartMillis() {
+        return startMillis;
+    }
+
+    /**
+     * @return 初始全量复制的耗时, 未完成时为 -1
+     */
+    public long getInitialCopyMillis() {
+        return initialCopyMillis;
+    }
+
+    /**
+     * @return 等待写入的节点数 (已合并), 含等待重试的
+     */
+    public synchronized int getPending() {
+        return pending.size() + retries.size();
+    }
+
+    /**
+     * @return 写入失败, 等待重试的节点数
+     */
+    public synchronized int getRetrying() {
+        return retries.size();
+    }
+
+    /**
+     * @return 有变化重试后仍未能写入而被放弃, 目标端与源端不再一致
+     */
+    public boolean isOutOfSync() {
+        return outOfSync;
+    }
+
+    public long getCreates() {
+        return creates.get();
+    }
+
+    public long getUpdates() {
+        return updates.get();
+    }
+
+    public long getDeletes() {
+        return deletes.get();
+    }
+
+    public long getBatches() {
+        return batches.get();
+    }
+
+    /**
+     * @return 因目标端状态与预期不符而回滚重做的批次数
+     */
+    public long getConflicts() {
+        return conflicts.get();
+    }
+
+    /**
+     * @return 重试后仍然失败而放弃的变化数
+     */
+    public long getErrors() {
+        return errors.get();
+    }
+
+    /**
+     * @return 已写入的变化数, 与 {@link #getLagNanos()} 一起得出平均延迟
+     */
+    public long getLagCount() {
+        return lagCount.get();
+    }
+
+    /**
+     * @return 每个变化从源端缓存看到到写入目标端的时间之和, 纳秒
+     */
+    public long getLagNanos() {
+        return lagNanos.get();
+    }
+
+    public long getMaxLagNanos() {
+        return maxLagNanos;
+    }
+
+    public long getLastAppliedMillis() {
+        return lastAppliedMillis;
+    }
+
+    private synchronized void enqueue(String path, byte[] data, boolean delete) {
+        if (stopped) {
+            return;
+        }
+        Change old = pending.get(path);
+        if (old == null) {
+            // 新的变化取代等待重试的
+            old = retries.remove(path);
+        }
+        // 合并时保留最早的时间, 延迟从第一次未写入的变化算起
+        pending.put(path, new Change(path, data, delete, old == null ? System.nanoTime() : old.since));
+        notifyAll();
+    }
+
+    /**
+     * 写入失败的变化稍后重试, 该路径已有新的变化时丢弃
+     */
+    private synchronized void retry(Change change) {
+        if (stopped || pending.containsKey(change.path) || retries.containsKey(change.path)) {
+            return;
+        }
+        if (change.attempts >= MAX_ATTEMPTS) {
+            errors.incrementAndGet();
+            outOfSync = true;
+            LOGGER.error("replication {} gave up {} after {} attempts, restart it to copy again", getId(),
+                    change.path, change.attempts);
+            return;
+        }
+        long delay = retryMillis << (change.attempts - 1);
+        retries.put(change.path, new Change(change.path, change.data, change.delete, change.since,
+                change.attempts + 1, System.currentTimeMillis() + delay));
+    }
+
+    /**
+     * 把到期的重试移回队列, 由 this 保护
+     *
+     * @return 距下一个重试到期的毫秒数, 没有时为 Long.MAX_VALUE
+     */
+    private long promoteRetries() {
+        long now = System.currentTimeMillis();
+        long next = Long.MAX_VALUE;
+        for (Iterator<Change> it = retries.values().iterator(); it.hasNext(); ) {
+            Change change = it.next();
+            if (change.notBefore <= now) {
+                it.remove();
+                pending.put(change.path, change);
+            } else {
+                next = Math.min(next, change.notBefore - now);
+            }
+        }
+        return next;
+    }
+
+    private void applyLoop() {
+        while (!stopped) {
+            List<Change> batch;
+            synchronized (this) {
+                while (!stopped) {
+                    long retryIn = promoteRetries();
+                    if (!pending.isEmpty()) {
+                        break;
+                    }
+                    if (initialCopyMillis < 0 && cache.isInitialized() && retries.isEmpty()) {
+                        initialCopyMillis = System.currentTimeMillis() - startMillis;
+                        LOGGER.info("replication {} copied {} nodes in {}ms", getId(), mirrored.size(), initialCopyMillis);
+                    }
+                    try {
+                        // 缓存加载完成时不一定有新的变化, 定时检查
+                        wait(Math.min(1000, retryIn));
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (stopped) {
+                    return;
+                }
+                batch = drain();
+            }
+            try {
+                apply(batch);
+            } catch (RuntimeException e) {
+                if (stopped) {
+                    return;
+                }
+                LOGGER.error("replication " + getId() + " failed to apply " + batch.size() + " changes, retry later", e);
+                for (Change change : batch) {
+                    retry(change);
+                }
+            }
+        }
+    }
+
+    /**
+     * 取出不超过 multi 上限的一批变化, 至少一个
+     */
+    private List<Change> drain() {
+        List<Change> batch = new ArrayList<Change>();
+        int bytes = 0;
+        for (Iterator<Change> it = pending.values().iterator(); it.hasNext(); ) {
+            Change change = it.next();
+            int size = sizeOf(change);
+            if (!batch.isEmpty() && (batch.size() >= ZkImporter.MAX_BATCH_OPS || bytes + size > maxBatchBytes)) {
+                break;
+            }
+            batch.add(change);
+            bytes += size;
+            it.remove();
+        }
+        return batch;
+    }
+
+    private void apply(List<Change> batch) {
+        // 父节点先于子节点创建, 子节点先于父节点删除
+        List<Change> upserts = new ArrayList<Change>();
+        List<Change> removals = new ArrayList<Change>();
+        for (Change change : batch) {
+            (change.delete ? removals : upserts).add(change);
+        }
+        Collections.sort(removals, DEEPEST_FIRST);
+
+        List<Op> ops = new ArrayList<Op>(batch.size());
+        int created = 0;
+        for (Change change : upserts) {
+            if (mirrored.contains(change.path)) {
+                ops.add(Op.setData(targetPath(change.path), change.data, -1));
+            } else {
+                ops.add(Op.create(targetPath(change.path), change.data, ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT));
+                created++;
+            }
+        }
+        List<Change> deleted = new ArrayList<Change>();
+        for (Change change : removals) {
+            // 从未复制过的节点在目标端也不该存在
+            if (mirrored.contains(change.path)) {
+                ops.add(Op.delete(targetPath(change.path), -1));
+                deleted.add(change);
+            }
+        }
+        try {
+            if (!ops.isEmpty()) {
+                target.multi(ops);
+            }
+            creates.addAndGet(created);
+            updates.addAndGet(upserts.size() - created);
+            deletes.addAndGet(deleted.size());
+            for (Change change : upserts) {
+                mirrored.add(change.path);
+            }
+            for (Change change : removals) {
+                mirrored.remove(change.path);
+            }
+        } catch (ZkException e) {
+            if (stopped) {
+                return;
+            }
+            conflicts.incrementAndGet();
+            LOGGER.debug("replication {} batch conflict: {}", getId(), e.getMessage());
+            List<Change> failed = applyChecked(upserts, removals);
+            batch.removeAll(failed);
+            for (Change change : failed) {
+                retry(change);
+            }
+        }
+        applied(batch);
+    }
+
+    /**
+     * 按目标端的实际状态重新组织批次
+     *
+     * @return 未能写入的变化
+     */
+    private List<Change> applyChecked(List<Change> upserts, List<Change> removals) {
+        List<ZkFuture<Stat>> upsertStats = new ArrayList<ZkFuture<Stat>>(upserts.size());
+        for (Change change : upserts) {
+            upsertStats.add(target.existsAsync(targetPath(change.path)));
+        }
+        List<ZkFuture<Stat>> removalStats = new ArrayList<ZkFuture<Stat>>(removals.size());
+        for (Change change : removals) {
+            removalStats.add(target.existsAsync(targetPath(change.path)));
+        }
+        List<Op> ops = new ArrayList<Op>();
+        int created = 0;
+        for (int i = 0; i < upserts.size(); i++) {
+            Change change = upserts.get(i);
+            if (upsertStats.get(i).join() == null) {
+                ops.add(Op.create(targetPath(change.path), change.data, ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT));
+                created++;
+            } else {
+                ops.add(Op.setData(targetPath(change.path), change.data, -1));
+            }
+        }
+        int deleted = 0;
+        for (int i = 0; i < removals.size(); i++) {
+            Stat stat = removalStats.get(i).join();
+            if (stat == null) {
+                continue;
+            }
+            if (stat.getNumChildren() > 0) {
+                // 目标端有源端没有的子节点
+                target.deleteRecursive(targetPath(removals.get(i).path));
+            } else {
+                ops.add(Op.delete(targetPath(removals.get(i).path), -1));
+            }
+            deleted++;
+        }
+        try {
+            if (!ops.isEmpty()) {
+                target.multi(ops);
+            }
+            creates.addAndGet(created);
+            updates.addAndGet(upserts.size() - created);
+            deletes.addAndGet(deleted);
+            for (Change change : upserts) {
+                mirrored.add(change.path);
+            }
+            for (Change change : removals) {
+                mirrored.remove(change.path);
+            }
+            return Collections.emptyList();
+        } catch (ZkException e) {
+            if (stopped) {
+                return Collections.emptyList();
+            }
+            LOGGER.debug("replication {} checked batch failed, writing one by one: {}", getId(), e.getMessage());
+            return applyEach(upserts, removals);
+        }
+    }
+
+    private List<Change> applyEach(List<Change> upserts, List<Change> removals) {
+        List<Change> failed = new ArrayList<Change>();
+        for (Change change : upserts) {
+            String path = targetPath(change.path);
+            try {
+                try {
+                    target.createPersistent(path, change.data, true);
+                    creates.incrementAndGet();
+                } catch (ZkNodeExistsException e) {
+                    target.writeData(path, change.data);
+                    updates.incrementAndGet();
+                }
+                mirrored.add(change.path);
+            } catch (ZkException e) {
+                if (stopped) {
+                    return failed;
+                }
+                failed.add(change);
+                LOGGER.warn("replication " + getId() + " failed to write " + path, e);
+            }
+        }
+        for (Change change : removals) {
+            String path = targetPath(change.path);
+            try {
+                target.deleteRecursive(path);
+                deletes.incrementAndGet();
+                mirrored.remove(change.path);
+            } catch (ZkException e) {
+                if (stopped) {
+                    return failed;
+                }
+                failed.add(change);
+                LOGGER.warn("replication " + getId() + " failed to delete " + path, e);
+            }
+        }
+        return failed;
+    }
+
+    private void applied(List<Change> batch) {
+        long now = System.nanoTime();
+        for (Change change : batch) {
+            long lag = now - change.since;
+            lagNanos.addAndGet(lag);
+            if (lag > maxLagNanos) {
+                maxLagNanos = lag;
+            }
+        }
+        lagCount.addAndGet(batch.size());
+        batches.incrementAndGet();
+        lastAppliedMillis = System.currentTimeMillis();
+    }
+
+    private String targetPath(String sourcePath) {
+        String relative = "/".equals(sourceRoot) ? sourcePath : sourcePath.substring(sourceRoot.length());
+        if ("/".equals(targetRoot)) {
+            return relative.isEmpty() ? "/" : relative;
+        }
+        return "/".equals(relative) ? targetRoot : targetRoot + relative;
+    }
+
+    private static boolean isSystemPath(String path) {
+        return path.equals("/zookeeper") || path.startsWith("/zookeeper/");
+    }
+
+    private static int depthOf(String path) {
+        int depth = 0;
+        for (int i = 0; i < path.length(); i++) {
+            if (path.charAt(i) == '/') {
+                depth++;
+            }
+        }
+        return depth;
+    }
+
+    private static int sizeOf(Change change) {
+        return change.path.getBytes(UTF_8).length + (change.data == null ? 0 : change.data.length) + OP_OVERHEAD;
+    }
+
+    private static class Change {
+        final String path;
+        final byte[] data;
+        final boolean delete;
+        final long since;
+        /**
+         * 这是第几次写入
+         */
+        final int attempts;
+        /**
+         * 重试不早于此时 (毫秒)
+         */
+        final long notBefore;
+
+        Change(String path, byte[] data, boolean delete, long since) {
+            this(path, data, delete, since, 1, 0);
+        }
+
+        Change(String path, byte[] data, boolean delete, long since, int attempts, long notBefore) {
+            this.path = path;
+            this.data = data;
+            this.delete = delete;
+            this.since = since;
+            this.attempts = attempts;
+            this.notBefore = notBefore;
+        }
+    }
+
+    /**
+     * 在源端缓存应用变化时调用, 只入队不访问 zookeeper
+     */
+    private class Listener implements ZkTreeCache.ChangeListener {
+
+        @Override
+        public void nodeChanged(ZkTreeCache.Node node) {
+            if (isSystemPath(node.getPath()) || node.getStat().getEphemeralOwner() != 0) {
+                return;
+            }
+            enqueue(node.getPath(), node.getData(), false);
+        }
+
+        @Override
+        public void nodeRemoved(String path) {
+            if (!isSystemPath(path)) {
+                enqueue(path, null, true);
+            }
+        }
+    }
+}
@@ -0,0 +1,554 @@
+package com.sung.zk.ui.server.zk.op;
+
+import com.github.zkclient.ZkTreeCache;
+import com.sung.zk.ui.server.zk.entity.ZkSearchResult;
+import com.sung.zk.ui.server.zk.util.DataViewUtils;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Pattern;
+
+/**
+ * 集群的搜索索引: 按路径层级组成的前缀树, 以及节点数据的倒排索引 (词 -> 路径).
+ * <p>
+ * 索引挂在 {@link ZkTreeCache} 上, 随缓存的首次加载与之后的 watch 通知增量更新, 查询不访问 zookeeper.
+ * 数据按连续的字母和数字切分为小写的词; substring 查询先用查询串中的词缩小候选节点, 再用缓存中的数据逐个确认,
+ * 因此结果与逐个节点比对相同. 二进制数据不建索引也不参与搜索; 词数超过 {@link #MAX_TOKENS_PER_NODE} 的节点不拆词,
+ * 每次查询都直接比对.
+ * </p>
+ */
+public class ZkSearchIndex implements ZkTreeCache.ChangeListener {
+
+    static final int MIN_TOKEN_LENGTH = 2;
+    /**
+     * 更长的词只索引前这么多个字符
+     */
+    static final int MAX_TOKEN_LENGTH = 64;
+    static final int MAX_TOKENS_PER_NODE = 4096;
+
+    private static final int SNIPPET_CHARS = 40;
+    private static final String[] NO_TOKENS = new String[0];
+    private static final Object ANY_DEPTH = new Object();
+
+    private final ZkTreeCache cache;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final TrieNode paths = new TrieNode();
+    private final TreeMap<String, Set<String>> postings = new TreeMap<String, Set<String>>();
+    /**
+     * 数据为文本的节点及其词, 不拆词的节点为 null
+     */
+    private final Map<String, String[]> texts = new HashMap<String, String[]>();
+    private final Set<String> unindexed = new HashSet<String>();
+    private int pathCount;
+
+    private final AtomicLong queries = new AtomicLong();
+    private final AtomicLong queryNanos = new AtomicLong();
+
+    public ZkSearchIndex(ZkTreeCache cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * 开始接收缓存的变化, 已加载的节点立即进入索引
+     */
+    public void start() {
+        cache.addChangeListener(this);
+    }
+
+    public void close() {
+        cache.removeChangeListener(this);
+    }
+
+    public ZkTreeCache getCache() {
+        return cache;
+    }
+
+    @Override
+    public void nodeChanged(ZkTreeCache.Node node) {
+        String path = node.getPath();
+        byte[] data = node.getData();
+        boolean text = data != null && data.length > 0 && !DataViewUtils.isBinary(data);
+        String[] tokens = NO_TOKENS;
+        if (text) {
+            Set<String> words = tokenize(new String(data, DataViewUtils.UTF8).toLowerCase(Locale.ROOT));
+            tokens = words.size() > MAX_TOKENS_PER_NODE ? null : words.toArray(new String[words.size()]);
+        }
+        lock.writeLock().lock();
+        try {
+            if (paths.add(path)) {
+                pathCount++;
+            }
+            unpost(path);
+            if (text) {
+                texts.put(path, tokens);
+                if (tokens == null) {
+                    unindexed.add(path);
+                } else {
+                    for (String token : tokens) {
+                        Set<String> posting = postings.get(token);
+                        if (posting == null) {
+                            posting = new HashSet<String>(4);
+                            postings.put(token, posting);
+                        }
+                        posting.add(path);
+                    }
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void nodeRemoved(String path) {
+        lock.writeLock().lock();
+        try {
+            if (paths.remove(path)) {
+                pathCount--;
+            }
+            unpost(path);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @param query prefix 与 glob 为路径, substring 为数据中的字符串
+     * @param limit 最多返回的结果数
+     */
+    public ZkSearchResult search(ZkSearchType type, String query, int limit) {
+        long start = System.nanoTime();
+        boolean initialized = cache.isInitialized();
+        List<ZkSearchResult.Hit> hits = new ArrayList<ZkSearchResult.Hit>();
+        boolean truncated;
+        if (type == ZkSearchType.SUBSTRING) {
+            truncated = searchData(query, limit, hits);
+        } else {
+            Collection<String> found = new LinkedHashSet<String>();
+            lock.readLock().lock();
+            try {
+                if (type == ZkSearchType.PREFIX) {
+                    searchPrefix(query, limit + 1, found);
+                } else {
+                    searchGlob(query, limit + 1, found);
+                }
+            } finally {
+                lock.readLock().unlock();
+            }
+            truncated = found.size() > limit;
+            for (String path : found) {
+                if (hits.size() == limit) {
+                    break;
+                }
+                hits.add(new ZkSearchResult.Hit(path, null));
+            }
+        }
+        long nanos = System.nanoTime() - start;
+        queries.incrementAndGet();
+        queryNanos.addAndGet(nanos);
+        return new ZkSearchResult(hits, truncated, initialized, nanos / 1000);
+    }
+
+    public int getPathCount() {
+        lock.readLock().lock();
+        try {
+            return pathCount;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int getTokenCount() {
+        lock.readLock().lock();
+        try {
+            return postings.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public long getQueries() {
+        return queries.get();
+    }
+
+    /**
+     * @return 所有查询的总耗时, 纳秒
+     */
+    public long getQueryNanos() {
+        return queryNanos.get();
+    }
+
+    private void searchPrefix(String prefix, int max, Collection<String> out) {
+        if (!prefix.startsWith("/")) {
+            prefix = "/" + prefix;
+        }
+        if (prefix.equals("/") && paths.present) {
+            out.add("/");
+        }
+        String[] segments = prefix.substring(1).split("/", -1);
+        TrieNode node = paths;
+        StringBuilder path = new StringBuilder();
+        for (int i = 0; i < segments.length - 1; i++) {
+            node = node.child(segments[i]);
+            if (node == null) {
+                return;
+            }
+            path.append('/').append(segments[i]);
+        }
+        // 最后一级可以只写名称的开头
+        String last = segments[segments.length - 1];
+        for (Map.Entry<String, TrieNode> child : node.children(last)) {
+            if (!collect(child.getValue(), path + "/" + child.getKey(), max, out)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * 深度优先收集子树中的所有路径
+     *
+     * @return 还没有收集满
+     */
+    private static boolean collect(TrieNode node, String path, int max, Collection<String> out) {
+        if (node.present) {
+            out.add(path);
+            if (out.size() >= max) {
+                return false;
+            }
+        }
+        if (node.children != null) {
+            for (Map.Entry<String, TrieNode> child : node.children.entrySet()) {
+                if (!collect(child.getValue(), path + "/" + child.getKey(), max, out)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private void searchGlob(String glob, int max, Collection<String> out) {
+        if (!glob.startsWith("/")) {
+            glob = "/**/" + glob;
+        }
+        List<Object> segments = new ArrayList<Object>();
+        if (glob.length() > 1) {
+            for (String segment : glob.substring(1).split("/", -1)) {
+                if (segment.equals("**")) {
+                    // 连续的 ** 与一个等价, 合并后避免重复遍历
+                    if (segments.isEmpty() || segments.get(segments.size() - 1) != ANY_DEPTH) {
+                        segments.add(ANY_DEPTH);
+                    }
+                } else if (segment.indexOf('*') >= 0 || segment.indexOf('?') >= 0) {
+                    segments.add(globPattern(segment));
+                } else {
+                    segments.add(segment);
+                }
+            }
+        }
+        matchGlob(paths, "", segments, 0, max, out);
+    }
+
+    private static boolean matchGlob(TrieNode node, String path, List<Object> segments, int index, int max,
+                                     Collection<String> out) {
+        if (index == segments.size()) {
+            if (node.present) {
+                out.add(path.isEmpty() ? "/" : path);
+            }
+            return out.size() < max;
+        }
+        Object segment = segments.get(index);
+        if (segment == ANY_DEPTH) {
+            if (!matchGlob(node, path, segments, index + 1, max, out)) {
+                return false;
+            }
+            if (node.children != null) {
+                for (Map.Entry<String, TrieNode> child : node.children.entrySet()) {
+                    if (!matchGlob(child.getValue(), path + "/" + child.getKey(), segments, index, max, out)) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+        if (segment instanceof String) {
+            TrieNode child = node.child((String) segment);
+            return child == null || matchGlob(child, path + "/" + segment, segments, index + 1, max, out);
+        }
+        if (node.children != null) {
+            for (Map.Entry<String, TrieNode> child : node.children.entrySet()) {
+                if (((Pattern) segment).matcher(child.getKey()).matches()
+                        && !matchGlob(child.getValue(), path + "/" + child.getKey(), segments, index + 1, max, out)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private static Pattern globPattern(String segment) {
+        StringBuilder regex = new StringBuilder();
+        for (int i = 0; i < segment.length(); i++) {
+            char c = segment.charAt(i);
+            if (c == '*') {
+                regex.append(".*");
+            } else if (c == '?') {
+                regex.append('.');
+            } else if (Character.isLetterOrDigit(c)) {
+                regex.append(c);
+            } else {
+                regex.append('\\').append(c);
+            }
+        }
+        return Pattern.compile(regex.toString(), Pattern.DOTALL);
+    }
+
+    /**
+     * @return 匹配数超过 limit
+     */
+    private boolean searchData(String query, int limit, List<ZkSearchResult.Hit> hits) {
+        String needle = query.toLowerCase(Locale.ROOT);
+        Set<String> candidates;
+        lock.readLock().lock();
+        try {
+            candidates = new TreeSet<String>(candidates(needle));
+            candidates.addAll(unindexed);
+        } finally {
+            lock.readLock().unlock();
+        }
+        // 候选节点用缓存中的数据确认, 不持有索引的锁
+        for (String path : candidates) {
+            ZkTreeCache.Node node = cache.get(path);
+            byte[] data = node == null ? null : node.getData();
+            if (data == null || data.length == 0 || DataViewUtils.isBinary(data)) {
+                continue;
+            }
+            String text = new String(data, DataViewUtils.UTF8);
+            String lower = text.toLowerCase(Locale.ROOT);
+            int at = lower.indexOf(needle);
+            if (at < 0) {
+                continue;
+            }
+            if (hits.size() == limit) {
+                return true;
+            }
+            hits.add(new ZkSearchResult.Hit(path, snippet(text, lower.length() == text.length() ? at : 0, needle.length())));
+        }
+        return false;
+    }
+
+    /**
+     * 查询串中前后都是分隔符的词必须整词出现; 开头的词可能是某个词的结尾, 结尾的词可能是某个词的开头.
+     * 优先用整词的倒排求交集, 其次用词首范围, 最后才扫描词表; 查询串中没有可用的词时所有文本节点都是候选.
+     */
+    private Collection<String> candidates(String needle) {
+        Set<String> exact = null;
+        String head = null;
+        String tail = null;
+        String inner = null;
+        int i = 0;
+        while (i < needle.length()) {
+            if (!isWordChar(needle.charAt(i))) {
+                i++;
+                continue;
+            }
+            int start = i;
+            while (i < needle.length() && isWordChar(needle.charAt(i))) {
+                i++;
+            }
+            if (i - start < MIN_TOKEN_LENGTH) {
+                continue;
+            }
+            String word = key(needle.substring(start, i));
+            boolean openStart = start == 0;
+            boolean openEnd = i == needle.length();
+            if (!openStart && !openEnd) {
+                Set<String> posting = postings.get(word);
+                if (posting == null) {
+                    return Collections.emptySet();
+                }
+                if (exact == null) {
+                    exact = new HashSet<String>(posting);
+                } else {
+                    exact.retainAll(posting);
+                }
+            } else if (!openStart) {
+                head = word;
+            } else if (!openEnd) {
+                tail = word;
+            } else {
+                inner = word;
+            }
+        }
+        if (exact != null) {
+            return exact;
+        }
+        Set<String> union = new HashSet<String>();
+        if (head != null) {
+            for (Set<String> posting : postings.subMap(head, true, head + Character.MAX_VALUE, true).values()) {
+                union.addAll(posting);
+            }
+            return union;
+        }
+        if (tail != null || inner != null) {
+            for (Map.Entry<String, Set<String>> entry : postings.entrySet()) {
+                String token = entry.getKey();
+                // 截断的长词无法判断结尾, 一律作为候选
+                if (token.length() == MAX_TOKEN_LENGTH
+                        || (tail != null ? token.endsWith(tail) : token.contains(inner))) {
+                    union.addAll(entry.getValue());
+                }
+            }
+            return union;
+        }
+        return texts.keySet();
+    }
+
+    private void unpost(String path) {
+        if (!texts.containsKey(path)) {
+            return;
+        }
+        String[] tokens = texts.remove(path);
+        if (tokens == null) {
+            unindexed.remove(path);
+            return;
+        }
+        for (String token : tokens) {
+            Set<String> posting = postings.get(token);
+            if (posting != null && posting.remove(path) && posting.isEmpty()) {
+                postings.remove(token);
+            }
+        }
+    }
+
+    /**
+     * @return 去重的词, 数量超过上限时提前结束
+     */
+    private static Set<String> tokenize(String text) {
+        Set<String> tokens = new HashSet<String>();
+        int i = 0;
+        while (i < text.length() && tokens.size() <= MAX_TOKENS_PER_NODE) {
+            if (!isWordChar(text.charAt(i))) {
+                i++;
+                continue;
+            }
+            int start = i;
+            while (i < text.length() && isWordChar(text.charAt(i))) {
+                i++;
+            }
+            if (i - start >= MIN_TOKEN_LENGTH) {
+                tokens.add(key(text.substring(start, i)));
+            }
+        }
+        return tokens;
+    }
+
+    private static String key(String word) {
+        return word.length() > MAX_TOKEN_LENGTH ? word.substring(0, MAX_TOKEN_LENGTH) : word;
+    }
+
+    private static boolean isWordChar(char c) {
+        return Character.isLetterOrDigit(c);
+    }
+
+    private static String snippet(String text, int at, int length) {
+        int from = Math.max(0, at - SNIPPET_CHARS);
+        int to = Math.min(text.length(), at + length + SNIPPET_CHARS);
+        return (from > 0 ? "..." : "") + text.substring(from, to).replace('\n', ' ').replace('\r', ' ')
+                + (to < text.length() ? "..." : "");
+    }
+
+    /**
+     * 路径按层级拆开的前缀树节点, present 为 false 的是只作为中间层级存在的节点
+     */
+    private static class TrieNode {
+        TreeMap<String, TrieNode> children;
+        boolean present;
+
+        TrieNode child(String name) {
+            return children == null ? null : children.get(name);
+        }
+
+        /**
+         * @return 名称以 prefix 开头的子节点
+         */
+        Set<Map.Entry<String, TrieNode>> children(String prefix) {
+            if (children == null) {
+                return Collections.emptySet();
+            }
+            return children.subMap(prefix, true, prefix + Character.MAX_VALUE, true).entrySet();
+        }
+
+        /**
+         * @return path 原先不在树中
+         */
+        boolean add(String path) {
+            TrieNode node = this;
+            if (!path.equals("/")) {
+                for (String name : path.substring(1).split("/")) {
+                    TrieNode child = node.child(name);
+                    if (child == null) {
+                        child = new TrieNode();
+                        if (node.children == null) {
+                            node.children = new TreeMap<String, TrieNode>();
+                        }
+                        node.children.put(name, child);
+                    }
+                    node = child;
+                }
+            }
+            if (node.present) {
+                return false;
+            }
+            node.present = true;
+            return true;
+        }
+
+        /**
+         * 移除 path, 并删去因此不再需要的中间层级
+         *
+         * @return path 原先在树中
+         */
+        boolean remove(String path) {
+            if (path.equals("/")) {
+                boolean present = this.present;
+                this.present = false;
+                return present;
+            }
+            String[] names = path.substring(1).split("/");
+            TrieNode[] trail = new TrieNode[names.length + 1];
+            trail[0] = this;
+            for (int i = 0; i < names.length; i++) {
+                trail[i + 1] = trail[i].child(names[i]);
+                if (trail[i + 1] == null) {
+                    return false;
+                }
+            }
+            TrieNode node = trail[names.length];
+            if (!node.present) {
+                return false;
+            }
+            node.present = false;
+            for (int i = names.length; i > 0; i--) {
+                TrieNode current = trail[i];
+                if (current.present || (current.children != null && !current.children.isEmpty())) {
+                    break;
+                }
+                trail[i - 1].children.remove(names[i - 1]);
+            }
+            return true;
+        }
+    }
+}
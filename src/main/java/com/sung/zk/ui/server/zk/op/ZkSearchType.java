@@ -0,0 +1,31 @@
+package com.sung.zk.ui.server.zk.op;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * 搜索方式
+ */
+public enum ZkSearchType {
+    /**
+     * 路径前缀, 例如 /app/ser 匹配 /app/server1 及其子节点
+     */
+    PREFIX,
+    /**
+     * 路径通配: * 与 ? 匹配一级路径中的字符, ** 匹配任意多级; 不以 / 开头时匹配任意深度
+     */
+    GLOB,
+    /**
+     * 节点数据包含该字符串 (不区分大小写, 不含二进制数据)
+     */
+    SUBSTRING;
+
+    /**
+     * @param name 例如 substring, 为空时返回 PREFIX
+     */
+    public static ZkSearchType parse(String name) {
+        if (StringUtils.isBlank(name)) {
+            return PREFIX;
+        }
+        return valueOf(StringUtils.upperCase(StringUtils.trim(name)));
+    }
+}
@@ -0,0 +1,288 @@
+package com.sung.zk.ui.server.zk.op;
+
+import com.github.zkclient.IZkChildListener;
+import com.github.zkclient.IZkDataListener;
+import com.github.zkclient.ZkClient;
+import com.github.zkclient.ZkSubscription;
+import com.github.zkclient.exception.ZkInterruptedException;
+import com.github.zkclient.exception.ZkNoNodeException;
+import com.sung.zk.ui.server.zk.entity.ZkNodeEvent;
+import com.sung.zk.ui.server.zk.util.DataViewUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 节点变化的订阅复用: 同一集群上订阅同一路径的所有页面共用一组 data / child 监听器.
+ * <p>
+ * 路径的第一个订阅者注册监听器, 最后一个订阅者离开时注销. 每次变化只生成一个 {@link ZkNodeEvent},
+ * 在 ZkClient 的事件分发线程 (按路径分条的 ZkEventThread 工作线程) 中依次交给所有订阅者, 订阅者不能在
+ * 回调中阻塞, 否则会拖住同一分条上的其他路径.
+ * </p>
+ * <p>
+ * 注册监听器需要访问 zookeeper, 在锁外进行: 先放入尚未注册的 Topic 占位, 同一路径随后的订阅者等待
+ * 它注册完成, 其他路径的订阅与退订不受影响.
+ * </p>
+ */
+public class ZkWatchHub {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ZkWatchHub.class);
+
+    public interface Subscriber {
+        /**
+         * 在 ZkEventThread 的工作线程中调用, 应立即返回. 同一路径的变化按顺序到达, 不同路径的变化可能并发到达
+         */
+        void onEvent(ZkNodeEvent event);
+    }
+
+    private final ZkClient client;
+
+    /**
+     * 由 this 保护
+     */
+    private final Map<String, Topic> topics = new HashMap<String, Topic>();
+
+    private final AtomicLong events = new AtomicLong();
+    private final AtomicLong deliveries = new AtomicLong();
+
+    public ZkWatchHub(ZkClient client) {
+        this.client = client;
+    }
+
+    /**
+     * 返回时路径的监听器已注册, 之后的变化都会推送
+     */
+    public void subscribe(String path, Subscriber subscriber) {
+        Topic topic;
+        boolean first;
+        synchronized (this) {
+            topic = topics.get(path);
+            first = topic == null;
+            if (first) {
+                topic = new Topic(path);
+                topics.put(path, topic);
+            }
+            topic.subscribers.add(subscriber);
+        }
+        if (!first) {
+            // 第一个订阅者注册失败时重新订阅, 失败的原因会抛给这个订阅者
+            if (!topic.awaitOpened()) {
+                subscribe(path, subscriber);
+            }
+            return;
+        }
+        try {
+            topic.open();
+        } catch (RuntimeException e) {
+            synchronized (this) {
+                if (topics.get(path) == topic) {
+                    topics.remove(path);
+                }
+            }
+            topic.close();
+            throw e;
+        }
+        LOGGER.debug("watch {}", path);
+    }
+
+    public void unsubscribe(String path, Subscriber subscriber) {
+        Topic topic;
+        synchronized (this) {
+            topic = topics.get(path);
+            if (topic == null || !topic.subscribers.remove(subscriber) || !topic.subscribers.isEmpty()) {
+                return;
+            }
+            topics.remove(path);
+        }
+        topic.close();
+        LOGGER.debug("unwatch {}", path);
+    }
+
+    /**
+     * 读取节点当前的数据与子节点, 只交给这一个订阅者. 用于订阅者重连后补上断开期间错过的变化;
+     * 先订阅再读取, 读取之后的变化仍会推送.
+     */
+    public void snapshot(String path, Subscriber subscriber) {
+        byte[] data = client.readData(path, true);
+        Topic topic = new Topic(path);
+        topic.subscribers.add(subscriber);
+        if (data == null && !client.exists(path)) {
+            topic.handleDataDeleted(path);
+            return;
+        }
+        topic.handleDataChange(path, data);
+        try {
+            topic.handleChildChange(path, client.getChildren(path));
+        } catch (ZkNoNodeException e) {
+            topic.handleDataDeleted(path);
+        }
+    }
+
+    /**
+     * 注销所有监听器, 订阅者不再收到变化
+     */
+    public void close() {
+        List<Topic> closed;
+        synchronized (this) {
+            closed = new ArrayList<Topic>(topics.values());
+            topics.clear();
+        }
+        for (Topic topic : closed) {
+            topic.close();
+        }
+    }
+
+    /**
+     * @return 有订阅者的路径数, 即注册在 zookeeper 客户端上的监听器组数
+     */
+    public synchronized int getPathCount() {
+        return topics.size();
+    }
+
+    public synchronized int getSubscriberCount() {
+        int count = 0;
+        for (Topic topic : topics.values()) {
+            count += topic.subscribers.size();
+        }
+        return count;
+    }
+
+    /**
+     * @return 收到的变化数
+     */
+    public long getEvents() {
+        return events.get();
+    }
+
+    /**
+     * @return 交给订阅者的次数
+     */
+    public long getDeliveries() {
+        return deliveries.get();
+    }
+
+    private class Topic implements IZkDataListener, IZkChildListener {
+        final String path;
+        final Set<Subscriber> subscribers = new CopyOnWriteArraySet<Subscriber>();
+        /**
+         * open 结束 (成功或失败) 后打开
+         */
+        private final CountDownLatch opened = new CountDownLatch(1);
+        /**
+         * 以下由 this 保护
+         */
+        private ZkSubscription dataSubscription;
+        private ZkSubscription childSubscription;
+        private boolean closed;
+
+        Topic(String path) {
+            this.path = path;
+        }
+
+        /**
+         * 注册监听器, 不持有任何锁; 注册期间被关闭时立即注销
+         */
+        void open() {
+            try {
+                ZkSubscription data = client.watchData(path, this);
+                ZkSubscription children;
+                try {
+                    children = client.watchChildren(path, this);
+                } catch (RuntimeException e) {
+                    data.close();
+                    throw e;
+                }
+                synchronized (this) {
+                    if (!closed) {
+                        dataSubscription = data;
+                        childSubscription = children;
+                        return;
+                    }
+                }
+                data.close();
+                children.close();
+            } finally {
+                opened.countDown();
+            }
+        }
+
+        /**
+         * @return 监听器已注册且尚未注销
+         */
+        boolean awaitOpened() {
+            try {
+                opened.await();
+            } catch (InterruptedException e) {
+                throw new ZkInterruptedException(e);
+            }
+            synchronized (this) {
+                return dataSubscription != null;
+            }
+        }
+
+        void close() {
+            ZkSubscription data;
+            ZkSubscription children;
+            synchronized (this) {
+                closed = true;
+                data = dataSubscription;
+                children = childSubscription;
+                dataSubscription = null;
+                childSubscription = null;
+            }
+            // snapshot 使用的临时 Topic 与尚未注册完成的 Topic 没有订阅
+            if (data != null) {
+                data.close();
+            }
+            if (children != null) {
+                children.close();
+            }
+        }
+
+        @Override
+        public void handleDataChange(String dataPath, byte[] data) {
+            data = data == null ? new byte[0] : data;
+            boolean binary = DataViewUtils.isBinary(data);
+            DataViewUtils.View view = binary ? DataViewUtils.View.HEX : DataViewUtils.View.UTF8;
+            int previewEnd = DataViewUtils.rangeEnd(data, 0, DataViewUtils.PREVIEW_BYTES, view);
+            publish(ZkNodeEvent.data(path, data.length, binary, DataViewUtils.preview(data, previewEnd, view),
+                    view.name().toLowerCase(), previewEnd));
+        }
+
+        @Override
+        public void handleDataDeleted(String dataPath) {
+            publish(ZkNodeEvent.deleted(path));
+        }
+
+        @Override
+        public void handleChildChange(String parentPath, List<String> currentChildren) {
+            // 节点被删除时由 handleDataDeleted 通知
+            if (currentChildren == null) {
+                return;
+            }
+            List<String> children = new ArrayList<String>(currentChildren);
+            Collections.sort(children);
+            publish(ZkNodeEvent.children(path, children));
+        }
+
+        private void publish(ZkNodeEvent event) {
+            events.incrementAndGet();
+            for (Subscriber subscriber : subscribers) {
+                try {
+                    subscriber.onEvent(event);
+                    deliveries.incrementAndGet();
+                } catch (RuntimeException e) {
+                    LOGGER.warn("deliver " + event.getType() + " of " + path + " failed", e);
+                }
+            }
+        }
+    }
+}
@@ -6,20 +6,87 @@ import java.util.Properties;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.core.io.ClassPathResource;
+import org.springframework.core.io.Resource;
 import org.springframework.core.io.support.PropertiesLoaderUtils;
 
+/**
+ * 连接配置. 配置只在文件修改时间变化后才重新加载 (最多每 {@link #CHECK_INTERVAL} 毫秒检查一次),
+ * 其余调用返回内存中快照的副本.
+ */
 public class ConfUtils {
    private static final Logger LOGGER = LoggerFactory.getLogger(ConfUtils.class);
    private static final String CONF_PATH = "conf/conectionStrings.properties";
+   private static final long CHECK_INTERVAL = 5000L;
 
+   private static volatile Snapshot snapshot;
+
+   /**
+    * @return 配置快照的副本, 调用方可以随意修改; 配置文件不存在或读取失败时返回 null
+    */
    public static Properties getConxtions() {
-      Properties properties = null;
+      Snapshot current = snapshot;
+      if (current == null || System.currentTimeMillis() - current.checkedAt >= CHECK_INTERVAL) {
+         current = refresh(current);
+      }
+      if (current.properties == null) {
+         return null;
+      }
+      // 配置只有几项, 复制的开销远小于读取文件
+      Properties copy = new Properties();
+      copy.putAll(current.properties);
+      return copy;
+   }
+
+   private static synchronized Snapshot refresh(Snapshot seen) {
+      Snapshot current = snapshot;
+      if (current != seen) {
+         // 其他线程已经刷新过
+         return current;
+      }
+      long now = System.currentTimeMillis();
+      Resource resource = new ClassPathResource(CONF_PATH);
+      long modified = lastModified(resource);
+      if (current != null && modified == current.modified) {
+         current = new Snapshot(current.properties, modified, now);
+      } else {
+         if (current != null) {
+            LOGGER.info("{} changed, reload", CONF_PATH);
+         }
+         current = new Snapshot(load(resource), modified, now);
+      }
+      snapshot = current;
+      return current;
+   }
+
+   private static long lastModified(Resource resource) {
       try {
-         properties = PropertiesLoaderUtils.loadProperties(new ClassPathResource(CONF_PATH));
+         return resource.exists() ? resource.lastModified() : -1L;
+      } catch (IOException e) {
+         return -1L;
+      }
+   }
+
+   private static Properties load(Resource resource) {
+      try {
+         return PropertiesLoaderUtils.loadProperties(resource);
       } catch (IOException e) {
          LOGGER.error(e.getMessage(), e);
+         return null;
       }
+   }
 
-      return properties;
+   private static class Snapshot {
+      /**
+       * 不交给调用方, 不会被修改
+       */
+      final Properties properties;
+      final long modified;
+      final long checkedAt;
+
+      Snapshot(Properties properties, long modified, long checkedAt) {
+         this.properties = properties;
+         this.modified = modified;
+         this.checkedAt = checkedAt;
+      }
    }
 }
@@ -0,0 +1,143 @@
+package com.sung.zk.ui.server.zk.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+
+import com.google.common.io.BaseEncoding;
+
+/**
+ * 节点数据的分段展示: 直接把 byte[] 的某一段按 raw / utf8 / hex / base64 写出, 不整体解码成 String.
+ */
+public class DataViewUtils {
+   public static final Charset UTF8 = Charset.forName("UTF-8");
+
+   /**
+    * 页面预览的字节数
+    */
+   public static final int PREVIEW_BYTES = 4096;
+
+   /**
+    * 二进制检测只看开头这么多字节
+    */
+   private static final int DETECT_BYTES = 8192;
+
+   private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+   private static final int HEX_BYTES_PER_LINE = 16;
+
+   public enum View {
+      RAW, UTF8, HEX, BASE64;
+
+      public static View of(String name, View defaultView) {
+         if (name == null) {
+            return defaultView;
+         }
+         try {
+            return valueOf(name.trim().toUpperCase());
+         } catch (IllegalArgumentException e) {
+            return defaultView;
+         }
+      }
+   }
+
+   /**
+    * 开头部分不是合法的 UTF-8, 或含有 NUL / 较多控制字符时视为二进制
+    */
+   public static boolean isBinary(byte[] data) {
+      int end = utf8End(data, 0, Math.min(data.length, DETECT_BYTES));
+      CharsetDecoder decoder = UTF8.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPORT)
+            .onUnmappableCharacter(CodingErrorAction.REPORT);
+      try {
+         decoder.decode(ByteBuffer.wrap(data, 0, end));
+      } catch (CharacterCodingException e) {
+         return true;
+      }
+      int control = 0;
+      for (int i = 0; i < end; i++) {
+         byte b = data[i];
+         if (b == 0) {
+            return true;
+         }
+         if (b > 0 && b < 0x20 && b != '\t' && b != '\n' && b != '\r') {
+            control++;
+         }
+      }
+      return control * 10 > end;
+   }
+
+   /**
+    * 将 end 向前调整到 UTF-8 字符边界, 避免截断多字节字符
+    */
+   public static int utf8End(byte[] data, int offset, int end) {
+      int adjusted = end;
+      while (adjusted > offset && adjusted < data.length && end - adjusted < 3 && (data[adjusted] & 0xC0) == 0x80) {
+         adjusted--;
+      }
+      return adjusted > offset ? adjusted : end;
+   }
+
+   /**
+    * 计算 [offset, offset + length) 在指定视图下实际输出的结束位置: utf8 不截断字符, base64 按 3 字节对齐以便分段拼接
+    */
+   public static int rangeEnd(byte[] data, int offset, int length, View view) {
+      int end = (int) Math.min(data.length, (long) offset + Math.max(length, 0));
+      if (end >= data.length) {
+         return data.length;
+      }
+      if (view == View.UTF8) {
+         return utf8End(data, offset, end);
+      }
+      if (view == View.BASE64 && end - offset >= 3) {
+         return end - (end - offset) % 3;
+      }
+      return end;
+   }
+
+   public static String preview(byte[] data, int end, View view) {
+      if (view == View.HEX) {
+         StringBuilder sb = new StringBuilder((end) * 3);
+         appendHex(sb, data, 0, end);
+         return sb.toString();
+      }
+      return new String(data, 0, end, UTF8);
+   }
+
+   /**
+    * 将 [offset, end) 按视图写出
+    */
+   public static void write(OutputStream out, byte[] data, int offset, int end, View view) throws IOException {
+      switch (view) {
+         case HEX:
+            StringBuilder sb = new StringBuilder(HEX_BYTES_PER_LINE * 64 * 3);
+            for (int i = offset; i < end; i += HEX_BYTES_PER_LINE * 64) {
+               sb.setLength(0);
+               appendHex(sb, data, i, Math.min(end, i + HEX_BYTES_PER_LINE * 64));
+               out.write(sb.toString().getBytes(UTF8));
+            }
+            break;
+         case BASE64:
+            // 3 的倍数, 分块编码后可以直接拼接
+            int chunk = 3 * 4096;
+            for (int i = offset; i < end; i += chunk) {
+               out.write(BaseEncoding.base64().encode(data, i, Math.min(chunk, end - i)).getBytes(UTF8));
+            }
+            break;
+         default:
+            // raw 与 utf8 都直接输出原始字节
+            out.write(data, offset, end - offset);
+      }
+   }
+
+   private static void appendHex(StringBuilder sb, byte[] data, int offset, int end) {
+      for (int i = offset; i < end; i++) {
+         sb.append(HEX[(data[i] >> 4) & 0xF]).append(HEX[data[i] & 0xF]);
+         sb.append((i + 1) % HEX_BYTES_PER_LINE == 0 ? '\n' : ' ');
+      }
+   }
+}
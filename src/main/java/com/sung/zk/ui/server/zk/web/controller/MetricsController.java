@@ -0,0 +1,365 @@
+package com.sung.zk.ui.server.zk.web.controller;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Collection;
+import java.util.Map;
+
+import javax.servlet.http.HttpServletResponse;
+
+import com.github.zkclient.ZkMetrics;
+import com.github.zkclient.ZkTreeCache;
+import com.sung.zk.ui.server.zk.op.ZkClientRegistry;
+import com.sung.zk.ui.server.zk.op.ZkClusterServices;
+import com.sung.zk.ui.server.zk.op.ZkNodeCache;
+import com.sung.zk.ui.server.zk.op.ZkReplicator;
+import com.sung.zk.ui.server.zk.op.ZkSearchIndex;
+import com.sung.zk.ui.server.zk.op.ZkWatchHub;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+
+/**
+ * zk 客户端请求指标, 输出 Prometheus 文本格式 (按集群区分)
+ */
+@Controller
+@RequestMapping("/metrics")
+public class MetricsController {
+
+	private static final double[] QUANTILES = { 0.5, 0.9, 0.99, 0.999 };
+
+	@RequestMapping(value = "", method = RequestMethod.GET)
+	public void metrics(HttpServletResponse response) throws IOException {
+		ZkClientRegistry registry = ZkClientRegistry.getInstance();
+		Map<String, ZkMetrics> clusters = registry.getMetrics();
+		StringBuilder out = new StringBuilder(4096);
+
+		header(out, "zk_client_clients", "gauge", "open zookeeper clients");
+		for (String cluster : clusters.keySet()) {
+			sample(out, "zk_client_clients", label("cluster", cluster), registry.getClientCount(cluster));
+		}
+
+		header(out, "zk_client_listeners", "gauge", "path and state listeners registered on the open clients");
+		for (String cluster : clusters.keySet()) {
+			sample(out, "zk_client_listeners", label("cluster", cluster), registry.getListenerCount(cluster));
+		}
+
+		header(out, "zk_client_requests_total", "counter", "completed zookeeper requests");
+		for (Map.Entry<String, ZkMetrics> entry : clusters.entrySet()) {
+			for (ZkMetrics.Op op : ZkMetrics.Op.values()) {
+				sample(out, "zk_client_requests_total", opLabels(entry.getKey(), op), entry.getValue().getCount(op));
+			}
+		}
+
+		header(out, "zk_client_request_errors_total", "counter", "zookeeper requests completed with an error");
+		for (Map.Entry<String, ZkMetrics> entry : clusters.entrySet()) {
+			for (ZkMetrics.Op op : ZkMetrics.Op.values()) {
+				sample(out, "zk_client_request_errors_total", opLabels(entry.getKey(), op), entry.getValue().getErrors(op));
+			}
+		}
+
+		header(out, "zk_client_request_retries_total", "counter", "zookeeper requests sent again after a reconnection");
+		for (Map.Entry<String, ZkMetrics> entry : clusters.entrySet()) {
+			for (ZkMetrics.Op op : ZkMetrics.Op.values()) {
+				sample(out, "zk_client_request_retries_total", opLabels(entry.getKey(), op), entry.getValue().getRetries(op));
+			}
+		}
+
+		long[] bounds = ZkMetrics.getBucketBounds();
+		header(out, "zk_client_request_duration_seconds", "histogram", "zookeeper request latency including reconnection waits");
+		for (Map.Entry<String, ZkMetrics> entry : clusters.entrySet()) {
+			ZkMetrics metrics = entry.getValue();
+			for (ZkMetrics.Op op : ZkMetrics.Op.values()) {
+				String labels = opLabels(entry.getKey(), op);
+				long[] counts = metrics.getBucketCounts(op);
+				long cumulative = 0;
+				for (int i = 0; i < counts.length; i++) {
+					cumulative += counts[i];
+					String le = i < bounds.length ? seconds(bounds[i] * 1000L) : "+Inf";
+					sample(out, "zk_client_request_duration_seconds_bucket", labels + "," + label("le", le), cumulative);
+				}
+				sample(out, "zk_client_request_duration_seconds_sum", labels, seconds(metrics.getTotalNanos(op)));
+				sample(out, "zk_client_request_duration_seconds_count", labels, cumulative);
+			}
+		}
+
+		header(out, "zk_client_request_duration_quantile_seconds", "gauge", "latency quantiles estimated from the histogram (bucket upper bound)");
+		for (Map.Entry<String, ZkMetrics> entry : clusters.entrySet()) {
+			for (ZkMetrics.Op op : ZkMetrics.Op.values()) {
+				for (double quantile : QUANTILES) {
+					long micros = entry.getValue().getQuantileMicros(op, quantile);
+					if (micros < 0) {
+						continue;
+					}
+					String value = micros == Long.MAX_VALUE ? "+Inf" : seconds(micros * 1000L);
+					sample(out, "zk_client_request_duration_quantile_seconds",
+							opLabels(entry.getKey(), op) + "," + label("quantile", String.valueOf(quantile)), value);
+				}
+			}
+		}
+
+		header(out, "zk_client_reconnect_waits_total", "counter", "waits for a reconnection");
+		for (Map.Entry<String, ZkMetrics> entry : clusters.entrySet()) {
+			for (ZkMetrics.Wait wait : ZkMetrics.Wait.values()) {
+				sample(out, "zk_client_reconnect_waits_total", waitLabels(entry.getKey(), wait), entry.getValue().getWaitCount(wait));
+			}
+		}
+
+		header(out, "zk_client_reconnect_wait_seconds_total", "counter", "time spent waiting for a reconnection");
+		for (Map.Entry<String, ZkMetrics> entry : clusters.entrySet()) {
+			for (ZkMetrics.Wait wait : ZkMetrics.Wait.values()) {
+				sample(out, "zk_client_reconnect_wait_seconds_total", waitLabels(entry.getKey(), wait),
+						seconds(entry.getValue().getWaitNanos(wait)));
+			}
+		}
+
+		ZkClusterServices services = ZkClusterServices.getInstance();
+		nodeCacheMetrics(out, services.getNodeCaches());
+		treeCacheMetrics(out, services.getTreeCaches());
+		searchIndexMetrics(out, services.getSearchIndexes());
+		replicationMetrics(out, services.getReplications().values());
+		watchMetrics(out, services.getWatchHubs());
+
+		response.setContentType("text/plain; version=0.0.4; charset=utf-8");
+		Writer writer = response.getWriter();
+		writer.write(out.toString());
+		writer.flush();
+	}
+
+	private static void nodeCacheMetrics(StringBuilder out, Map<String, ZkNodeCache> caches) {
+		if (caches.isEmpty()) {
+			return;
+		}
+		header(out, "zk_node_cache_bytes", "gauge", "estimated size of the cached readData and getChildren results");
+		for (Map.Entry<String, ZkNodeCache> entry : caches.entrySet()) {
+			sample(out, "zk_node_cache_bytes", label("cluster", entry.getKey()), entry.getValue().getBytes());
+		}
+		header(out, "zk_node_cache_max_bytes", "gauge", "size limit of the node cache");
+		for (Map.Entry<String, ZkNodeCache> entry : caches.entrySet()) {
+			sample(out, "zk_node_cache_max_bytes", label("cluster", entry.getKey()), entry.getValue().getMaxBytes());
+		}
+		header(out, "zk_node_cache_entries", "gauge", "cached results");
+		for (Map.Entry<String, ZkNodeCache> entry : caches.entrySet()) {
+			sample(out, "zk_node_cache_entries", label("cluster", entry.getKey()), entry.getValue().getEntryCount());
+		}
+		header(out, "zk_node_cache_watchers", "gauge", "watches the node cache left in the zookeeper client, at most one per cached key");
+		for (Map.Entry<String, ZkNodeCache> entry : caches.entrySet()) {
+			sample(out, "zk_node_cache_watchers", label("cluster", entry.getKey()), entry.getValue().getWatcherCount());
+		}
+		header(out, "zk_node_cache_hits_total", "counter", "reads answered from the node cache");
+		for (Map.Entry<String, ZkNodeCache> entry : caches.entrySet()) {
+			sample(out, "zk_node_cache_hits_total", label("cluster", entry.getKey()), entry.getValue().getHits());
+		}
+		header(out, "zk_node_cache_misses_total", "counter", "reads sent to zookeeper by the node cache");
+		for (Map.Entry<String, ZkNodeCache> entry : caches.entrySet()) {
+			sample(out, "zk_node_cache_misses_total", label("cluster", entry.getKey()), entry.getValue().getMisses());
+		}
+		header(out, "zk_node_cache_evictions_total", "counter", "least recently used results dropped to stay below the size limit");
+		for (Map.Entry<String, ZkNodeCache> entry : caches.entrySet()) {
+			sample(out, "zk_node_cache_evictions_total", label("cluster", entry.getKey()), entry.getValue().getEvictions());
+		}
+		header(out, "zk_node_cache_invalidations_total", "counter", "results dropped by a watch or a local write");
+		for (Map.Entry<String, ZkNodeCache> entry : caches.entrySet()) {
+			sample(out, "zk_node_cache_invalidations_total", label("cluster", entry.getKey()), entry.getValue().getInvalidations());
+		}
+	}
+
+	private static void treeCacheMetrics(StringBuilder out, Map<String, ZkTreeCache> caches) {
+		if (caches.isEmpty()) {
+			return;
+		}
+		header(out, "zk_tree_cache_initialized", "gauge", "1 once the initial load of the tree cache finished");
+		for (Map.Entry<String, ZkTreeCache> entry : caches.entrySet()) {
+			sample(out, "zk_tree_cache_initialized", cacheLabels(entry), entry.getValue().isInitialized() ? 1 : 0);
+		}
+		header(out, "zk_tree_cache_init_seconds", "gauge", "duration of the initial load");
+		for (Map.Entry<String, ZkTreeCache> entry : caches.entrySet()) {
+			long nanos = entry.getValue().getInitNanos();
+			if (nanos >= 0) {
+				sample(out, "zk_tree_cache_init_seconds", cacheLabels(entry), seconds(nanos));
+			}
+		}
+		header(out, "zk_tree_cache_nodes", "gauge", "cached nodes");
+		for (Map.Entry<String, ZkTreeCache> entry : caches.entrySet()) {
+			sample(out, "zk_tree_cache_nodes", cacheLabels(entry), entry.getValue().getNodeCount());
+		}
+		header(out, "zk_tree_cache_data_bytes", "gauge", "summed data size of the cached nodes");
+		for (Map.Entry<String, ZkTreeCache> entry : caches.entrySet()) {
+			sample(out, "zk_tree_cache_data_bytes", cacheLabels(entry), entry.getValue().getDataBytes());
+		}
+		header(out, "zk_tree_cache_pending_reads", "gauge", "reads sent or queued by the cache and not completed yet");
+		for (Map.Entry<String, ZkTreeCache> entry : caches.entrySet()) {
+			sample(out, "zk_tree_cache_pending_reads", cacheLabels(entry), entry.getValue().getPendingReads());
+		}
+		header(out, "zk_tree_cache_hits_total", "counter", "reads answered from the cache");
+		for (Map.Entry<String, ZkTreeCache> entry : caches.entrySet()) {
+			sample(out, "zk_tree_cache_hits_total", cacheLabels(entry), entry.getValue().getHits());
+		}
+		header(out, "zk_tree_cache_misses_total", "counter", "reads the cache could not answer (outside the root, loading or refreshing)");
+		for (Map.Entry<String, ZkTreeCache> entry : caches.entrySet()) {
+			sample(out, "zk_tree_cache_misses_total", cacheLabels(entry), entry.getValue().getMisses());
+		}
+		header(out, "zk_tree_cache_updates_total", "counter", "data and children changes applied to the cache");
+		for (Map.Entry<String, ZkTreeCache> entry : caches.entrySet()) {
+			sample(out, "zk_tree_cache_updates_total", cacheLabels(entry), entry.getValue().getUpdates());
+		}
+		header(out, "zk_tree_cache_sync_lag_seconds", "summary", "time from a watch notification until the change is visible in the cache");
+		for (Map.Entry<String, ZkTreeCache> entry : caches.entrySet()) {
+			sample(out, "zk_tree_cache_sync_lag_seconds_sum", cacheLabels(entry), seconds(entry.getValue().getSyncLagNanos()));
+			sample(out, "zk_tree_cache_sync_lag_seconds_count", cacheLabels(entry), entry.getValue().getSyncCount());
+		}
+		header(out, "zk_tree_cache_sync_lag_max_seconds", "gauge", "longest sync lag so far");
+		for (Map.Entry<String, ZkTreeCache> entry : caches.entrySet()) {
+			sample(out, "zk_tree_cache_sync_lag_max_seconds", cacheLabels(entry), seconds(entry.getValue().getMaxSyncLagNanos()));
+		}
+	}
+
+	private static void searchIndexMetrics(StringBuilder out, Map<String, ZkSearchIndex> indexes) {
+		if (indexes.isEmpty()) {
+			return;
+		}
+		header(out, "zk_search_index_paths", "gauge", "indexed paths");
+		for (Map.Entry<String, ZkSearchIndex> entry : indexes.entrySet()) {
+			sample(out, "zk_search_index_paths", searchLabels(entry), entry.getValue().getPathCount());
+		}
+		header(out, "zk_search_index_tokens", "gauge", "distinct tokens of the indexed data");
+		for (Map.Entry<String, ZkSearchIndex> entry : indexes.entrySet()) {
+			sample(out, "zk_search_index_tokens", searchLabels(entry), entry.getValue().getTokenCount());
+		}
+		header(out, "zk_search_query_seconds", "summary", "time spent answering searches");
+		for (Map.Entry<String, ZkSearchIndex> entry : indexes.entrySet()) {
+			sample(out, "zk_search_query_seconds_sum", searchLabels(entry), seconds(entry.getValue().getQueryNanos()));
+			sample(out, "zk_search_query_seconds_count", searchLabels(entry), entry.getValue().getQueries());
+		}
+	}
+
+	private static void watchMetrics(StringBuilder out, Map<String, ZkWatchHub> hubs) {
+		if (hubs.isEmpty()) {
+			return;
+		}
+		header(out, "zk_watch_paths", "gauge", "watched paths, each with one listener pair on the zookeeper client");
+		for (Map.Entry<String, ZkWatchHub> entry : hubs.entrySet()) {
+			sample(out, "zk_watch_paths", label("cluster", entry.getKey()), entry.getValue().getPathCount());
+		}
+		header(out, "zk_watch_subscribers", "gauge", "page subscriptions sharing those listeners");
+		for (Map.Entry<String, ZkWatchHub> entry : hubs.entrySet()) {
+			sample(out, "zk_watch_subscribers", label("cluster", entry.getKey()), entry.getValue().getSubscriberCount());
+		}
+		header(out, "zk_watch_events_total", "counter", "node changes received");
+		for (Map.Entry<String, ZkWatchHub> entry : hubs.entrySet()) {
+			sample(out, "zk_watch_events_total", label("cluster", entry.getKey()), entry.getValue().getEvents());
+		}
+		header(out, "zk_watch_deliveries_total", "counter", "node changes handed to subscribers");
+		for (Map.Entry<String, ZkWatchHub> entry : hubs.entrySet()) {
+			sample(out, "zk_watch_deliveries_total", label("cluster", entry.getKey()), entry.getValue().getDeliveries());
+		}
+	}
+
+	private static void replicationMetrics(StringBuilder out, Collection<ZkReplicator> replicators) {
+		if (replicators.isEmpty()) {
+			return;
+		}
+		header(out, "zk_replication_streaming", "gauge", "1 once the initial copy finished and only changes are replicated");
+		for (ZkReplicator replicator : replicators) {
+			sample(out, "zk_replication_streaming", replicationLabels(replicator),
+					replicator.getState() == ZkReplicator.State.STREAMING ? 1 : 0);
+		}
+		header(out, "zk_replication_initial_copy_seconds", "gauge", "duration of the initial copy");
+		for (ZkReplicator replicator : replicators) {
+			if (replicator.getInitialCopyMillis() >= 0) {
+				sample(out, "zk_replication_initial_copy_seconds", replicationLabels(replicator),
+						seconds(replicator.getInitialCopyMillis() * 1000000L));
+			}
+		}
+		header(out, "zk_replication_pending", "gauge", "changed nodes waiting to be written to the target");
+		for (ZkReplicator replicator : replicators) {
+			sample(out, "zk_replication_pending", replicationLabels(replicator), replicator.getPending());
+		}
+		header(out, "zk_replication_retrying", "gauge", "changes which failed to be written and wait to be retried");
+		for (ZkReplicator replicator : replicators) {
+			sample(out, "zk_replication_retrying", replicationLabels(replicator), replicator.getRetrying());
+		}
+		header(out, "zk_replication_out_of_sync", "gauge", "1 once a change was given up, the replication must be restarted");
+		for (ZkReplicator replicator : replicators) {
+			sample(out, "zk_replication_out_of_sync", replicationLabels(replicator), replicator.isOutOfSync() ? 1 : 0);
+		}
+		header(out, "zk_replication_ops_total", "counter", "nodes written to the target");
+		for (ZkReplicator replicator : replicators) {
+			String labels = replicationLabels(replicator);
+			sample(out, "zk_replication_ops_total", labels + "," + label("op", "create"), replicator.getCreates());
+			sample(out, "zk_replication_ops_total", labels + "," + label("op", "update"), replicator.getUpdates());
+			sample(out, "zk_replication_ops_total", labels + "," + label("op", "delete"), replicator.getDeletes());
+		}
+		header(out, "zk_replication_batches_total", "counter", "batches written to the target");
+		for (ZkReplicator replicator : replicators) {
+			sample(out, "zk_replication_batches_total", replicationLabels(replicator), replicator.getBatches());
+		}
+		header(out, "zk_replication_conflicts_total", "counter", "batches redone because the target differed from the expected state");
+		for (ZkReplicator replicator : replicators) {
+			sample(out, "zk_replication_conflicts_total", replicationLabels(replicator), replicator.getConflicts());
+		}
+		header(out, "zk_replication_errors_total", "counter", "changes given up after every retry failed");
+		for (ZkReplicator replicator : replicators) {
+			sample(out, "zk_replication_errors_total", replicationLabels(replicator), replicator.getErrors());
+		}
+		header(out, "zk_replication_lag_seconds", "summary", "time from a change seen on the source until it is written to the target");
+		for (ZkReplicator replicator : replicators) {
+			sample(out, "zk_replication_lag_seconds_sum", replicationLabels(replicator), seconds(replicator.getLagNanos()));
+			sample(out, "zk_replication_lag_seconds_count", replicationLabels(replicator), replicator.getLagCount());
+		}
+		header(out, "zk_replication_lag_max_seconds", "gauge", "longest replication lag so far");
+		for (ZkReplicator replicator : replicators) {
+			sample(out, "zk_replication_lag_max_seconds", replicationLabels(replicator), seconds(replicator.getMaxLagNanos()));
+		}
+	}
+
+	private static String replicationLabels(ZkReplicator replicator) {
+		return label("source", replicator.getSourceCxn() + replicator.getSourceRoot()) + ","
+				+ label("target", replicator.getTargetCxn() + replicator.getTargetRoot());
+	}
+
+	private static String searchLabels(Map.Entry<String, ZkSearchIndex> entry) {
+		return label("cluster", entry.getKey()) + "," + label("root", entry.getValue().getCache().getRoot());
+	}
+
+	private static String cacheLabels(Map.Entry<String, ZkTreeCache> entry) {
+		return label("cluster", entry.getKey()) + "," + label("root", entry.getValue().getRoot());
+	}
+
+	private static void header(StringBuilder out, String name, String type, String help) {
+		out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+		out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+	}
+
+	private static void sample(StringBuilder out, String name, String labels, Object value) {
+		out.append(name).append('{').append(labels).append("} ").append(value).append('\n');
+	}
+
+	private static String opLabels(String cluster, ZkMetrics.Op op) {
+		return label("cluster", cluster) + "," + label("op", op.label());
+	}
+
+	private static String waitLabels(String cluster, ZkMetrics.Wait wait) {
+		return label("cluster", cluster) + "," + label("reason", wait.label());
+	}
+
+	private static String label(String name, String value) {
+		StringBuilder sb = new StringBuilder(name.length() + value.length() + 3);
+		sb.append(name).append("=\"");
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c == '\\' || c == '"') {
+				sb.append('\\').append(c);
+			} else if (c == '\n') {
+				sb.append("\\n");
+			} else {
+				sb.append(c);
+			}
+		}
+		return sb.append('"').toString();
+	}
+
+	private static String seconds(long nanos) {
+		return String.valueOf(nanos / 1e9);
+	}
+}
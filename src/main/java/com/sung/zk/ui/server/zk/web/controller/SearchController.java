@@ -0,0 +1,87 @@
+package com.sung.zk.ui.server.zk.web.controller;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.http.HttpServletResponse;
+
+import com.alibaba.fastjson.JSON;
+import com.sung.zk.ui.server.zk.entity.ZkSearchResult;
+import com.sung.zk.ui.server.zk.op.ZkClusterServices;
+import com.sung.zk.ui.server.zk.op.ZkSearchIndex;
+import com.sung.zk.ui.server.zk.op.ZkSearchType;
+import com.sung.zk.ui.server.zk.util.ConfUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+
+/**
+ * 按路径或节点数据搜索, 由集群的内存索引回答, 不逐个读取节点.
+ * <p>
+ * type: prefix (默认) / glob / substring; q: 查询串; limit: 最多返回的结果数.
+ * 响应为 JSON, initialized 为 false 时索引仍在首次加载, 结果可能不完整.
+ * </p>
+ */
+@Controller
+@RequestMapping("/search")
+public class SearchController {
+	private static final Logger LOGGER = LoggerFactory.getLogger(SearchController.class);
+
+	private static final int DEFAULT_LIMIT = 100;
+	private static final int MAX_LIMIT = 1000;
+
+	/**
+	 * 索引刚开始建立时, 第一次搜索最多等待这么久
+	 */
+	private static final long INIT_WAIT_SECONDS = 5;
+
+	@RequestMapping(value = "", method = RequestMethod.GET)
+	public void search(HttpServletResponse response, String cxnstr, String q, String type, Integer limit) throws IOException {
+		if (StringUtils.isBlank(cxnstr)) {
+			Properties props = ConfUtils.getConxtions();
+			cxnstr =  props.getProperty("zk.host")+":"+props.getProperty("zk.port")+props.getProperty("zk.root.name");
+		}
+		if (StringUtils.isEmpty(q)) {
+			response.sendError(HttpServletResponse.SC_BAD_REQUEST, "missing query");
+			return;
+		}
+		ZkSearchType searchType;
+		try {
+			searchType = ZkSearchType.parse(type);
+		} catch (IllegalArgumentException e) {
+			response.sendError(HttpServletResponse.SC_BAD_REQUEST, "unknown type: " + type);
+			return;
+		}
+		ZkSearchIndex index = ZkClusterServices.getInstance().getSearchIndex(cxnstr);
+		if (index == null) {
+			response.sendError(HttpServletResponse.SC_NOT_FOUND, "search is disabled, set zk.search.root");
+			return;
+		}
+		if (!index.getCache().isInitialized()) {
+			index.getCache().awaitInitialized(INIT_WAIT_SECONDS, TimeUnit.SECONDS);
+		}
+		int max = limit == null ? DEFAULT_LIMIT : Math.max(1, Math.min(limit, MAX_LIMIT));
+		ZkSearchResult result = index.search(searchType, q, max);
+		LOGGER.debug("search, cxnstr:{}, type:{}, q:{}, hits:{}, micros:{}", cxnstr, searchType, q,
+				result.getHits().size(), result.getMicros());
+
+		Map<String, Object> body = new LinkedHashMap<String, Object>();
+		body.put("type", searchType.name().toLowerCase());
+		body.put("q", q);
+		body.put("root", index.getCache().getRoot());
+		body.put("initialized", result.isInitialized());
+		body.put("micros", result.getMicros());
+		body.put("truncated", result.isTruncated());
+		body.put("hits", result.getHits());
+		response.setCharacterEncoding("UTF-8");
+		response.setContentType("application/json; charset=utf-8");
+		response.getWriter().write(JSON.toJSONString(body));
+	}
+
+}
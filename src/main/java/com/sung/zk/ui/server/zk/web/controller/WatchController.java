@@ -0,0 +1,314 @@
+package com.sung.zk.ui.server.zk.web.controller;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.alibaba.fastjson.JSON;
+import com.sung.zk.ui.server.zk.entity.ZkNodeEvent;
+import com.sung.zk.ui.server.zk.op.ZkClusterServices;
+import com.sung.zk.ui.server.zk.op.ZkWatchHub;
+import com.sung.zk.ui.server.zk.util.ConfUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+
+/**
+ * 以 Server-Sent Events 推送节点变化, 页面不必反复刷新.
+ * <p>
+ * path 可以重复, 一个连接订阅多个节点; 事件 data / children / deleted 的内容为 {@link ZkNodeEvent} 的 JSON.
+ * 连接使用 Servlet 3.0 异步请求, 不占用容器线程; 写出由共用的线程池完成, 不阻塞 zookeeper 事件线程.
+ * 写出阻塞超过 {@link #WRITE_TIMEOUT_MILLIS} 或积压过多的连接被断开, 写出线程用尽时新的写出所在的连接被断开.
+ * 连接最长保持 {@link #TIMEOUT_MILLIS}, 之后浏览器自动重连, 重连时先推送各节点的当前状态.
+ * </p>
+ */
+@Controller
+@RequestMapping("/watch")
+public class WatchController {
+	private static final Logger LOGGER = LoggerFactory.getLogger(WatchController.class);
+
+	private static final int MAX_PATHS = 16;
+	private static final long TIMEOUT_MILLIS = 10 * 60 * 1000L;
+	private static final long HEARTBEAT_SECONDS = 20;
+	private static final long RETRY_MILLIS = 3000;
+
+	/**
+	 * 未写出的事件超过这么多时断开连接, 浏览器重连后重新取得当前状态
+	 */
+	private static final int MAX_QUEUED = 256;
+
+	/**
+	 * 同时进行的写出上限. 写出是阻塞的, 一个接收缓慢的浏览器占住一个线程直到写完, 或容器的写超时
+	 * (jetty 的 maxIdleTime) 结束它; 其余连接在其他线程上写出, 不受影响
+	 */
+	private static final int MAX_WRITERS = 32;
+
+	/**
+	 * 一次写出阻塞超过这么久即断开该连接, 不再为它排队写出, 浏览器重连后重新取得当前状态
+	 */
+	private static final long WRITE_TIMEOUT_MILLIS = 10 * 1000L;
+
+	private static final ThreadPoolExecutor WRITER = new ThreadPoolExecutor(MAX_WRITERS, MAX_WRITERS,
+			60, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(), daemon("zk-watch-writer"));
+
+	/**
+	 * 只负责心跳和检查阻塞的写出, 不写出
+	 */
+	private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(
+			daemon("zk-watch-timer"));
+
+	private static final Set<Connection> CONNECTIONS = Collections.newSetFromMap(
+			new ConcurrentHashMap<Connection, Boolean>());
+
+	static {
+		WRITER.allowCoreThreadTimeOut(true);
+		TIMER.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				long now = System.currentTimeMillis();
+				for (Connection connection : CONNECTIONS) {
+					long since = connection.writingSince;
+					if (since != 0 && now - since > WRITE_TIMEOUT_MILLIS) {
+						LOGGER.warn("watch write blocked for {}ms, disconnect, paths:{}", now - since, connection.paths);
+						connection.close();
+					}
+				}
+			}
+		}, WRITE_TIMEOUT_MILLIS / 2, WRITE_TIMEOUT_MILLIS / 2, TimeUnit.MILLISECONDS);
+	}
+
+	private static ThreadFactory daemon(final String name) {
+		return new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, name);
+				t.setDaemon(true);
+				return t;
+			}
+		};
+	}
+
+	@RequestMapping(value = "", method = RequestMethod.GET)
+	public void watch(HttpServletRequest request, HttpServletResponse response, String cxnstr, String[] path)
+			throws IOException {
+		if (StringUtils.isBlank(cxnstr)) {
+			Properties props = ConfUtils.getConxtions();
+			cxnstr =  props.getProperty("zk.host")+":"+props.getProperty("zk.port")+props.getProperty("zk.root.name");
+		}
+		Set<String> paths = new LinkedHashSet<String>();
+		if (path != null) {
+			for (String p : path) {
+				p = StringUtils.trimToEmpty(p);
+				p = p.length() > 1 && StringUtils.endsWith(p, "/") ? StringUtils.substring(p, 0, p.length() - 1) : p;
+				if (StringUtils.startsWith(p, "/")) {
+					paths.add(p);
+				}
+			}
+		}
+		if (paths.isEmpty() || paths.size() > MAX_PATHS) {
+			response.sendError(HttpServletResponse.SC_BAD_REQUEST, "1 to " + MAX_PATHS + " paths required");
+			return;
+		}
+		if (!request.isAsyncSupported()) {
+			response.sendError(HttpServletResponse.SC_NOT_IMPLEMENTED, "async requests are not enabled");
+			return;
+		}
+		response.setCharacterEncoding("UTF-8");
+		response.setContentType("text/event-stream; charset=utf-8");
+		response.setHeader("Cache-Control", "no-cache");
+		// nginx 默认缓冲响应, 事件会被攒住
+		response.setHeader("X-Accel-Buffering", "no");
+
+		AsyncContext async = request.startAsync();
+		async.setTimeout(TIMEOUT_MILLIS);
+		Connection connection = new Connection(async, ZkClusterServices.getInstance().getWatchHub(cxnstr), paths);
+		async.addListener(connection);
+		CONNECTIONS.add(connection);
+		// 浏览器重连时带上最后收到的事件 id, 断开期间的变化由当前状态补上
+		connection.open(request.getHeader("Last-Event-ID") != null);
+		LOGGER.debug("watch, cxnstr:{}, paths:{}", cxnstr, paths);
+	}
+
+	private static class Connection implements ZkWatchHub.Subscriber, AsyncListener, Runnable {
+		private final AsyncContext async;
+		private final ZkWatchHub hub;
+		private final Set<String> paths;
+		private final AtomicBoolean closed = new AtomicBoolean(false);
+
+		/**
+		 * 待写出的事件, 由 this 保护; scheduled 为 true 时已有写出任务排队
+		 */
+		private final ArrayDeque<String> queue = new ArrayDeque<String>();
+		private boolean scheduled;
+		private long nextId;
+		private volatile ScheduledFuture<?> heartbeat;
+
+		/**
+		 * 正在进行的写出开始的时间, 没有写出时为 0
+		 */
+		private volatile long writingSince;
+
+		Connection(AsyncContext async, ZkWatchHub hub, Set<String> paths) {
+			this.async = async;
+			this.hub = hub;
+			this.paths = paths;
+		}
+
+		void open(boolean reconnect) {
+			enqueue(null, "retry: " + RETRY_MILLIS + "\n\n");
+			for (String path : paths) {
+				hub.subscribe(path, this);
+			}
+			if (reconnect) {
+				for (String path : paths) {
+					try {
+						hub.snapshot(path, this);
+					} catch (RuntimeException e) {
+						LOGGER.warn("read " + path + " for watch failed", e);
+					}
+				}
+			}
+			enqueue("subscribed", JSON.toJSONString(paths));
+			heartbeat = TIMER.scheduleWithFixedDelay(new Runnable() {
+				@Override
+				public void run() {
+					// 注释行, 维持连接并发现已断开的浏览器
+					enqueue(null, ": ping\n\n");
+				}
+			}, HEARTBEAT_SECONDS, HEARTBEAT_SECONDS, TimeUnit.SECONDS);
+			if (closed.get()) {
+				heartbeat.cancel(false);
+			}
+		}
+
+		@Override
+		public void onEvent(ZkNodeEvent event) {
+			enqueue(event.getType(), JSON.toJSONString(event));
+		}
+
+		/**
+		 * @param event 事件名, 为 null 时 data 是原样写出的一段
+		 */
+		private void enqueue(String event, String data) {
+			boolean full;
+			synchronized (this) {
+				if (closed.get()) {
+					return;
+				}
+				full = queue.size() >= MAX_QUEUED;
+				if (!full) {
+					// 在锁内编号, id 与写出顺序一致
+					queue.add(event == null ? data : "id: " + (++nextId) + "\nevent: " + event + "\ndata: " + data + "\n\n");
+					if (scheduled) {
+						return;
+					}
+					scheduled = true;
+				}
+			}
+			if (full) {
+				LOGGER.warn("watch client too slow, disconnect, paths:{}", paths);
+				close();
+				return;
+			}
+			try {
+				WRITER.execute(this);
+			} catch (RejectedExecutionException e) {
+				// 所有写出线程都被阻塞的连接占住
+				LOGGER.warn("no watch writer available, disconnect, paths:{}", paths);
+				close();
+			}
+		}
+
+		@Override
+		public void run() {
+			// 同一连接同时只有一个写出任务, 写出期间新到的事件在下一轮写出
+			StringBuilder out = new StringBuilder();
+			while (true) {
+				synchronized (this) {
+					if (queue.isEmpty() || closed.get()) {
+						scheduled = false;
+						return;
+					}
+					out.setLength(0);
+					for (String frame; (frame = queue.poll()) != null; ) {
+						out.append(frame);
+					}
+				}
+				writingSince = System.currentTimeMillis();
+				try {
+					PrintWriter writer = async.getResponse().getWriter();
+					writer.write(out.toString());
+					writer.flush();
+					if (writer.checkError()) {
+						close();
+					}
+				} catch (IOException | IllegalStateException e) {
+					close();
+				} finally {
+					writingSince = 0;
+				}
+			}
+		}
+
+		void close() {
+			if (!closed.compareAndSet(false, true)) {
+				return;
+			}
+			CONNECTIONS.remove(this);
+			for (String path : paths) {
+				hub.unsubscribe(path, this);
+			}
+			if (heartbeat != null) {
+				heartbeat.cancel(false);
+			}
+			try {
+				async.complete();
+			} catch (IllegalStateException e) {
+				// 容器已结束该请求
+			}
+		}
+
+		@Override
+		public void onComplete(AsyncEvent event) {
+			close();
+		}
+
+		@Override
+		public void onTimeout(AsyncEvent event) {
+			close();
+		}
+
+		@Override
+		public void onError(AsyncEvent event) {
+			close();
+		}
+
+		@Override
+		public void onStartAsync(AsyncEvent event) {
+		}
+	}
+
+}
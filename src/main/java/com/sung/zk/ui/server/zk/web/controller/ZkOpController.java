@@ -1,6 +1,12 @@
 package com.sung.zk.ui.server.zk.web.controller;
 
+import com.alibaba.fastjson.JSON;
+import com.github.zkclient.IZkClient;
+import com.sung.zk.ui.server.zk.entity.ZkImportResult;
 import com.sung.zk.ui.server.zk.op.Zk;
+import com.sung.zk.ui.server.zk.op.ZkClusterServices;
+import com.sung.zk.ui.server.zk.op.ZkImportPolicy;
+import com.sung.zk.ui.server.zk.op.ZkReplicator;
 import com.sung.zk.ui.server.zk.web.constants.Constants;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
@@ -8,17 +14,28 @@ import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.context.request.RequestContextHolder;
 import org.springframework.web.context.request.ServletRequestAttributes;
 
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.net.URLEncoder;
 import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 @Controller
 @RequestMapping("/op")
 public class ZkOpController {
     private static final Logger LOGGER = LoggerFactory.getLogger(ZkOpController.class);
     private static final String SEPARATOR = "/";
+    private static final int DEFAULT_IMPORT_CONCURRENCY = 4;
+    private static final int MAX_IMPORT_CONCURRENCY = 32;
 
     @RequestMapping("/create")
     public String create(Model model, String parent, String name, String data) {
@@ -75,6 +92,158 @@ public class ZkOpController {
         return "redirect:/read/node?path=" + StringUtils.substring(path, 0, StringUtils.lastIndexOf(path, "/"));
     }
 
+    /**
+     * 下载子树导出文件, 响应边导出边写出
+     */
+    @RequestMapping("/export")
+    public void export(HttpServletResponse response, String path, boolean gzip) throws IOException {
+        String cxnstr = getCxnstr();
+        if (StringUtils.isBlank(cxnstr)) {
+            response.sendRedirect("/");
+            return;
+        }
+        path = StringUtils.isBlank(path) ? SEPARATOR : StringUtils.trimToEmpty(path);
+        path = path.length() > 1 && StringUtils.endsWith(path, SEPARATOR) ? StringUtils.substring(path, 0, path.length() - 1) : path;
+        Zk zk = new Zk(cxnstr);
+        if (!zk.exists(path)) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND, "node not exists: " + path);
+            return;
+        }
+        String name = SEPARATOR.equals(path) ? "root" : StringUtils.substringAfterLast(path, SEPARATOR);
+        response.setContentType("application/octet-stream");
+        response.setHeader("Content-Disposition", "attachment; filename=\"" + URLEncoder.encode(name, "UTF-8")
+                + (gzip ? ".zkx.gz" : ".zkx") + "\"");
+        long count = zk.export(path, response.getOutputStream(), gzip);
+        LOGGER.info("export, cxnstr:{}, path:{}, nodes:{}", cxnstr, path, count);
+    }
+
+    /**
+     * 导入 /op/export 生成的文件, 请求体即文件内容 (可以是 gzip).
+     * 响应逐行输出进度, 最后一行为 JSON 格式的统计或以 error: 开头的错误
+     */
+    @RequestMapping(value = "/import", method = RequestMethod.POST)
+    public void importFrom(HttpServletRequest request, HttpServletResponse response, String path, String policy,
+                           Integer concurrency) throws IOException {
+        String cxnstr = getCxnstr();
+        if (StringUtils.isBlank(cxnstr)) {
+            response.sendRedirect("/");
+            return;
+        }
+        path = StringUtils.isBlank(path) ? SEPARATOR : StringUtils.trimToEmpty(path);
+        path = path.length() > 1 && StringUtils.endsWith(path, SEPARATOR) ? StringUtils.substring(path, 0, path.length() - 1) : path;
+        ZkImportPolicy importPolicy;
+        try {
+            importPolicy = ZkImportPolicy.parse(policy);
+        } catch (IllegalArgumentException e) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, "unknown policy: " + policy);
+            return;
+        }
+        int batches = concurrency == null ? DEFAULT_IMPORT_CONCURRENCY : Math.max(1, Math.min(concurrency, MAX_IMPORT_CONCURRENCY));
+        Zk zk = new Zk(cxnstr);
+        response.setCharacterEncoding("UTF-8");
+        response.setContentType("text/plain; charset=utf-8");
+        final PrintWriter writer = response.getWriter();
+        try {
+            ZkImportResult result = zk.importFrom(path, request.getInputStream(), importPolicy, batches,
+                    new IZkClient.ProgressListener() {
+                        @Override
+                        public void onProgress(int done, int total) {
+                            writer.println(done + "/" + total);
+                            writer.flush();
+                        }
+                    });
+            writer.println(JSON.toJSONString(result));
+            LOGGER.info("import, cxnstr:{}, path:{}, {}", cxnstr, path, result);
+        } catch (RuntimeException e) {
+            // 响应已经开始输出, 无法再交给异常页面处理
+            LOGGER.error("import failed, cxnstr:" + cxnstr + ", path:" + path, e);
+            writer.println("error: " + e.getMessage());
+        }
+        writer.flush();
+    }
+
+    /**
+     * 把当前集群的 path 持续复制到 target 集群的 targetPath (省略时与 path 相同), 已在运行时直接返回其状态
+     */
+    @RequestMapping(value = "/replication/start", method = RequestMethod.POST)
+    public void startReplication(HttpServletResponse response, String path, String target, String targetPath)
+            throws IOException {
+        String cxnstr = getCxnstr();
+        if (StringUtils.isBlank(cxnstr)) {
+            response.sendRedirect("/");
+            return;
+        }
+        if (StringUtils.isBlank(target)) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, "missing target");
+            return;
+        }
+        path = StringUtils.isBlank(path) ? SEPARATOR : StringUtils.trimToEmpty(path);
+        path = path.length() > 1 && StringUtils.endsWith(path, SEPARATOR) ? StringUtils.substring(path, 0, path.length() - 1) : path;
+        targetPath = StringUtils.isBlank(targetPath) ? path : StringUtils.trimToEmpty(targetPath);
+        targetPath = targetPath.length() > 1 && StringUtils.endsWith(targetPath, SEPARATOR) ? StringUtils.substring(targetPath, 0, targetPath.length() - 1) : targetPath;
+        ZkReplicator replicator;
+        try {
+            replicator = ZkClusterServices.getInstance().startReplication(cxnstr, path, StringUtils.trim(target), targetPath);
+        } catch (IllegalArgumentException e) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+            return;
+        }
+        LOGGER.info("replication start, id:{}", replicator.getId());
+        writeJson(response, status(replicator));
+    }
+
+    @RequestMapping(value = "/replication/stop", method = RequestMethod.POST)
+    public void stopReplication(HttpServletResponse response, String id) throws IOException {
+        boolean stopped = StringUtils.isNotBlank(id) && ZkClusterServices.getInstance().stopReplication(id);
+        LOGGER.info("replication stop, id:{}, stopped:{}", id, stopped);
+        Map<String, Object> body = new LinkedHashMap<String, Object>();
+        body.put("id", id);
+        body.put("stopped", stopped);
+        writeJson(response, body);
+    }
+
+    /**
+     * 所有运行中的复制及其状态
+     */
+    @RequestMapping(value = "/replication", method = RequestMethod.GET)
+    public void replications(HttpServletResponse response) throws IOException {
+        List<Map<String, Object>> body = new ArrayList<Map<String, Object>>();
+        for (ZkReplicator replicator : ZkClusterServices.getInstance().getReplications().values()) {
+            body.add(status(replicator));
+        }
+        writeJson(response, body);
+    }
+
+    private static Map<String, Object> status(ZkReplicator replicator) {
+        Map<String, Object> status = new LinkedHashMap<String, Object>();
+        status.put("id", replicator.getId());
+        status.put("source", replicator.getSourceCxn());
+        status.put("sourcePath", replicator.getSourceRoot());
+        status.put("target", replicator.getTargetCxn());
+        status.put("targetPath", replicator.getTargetRoot());
+        status.put("state", replicator.getState().name().toLowerCase());
+        status.put("initialCopyMillis", replicator.getInitialCopyMillis());
+        status.put("pending", replicator.getPending());
+        status.put("retrying", replicator.getRetrying());
+        status.put("outOfSync", replicator.isOutOfSync());
+        status.put("creates", replicator.getCreates());
+        status.put("updates", replicator.getUpdates());
+        status.put("deletes", replicator.getDeletes());
+        status.put("conflicts", replicator.getConflicts());
+        status.put("errors", replicator.getErrors());
+        long count = replicator.getLagCount();
+        status.put("avgLagMillis", count == 0 ? 0 : replicator.getLagNanos() / count / 1000000);
+        status.put("maxLagMillis", replicator.getMaxLagNanos() / 1000000);
+        status.put("lastApplied", replicator.getLastAppliedMillis());
+        return status;
+    }
+
+    private static void writeJson(HttpServletResponse response, Object body) throws IOException {
+        response.setCharacterEncoding("UTF-8");
+        response.setContentType("application/json; charset=utf-8");
+        response.getWriter().write(JSON.toJSONString(body));
+    }
+
     private String getCxnstr() {
         HttpServletRequest req = ((ServletRequestAttributes) RequestContextHolder.getRequestAttributes()).getRequest();
         return (String) req.getSession().getAttribute(Constants.CX_STR);
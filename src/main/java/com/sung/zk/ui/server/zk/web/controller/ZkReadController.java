@@ -1,5 +1,7 @@
 package com.sung.zk.ui.server.zk.web.controller;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.lang.reflect.InvocationTargetException;
 import java.util.Arrays;
 import java.util.Collections;
@@ -8,15 +10,22 @@ import java.util.Map;
 import java.util.Properties;
 
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpSession;
 
+import com.alibaba.fastjson.JSON;
 import com.sung.zk.ui.server.zk.entity.ZkData;
+import com.sung.zk.ui.server.zk.entity.ZkDiffResult;
 import com.sung.zk.ui.server.zk.op.Zk;
 import com.sung.zk.ui.server.zk.util.ConfUtils;
+import com.sung.zk.ui.server.zk.util.DataViewUtils;
 import com.sung.zk.ui.server.zk.web.constants.Constants;
+import com.sung.zk.ui.server.zk.web.util.AuthUtils;
+import com.sung.zk.ui.server.zk.web.util.ETagUtils;
 import org.apache.commons.beanutils.PropertyUtils;
 import org.apache.commons.collections.CollectionUtils;
 import org.apache.commons.lang3.StringUtils;
+import org.apache.zookeeper.data.Stat;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Controller;
@@ -31,6 +40,9 @@ import org.springframework.web.servlet.mvc.support.RedirectAttributes;
 public class ZkReadController {
 	private static final Logger LOGGER = LoggerFactory.getLogger(ZkReadController.class);
 
+	private static final int DEFAULT_DIFF_LIMIT = 1000;
+	private static final int MAX_DIFF_LIMIT = 100000;
+
 	@RequestMapping("/addr")
 	public String addr(HttpServletRequest request, RedirectAttributes attr, String cxnstr) {
 		Properties props = ConfUtils.getConxtions();
@@ -45,7 +57,7 @@ public class ZkReadController {
 	}
 
 	@RequestMapping("/node")
-	public String node(String cxnstr,Model model, String path) {
+	public String node(HttpServletRequest request, HttpServletResponse response, String cxnstr, Model model, String path) {
 //		HttpSession session = request.getSession();
 //		String cxnstr = (String) session.getAttribute(Constants.CX_STR);
 		Properties props = ConfUtils.getConxtions();
@@ -59,6 +71,13 @@ public class ZkReadController {
 
 		Zk reader = new Zk(cxnstr);
 
+		// 节点未变化时只做一次 exists, 直接返回 304
+		Stat nodeStat = reader.stat(path);
+		if (nodeStat != null && ETagUtils.checkNotModified(request, response,
+				ETagUtils.etag(nodeStat, cxnstr, StringUtils.defaultString(AuthUtils.getLoginUser())))) {
+			return null;
+		}
+
 		List<String> children = reader.getChildren(path);
 		if (CollectionUtils.isNotEmpty(children)) {
 			Collections.sort(children);
@@ -67,8 +86,16 @@ public class ZkReadController {
 
 		ZkData zkData = reader.readData(path);
 
-		model.addAttribute("data", zkData.getDataString());
-		model.addAttribute("dataSize", zkData.getData().length);
+		// 页面只带预览, 其余部分由 /read/data 按需分段加载
+		byte[] data = zkData.getData() == null ? new byte[0] : zkData.getData();
+		boolean binary = DataViewUtils.isBinary(data);
+		DataViewUtils.View view = binary ? DataViewUtils.View.HEX : DataViewUtils.View.UTF8;
+		int previewEnd = DataViewUtils.rangeEnd(data, 0, DataViewUtils.PREVIEW_BYTES, view);
+		model.addAttribute("preview", DataViewUtils.preview(data, previewEnd, view));
+		model.addAttribute("previewView", view.name().toLowerCase());
+		model.addAttribute("previewEnd", previewEnd);
+		model.addAttribute("binary", binary);
+		model.addAttribute("dataSize", data.length);
 		try {
 			Map<String, Object> statMap = PropertyUtils.describe(zkData.getStat());
 			statMap.remove("class");
@@ -80,4 +107,121 @@ public class ZkReadController {
 		return "node";
 	}
 
+	/**
+	 * 分段读取节点数据, 直接写出字节不生成整页 HTML.
+	 * <p>
+	 * view: raw (默认, 支持 Range 请求头) / utf8 / hex / base64; offset, length 指定字节范围.
+	 * 响应头 X-Data-Length 为数据总长度, X-Next-Offset 为下一段的起始位置 (utf8 与 base64 会对齐边界).
+	 * </p>
+	 */
+	@RequestMapping("/data")
+	public void data(HttpServletRequest request, HttpServletResponse response, String cxnstr, String path,
+			String view, Integer offset, Integer length) throws IOException {
+		if (StringUtils.isBlank(cxnstr)) {
+			Properties props = ConfUtils.getConxtions();
+			cxnstr =  props.getProperty("zk.host")+":"+props.getProperty("zk.port")+props.getProperty("zk.root.name");
+		}
+		Zk reader = new Zk(cxnstr);
+		Stat nodeStat = reader.stat(path);
+		if (nodeStat == null) {
+			response.sendError(HttpServletResponse.SC_NOT_FOUND, "node not exists: " + path);
+			return;
+		}
+		DataViewUtils.View dataView = DataViewUtils.View.of(view, DataViewUtils.View.RAW);
+		if (ETagUtils.checkNotModified(request, response, ETagUtils.etag(nodeStat, cxnstr))) {
+			return;
+		}
+		byte[] data = reader.readData(path).getData();
+		if (data == null) {
+			data = new byte[0];
+		}
+
+		int start = offset == null ? 0 : Math.max(0, Math.min(offset, data.length));
+		int len = length == null ? data.length : length;
+		String range = request.getHeader("Range");
+		boolean partial = offset != null || length != null;
+		if (dataView == DataViewUtils.View.RAW && range != null && range.startsWith("bytes=") && range.indexOf(',') < 0) {
+			long[] bounds = parseRange(range.substring("bytes=".length()), data.length);
+			if (bounds == null) {
+				response.setHeader("Content-Range", "bytes */" + data.length);
+				response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+				return;
+			}
+			start = (int) bounds[0];
+			len = (int) (bounds[1] - bounds[0] + 1);
+			partial = true;
+		}
+		int end = DataViewUtils.rangeEnd(data, start, len, dataView);
+
+		response.setHeader("X-Data-Length", String.valueOf(data.length));
+		response.setHeader("X-Data-Binary", String.valueOf(DataViewUtils.isBinary(data)));
+		response.setHeader("X-Next-Offset", String.valueOf(end));
+		if (dataView == DataViewUtils.View.RAW) {
+			response.setHeader("Accept-Ranges", "bytes");
+			response.setContentType("application/octet-stream");
+			response.setContentLength(end - start);
+			if (partial && end > start) {
+				response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+				response.setHeader("Content-Range", "bytes " + start + "-" + (end - 1) + "/" + data.length);
+			}
+		} else {
+			response.setContentType("text/plain; charset=utf-8");
+		}
+		OutputStream out = response.getOutputStream();
+		DataViewUtils.write(out, data, start, end, dataView);
+		out.flush();
+	}
+
+	/**
+	 * 比较两棵子树, 例如同一路径在测试与生产集群上的差异.
+	 * <p>
+	 * other / otherPath 为另一侧的集群与路径, 省略时与 cxnstr / path 相同; limit 为每类最多列出的路径数.
+	 * 响应为 JSON, added 为 other 一侧多出的节点, removed 为 other 一侧缺少的节点, changed 为数据不同的节点.
+	 * </p>
+	 */
+	@RequestMapping("/diff")
+	public void diff(HttpServletResponse response, String cxnstr, String path, String other, String otherPath,
+			Integer limit) throws IOException {
+		if (StringUtils.isBlank(cxnstr)) {
+			Properties props = ConfUtils.getConxtions();
+			cxnstr =  props.getProperty("zk.host")+":"+props.getProperty("zk.port")+props.getProperty("zk.root.name");
+		}
+		path = StringUtils.isBlank(path) ? "/" : StringUtils.trimToEmpty(path);
+		path = path.length() > 1 && StringUtils.endsWith(path, "/") ? StringUtils.substring(path, 0, path.length() - 1) : path;
+		other = StringUtils.isBlank(other) ? cxnstr : StringUtils.trim(other);
+		otherPath = StringUtils.isBlank(otherPath) ? path : StringUtils.trimToEmpty(otherPath);
+		otherPath = otherPath.length() > 1 && StringUtils.endsWith(otherPath, "/") ? StringUtils.substring(otherPath, 0, otherPath.length() - 1) : otherPath;
+		int max = limit == null ? DEFAULT_DIFF_LIMIT : Math.max(1, Math.min(limit, MAX_DIFF_LIMIT));
+
+		ZkDiffResult result = new Zk(cxnstr).diff(path, new Zk(other), otherPath, max);
+		response.setCharacterEncoding("UTF-8");
+		response.setContentType("application/json; charset=utf-8");
+		response.getWriter().write(JSON.toJSONString(result));
+	}
+
+	/**
+	 * 解析单个 Range: "a-b", "a-", "-n"
+	 *
+	 * @return [first, last], 无法满足时为 null
+	 */
+	private static long[] parseRange(String spec, int size) {
+		int dash = spec.indexOf('-');
+		if (dash < 0 || size == 0) {
+			return null;
+		}
+		String first = spec.substring(0, dash).trim();
+		String last = spec.substring(dash + 1).trim();
+		try {
+			if (first.isEmpty()) {
+				long suffix = Long.parseLong(last);
+				return suffix <= 0 ? null : new long[] { Math.max(0, size - suffix), size - 1 };
+			}
+			long from = Long.parseLong(first);
+			long to = last.isEmpty() ? size - 1 : Math.min(Long.parseLong(last), size - 1);
+			return from > to || from >= size ? null : new long[] { from, to };
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+
 }
@@ -26,6 +26,15 @@ public class AuthUtils {
 		return false;
 	}
 
+	/**
+	 * @return 当前登录用户, 未登录时为 null
+	 */
+	public static String getLoginUser() {
+		HttpServletRequest req = ((ServletRequestAttributes) RequestContextHolder.getRequestAttributes()).getRequest();
+		Object obj = req.getSession().getAttribute(ZK_USER);
+		return obj == null ? null : obj.toString();
+	}
+
 	public static boolean login(String userName, String password) {
 		HttpServletRequest req = ((ServletRequestAttributes) RequestContextHolder.getRequestAttributes()).getRequest();
 		userName = StringUtils.trimToNull(userName);
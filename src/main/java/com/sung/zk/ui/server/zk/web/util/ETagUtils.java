@@ -0,0 +1,84 @@
+package com.sung.zk.ui.server.zk.web.util;
+
+import java.util.List;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.zookeeper.data.Stat;
+
+/**
+ * 基于节点 Stat 的 ETag, 节点未变化时只需一次 exists 即可返回 304.
+ * <p>
+ * mzxid 随数据变化, pzxid / cversion 随子节点变化, aversion 随 ACL 变化; variant 区分同一节点的不同展示
+ * (集群, 登录用户等).
+ * </p>
+ */
+public class ETagUtils {
+
+	public static String etag(Stat stat, String... variants) {
+		StringBuilder sb = new StringBuilder(64);
+		sb.append('"').append(Long.toHexString(stat.getMzxid()))
+				.append('-').append(Long.toHexString(stat.getPzxid()))
+				.append('-').append(stat.getCversion())
+				.append('-').append(stat.getAversion());
+		if (variants.length > 0) {
+			sb.append('-').append(Integer.toHexString(StringUtils.join(variants, '|').hashCode()));
+		}
+		return sb.append('"').toString();
+	}
+
+	/**
+	 * 同时依赖子节点 Stat 的 ETag, 例如子节点列表中各子节点是否可展开: 孙节点的增删只改变子节点的 pzxid / cversion
+	 */
+	public static String etag(Stat stat, List<Stat> children, String... variants) {
+		long hash = 1;
+		for (Stat child : children) {
+			// czxid 区分删除后重建的同名节点
+			hash = 31 * hash + child.getCzxid();
+			hash = 31 * hash + child.getPzxid();
+			hash = 31 * hash + child.getCversion();
+		}
+		String etag = etag(stat, variants);
+		return etag.substring(0, etag.length() - 1) + '-' + Long.toHexString(hash) + '"';
+	}
+
+	/**
+	 * 弱校验: 内容语义相同即可 (例如只依赖父节点 Stat 的子节点列表)
+	 */
+	public static String weak(String etag) {
+		return "W/" + etag;
+	}
+
+	/**
+	 * 设置 ETag, 请求的 If-None-Match 命中时直接返回 304
+	 *
+	 * @return true 已返回 304, 调用方不需要再输出内容
+	 */
+	public static boolean checkNotModified(HttpServletRequest request, HttpServletResponse response, String etag) {
+		response.setHeader("ETag", etag);
+		// 浏览器每次都带上 If-None-Match 重新校验
+		response.setHeader("Cache-Control", "no-cache");
+		if (matches(request.getHeader("If-None-Match"), etag)) {
+			response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+			return true;
+		}
+		return false;
+	}
+
+	private static boolean matches(String ifNoneMatch, String etag) {
+		if (StringUtils.isBlank(ifNoneMatch)) {
+			return false;
+		}
+		String opaque = StringUtils.removeStart(etag, "W/");
+		for (String candidate : StringUtils.split(ifNoneMatch, ',')) {
+			candidate = candidate.trim();
+			// If-None-Match 使用弱比较
+			if ("*".equals(candidate) || opaque.equals(StringUtils.removeStart(candidate, "W/"))) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
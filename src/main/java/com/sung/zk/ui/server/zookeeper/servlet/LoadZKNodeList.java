@@ -1,11 +1,19 @@
 package com.sung.zk.ui.server.zookeeper.servlet;
 
+import com.github.zkclient.ZkClient;
+import com.github.zkclient.ZkTreeCache;
+import com.github.zkclient.exception.ZkException;
 import com.sung.zk.ui.server.zookeeper.config.ServerConfig;
 import com.sung.zk.ui.server.zookeeper.tree.ZTreeNode;
+import com.sung.zk.ui.server.zookeeper.tree.ZTreeNodeHandler;
 import com.sung.zk.ui.server.zookeeper.tree.ZkTreeBuildUtils;
-import com.sung.zk.ui.server.zookeeper.utils.ResponseUtils;
-import com.sung.zk.ui.server.zookeeper.zk.ZkClient;
+import com.sung.zk.ui.server.zookeeper.utils.JsonArrayWriter;
 import com.sung.zk.ui.server.zookeeper.zk.ZkHelper;
+import com.sung.zk.ui.server.zk.web.util.ETagUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.zookeeper.data.Stat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import javax.servlet.ServletException;
 import javax.servlet.annotation.WebServlet;
@@ -13,7 +21,6 @@ import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
-import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -34,6 +41,8 @@ public class LoadZKNodeList extends HttpServlet {
 
     private static final long serialVersionUID = 1L;
 
+    private static final Logger LOGGER = LoggerFactory.getLogger(LoadZKNodeList.class);
+
     private ZkClient zkClient = null;
 
     protected void doGet(HttpServletRequest request,
@@ -44,17 +53,71 @@ public class LoadZKNodeList extends HttpServlet {
     protected void doPost(HttpServletRequest request,
                           HttpServletResponse response) throws ServletException, IOException {
         zkClient = ZkHelper.getZkClient();
-        List<ZTreeNode> zTreeNodes = new ArrayList<ZTreeNode>();
-        if (zkClient != null) {
-            try {
-                ZkTreeBuildUtils.getZkTreeData(zTreeNodes,
-                        ServerConfig.zk_root_name, zkClient, "0");
-            } catch (InterruptedException e) {
-                e.printStackTrace();
+        if (zkClient != null && notModified(request, response)) {
+            return;
+        }
+        // 节点边遍历边写出, 不在内存中拼装整棵树
+        final JsonArrayWriter out = new JsonArrayWriter(response);
+        ZTreeNodeHandler handler = new ZTreeNodeHandler() {
+            @Override
+            public void handle(ZTreeNode node) throws IOException {
+                out.write(node);
+            }
+        };
+        try {
+            if (zkClient != null) {
+                // ?lazy=true 只返回根节点及其下一级, ?path=xxx 返回 xxx 的下一级 (展开节点)
+                String path = StringUtils.trimToNull(request.getParameter("path"));
+                boolean lazy = path != null || Boolean.parseBoolean(request.getParameter("lazy"));
+                ZkTreeCache cache = path != null && !path.startsWith("/") ? null
+                        : ZkHelper.getTreeCache(path == null ? ServerConfig.zk_root_name : path);
+                try {
+                    if (cache != null) {
+                        if (!lazy) {
+                            ZkTreeBuildUtils.getZkTreeData(handler, ServerConfig.zk_root_name, cache, zkClient);
+                        } else {
+                            ZkTreeBuildUtils.getZkTreeLevel(handler,
+                                    path == null ? ServerConfig.zk_root_name : path, path == null, cache, zkClient);
+                        }
+                    } else if (!lazy) {
+                        ZkTreeBuildUtils.getZkTreeData(handler,
+                                ServerConfig.zk_root_name, zkClient);
+                    } else if (path == null) {
+                        ZkTreeBuildUtils.getZkTreeLevel(handler,
+                                ServerConfig.zk_root_name, true, zkClient);
+                    } else if (path.startsWith("/")) {
+                        ZkTreeBuildUtils.getZkTreeLevel(handler, path, false, zkClient);
+                    }
+                } catch (ZkException e) {
+                    // 不能以部分节点组成的合法数组结束, 页面会把它当作完整的树
+                    LOGGER.error("load zk tree " + (path == null ? ServerConfig.zk_root_name : path) + " failed", e);
+                    if (out.abort()) {
+                        response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR,
+                                "load zk tree failed: " + e.getMessage());
+                    }
+                }
             }
+        } finally {
+            out.close();
         }
+    }
 
-        ResponseUtils.responseOutWithJson(response, zTreeNodes);
+    /**
+     * 按层加载时以父节点及各子节点的 Stat 作为弱 ETag: 子节点的增删改变父节点的 pzxid / cversion,
+     * 孙节点的增删改变对应子节点的, 两者都会使 ETag 变化. 只在有树缓存时校验, 否则取得子节点 Stat
+     * 所需的读取与生成响应相同; 整棵树不设置 ETag.
+     */
+    private boolean notModified(HttpServletRequest request, HttpServletResponse response) {
+        String path = StringUtils.trimToNull(request.getParameter("path"));
+        boolean lazy = path != null || Boolean.parseBoolean(request.getParameter("lazy"));
+        if (!lazy || (path != null && !path.startsWith("/"))) {
+            return false;
+        }
+        String statPath = path == null ? ServerConfig.zk_root_name : path;
+        ZkTreeCache cache = ZkHelper.getTreeCache(statPath);
+        List<Stat> stats = cache == null ? null : ZkTreeBuildUtils.getZkTreeLevelStats(statPath, cache);
+        return stats != null && ETagUtils.checkNotModified(request, response, ETagUtils.weak(
+                ETagUtils.etag(stats.get(0), stats.subList(1, stats.size()), path == null ? "root" : "level")));
     }
 
 }
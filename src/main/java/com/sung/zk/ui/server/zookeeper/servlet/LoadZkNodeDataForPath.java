@@ -1,9 +1,14 @@
 package com.sung.zk.ui.server.zookeeper.servlet;
 
+import com.github.zkclient.ZkClient;
+import com.github.zkclient.ZkTreeCache;
+import com.github.zkclient.exception.ZkNoNodeException;
+import com.sung.zk.ui.server.zk.web.util.ETagUtils;
 import com.sung.zk.ui.server.zookeeper.utils.ResponseUtils;
-import com.sung.zk.ui.server.zookeeper.zk.ZkClient;
 import com.sung.zk.ui.server.zookeeper.zk.ZkHelper;
 
+import org.apache.zookeeper.data.Stat;
+
 import java.io.IOException;
 
 import javax.servlet.ServletException;
@@ -33,7 +38,19 @@ public class LoadZkNodeDataForPath extends HttpServlet {
 		String currentPath = request.getParameter("currentPath");
 		String currentValue = "";
 		if (null != currentPath && !"".equals(currentPath)) {
-			currentValue = new String(zkClient.readData(currentPath, null));
+			ZkTreeCache cache = ZkHelper.getTreeCache(currentPath);
+			ZkTreeCache.Node node = cache == null ? null : cache.get(currentPath);
+			Stat stat = cache == null ? zkClient.existsAsync(currentPath).join() : node == null ? null : node.getStat();
+			if (stat != null && ETagUtils.checkNotModified(request, response, ETagUtils.etag(stat))) {
+				return;
+			}
+			if (cache == null) {
+				currentValue = new String(zkClient.readData(currentPath, null));
+			} else if (node != null) {
+				currentValue = new String(node.getData() == null ? new byte[0] : node.getData());
+			} else {
+				throw new ZkNoNodeException("node not exists: " + currentPath);
+			}
 		}
 		ResponseUtils.responseOutWithJson(response, currentPath + "-"
 				+ currentValue);
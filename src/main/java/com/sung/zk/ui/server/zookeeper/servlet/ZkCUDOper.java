@@ -1,9 +1,10 @@
 package com.sung.zk.ui.server.zookeeper.servlet;
 
+import com.github.zkclient.ZkClient;
 import com.sung.zk.ui.server.zookeeper.utils.ResponseUtils;
-import com.sung.zk.ui.server.zookeeper.zk.IZkChildListener;
-import com.sung.zk.ui.server.zookeeper.zk.ZkClient;
 import com.sung.zk.ui.server.zookeeper.zk.ZkHelper;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.ZooDefs.Ids;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -13,9 +14,7 @@ import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.nio.charset.Charset;
 
 @WebServlet("/ZkCUDOper")
 public class ZkCUDOper extends HttpServlet {
@@ -65,19 +64,14 @@ public class ZkCUDOper extends HttpServlet {
         LogUtils.info("当前 添加 节点 ：[ " + current_path + " ] 的数据为 ："
                 + insert_current_path_data);
         if (!zkClient.exists(current_path)) {
-            zkClient.createPersistent(current_path,
-                    ZkClient.toBytes(insert_current_path_data));
+            zkClient.create(current_path, toBytes(insert_current_path_data),
+                    Ids.CREATOR_ALL_ACL, CreateMode.PERSISTENT);
         }
         ResponseUtils.responseOutWithJson(response, falg);
     }
 
     // 更新节点数据
-    @SuppressWarnings("static-access")
     public void update(HttpServletRequest request, HttpServletResponse response) {
-
-        final AtomicInteger count = new AtomicInteger(0);
-        final ArrayList<String> children = new ArrayList<String>();
-
         String falg = "success";
         // 当前修改节点名称
         String update_current_path = request
@@ -93,22 +87,8 @@ public class ZkCUDOper extends HttpServlet {
             return;
         } else {
             try {
-                IZkChildListener listener = new IZkChildListener() {
-                    @Override
-                    public void handleChildChange(String parentPath,
-                                                  List<String> currentChildren) throws Exception {
-                        count.incrementAndGet();
-                        children.clear();
-                        if (currentChildren != null) {
-                            children.addAll(currentChildren);
-                        }
-                        LogUtils.info("handle childchange " + parentPath
-                                + ", " + currentChildren);
-                    }
-                };
-                zkClient.subscribeChildChanges(update_current_path, listener);
                 zkClient.writeData(update_current_path,
-                        zkClient.toBytes(update_path_data));
+                        toBytes(update_path_data));
             } catch (Exception e) {
                 falg = "fail";
                 LogUtils.error("修改节点 : [ " + update_current_path
@@ -139,4 +119,8 @@ public class ZkCUDOper extends HttpServlet {
         }
         ResponseUtils.responseOutWithJson(response, falg);
     }
+
+    private static byte[] toBytes(String s) {
+        return s != null ? s.getBytes(Charset.forName("UTF-8")) : null;
+    }
 }
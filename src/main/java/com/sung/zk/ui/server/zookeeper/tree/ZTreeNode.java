@@ -1,5 +1,7 @@
 package com.sung.zk.ui.server.zookeeper.tree;
 
+import com.alibaba.fastjson.annotation.JSONField;
+
 public class ZTreeNode {
 
 	private String name;
@@ -12,6 +14,10 @@ public class ZTreeNode {
 	private boolean isShowUpdateBut = false;
 	private boolean isShowInsertBut = false;
 
+	// 是否有子节点 (zTree 的 isParent), 懒加载时据此显示展开按钮
+	private boolean hasChildren = false;
+	private int numChildren;
+
 	public String getName() {
 		return name;
 	}
@@ -62,6 +68,24 @@ public class ZTreeNode {
 		this.isShowInsertBut = isShowInsertBut;
 	}
 
+	@JSONField(name = "isParent")
+	public boolean isHasChildren() {
+		return hasChildren;
+	}
+
+	@JSONField(name = "isParent")
+	public void setHasChildren(boolean hasChildren) {
+		this.hasChildren = hasChildren;
+	}
+
+	public int getNumChildren() {
+		return numChildren;
+	}
+
+	public void setNumChildren(int numChildren) {
+		this.numChildren = numChildren;
+	}
+
 	@Override
 	public String toString() {
 		return "ZTreeNode [name=" + name + ", id=" + id + ", pId=" + pId
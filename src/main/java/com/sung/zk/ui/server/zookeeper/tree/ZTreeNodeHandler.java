@@ -0,0 +1,11 @@
+package com.sung.zk.ui.server.zookeeper.tree;
+
+import java.io.IOException;
+
+/**
+ * 接收树构建过程中依次产生的节点, 例如直接写到 response
+ */
+public interface ZTreeNodeHandler {
+
+    void handle(ZTreeNode node) throws IOException;
+}
@@ -1,55 +1,217 @@
 package com.sung.zk.ui.server.zookeeper.tree;
 
-import com.sung.zk.ui.server.zookeeper.zk.ZkClient;
+import com.github.zkclient.IZkTreeVisitor;
+import com.github.zkclient.ZkClient;
+import com.github.zkclient.ZkClientUtils;
+import com.github.zkclient.ZkFuture;
+import com.github.zkclient.ZkTreeCache;
+import org.apache.zookeeper.data.Stat;
 
+import java.io.IOException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
 import java.util.List;
 
 public class ZkTreeBuildUtils {
 
+    /**
+     * 同时发出的异步读请求上限
+     */
+    public static final int MAX_IN_FLIGHT = 256;
 
+    /**
+     * 广度优先遍历 rootPath 下的整棵树, 节点 id 为节点的完整路径, 根节点的 pId 为 "0"
+     */
     public static void getZkTreeData(List<ZTreeNode> zTreeNodes,
-                                     String nodeName, ZkClient zkClient, String pid) throws InterruptedException {
-
-        List<String> zkNodes = new ArrayList<String>();
-        ZTreeNode treeNode = null;
-
+                                     String rootPath, ZkClient zkClient) {
+        try {
+            getZkTreeData(collect(zTreeNodes), rootPath, zkClient);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
 
-        //根节点
-        if (pid.equals("0")) {
-            treeNode = new ZTreeNode();
-            treeNode.setId("1");
-            treeNode.setPId(pid);
-            treeNode.setName(nodeName);
-            treeNode.setShowInsertBut(true);
+    /**
+     * 遍历过程中每得到一个节点就交给 handler, handler 与遍历在同一线程, 处理变慢时遍历随之变慢
+     */
+    public static void getZkTreeData(final ZTreeNodeHandler handler,
+                                     String rootPath, ZkClient zkClient) throws IOException {
+        try {
+            zkClient.walk(rootPath, new IZkTreeVisitor() {
+                @Override
+                public boolean visit(String path, int depth, Stat stat, byte[] data, List<String> children) throws IOException {
+                    handler.handle(toTreeNode(path, depth == 0, stat));
+                    return true;
+                }
+            }, MAX_IN_FLIGHT, -1);
+        } catch (RuntimeException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw e;
+        }
+    }
 
-            zTreeNodes.add(treeNode);
+    /**
+     * 从树缓存广度优先输出整棵树. 正在重新加载的节点输出其上一次的状态; 从未加载过的节点
+     * (刚刚创建, 缓存还在读取) 及其子树改从 zookeeper 读取
+     */
+    public static void getZkTreeData(ZTreeNodeHandler handler, String rootPath, ZkTreeCache cache,
+                                     ZkClient zkClient) throws IOException {
+        Deque<String> queue = new ArrayDeque<String>();
+        queue.add(rootPath);
+        while (!queue.isEmpty()) {
+            String path = queue.poll();
+            ZkTreeCache.Node node = cache.getLatest(path);
+            if (node == null) {
+                walk(handler, path, rootPath, zkClient);
+                continue;
+            }
+            handler.handle(toTreeNode(path, path.equals(rootPath), node.getStat()));
+            for (String child : node.getChildren()) {
+                queue.add(ZkClientUtils.childPath(path, child));
+            }
+        }
+    }
 
-            pid = "1";
+    private static void walk(final ZTreeNodeHandler handler, String path, final String rootPath,
+                             ZkClient zkClient) throws IOException {
+        try {
+            zkClient.walk(path, new IZkTreeVisitor() {
+                @Override
+                public boolean visit(String path, int depth, Stat stat, byte[] data, List<String> children) throws IOException {
+                    handler.handle(toTreeNode(path, path.equals(rootPath), stat));
+                    return true;
+                }
+            }, MAX_IN_FLIGHT, -1);
+        } catch (RuntimeException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw e;
         }
+    }
+
+    /**
+     * 只加载 path 的下一级子节点, 子节点是否可展开取自各自的 Stat
+     *
+     * @param includeSelf 为 true 时先输出 path 本身 (作为根节点)
+     */
+    public static void getZkTreeLevel(List<ZTreeNode> zTreeNodes, String path,
+                                      boolean includeSelf, ZkClient zkClient) {
         try {
-            zkNodes = zkClient.getChildren(nodeName);
-        } catch (Exception e) {
-            e.printStackTrace();
+            getZkTreeLevel(collect(zTreeNodes), path, includeSelf, zkClient);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
         }
+    }
 
-        if (zkNodes.size() > 0) {
+    public static void getZkTreeLevel(ZTreeNodeHandler handler, String path,
+                                      boolean includeSelf, ZkClient zkClient) throws IOException {
+        Stat parentStat = new Stat();
+        List<String> children = zkClient.getChildrenAsync(path, parentStat).join();
+        if (children == null) {
+            return;
+        }
+        if (includeSelf) {
+            handler.handle(toTreeNode(path, true, parentStat));
+        }
+        Collections.sort(children);
+        // 每批最多 MAX_IN_FLIGHT 个 exists 请求同时在途
+        List<ZkFuture<Stat>> stats = new ArrayList<ZkFuture<Stat>>(Math.min(children.size(), MAX_IN_FLIGHT));
+        for (int from = 0; from < children.size(); from += MAX_IN_FLIGHT) {
+            int to = Math.min(from + MAX_IN_FLIGHT, children.size());
+            stats.clear();
+            for (int i = from; i < to; i++) {
+                stats.add(zkClient.existsAsync(ZkClientUtils.childPath(path, children.get(i))));
+            }
+            for (int i = from; i < to; i++) {
+                Stat stat = stats.get(i - from).join();
+                // 已被并发删除
+                if (stat != null) {
+                    handler.handle(toTreeNode(ZkClientUtils.childPath(path, children.get(i)), false, stat));
+                }
+            }
+        }
+    }
 
-            for (int i = 0; i < zkNodes.size(); i++) {
-                String node = zkNodes.get(i);
-                treeNode = new ZTreeNode();
+    /**
+     * 从树缓存加载下一级, 节点的取舍与 {@link #getZkTreeData(ZTreeNodeHandler, String, ZkTreeCache, ZkClient)} 相同
+     */
+    public static void getZkTreeLevel(ZTreeNodeHandler handler, String path,
+                                      boolean includeSelf, ZkTreeCache cache, ZkClient zkClient) throws IOException {
+        ZkTreeCache.Node parent = cache.getLatest(path);
+        if (parent == null) {
+            getZkTreeLevel(handler, path, includeSelf, zkClient);
+            return;
+        }
+        if (includeSelf) {
+            handler.handle(toTreeNode(path, true, parent.getStat()));
+        }
+        // 缓存中的子节点列表已排序
+        for (String child : parent.getChildren()) {
+            String childPath = ZkClientUtils.childPath(path, child);
+            ZkTreeCache.Node node = cache.getLatest(childPath);
+            Stat stat = node != null ? node.getStat() : zkClient.existsAsync(childPath).join();
+            // 已被并发删除
+            if (stat != null) {
+                handler.handle(toTreeNode(childPath, false, stat));
+            }
+        }
+    }
 
-                treeNode.setId(pid + "-" + (i + 1));
-                treeNode.setPId(pid);
-                treeNode.setName(node);
-                treeNode.setShowDeleteBut(true);
-                treeNode.setShowInsertBut(true);
-                treeNode.setShowUpdateBut(true);
+    /**
+     * 取 path 及其各子节点在缓存中的 Stat, 按层加载的输出只由这些 Stat 决定, 用于校验该层是否变化
+     *
+     * @return 第一个为 path 本身; path 或某个子节点正在重新加载时返回 null
+     */
+    public static List<Stat> getZkTreeLevelStats(String path, ZkTreeCache cache) {
+        ZkTreeCache.Node parent = cache.get(path);
+        if (parent == null) {
+            return null;
+        }
+        List<Stat> stats = new ArrayList<Stat>(parent.getChildren().size() + 1);
+        stats.add(parent.getStat());
+        for (String child : parent.getChildren()) {
+            ZkTreeCache.Node node = cache.get(ZkClientUtils.childPath(path, child));
+            if (node == null) {
+                return null;
+            }
+            stats.add(node.getStat());
+        }
+        return stats;
+    }
 
-                zTreeNodes.add(treeNode);
+    public static ZTreeNode toTreeNode(String path, boolean root, Stat stat) {
+        ZTreeNode treeNode = new ZTreeNode();
+        treeNode.setId(path);
+        treeNode.setShowInsertBut(true);
+        //根节点
+        if (root) {
+            treeNode.setPId("0");
+            treeNode.setName(path);
+        } else {
+            int index = path.lastIndexOf('/');
+            treeNode.setPId(index == 0 ? "/" : path.substring(0, index));
+            treeNode.setName(path.substring(index + 1));
+            treeNode.setShowDeleteBut(true);
+            treeNode.setShowUpdateBut(true);
+        }
+        if (stat != null) {
+            treeNode.setNumChildren(stat.getNumChildren());
+            treeNode.setHasChildren(stat.getNumChildren() > 0);
+        }
+        return treeNode;
+    }
 
-                getZkTreeData(zTreeNodes, nodeName + "/" + node, zkClient, pid + "-" + (i + 1));
+    private static ZTreeNodeHandler collect(final List<ZTreeNode> zTreeNodes) {
+        return new ZTreeNodeHandler() {
+            @Override
+            public void handle(ZTreeNode node) {
+                zTreeNodes.add(node);
             }
-        }
+        };
     }
 }
@@ -0,0 +1,98 @@
+package com.sung.zk.ui.server.zookeeper.utils;
+
+import com.alibaba.fastjson.JSON;
+
+import javax.servlet.http.HttpServletResponse;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+
+/**
+ * 以流的方式向 response 输出 JSON 数组: 每个元素单独序列化后立即写出, 内存占用与数组长度无关.
+ * <p>
+ * 写满缓冲区后 write 会阻塞在 socket 上, 调用方 (例如在同一线程上运行的树遍历) 因此会随客户端的接收速度放慢.
+ */
+public class JsonArrayWriter implements Closeable {
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private final Writer out;
+
+    /**
+     * 以 response 构造时不为 null, 用于在出错时判断响应是否已提交
+     */
+    private final HttpServletResponse response;
+
+    private boolean first = true;
+
+    private boolean closed = false;
+
+    public JsonArrayWriter(HttpServletResponse response) throws IOException {
+        this(prepare(response), response);
+    }
+
+    public JsonArrayWriter(OutputStream outputStream) throws IOException {
+        this(outputStream, null);
+    }
+
+    private JsonArrayWriter(OutputStream outputStream, HttpServletResponse response) throws IOException {
+        this.response = response;
+        this.out = new BufferedWriter(new OutputStreamWriter(outputStream, Charset.forName("UTF-8")), BUFFER_SIZE);
+        this.out.write('[');
+    }
+
+    private static OutputStream prepare(HttpServletResponse response) throws IOException {
+        response.setCharacterEncoding("UTF-8");
+        response.setContentType("application/json; charset=utf-8");
+        return response.getOutputStream();
+    }
+
+    public void write(Object element) throws IOException {
+        if (!first) {
+            out.write(',');
+        }
+        first = false;
+        JSON.writeJSONStringTo(element, out);
+    }
+
+    /**
+     * 输出中途失败时调用, 代替 close, 之后 close 无副作用. 不输出部分结果组成的合法数组:
+     * 响应尚未提交时丢弃已写的内容, 返回 true, 调用方改为返回错误状态;
+     * 已提交时写出已有内容后不结束数组, 客户端解析失败, 不会把部分结果当作完整结果.
+     *
+     * @return 响应已重置, 可以 sendError
+     */
+    public boolean abort() throws IOException {
+        if (closed) {
+            return false;
+        }
+        closed = true;
+        if (response != null && !response.isCommitted()) {
+            // out 中缓冲的内容随之丢弃, 不再写出
+            response.reset();
+            return true;
+        }
+        out.flush();
+        return false;
+    }
+
+    /**
+     * 结束数组并关闭输出流, 重复调用无副作用
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            out.write(']');
+        } finally {
+            out.close();
+        }
+    }
+}
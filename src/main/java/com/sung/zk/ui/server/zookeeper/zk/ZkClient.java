@@ -85,6 +85,9 @@ public class ZkClient implements Watcher, IZkClient {
 			if (listeners != null) {
 				listeners.remove(childListener);
 			}
+			if (listeners == null || listeners.isEmpty()) {
+				_childListener.remove(path);
+			}
 		}
 	}
 
@@ -1,5 +1,8 @@
 package com.sung.zk.ui.server.zookeeper.zk;
 
+import com.github.zkclient.ZkClient;
+import com.github.zkclient.ZkTreeCache;
+import com.sung.zk.ui.server.zk.op.ZkClusterServices;
 import com.sung.zk.ui.server.zookeeper.config.ServerConfig;
 import org.apache.zookeeper.ZooKeeper;
 
@@ -25,4 +28,12 @@ public class ZkHelper {
     public static ZooKeeper getZooKeeper() {
         return zooKeeper;
     }
+
+    /**
+     * @return 可以回答 path 的树缓存 (zk.cache.root), 未配置或暂时无法回答时为 null
+     */
+    public static ZkTreeCache getTreeCache(String path) {
+        ZkTreeCache cache = ZkClusterServices.getInstance().getTreeCache(ServerConfig.zk_host + ":" + ServerConfig.zk_port);
+        return cache != null && cache.covers(path) ? cache : null;
+    }
 }
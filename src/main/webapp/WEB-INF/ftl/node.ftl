@@ -75,8 +75,8 @@
 			</div>
 			<div class="row clearfix">
 				<div class="col-md-4 column">
-					<h3>子节点<span class="label label-info fontsize11">${(children?size)!'0'}</span></h3>
-					<table class="table table-bordered">
+					<h3>子节点<span class="label label-info fontsize11" id="childCount">${(children?size)!'0'}</span></h3>
+					<table class="table table-bordered" id="childTable">
 						<#if children?size gt 0>
 						<#list children as c>
 						<tr><td><a href="${host}/read/node?path=${pathAppend?substring(0,pathAppend?length-1)}/${c}">${c}</a></td></tr>
@@ -87,7 +87,7 @@
 					</table>
 				</div>
 				<div class="col-md-4 column">
-					<h3>节点状态</h3>
+					<h3>节点状态 <span class="label label-warning fontsize11" id="statStale" style="display:none">已变化, 刷新查看</span></h3>
 					<table class="table table-bordered">
 						<#if stat??>
 						<#list stat?keys as key>
@@ -100,9 +100,18 @@
 					</table>
 				</div>
 				<div class="col-md-4 column">
-					<h3>节点数据<span class="label label-info fontsize11">${dataSize} byte(s)</span></h3>
+					<#assign dataPath = pathAppend?substring(0,pathAppend?length-1)>
+					<h3>节点数据<span class="label label-info fontsize11" id="dataSize">${dataSize} byte(s)</span><#if binary> <span class="label label-warning fontsize11">二进制</span></#if></h3>
+					<div class="fontsize11">
+						视图:
+						<a href="javascript:void(0)" class="data-view" data-view="utf8">UTF-8</a> |
+						<a href="javascript:void(0)" class="data-view" data-view="hex">HEX</a> |
+						<a href="javascript:void(0)" class="data-view" data-view="base64">Base64</a> |
+						<a href="${host}/read/data?cxnstr=${(cxnstr!'')?url}&path=${dataPath?url}">下载</a>
+					</div>
 					<div class="well marginright50">
-						<p style="word-break:break-all;">${data?replace("\n", "<br/>")}</p>
+						<pre id="nodeData" style="word-break:break-all;white-space:pre-wrap;" data-view="${previewView}" data-next="${previewEnd?c}">${preview?html}</pre>
+						<button type="button" id="loadMoreData" class="btn btn-default btn-xs" <#if (previewEnd >= dataSize)>style="display:none"</#if>>加载更多</button>
 					</div>
 				</div>
 			</div>
@@ -153,9 +162,9 @@
       <div class="modal-body">
     	<div class="alert alert-info">编辑节点: <strong>${pathAppend}</strong></div>
 	    <div class="form-group">
-	      <label for="textAreaData" class="col-lg-2 control-label">数据:</label>
+	      <label for="editTextAreaData" class="col-lg-2 control-label">数据:</label>
 	      <div class="col-lg-10">
-	        <textarea class="form-control" required rows="10" name="data" id="textAreaData" placeholder="Data of new node" rows="6">${data!''}</textarea>
+	        <textarea class="form-control" required rows="10" name="data" id="editTextAreaData" placeholder="Data of new node" rows="6"><#if !binary && (previewEnd >= dataSize)>${preview?html}</#if></textarea>
 	      </div>
 	    </div>
 		<input class="span8" name="path" type="hidden" value="${pathAppend}" />
@@ -246,5 +255,84 @@
 </div>
 
 
+<script type="text/javascript">
+	// 节点数据按段加载, 页面只带预览
+	$(function() {
+		var dataUrl = "${host}/read/data";
+		var dataParams = { cxnstr : "${(cxnstr!'')?js_string}", path : "${dataPath?js_string}" };
+		var watchPath = "<#if dataPath == "">/<#else>${dataPath?js_string}</#if>";
+		var dataSize = ${dataSize?c};
+		var chunk = 64 * 1024;
+		var $data = $("#nodeData");
+		var $more = $("#loadMoreData");
+
+		function load(view, offset, append) {
+			$.ajax({
+				url : dataUrl,
+				data : $.extend({ view : view, offset : offset, length : chunk }, dataParams),
+				dataType : "text",
+				success : function(text, status, xhr) {
+					var next = parseInt(xhr.getResponseHeader("X-Next-Offset"), 10);
+					$data.attr("data-view", view).attr("data-next", next);
+					$data.text(append ? $data.text() + text : text);
+					$more.toggle(next < dataSize);
+				}
+			});
+		}
+
+		$more.click(function() {
+			load($data.attr("data-view"), parseInt($data.attr("data-next"), 10), true);
+		});
+		$(".data-view").click(function() {
+			load($(this).attr("data-view"), 0, false);
+		});
+		// 节点变化由服务端推送, 不必刷新页面
+		if (window.EventSource) {
+			var source = new EventSource("${host}/watch?" + $.param({ cxnstr : dataParams.cxnstr, path : watchPath }));
+			source.addEventListener("data", function(e) {
+				var event = JSON.parse(e.data);
+				dataSize = event.size;
+				$data.attr("data-view", event.previewView).attr("data-next", event.previewEnd).text(event.preview);
+				$more.toggle(event.previewEnd < dataSize);
+				$("#dataSize").text(dataSize + " byte(s)");
+				$("#editTextAreaData").val(!event.binary && event.previewEnd >= dataSize ? event.preview : "");
+				$("#statStale").show();
+			});
+			source.addEventListener("children", function(e) {
+				var event = JSON.parse(e.data);
+				var base = watchPath == "/" ? "" : watchPath;
+				var $table = $("#childTable").empty();
+				$.each(event.children, function(i, c) {
+					var $link = $("<a>").attr("href", "${host}/read/node?path=" + encodeURIComponent(base + "/" + c)).text(c);
+					$table.append($("<tr>").append($("<td>").append($link)));
+				});
+				if (event.children.length == 0) {
+					$table.append('<div class="alert"><h3 class="text-danger text-center">木有子节点</h3></div>');
+				}
+				$("#childCount").text(event.children.length);
+				$("#statStale").show();
+			});
+			source.addEventListener("deleted", function() {
+				source.close();
+				$("#statStale").text("节点已被删除").show();
+			});
+		}
+
+		// 编辑时才读取完整数据
+		$("#editModal").on("show.bs.modal", function() {
+			var $text = $("#editTextAreaData");
+			if ($text.val() === "" && dataSize > 0) {
+				$.ajax({
+					url : dataUrl,
+					data : $.extend({ view : "utf8" }, dataParams),
+					dataType : "text",
+					success : function(text) {
+						$text.val(text);
+					}
+				});
+			}
+		});
+	});
+</script>
 	</body>
 </html>
\ No newline at end of file
@@ -18,6 +18,11 @@ $(document).ready(function() {
 		async : {
 			enable : true,
 			url : GetBasePath() + "/LoadZKNodeList",
+			//GET 请求浏览器才会以 If-None-Match 校验, 未变化的层返回 304
+			type : "get",
+			//逐级加载: 首次只取根节点及下一级, 展开节点时以 path=节点id 取下一级
+			autoParam : [ "id=path" ],
+			otherParam : { "lazy" : "true" },
 			dataFilter : null
 		},
 
@@ -30,6 +35,12 @@ $(document).ready(function() {
 			simpleData : {
 				enable : true
 			}
+		},
+		callback : {
+			//加载失败时服务端返回错误状态或不完整的数据, 不显示部分节点
+			onAsyncError : function(event, treeId, treeNode, XMLHttpRequest, textStatus, errorThrown) {
+				alert("加载节点失败, 请刷新重试");
+			}
 		}
 	};
 
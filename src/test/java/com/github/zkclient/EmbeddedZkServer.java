@@ -0,0 +1,92 @@
+/**
+ * Copyright 2010 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.zkclient;
+
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.nio.file.Files;
+
+/**
+ * A {@link ZkServer} on a free port with its data in a temporary directory, shared by the tests of all packages
+ */
+public final class EmbeddedZkServer {
+
+    private final File _dir;
+
+    private final ZkServer _server;
+
+    private EmbeddedZkServer(File dir, ZkServer server) {
+        _dir = dir;
+        _server = server;
+    }
+
+    public static EmbeddedZkServer start() throws IOException {
+        File dir = Files.createTempDirectory("zkclient-test").toFile();
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        ZkServer server = new ZkServer(new File(dir, "data").getPath(), new File(dir, "log").getPath(), port);
+        server.start();
+        return new EmbeddedZkServer(dir, server);
+    }
+
+    /**
+     * @return the client owned by the server, closed on {@link #stop()}
+     */
+    public ZkClient client() {
+        return _server.getZkClient();
+    }
+
+    /**
+     * @return a new client, the caller closes it
+     */
+    public ZkClient newClient() {
+        return new ZkClient(connectString(), 10000);
+    }
+
+    public String connectString() {
+        return "localhost:" + _server.getPort();
+    }
+
+    /**
+     * stop the server and start it again on the same port and data; clients see a disconnect and keep their
+     * sessions if they reconnect within the session timeout. The client returned by {@link #client()} is replaced.
+     */
+    public void restart() {
+        pause();
+        resume();
+    }
+
+    /**
+     * stop the server but keep its data, until {@link #resume()}
+     */
+    public void pause() {
+        _server.shutdown();
+    }
+
+    public void resume() {
+        _server.start();
+    }
+
+    public void stop() throws IOException {
+        _server.shutdown();
+        FileUtils.deleteDirectory(_dir);
+    }
+}
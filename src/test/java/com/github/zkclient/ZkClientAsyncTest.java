@@ -0,0 +1,145 @@
+/**
+ * Copyright 2010 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.zkclient;
+
+import com.github.zkclient.exception.ZkNoNodeException;
+import org.apache.zookeeper.Watcher.Event.KeeperState;
+import org.apache.zookeeper.data.Stat;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ZkClientAsyncTest {
+
+    private static final long TIMEOUT_MS = 20000;
+
+    private EmbeddedZkServer _server;
+
+    private ZkMetrics _metrics;
+
+    private ZkClient _client;
+
+    @Before
+    public void setUp() throws IOException {
+        _server = EmbeddedZkServer.start();
+        _server.client().createPersistent("/a/b", true);
+        _server.client().createPersistent("/a/c");
+        _server.client().writeData("/a", new byte[]{1});
+        _metrics = new ZkMetrics();
+        _client = new ZkClient(new ZkConnection(_server.connectString(), IZkClient.DEFAULT_SESSION_TIMEOUT), 10000, _metrics);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        _client.close();
+        _server.stop();
+    }
+
+    @Test
+    public void requestsSentWhileTheServerIsDownCompleteAfterReconnect() throws Exception {
+        _server.pause();
+        assertTrue(_client.waitForKeeperState(KeeperState.Disconnected, TIMEOUT_MS, TimeUnit.MILLISECONDS));
+
+        Stat stat = new Stat();
+        ZkFuture<byte[]> data = _client.readDataAsync("/a", stat);
+        ZkFuture<List<String>> children = _client.getChildrenAsync("/a");
+        ZkFuture<Stat> exists = _client.existsAsync("/a");
+        ZkFuture<Stat> missing = _client.existsAsync("/missing");
+        ZkFuture<byte[]> missingData = _client.readDataAsync("/missing");
+
+        // the requests fail with connection loss and queue up in the retry thread, the first waits for the reconnect
+        awaitFirstRetry();
+        assertEquals(0, _metrics.getWaitCount(ZkMetrics.Wait.CONNECTION_LOSS));
+        _server.resume();
+
+        assertArrayEquals(new byte[]{1}, data.get(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        assertEquals(1, stat.getVersion());
+        List<String> names = children.get(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        assertNotNull(names);
+        assertEquals(Arrays.asList("b", "c"), sorted(names));
+        assertEquals(2, exists.get(TIMEOUT_MS, TimeUnit.MILLISECONDS).getNumChildren());
+        assertNull(missing.get(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        try {
+            missingData.get(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof ZkNoNodeException);
+        }
+
+        assertTrue(_metrics.getRetries(ZkMetrics.Op.READ) >= 2);
+        assertTrue(_metrics.getRetries(ZkMetrics.Op.CHILDREN) >= 1);
+        assertTrue(_metrics.getRetries(ZkMetrics.Op.EXISTS) >= 2);
+        assertTrue(_metrics.getWaitCount(ZkMetrics.Wait.CONNECTION_LOSS) >= 5);
+        assertEquals(1, _metrics.getErrors(ZkMetrics.Op.READ));
+        assertEquals(0, _metrics.getErrors(ZkMetrics.Op.EXISTS));
+    }
+
+    @Test
+    public void requestsInFlightDuringARestartComplete() throws Exception {
+        int requests = 2000;
+        @SuppressWarnings("unchecked")
+        ZkFuture<byte[]>[] futures = new ZkFuture[requests];
+        for (int i = 0; i < requests; i++) {
+            futures[i] = _client.readDataAsync("/a");
+            if (i == requests / 2) {
+                _server.restart();
+            }
+        }
+        for (ZkFuture<byte[]> future : futures) {
+            assertArrayEquals(new byte[]{1}, future.get(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        }
+        assertEquals(requests, _metrics.getCount(ZkMetrics.Op.READ));
+        assertEquals(0, _metrics.getErrors(ZkMetrics.Op.READ));
+        // the requests sent before the restart were still unanswered when the connection dropped
+        assertTrue(_metrics.getRetries(ZkMetrics.Op.READ) > 0);
+        assertTrue(_metrics.getWaitCount(ZkMetrics.Wait.CONNECTION_LOSS) > 0);
+    }
+
+    private void awaitFirstRetry() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (retries() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(retries() > 0);
+    }
+
+    private long retries() {
+        long retries = 0;
+        for (ZkMetrics.Op op : ZkMetrics.Op.values()) {
+            retries += _metrics.getRetries(op);
+        }
+        return retries;
+    }
+
+    private static List<String> sorted(List<String> names) {
+        Collections.sort(names);
+        return names;
+    }
+}
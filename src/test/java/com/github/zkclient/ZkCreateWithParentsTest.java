@@ -0,0 +1,187 @@
+/**
+ * Copyright 2010 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.zkclient;
+
+import com.github.zkclient.exception.ZkNodeExistsException;
+import org.apache.zookeeper.Op;
+import org.apache.zookeeper.proto.CreateRequest;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+public class ZkCreateWithParentsTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private EmbeddedZkServer _server;
+
+    private RecordingClient _client;
+
+    @Before
+    public void setUp() throws IOException {
+        _server = EmbeddedZkServer.start();
+        _client = new RecordingClient(_server.connectString());
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        _client.close();
+        _server.stop();
+    }
+
+    @Test
+    public void createsMissingParentsAndDataInOneMulti() {
+        _client.createPersistent("/a", bytes("a"));
+        _client.createPersistent("/a/b/c/d", bytes("leaf"), true);
+
+        assertEquals(1, _client.multis.size());
+        List<Op> ops = _client.multis.get(0);
+        assertEquals(Arrays.asList("/a/b", "/a/b/c", "/a/b/c/d"), paths(ops));
+        assertNull(data(ops.get(0)));
+        assertNull(data(ops.get(1)));
+        assertArrayEquals(bytes("leaf"), data(ops.get(2)));
+
+        assertArrayEquals(bytes("a"), _client.readData("/a"));
+        assertNull(_client.readData("/a/b"));
+        assertArrayEquals(bytes("leaf"), _client.readData("/a/b/c/d"));
+    }
+
+    @Test
+    public void existingParentsNeedNoMulti() {
+        _client.createPersistent("/a/b", true);
+        _client.createPersistent("/a/b/c", bytes("c"), true);
+
+        assertEquals(0, _client.multis.size());
+        assertArrayEquals(bytes("c"), _client.readData("/a/b/c"));
+    }
+
+    @Test
+    public void parentCreatedMeanwhileIsRetried() {
+        _client.beforeFirstMulti = new Runnable() {
+
+            @Override
+            public void run() {
+                _server.client().createPersistent("/x", bytes("other"));
+            }
+        };
+        _client.createPersistent("/x/y/z", bytes("z"), true);
+
+        // the first multi also created /x and was rolled back, the retry only creates what is still missing
+        assertEquals(1, _client.failedMultis);
+        assertEquals(1, _client.multis.size());
+        assertEquals(Arrays.asList("/x/y", "/x/y/z"), paths(_client.multis.get(0)));
+        assertArrayEquals(bytes("other"), _client.readData("/x"));
+        assertArrayEquals(bytes("z"), _client.readData("/x/y/z"));
+    }
+
+    @Test
+    public void existingLeafFails() {
+        _client.createPersistent("/e/f", bytes("old"), true);
+        _client.multis.clear();
+        try {
+            _client.createPersistent("/e/f", bytes("new"), true);
+            fail("leaf exists");
+        } catch (ZkNodeExistsException expected) {
+            // expected
+        }
+        assertArrayEquals(bytes("old"), _client.readData("/e/f"));
+    }
+
+    @Test
+    public void leafCreatedMeanwhileFailsWithoutRetry() {
+        _client.beforeFirstMulti = new Runnable() {
+
+            @Override
+            public void run() {
+                _server.client().createPersistent("/g/h", bytes("other"), true);
+            }
+        };
+        try {
+            _client.createPersistent("/g/h", bytes("mine"), true);
+            fail("leaf exists");
+        } catch (ZkNodeExistsException expected) {
+            // expected
+        }
+        assertEquals(0, _client.multis.size());
+        assertEquals(1, _client.failedMultis);
+        assertArrayEquals(bytes("other"), _client.readData("/g/h"));
+    }
+
+    private static List<String> paths(List<Op> ops) {
+        List<String> paths = new ArrayList<String>();
+        for (Op op : ops) {
+            paths.add(op.getPath());
+        }
+        return paths;
+    }
+
+    private static byte[] data(Op op) {
+        return ((CreateRequest) op.toRequestRecord()).getData();
+    }
+
+    private static byte[] bytes(String data) {
+        return data.getBytes(UTF_8);
+    }
+
+    /**
+     * records the ops of every successful multi
+     */
+    private static class RecordingClient extends ZkClient {
+
+        final List<List<Op>> multis = new ArrayList<List<Op>>();
+
+        int failedMultis;
+
+        Runnable beforeFirstMulti;
+
+        RecordingClient(String connectString) {
+            super(connectString, 10000);
+        }
+
+        @Override
+        public List<?> multi(Iterable<?> ops) {
+            if (beforeFirstMulti != null) {
+                Runnable hook = beforeFirstMulti;
+                beforeFirstMulti = null;
+                hook.run();
+            }
+            List<?> results;
+            try {
+                results = super.multi(ops);
+            } catch (RuntimeException e) {
+                failedMultis++;
+                throw e;
+            }
+            List<Op> batch = new ArrayList<Op>();
+            for (Object op : ops) {
+                batch.add((Op) op);
+            }
+            multis.add(batch);
+            return results;
+        }
+    }
+}
@@ -0,0 +1,262 @@
+/**
+ * Copyright 2010 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.zkclient;
+
+import com.github.zkclient.ZkEventThread.ZkEvent;
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ZkEventThreadTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final long TIMEOUT_MS = 10000;
+
+    private EmbeddedZkServer _server;
+
+    @Before
+    public void setUp() throws IOException {
+        _server = EmbeddedZkServer.start();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        System.clearProperty(ZkEventThread.WORKERS_PROPERTY);
+        System.clearProperty(ZkEventThread.QUEUE_SIZE_PROPERTY);
+        _server.stop();
+    }
+
+    /**
+     * blocks the only worker while more paths change than its queue holds, then checks that every path
+     * got its change and still has its watch for the next one
+     */
+    @Test
+    public void fullStripeKeepsDelivering() throws Exception {
+        System.setProperty(ZkEventThread.WORKERS_PROPERTY, "1");
+        System.setProperty(ZkEventThread.QUEUE_SIZE_PROPERTY, "2");
+        String root = "/full";
+        int paths = 10;
+        ZkClient client = _server.newClient();
+        try {
+            final CountDownLatch blocked = new CountDownLatch(1);
+            final CountDownLatch release = new CountDownLatch(1);
+            final Map<String, String> latest = new ConcurrentHashMap<String, String>();
+            for (int i = 0; i < paths; i++) {
+                client.createPersistent(root + "/p" + i, bytes("v0"), true);
+                client.subscribeDataChanges(root + "/p" + i, new IZkDataListener() {
+
+                    @Override
+                    public void handleDataChange(String path, byte[] data) throws Exception {
+                        blocked.countDown();
+                        release.await();
+                        latest.put(path, new String(data, UTF_8));
+                    }
+
+                    @Override
+                    public void handleDataDeleted(String path) {
+                    }
+                });
+            }
+
+            client.writeData(root + "/p0", bytes("v1"));
+            assertTrue(blocked.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+            for (int i = 1; i < paths; i++) {
+                client.writeData(root + "/p" + i, bytes("v1"));
+            }
+            release.countDown();
+            awaitAll(latest, root, paths, "v1");
+
+            for (int i = 0; i < paths; i++) {
+                client.writeData(root + "/p" + i, bytes("v2"));
+            }
+            awaitAll(latest, root, paths, "v2");
+        } finally {
+            client.close();
+        }
+    }
+
+    @Test
+    public void changesWhileQueuedAreDeliveredOnce() throws Exception {
+        ZkClient client = _server.newClient();
+        try {
+            client.createPersistent("/c", bytes("v0"));
+            final CountDownLatch blocked = new CountDownLatch(1);
+            final CountDownLatch release = new CountDownLatch(1);
+            final List<String> delivered = Collections.synchronizedList(new ArrayList<String>());
+            client.subscribeDataChanges("/c", new IZkDataListener() {
+
+                @Override
+                public void handleDataChange(String path, byte[] data) throws Exception {
+                    delivered.add(new String(data, UTF_8));
+                    blocked.countDown();
+                    release.await();
+                }
+
+                @Override
+                public void handleDataDeleted(String path) {
+                }
+            });
+
+            client.writeData("/c", bytes("v1"));
+            assertTrue(blocked.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+            int changes = 20;
+            for (int i = 2; i <= changes; i++) {
+                // reading with listeners registered re-arms the watch, so every write fires it again
+                client.readData("/c");
+                client.writeData("/c", bytes("v" + i));
+            }
+            awaitNotifications(client);
+            release.countDown();
+            awaitSize(delivered, 2);
+            Thread.sleep(200);
+            assertEquals(Arrays.asList("v1", "v" + changes), new ArrayList<String>(delivered));
+
+            // the coalesce key was released when the event was dequeued
+            client.writeData("/c", bytes("after"));
+            awaitSize(delivered, 3);
+            assertEquals("after", delivered.get(2));
+        } finally {
+            client.close();
+        }
+    }
+
+    @Test
+    public void fullStripeBlocksTheSenderUntilThereIsRoom() throws Exception {
+        ZkEventThread thread = new ZkEventThread("test", 1, 1);
+        thread.start();
+        try {
+            final CountDownLatch release = new CountDownLatch(1);
+            final List<String> delivered = Collections.synchronizedList(new ArrayList<String>());
+            final CountDownLatch running = new CountDownLatch(1);
+            thread.send(new ZkEvent("blocker") {
+
+                @Override
+                public void run() throws Exception {
+                    running.countDown();
+                    release.await();
+                }
+            });
+            assertTrue(running.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+            // fills the queue of the only stripe
+            thread.send(new RecordingEvent("state-1", null, delivered));
+            final ZkEventThread events = thread;
+            Thread sender = new Thread() {
+
+                @Override
+                public void run() {
+                    events.send(new RecordingEvent("state-2", null, delivered));
+                }
+            };
+            sender.start();
+            sender.join(200);
+            assertTrue(sender.isAlive());
+            assertEquals(1, thread.getBlockedCount());
+
+            release.countDown();
+            sender.join(TIMEOUT_MS);
+            assertFalse(sender.isAlive());
+            awaitSize(delivered, 2);
+            assertEquals(Arrays.asList("state-1", "state-2"), new ArrayList<String>(delivered));
+        } finally {
+            thread.shutdown();
+        }
+    }
+
+    private static void awaitAll(Map<String, String> latest, String root, int paths, String value)
+            throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (System.currentTimeMillis() < deadline) {
+            int done = 0;
+            for (int i = 0; i < paths; i++) {
+                if (value.equals(latest.get(root + "/p" + i))) {
+                    done++;
+                }
+            }
+            if (done == paths) {
+                return;
+            }
+            Thread.sleep(10);
+        }
+        fail("not every path saw " + value + ": " + latest);
+    }
+
+    /**
+     * the zookeeper event thread delivers watch events in order and calls a raw watcher itself, so once the
+     * marker's watcher fired every earlier notification has been handed to the event thread
+     */
+    private static void awaitNotifications(ZkClient client) throws InterruptedException {
+        final CountDownLatch fired = new CountDownLatch(1);
+        client.createPersistent("/marker", true);
+        client.readDataAsync("/marker", null, new Watcher() {
+
+            @Override
+            public void process(WatchedEvent event) {
+                fired.countDown();
+            }
+        }).join();
+        client.writeData("/marker", bytes("fire"));
+        assertTrue(fired.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+    }
+
+    private static void awaitSize(List<String> delivered, int size) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (delivered.size() < size && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(size, delivered.size());
+    }
+
+    private static byte[] bytes(String data) {
+        return data.getBytes(UTF_8);
+    }
+
+    private static class RecordingEvent extends ZkEvent {
+
+        private final String _name;
+
+        private final List<String> _delivered;
+
+        RecordingEvent(String name, String key, List<String> delivered) {
+            super(name, key, null);
+            _name = name;
+            _delivered = delivered;
+        }
+
+        @Override
+        public void run() {
+            _delivered.add(_name);
+        }
+    }
+}
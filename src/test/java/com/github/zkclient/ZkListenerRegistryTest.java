@@ -0,0 +1,106 @@
+/**
+ * Copyright 2010 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.zkclient;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ZkListenerRegistryTest {
+
+    private final ZkListenerRegistry<String> _registry = new ZkListenerRegistry<String>();
+
+    @Test
+    public void sharedListenerIsRefCounted() {
+        assertTrue(_registry.add("/a", "l1"));
+        assertFalse(_registry.add("/a", "l1"));
+        assertEquals(Collections.singleton("l1"), _registry.get("/a"));
+        assertEquals(1, _registry.size());
+
+        // the first release keeps the listener for the other subscriber
+        assertFalse(_registry.remove("/a", "l1"));
+        assertEquals(Collections.singleton("l1"), _registry.get("/a"));
+        assertTrue(_registry.has("/a"));
+
+        assertTrue(_registry.remove("/a", "l1"));
+        assertTrue(_registry.get("/a").isEmpty());
+        assertEquals(0, _registry.size());
+    }
+
+    @Test
+    public void emptyPathIsRemoved() {
+        _registry.add("/a", "l1");
+        _registry.add("/a", "l2");
+        _registry.add("/b", "l1");
+        assertEquals(new LinkedHashSet<String>(Arrays.asList("/a", "/b")), _registry.paths());
+
+        assertTrue(_registry.remove("/a", "l1"));
+        assertEquals(Collections.singleton("l2"), _registry.get("/a"));
+        assertTrue(_registry.remove("/a", "l2"));
+        assertFalse(_registry.has("/a"));
+        assertEquals(Collections.singleton("/b"), _registry.paths());
+        assertEquals(1, _registry.size());
+
+        // a path watched again after it was emptied needs its watch armed again
+        assertTrue(_registry.add("/a", "l3"));
+    }
+
+    @Test
+    public void removeUnknownIsNoop() {
+        assertFalse(_registry.remove("/a", "l1"));
+        _registry.add("/a", "l1");
+        assertFalse(_registry.remove("/a", "l2"));
+        assertFalse(_registry.remove("/b", "l1"));
+        assertEquals(1, _registry.size());
+        assertEquals(Collections.singleton("/a"), _registry.paths());
+    }
+
+    @Test
+    public void snapshotIsImmutableAndStable() {
+        _registry.add("/a", "l1");
+        _registry.add("/a", "l2");
+        Set<String> snapshot = _registry.get("/a");
+        _registry.remove("/a", "l1");
+        _registry.add("/a", "l3");
+        // readers iterating while listeners change keep the set they got
+        assertEquals(new LinkedHashSet<String>(Arrays.asList("l1", "l2")), snapshot);
+        assertEquals(new LinkedHashSet<String>(Arrays.asList("l2", "l3")), _registry.get("/a"));
+        try {
+            snapshot.add("l4");
+            fail("snapshot should be unmodifiable");
+        } catch (UnsupportedOperationException expected) {
+            // expected
+        }
+    }
+
+    @Test
+    public void clearDropsEverything() {
+        _registry.add("/a", "l1");
+        _registry.add("/b", "l2");
+        _registry.clear();
+        assertEquals(0, _registry.size());
+        assertTrue(_registry.paths().isEmpty());
+        assertTrue(_registry.add("/a", "l1"));
+    }
+}
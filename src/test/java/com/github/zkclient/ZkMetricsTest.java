@@ -0,0 +1,123 @@
+/**
+ * Copyright 2010 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.zkclient;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.zookeeper.data.Stat;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ZkMetricsTest {
+
+    private EmbeddedZkServer _server;
+
+    private ZkClient _client;
+
+    private ZkMetrics _metrics;
+
+    @Before
+    public void setUp() throws IOException {
+        _server = EmbeddedZkServer.start();
+        _metrics = new ZkMetrics();
+        _client = new ZkClient(new ZkConnection(_server.connectString(), IZkClient.DEFAULT_SESSION_TIMEOUT), 10000, _metrics);
+        _client.createPersistent("/m/a", true);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        _client.close();
+        _server.stop();
+    }
+
+    @Test
+    public void childSubscriptionIsRecordedOnce() {
+        long[] before = counts();
+        _client.subscribeChildChanges("/m", new IZkChildListener() {
+
+            @Override
+            public void handleChildChange(String parentPath, List<String> currentChildren) {
+            }
+        });
+        long[] after = counts();
+        assertEquals(before[ZkMetrics.Op.CHILDREN.ordinal()] + 1, after[ZkMetrics.Op.CHILDREN.ordinal()]);
+        assertEquals(before[ZkMetrics.Op.EXISTS.ordinal()], after[ZkMetrics.Op.EXISTS.ordinal()]);
+        assertEquals(before[ZkMetrics.Op.OTHER.ordinal()], after[ZkMetrics.Op.OTHER.ordinal()]);
+    }
+
+    @Test
+    public void nestedCallsAreRecordedAsTheOuterRequest() {
+        long[] before = counts();
+        _client.retryUntilConnected(new Callable<Object>() {
+
+            @Override
+            public Object call() {
+                _client.readData("/m/a");
+                _client.exists("/m/a");
+                return null;
+            }
+        });
+        long[] after = counts();
+        assertEquals(before[ZkMetrics.Op.OTHER.ordinal()] + 1, after[ZkMetrics.Op.OTHER.ordinal()]);
+        assertEquals(before[ZkMetrics.Op.READ.ordinal()], after[ZkMetrics.Op.READ.ordinal()]);
+        assertEquals(before[ZkMetrics.Op.EXISTS.ordinal()], after[ZkMetrics.Op.EXISTS.ordinal()]);
+
+        // the next top-level call is measured again
+        _client.readData("/m/a");
+        assertEquals(before[ZkMetrics.Op.READ.ordinal()] + 1, counts()[ZkMetrics.Op.READ.ordinal()]);
+    }
+
+    @Test
+    public void asyncRequestIsRecordedBeforeItsListenersRun() {
+        final long before = _metrics.getCount(ZkMetrics.Op.READ);
+        final long beforeNanos = _metrics.getTotalNanos(ZkMetrics.Op.READ);
+        final AtomicLong seen = new AtomicLong(-1);
+        ZkFuture<byte[]> future = _client.readDataAsync("/m/a", new Stat());
+        future.addListener(new Runnable() {
+
+            @Override
+            public void run() {
+                seen.set(_metrics.getCount(ZkMetrics.Op.READ));
+                try {
+                    Thread.sleep(300);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        future.join();
+        assertEquals(before + 1, seen.get());
+        // the slow listener is not part of the latency
+        assertTrue(_metrics.getTotalNanos(ZkMetrics.Op.READ) - beforeNanos < TimeUnit.MILLISECONDS.toNanos(300));
+    }
+
+    private long[] counts() {
+        long[] counts = new long[ZkMetrics.Op.values().length];
+        for (ZkMetrics.Op op : ZkMetrics.Op.values()) {
+            counts[op.ordinal()] = _metrics.getCount(op);
+        }
+        return counts;
+    }
+}
@@ -0,0 +1,220 @@
+/**
+ * Copyright 2010 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.zkclient;
+
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.Op;
+import org.apache.zookeeper.ZooDefs.Ids;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ZkRecursiveDeleteTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * more nodes than one batch holds
+     */
+    private static final int WIDE = ZkRecursiveDelete.MAX_BATCH_OPS + 300;
+
+    private static final int MAX_BATCH_BYTES = Integer.getInteger("jute.maxbuffer", 0xfffff) / 2;
+
+    private EmbeddedZkServer _server;
+
+    private RecordingClient _client;
+
+    @Before
+    public void setUp() throws IOException {
+        _server = EmbeddedZkServer.start();
+        _client = new RecordingClient(_server.connectString());
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        _client.close();
+        _server.stop();
+    }
+
+    @Test
+    public void deletesMoreNodesThanOneBatchHolds() {
+        createChildren("/wide", WIDE, "n");
+        List<int[]> progress = new ArrayList<int[]>();
+
+        assertTrue(_client.deleteRecursive("/wide", recorder(progress)));
+        assertFalse(_client.exists("/wide"));
+        assertEquals(2, _client.batches.size());
+        assertEquals(ZkRecursiveDelete.MAX_BATCH_OPS, _client.batches.get(0).size());
+        assertProgress(progress, WIDE + 1);
+    }
+
+    @Test
+    public void deletesMoreBytesThanOneBatchHolds() {
+        // fewer nodes than MAX_BATCH_OPS, but their paths alone exceed half of jute.maxbuffer
+        char[] padding = new char[700];
+        Arrays.fill(padding, 'x');
+        int count = MAX_BATCH_BYTES / padding.length + 100;
+        assertTrue(count < ZkRecursiveDelete.MAX_BATCH_OPS);
+        createChildren("/long", count, new String(padding));
+        List<int[]> progress = new ArrayList<int[]>();
+
+        assertTrue(_client.deleteRecursive("/long", recorder(progress)));
+        assertFalse(_client.exists("/long"));
+        assertTrue(_client.batches.size() >= 2);
+        for (List<String> batch : _client.batches) {
+            int bytes = 0;
+            for (String path : batch) {
+                bytes += path.getBytes(UTF_8).length;
+            }
+            assertTrue("batch of " + bytes + " bytes", bytes <= MAX_BATCH_BYTES);
+        }
+        assertProgress(progress, count + 1);
+    }
+
+    @Test
+    public void deletesBottomUp() {
+        for (String path : new String[]{"/t/a/a1/a11", "/t/a/a2", "/t/b/b1", "/t/c"}) {
+            _client.createPersistent(path, true);
+        }
+        assertTrue(_client.deleteRecursive("/t"));
+
+        List<String> deleted = new ArrayList<String>();
+        for (List<String> batch : _client.batches) {
+            deleted.addAll(batch);
+        }
+        assertEquals(8, deleted.size());
+        for (int i = 0; i < deleted.size(); i++) {
+            for (String later : deleted.subList(i + 1, deleted.size())) {
+                assertFalse(later + " deleted after its ancestor", later.startsWith(deleted.get(i) + "/"));
+            }
+        }
+    }
+
+    @Test
+    public void concurrentlyDeletedNodeFallsBackToSingleDeletes() {
+        createChildren("/gone", 10, "n");
+        _client.beforeFirstBatch = new Runnable() {
+
+            @Override
+            public void run() {
+                // rolls back the whole first multi with NoNode
+                _server.client().delete("/gone/n3");
+            }
+        };
+        List<int[]> progress = new ArrayList<int[]>();
+
+        assertTrue(_client.deleteRecursive("/gone", recorder(progress)));
+        assertFalse(_client.exists("/gone"));
+        assertProgress(progress, 11);
+    }
+
+    @Test
+    public void nodeCreatedMeanwhileStopsDeleting() {
+        createChildren("/busy", WIDE, "n");
+        _client.beforeFirstBatch = new Runnable() {
+
+            @Override
+            public void run() {
+                // the root is in the last batch, which now fails with NotEmpty
+                _server.client().createPersistent("/busy/new");
+            }
+        };
+        List<int[]> progress = new ArrayList<int[]>();
+
+        assertFalse(_client.deleteRecursive("/busy", recorder(progress)));
+        assertTrue(_client.exists("/busy/new"));
+        // the first batch stays deleted, the second one was rolled back
+        assertEquals(1, progress.size());
+        assertEquals(ZkRecursiveDelete.MAX_BATCH_OPS, progress.get(0)[0]);
+        assertEquals(WIDE + 1 - ZkRecursiveDelete.MAX_BATCH_OPS, _client.countChildren("/busy"));
+    }
+
+    private void createChildren(String parent, int count, String suffix) {
+        _client.createPersistent(parent, true);
+        List<Op> ops = new ArrayList<Op>();
+        for (int i = 0; i < count; i++) {
+            ops.add(Op.create(parent + "/" + i + suffix, null, Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT));
+            if (ops.size() == 200) {
+                _server.client().multi(ops);
+                ops.clear();
+            }
+        }
+        if (!ops.isEmpty()) {
+            _server.client().multi(ops);
+        }
+    }
+
+    private static IZkClient.ProgressListener recorder(final List<int[]> progress) {
+        return new IZkClient.ProgressListener() {
+
+            @Override
+            public void onProgress(int done, int total) {
+                progress.add(new int[]{done, total});
+            }
+        };
+    }
+
+    private static void assertProgress(List<int[]> progress, int total) {
+        assertTrue(progress.size() >= 1);
+        int last = 0;
+        for (int[] p : progress) {
+            assertTrue(p[0] > last);
+            assertEquals(total, p[1]);
+            last = p[0];
+        }
+        assertEquals(total, last);
+    }
+
+    /**
+     * records the paths of every multi delete batch
+     */
+    private static class RecordingClient extends ZkClient {
+
+        final List<List<String>> batches = new ArrayList<List<String>>();
+
+        Runnable beforeFirstBatch;
+
+        RecordingClient(String connectString) {
+            super(connectString, 10000);
+        }
+
+        @Override
+        public List<?> multi(Iterable<?> ops) {
+            if (beforeFirstBatch != null) {
+                Runnable hook = beforeFirstBatch;
+                beforeFirstBatch = null;
+                hook.run();
+            }
+            List<?> results = super.multi(ops);
+            List<String> batch = new ArrayList<String>();
+            for (Object op : ops) {
+                batch.add(((Op) op).getPath());
+            }
+            batches.add(batch);
+            return results;
+        }
+    }
+}
@@ -0,0 +1,139 @@
+/**
+ * Copyright 2010 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.zkclient;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ZkSignalTest {
+
+    private static final long TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+    private final ZkSignal _signal = new ZkSignal();
+
+    @Test
+    public void signalBeforeAwaitIsNotLost() throws InterruptedException {
+        long generation = _signal.generation();
+        // the signal arrives after the predicate was checked but before the waiter parked
+        _signal.signalAll();
+        long start = System.nanoTime();
+        assertTrue(_signal.await(generation, ZkSignal.deadline(TIMEOUT_NANOS)));
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1));
+    }
+
+    @Test
+    public void waiterSeesEveryStateChange() throws Exception {
+        final int rounds = 20000;
+        final AtomicInteger state = new AtomicInteger();
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        Thread waiter = new Thread() {
+
+            @Override
+            public void run() {
+                try {
+                    long deadline = ZkSignal.deadline(TIMEOUT_NANOS);
+                    int seen = 0;
+                    while (seen < rounds) {
+                        long generation = _signal.generation();
+                        int current = state.get();
+                        if (current > seen) {
+                            seen = current;
+                            continue;
+                        }
+                        if (!_signal.await(generation, deadline)) {
+                            throw new AssertionError("missed wakeup at " + seen);
+                        }
+                    }
+                } catch (Throwable e) {
+                    failure.set(e);
+                }
+            }
+        };
+        waiter.start();
+        for (int i = 1; i <= rounds; i++) {
+            state.set(i);
+            _signal.signalAll();
+            if (i % 100 == 0) {
+                Thread.yield();
+            }
+        }
+        waiter.join(TimeUnit.NANOSECONDS.toMillis(TIMEOUT_NANOS) + 1000);
+        assertFalse(waiter.isAlive());
+        assertNull(failure.get());
+    }
+
+    @Test
+    public void awaitTimesOutAtDeadline() throws InterruptedException {
+        long start = System.nanoTime();
+        assertFalse(_signal.await(_signal.generation(), ZkSignal.deadline(TimeUnit.MILLISECONDS.toNanos(50))));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50));
+        // a deadline which already passed returns at once
+        assertFalse(_signal.await(_signal.generation(), System.nanoTime() - 1));
+    }
+
+    @Test
+    public void hugeTimeoutDoesNotOverflow() {
+        long now = System.nanoTime();
+        assertTrue(ZkSignal.deadline(Long.MAX_VALUE) - now > 0);
+        assertTrue(ZkSignal.deadline(Integer.MAX_VALUE) - now > 0);
+    }
+
+    @Test
+    public void interruptAbortsAwait() throws Exception {
+        final AtomicReference<Throwable> thrown = new AtomicReference<Throwable>();
+        Thread waiter = new Thread() {
+
+            @Override
+            public void run() {
+                try {
+                    _signal.await(_signal.generation(), ZkSignal.deadline(TIMEOUT_NANOS));
+                } catch (Throwable e) {
+                    thrown.set(e);
+                }
+            }
+        };
+        waiter.start();
+        while (waiter.getState() != Thread.State.TIMED_WAITING) {
+            Thread.sleep(1);
+        }
+        waiter.interrupt();
+        waiter.join(TimeUnit.NANOSECONDS.toMillis(TIMEOUT_NANOS));
+        assertFalse(waiter.isAlive());
+        assertTrue(thrown.get() instanceof InterruptedException);
+    }
+
+    @Test
+    public void pendingInterruptAbortsAwait() {
+        Thread.currentThread().interrupt();
+        try {
+            _signal.await(_signal.generation(), ZkSignal.deadline(TIMEOUT_NANOS));
+            fail("interrupted");
+        } catch (InterruptedException expected) {
+            // the flag is consumed like Object.wait does
+            assertFalse(Thread.currentThread().isInterrupted());
+        }
+        assertEquals(0, _signal.generation());
+    }
+}
@@ -0,0 +1,119 @@
+/**
+ * Copyright 2010 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.zkclient;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ZkTreeCacheTest {
+
+    private EmbeddedZkServer _server;
+
+    private ZkMetrics _metrics;
+
+    private ZkClient _client;
+
+    private ZkTreeCache _cache;
+
+    @Before
+    public void setUp() throws IOException {
+        _server = EmbeddedZkServer.start();
+        _server.client().createPersistent("/t/a", true);
+        _metrics = new ZkMetrics();
+        _client = new ZkClient(new ZkConnection(_server.connectString(), IZkClient.DEFAULT_SESSION_TIMEOUT), 10000, _metrics);
+        _cache = new ZkTreeCache(_client, "/t");
+        _cache.start();
+        assertTrue(_cache.awaitInitialized(10, TimeUnit.SECONDS));
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        _cache.close();
+        _client.close();
+        _server.stop();
+    }
+
+    @Test
+    public void dataChangeCostsOneRead() throws InterruptedException {
+        long reads = _metrics.getCount(ZkMetrics.Op.READ);
+        long children = _metrics.getCount(ZkMetrics.Op.CHILDREN);
+        _server.client().writeData("/t/a", new byte[]{1});
+        awaitSynced("/t/a", 1);
+
+        assertTrue(Arrays.equals(new byte[]{1}, _cache.get("/t/a").getData()));
+        assertEquals(reads + 1, _metrics.getCount(ZkMetrics.Op.READ));
+        assertEquals(children, _metrics.getCount(ZkMetrics.Op.CHILDREN));
+        assertEquals(0, _metrics.getCount(ZkMetrics.Op.EXISTS));
+
+        // the read set the next watch
+        _server.client().writeData("/t/a", new byte[]{2});
+        awaitSynced("/t/a", 2);
+        assertEquals(reads + 2, _metrics.getCount(ZkMetrics.Op.READ));
+    }
+
+    @Test
+    public void childChangeCostsOneChildrenRead() throws InterruptedException {
+        long reads = _metrics.getCount(ZkMetrics.Op.READ);
+        long children = _metrics.getCount(ZkMetrics.Op.CHILDREN);
+        _server.client().createPersistent("/t/b");
+        awaitSynced("/t/b", 0);
+
+        // the children of /t, then data and children of the new node
+        assertEquals(children + 2, _metrics.getCount(ZkMetrics.Op.CHILDREN));
+        assertEquals(reads + 1, _metrics.getCount(ZkMetrics.Op.READ));
+        assertEquals(Arrays.asList("a", "b"), _cache.get("/t").getChildren());
+    }
+
+    @Test
+    public void deletedRootIsLoadedOnceCreatedAgain() throws InterruptedException {
+        _server.client().deleteRecursive("/t");
+        long deadline = System.currentTimeMillis() + 10000;
+        while (_cache.getLatest("/t") != null && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertNull(_cache.getLatest("/t"));
+        assertNull(_cache.getLatest("/t/a"));
+
+        _server.client().createPersistent("/t/c", true);
+        awaitSynced("/t/c", 0);
+        assertNotNull(_cache.get("/t"));
+    }
+
+    /**
+     * ZkClient records a read before the cache sees its result, so the read counts are final once this returns
+     */
+    private void awaitSynced(String path, int version) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (System.currentTimeMillis() < deadline) {
+            ZkTreeCache.Node node = _cache.get(path);
+            if (node != null && node.getStat().getVersion() == version && _cache.getPendingReads() == 0) {
+                return;
+            }
+            Thread.sleep(10);
+        }
+        throw new AssertionError(path + " not synced to version " + version);
+    }
+}
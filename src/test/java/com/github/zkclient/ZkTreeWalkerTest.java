@@ -0,0 +1,122 @@
+/**
+ * Copyright 2010 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.zkclient;
+
+import org.apache.zookeeper.data.Stat;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ZkTreeWalkerTest {
+
+    private EmbeddedZkServer _server;
+
+    private ZkClient _client;
+
+    @Before
+    public void setUp() throws IOException {
+        _server = EmbeddedZkServer.start();
+        _client = _server.client();
+        for (String parent : new String[]{"a", "b", "c"}) {
+            for (int i = 0; i < 3; i++) {
+                _client.createPersistent("/w/" + parent + "/" + parent + i, true);
+            }
+        }
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        _server.stop();
+    }
+
+    @Test
+    public void cappedFrontierKeepsBreadthFirstOrder() {
+        List<String> expected = walk(ZkTreeWalker.DEFAULT_MAX_BUFFERED_CHILDREN, 256, null);
+        assertEquals(Arrays.asList("/w", "/w/a", "/w/a/a0", "/w/a/a1", "/w/a/a2", "/w/b", "/w/b/b0", "/w/b/b1",
+                "/w/b/b2", "/w/c", "/w/c/c0", "/w/c/c1", "/w/c/c2"), sorted(expected));
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i), i == 0 ? 0 : i < 4 ? 1 : 2, depthOf(expected.get(i)));
+        }
+        // every level beyond the first is queued by path and listed again
+        assertEquals(expected, walk(1, 256, null));
+        assertEquals(expected, walk(1, 1, null));
+    }
+
+    @Test
+    public void relistedLevelSkipsDeletedParent() {
+        // b is queued by its path alone, its subtree is gone by the time the walk reaches it
+        List<String> visited = walk(1, 1, "/w/b");
+        assertEquals(Arrays.asList("/w", "/w/a", "/w/a/a0", "/w/a/a1", "/w/a/a2", "/w/b", "/w/c", "/w/c/c0",
+                "/w/c/c1", "/w/c/c2"), sorted(visited));
+    }
+
+    @Test
+    public void bufferedChildrenAreCountedFromTheRoot() {
+        final List<Integer> buffered = new ArrayList<Integer>();
+        final ZkTreeWalker[] walker = new ZkTreeWalker[1];
+        walker[0] = new ZkTreeWalker(_client, new IZkTreeVisitor() {
+
+            @Override
+            public boolean visit(String path, int depth, Stat stat, byte[] data, List<String> children) {
+                buffered.add(walker[0].getBufferedChildren());
+                return true;
+            }
+        }, 1, -1, false, 3);
+        walker[0].walk("/w");
+        // the root level is consumed before /w is visited, its three children fill the cap
+        assertEquals(0, (int) buffered.get(0));
+        // a level listed again when the walk reaches it may come on top of the cap, by its own width
+        for (int count : buffered) {
+            assertTrue("out of bounds: " + buffered, count >= 0 && count <= 3 + 3);
+        }
+        assertEquals(0, walker[0].getBufferedChildren());
+    }
+
+    private List<String> walk(int maxBufferedChildren, int maxInFlight, final String deleteOnFirstLeaf) {
+        final List<String> visited = new ArrayList<String>();
+        new ZkTreeWalker(_client, new IZkTreeVisitor() {
+
+            @Override
+            public boolean visit(String path, int depth, Stat stat, byte[] data, List<String> children) {
+                if (deleteOnFirstLeaf != null && depth == 2 && visited.size() == 4) {
+                    _client.deleteRecursive(deleteOnFirstLeaf);
+                }
+                visited.add(path);
+                return true;
+            }
+        }, maxInFlight, -1, false, maxBufferedChildren).walk("/w");
+        return visited;
+    }
+
+    private static List<String> sorted(List<String> paths) {
+        List<String> copy = new ArrayList<String>(paths);
+        Collections.sort(copy);
+        return copy;
+    }
+
+    private static int depthOf(String path) {
+        return path.split("/").length - 2;
+    }
+}
@@ -0,0 +1,171 @@
+package com.sung.zk.ui.server.zk.op;
+
+import com.github.zkclient.EmbeddedZkServer;
+import com.github.zkclient.ZkClient;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.servlet.http.HttpSession;
+import javax.servlet.http.HttpSessionBindingEvent;
+import javax.servlet.http.HttpSessionBindingListener;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 租约计数、每个集群的客户端上限、空闲回收以及会话失效时释放租约
+ */
+public class ZkClientRegistryTest {
+
+    private EmbeddedZkServer zk;
+    private String cxn;
+    private ZkClientRegistry registry;
+
+    @Before
+    public void setUp() throws IOException {
+        zk = EmbeddedZkServer.start();
+        cxn = zk.connectString();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        if (registry != null) {
+            registry.shutdown();
+        }
+        zk.stop();
+    }
+
+    @Test
+    public void lastReleaseClosesClient() {
+        registry = new ZkClientRegistry(2, 64, 0);
+        ZkClientRegistry.Lease first = registry.acquire(cxn);
+        ZkClientRegistry.Lease second = registry.acquire(cxn);
+        ZkClient client = first.getClient();
+        assertSame(client, second.getClient());
+        assertEquals(1, registry.getClientCount(cxn));
+
+        first.close();
+        // 重复关闭不会多减一次引用
+        first.close();
+        assertTrue(client.isConnected());
+        assertEquals(1, registry.getClientCount(cxn));
+
+        second.close();
+        assertFalse(client.isConnected());
+        assertEquals(0, registry.getClientCount(cxn));
+    }
+
+    @Test
+    public void sessionUnbindReleasesLease() {
+        registry = new ZkClientRegistry(2, 64, 0);
+        HttpSession session = session();
+        ZkClient client = ClientCacheManager.getClient(session, cxn, registry);
+        // 同一会话再次获取时复用租约
+        assertSame(client, ClientCacheManager.getClient(session, cxn, registry));
+        assertTrue(client.isConnected());
+
+        session.invalidate();
+        assertFalse(client.isConnected());
+        assertEquals(0, registry.getClientCount(cxn));
+    }
+
+    @Test
+    public void clientCountIsCapped() {
+        registry = new ZkClientRegistry(2, 1, 0);
+        List<ZkClientRegistry.Lease> leases = new ArrayList<ZkClientRegistry.Lease>();
+        leases.add(registry.acquire(cxn));
+        leases.add(registry.acquire(cxn));
+        assertEquals(2, registry.getClientCount(cxn));
+        assertNotSame(leases.get(0).getClient(), leases.get(1).getClient());
+
+        // 每个客户端都已满, 但不能再打开新的, 由引用最少的客户端分担
+        for (int i = 0; i < 4; i++) {
+            leases.add(registry.acquire(cxn));
+        }
+        assertEquals(2, registry.getClientCount(cxn));
+        int onFirst = 0;
+        for (ZkClientRegistry.Lease lease : leases) {
+            if (lease.getClient() == leases.get(0).getClient()) {
+                onFirst++;
+            }
+        }
+        assertEquals(3, onFirst);
+
+        for (ZkClientRegistry.Lease lease : leases) {
+            lease.close();
+        }
+        assertEquals(0, registry.getClientCount(cxn));
+    }
+
+    @Test
+    public void reaperEvictsIdleClient() throws InterruptedException {
+        registry = new ZkClientRegistry(2, 64, 100);
+        ZkClientRegistry.Lease lease = registry.acquire(cxn);
+        ZkClient client = lease.getClient();
+        lease.close();
+        // 空闲超时之前不回收
+        assertTrue(client.isConnected());
+        assertEquals(1, registry.getClientCount(cxn));
+        long deadline = System.currentTimeMillis() + 10000;
+        while (registry.getClientCount(cxn) > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        assertEquals(0, registry.getClientCount(cxn));
+        assertFalse(client.isConnected());
+    }
+
+    /**
+     * 只实现属性和 invalidate 的 HttpSession, 按 servlet 规范通知 HttpSessionBindingListener
+     */
+    private static HttpSession session() {
+        final Map<String, Object> attributes = new HashMap<String, Object>();
+        return (HttpSession) Proxy.newProxyInstance(ZkClientRegistryTest.class.getClassLoader(),
+                new Class<?>[]{HttpSession.class}, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        HttpSession session = (HttpSession) proxy;
+                        String name = method.getName();
+                        if (name.equals("getAttribute")) {
+                            return attributes.get(args[0]);
+                        }
+                        if (name.equals("setAttribute")) {
+                            attributes.put((String) args[0], args[1]);
+                            if (args[1] instanceof HttpSessionBindingListener) {
+                                ((HttpSessionBindingListener) args[1]).valueBound(
+                                        new HttpSessionBindingEvent(session, (String) args[0], args[1]));
+                            }
+                            return null;
+                        }
+                        if (name.equals("invalidate")) {
+                            for (Map.Entry<String, Object> entry : attributes.entrySet()) {
+                                if (entry.getValue() instanceof HttpSessionBindingListener) {
+                                    ((HttpSessionBindingListener) entry.getValue()).valueUnbound(
+                                            new HttpSessionBindingEvent(session, entry.getKey(), entry.getValue()));
+                                }
+                            }
+                            attributes.clear();
+                            return null;
+                        }
+                        if (name.equals("hashCode")) {
+                            return System.identityHashCode(proxy);
+                        }
+                        if (name.equals("equals")) {
+                            return proxy == args[0];
+                        }
+                        throw new UnsupportedOperationException(name);
+                    }
+                });
+    }
+}
@@ -0,0 +1,106 @@
+package com.sung.zk.ui.server.zk.op;
+
+import com.github.zkclient.EmbeddedZkServer;
+import com.github.zkclient.ZkClient;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * 缓存、订阅中心与复制通过注册表的租约使用客户端: 节点缓存随集群空闲丢弃, shutdown 释放所有租约
+ */
+public class ZkClusterServicesTest {
+
+    private EmbeddedZkServer zk;
+    private String cxn;
+    private ZkClientRegistry registry;
+    private ZkClusterServices services;
+
+    @Before
+    public void setUp() throws IOException {
+        zk = EmbeddedZkServer.start();
+        cxn = zk.connectString();
+        zk.client().createPersistent("/src/a", true);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        if (services != null) {
+            services.shutdown();
+        }
+        if (registry != null) {
+            registry.shutdown();
+        }
+        zk.stop();
+    }
+
+    @Test
+    public void reaperDropsIdleNodeCacheWithItsClient() throws InterruptedException {
+        registry = new ZkClientRegistry(2, 64, 100);
+        services = new ZkClusterServices(registry, null, 1024 * 1024, null);
+        ZkClientRegistry.Lease lease = registry.acquire(cxn);
+        ZkClient client = lease.getClient();
+        assertNotNull(services.getNodeCache(cxn));
+        // 节点缓存与会话共用同一个客户端
+        assertEquals(1, registry.getClientCount(cxn));
+
+        lease.close();
+        // 节点缓存仍持有租约, 空闲超时之前不回收
+        assertTrue(client.isConnected());
+        long deadline = System.currentTimeMillis() + 10000;
+        while (registry.getClientCount(cxn) > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        assertEquals(0, registry.getClientCount(cxn));
+        assertTrue(services.getNodeCaches().isEmpty());
+        assertFalse(client.isConnected());
+    }
+
+    @Test
+    public void shutdownReleasesEveryLease() {
+        registry = new ZkClientRegistry(2, 64, 0);
+        services = new ZkClusterServices(registry, "/", 1024 * 1024, "/src");
+        assertSame(services.getTreeCache(cxn), services.getTreeCache(cxn));
+        assertSame(services.getWatchHub(cxn), services.getWatchHub(cxn));
+        assertNotNull(services.getNodeCache(cxn));
+        assertNotNull(services.getSearchIndex(cxn));
+        ZkReplicator replicator = services.startReplication(cxn, "/src", cxn, "/dst");
+        // 同样的复制只运行一个
+        assertSame(replicator, services.startReplication(cxn, "/src", cxn, "/dst"));
+        assertEquals(1, services.getReplications().size());
+        assertEquals(1, registry.getClientCount(cxn));
+
+        services.shutdown();
+        assertEquals(ZkReplicator.State.STOPPED, replicator.getState());
+        assertTrue(services.getReplications().isEmpty());
+        assertTrue(services.getTreeCaches().isEmpty());
+        assertTrue(services.getWatchHubs().isEmpty());
+        assertTrue(services.getSearchIndexes().isEmpty());
+        // 空闲时间为 0, 最后一个租约释放时客户端即关闭
+        assertEquals(0, registry.getClientCount(cxn));
+    }
+
+    @Test
+    public void overlappingReplicationIsRejected() {
+        registry = new ZkClientRegistry(2, 64, 0);
+        services = new ZkClusterServices(registry, null, 0, null);
+        assertNull(services.getNodeCache(cxn));
+        try {
+            services.startReplication(cxn, "/src", cxn, "/src/a");
+            fail("a target below the source should be rejected");
+        } catch (IllegalArgumentException e) {
+            // 拒绝时不取租约
+            assertEquals(0, registry.getClientCount(cxn));
+        }
+    }
+}
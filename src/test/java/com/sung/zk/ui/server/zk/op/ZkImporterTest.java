@@ -0,0 +1,184 @@
+package com.sung.zk.ui.server.zk.op;
+
+import com.github.zkclient.EmbeddedZkServer;
+import com.github.zkclient.ZkClient;
+import com.github.zkclient.exception.ZkNodeExistsException;
+import com.sung.zk.ui.server.zk.entity.ZkImportResult;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+/**
+ * 导出后再导入, 在三种 {@link ZkImportPolicy} 下检查目标子树
+ */
+public class ZkImporterTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * 比 {@link ZkImporter#MAX_BATCH_OPS} 多, 同一层拆成多个批次
+     */
+    private static final int WIDE = ZkImporter.MAX_BATCH_OPS + 100;
+
+    private EmbeddedZkServer zk;
+    private ZkClient client;
+
+    @Before
+    public void setUp() throws IOException {
+        zk = EmbeddedZkServer.start();
+        client = zk.client();
+        write("/src", "root");
+        write("/src/a", "a");
+        write("/src/a/b", "b");
+        write("/src/a/b/c", "");
+        write("/src/d", "d");
+        for (int i = 0; i < WIDE; i++) {
+            write("/src/wide/n" + i, "n" + i);
+        }
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        zk.stop();
+    }
+
+    @Test
+    public void roundTripIntoEmptyTarget() throws IOException {
+        for (boolean gzip : new boolean[]{false, true}) {
+            for (ZkImportPolicy policy : ZkImportPolicy.values()) {
+                String target = "/dst/" + policy + "-" + gzip;
+                ZkImportResult result = importTo(target, export("/src", gzip), policy);
+                assertEquals(tree("/src"), tree(target));
+                assertEquals(tree("/src").size(), result.getRead());
+                assertEquals(result.getRead(), result.getCreated());
+                assertEquals(0, result.getUpdated());
+                assertEquals(0, result.getSkipped());
+            }
+        }
+    }
+
+    @Test
+    public void skipExistingKeepsExistingNodes() throws IOException {
+        write("/dst", "old root");
+        write("/dst/a/b", "old b");
+        write("/dst/wide/n7", "old n7");
+        ZkImportResult result = importTo("/dst", export("/src", true), ZkImportPolicy.SKIP_EXISTING);
+
+        Map<String, String> expected = tree("/src");
+        expected.put("", "old root");
+        expected.put("/a/b", "old b");
+        expected.put("/wide/n7", "old n7");
+        // 导入前缺少的父节点由 createPersistent 创建, 数据为空
+        expected.put("/a", "");
+        expected.put("/wide", "");
+        assertEquals(expected, tree("/dst"));
+        assertEquals(5, result.getSkipped());
+        assertEquals(result.getRead() - 5, result.getCreated());
+        assertEquals(0, result.getUpdated());
+    }
+
+    @Test
+    public void overwriteReplacesData() throws IOException {
+        write("/dst", "old root");
+        write("/dst/a/b", "old b");
+        write("/dst/wide/n7", "old n7");
+        write("/dst/extra", "kept");
+        ZkImportResult result = importTo("/dst", export("/src", false), ZkImportPolicy.OVERWRITE);
+
+        Map<String, String> expected = tree("/src");
+        // 导入不删除目标中多出的节点
+        expected.put("/extra", "kept");
+        assertEquals(expected, tree("/dst"));
+        assertEquals(5, result.getUpdated());
+        assertEquals(result.getRead() - 5, result.getCreated());
+        assertEquals(0, result.getSkipped());
+    }
+
+    @Test
+    public void failFastStopsAtExistingNode() throws IOException {
+        write("/dst/a/b", "old b");
+        try {
+            importTo("/dst", export("/src", false), ZkImportPolicy.FAIL_FAST);
+            fail("import into an existing node should fail");
+        } catch (ZkNodeExistsException e) {
+            assertEquals("old b", read("/dst/a/b"));
+            // 冲突所在的层之后的节点不会写入
+            assertFalse(client.exists("/dst/a/b/c"));
+        }
+    }
+
+    @Test
+    public void failFastAcceptsExistingRoot() throws IOException {
+        write("/dst", "old root");
+        ZkImportResult result = importTo("/dst", export("/src", false), ZkImportPolicy.FAIL_FAST);
+        Map<String, String> expected = tree("/src");
+        expected.put("", "old root");
+        assertEquals(expected, tree("/dst"));
+        assertEquals(1, result.getSkipped());
+    }
+
+    private byte[] export(String root, boolean gzip) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ZkExporter.export(client, root, out, gzip);
+        return out.toByteArray();
+    }
+
+    private ZkImportResult importTo(String target, byte[] exported, ZkImportPolicy policy) throws IOException {
+        ZkExportFormat.Reader reader = new ZkExportFormat.Reader(new ByteArrayInputStream(exported));
+        try {
+            return ZkImporter.load(client, target, reader, policy, 4, null);
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * @return 相对于 root 的路径 (root 为空串) -> 数据
+     */
+    private Map<String, String> tree(String root) {
+        Map<String, String> nodes = new TreeMap<String, String>();
+        collect(root, "", nodes);
+        return nodes;
+    }
+
+    private void collect(String root, String relative, Map<String, String> nodes) {
+        String path = root + relative;
+        String data = read(path);
+        nodes.put(relative, data == null ? "" : data);
+        List<String> children = client.getChildren(path);
+        Collections.sort(children);
+        for (String child : children) {
+            collect(root, relative + "/" + child, nodes);
+        }
+    }
+
+    /**
+     * 创建节点 (含缺少的父节点), 已存在时覆盖数据
+     */
+    private void write(String path, String data) {
+        byte[] bytes = data == null ? null : data.getBytes(UTF_8);
+        if (zk.client().exists(path)) {
+            zk.client().writeData(path, bytes);
+        } else {
+            zk.client().createPersistent(path, bytes, true);
+        }
+    }
+
+    private String read(String path) {
+        byte[] data = zk.client().readData(path);
+        return data == null ? null : new String(data, UTF_8);
+    }
+}
@@ -0,0 +1,202 @@
+package com.sung.zk.ui.server.zk.op;
+
+import com.github.zkclient.EmbeddedZkServer;
+import com.github.zkclient.ZkClient;
+import com.github.zkclient.ZkTreeCache;
+import com.sung.zk.ui.server.zk.entity.ZkDiffResult;
+import org.apache.zookeeper.data.Stat;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * {@link ZkMerkleTree#diff} 的 added / removed / changed, 以及两种构建方式结果一致
+ */
+public class ZkMerkleTreeTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final int LIMIT = 100;
+
+    private EmbeddedZkServer zk;
+    private ZkClient client;
+
+    @Before
+    public void setUp() throws IOException {
+        zk = EmbeddedZkServer.start();
+        client = zk.client();
+        for (String root : new String[]{"/left", "/right"}) {
+            write(root, "root");
+            write(root + "/a", "a");
+            write(root + "/a/b", "b");
+            write(root + "/a/b/c", "c");
+            write(root + "/z", "z");
+        }
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        zk.stop();
+    }
+
+    @Test
+    public void identicalSubtrees() {
+        ZkDiffResult result = diff("/left", "/right");
+        assertEquals(5, result.getLeftNodes());
+        assertEquals(5, result.getRightNodes());
+        // 根的摘要相同, 不再向下比较
+        assertEquals(1, result.getCompared());
+        assertNoDifference(result);
+    }
+
+    @Test
+    public void addedRemovedAndChanged() {
+        write("/right/a/b", "b2");
+        write("/right/a/new", "new");
+        write("/right/a/new/child", "child");
+        client.deleteRecursive("/right/z");
+
+        ZkDiffResult result = diff("/left", "/right");
+        assertEquals(Arrays.asList("/a/new", "/a/new/child"), result.getAdded());
+        assertEquals(Collections.singletonList("/z"), result.getRemoved());
+        assertEquals(Collections.singletonList("/a/b"), result.getChanged());
+        assertEquals(2, result.getAddedCount());
+        assertEquals(1, result.getRemovedCount());
+        assertEquals(1, result.getChangedCount());
+
+        // 反向比较时 added 与 removed 互换
+        ZkDiffResult reverse = diff("/right", "/left");
+        assertEquals(result.getAdded(), reverse.getRemoved());
+        assertEquals(result.getRemoved(), reverse.getAdded());
+        assertEquals(result.getChanged(), reverse.getChanged());
+    }
+
+    @Test
+    public void rootDataChanged() {
+        write("/right", "other root");
+        ZkDiffResult result = diff("/left", "/right");
+        assertEquals(Collections.singletonList("/"), result.getChanged());
+        assertTrue(result.getAdded().isEmpty());
+        assertTrue(result.getRemoved().isEmpty());
+    }
+
+    @Test
+    public void missingRoot() {
+        ZkDiffResult result = diff("/left", "/missing");
+        assertEquals(0, result.getRightNodes());
+        assertEquals(5, result.getRemovedCount());
+        assertEquals("/", result.getRemoved().get(0));
+        assertTrue(result.getAdded().isEmpty());
+    }
+
+    @Test
+    public void limitOnlyCounts() {
+        for (int i = 0; i < 10; i++) {
+            write("/right/added" + i, "x");
+        }
+        ZkDiffResult result = ZkMerkleTree.diff(ZkMerkleTree.build(client, "/left"),
+                ZkMerkleTree.build(client, "/right"), 3, 0);
+        assertEquals(3, result.getAdded().size());
+        assertEquals(10, result.getAddedCount());
+    }
+
+    @Test
+    public void detectsChangesAfterCachedHashes() {
+        assertNoDifference(diff("/left", "/right"));
+        // 数据摘要按 (czxid, mzxid) 缓存, 修改或删除后重建的节点必须重新读取
+        write("/right/a/b/c", "c2");
+        client.delete("/right/z");
+        write("/right/z", "z2");
+        ZkDiffResult result = diff("/left", "/right");
+        assertEquals(Arrays.asList("/a/b/c", "/z"), result.getChanged());
+        write("/right/a/b/c", "c");
+        write("/right/z", "z");
+        assertNoDifference(diff("/left", "/right"));
+    }
+
+    @Test
+    public void cacheAndWalkAgree() throws IOException {
+        write("/right/a/b", "b2");
+        write("/right/a/new", "new");
+        ZkTreeCache cache = new ZkTreeCache(client, "/right");
+        try {
+            cache.start();
+            assertTrue(cache.awaitInitialized(10, TimeUnit.SECONDS));
+            ZkMerkleTree cached = ZkMerkleTree.build(cache, "/right");
+            assertNotNull(cached);
+            ZkDiffResult same = ZkMerkleTree.diff(cached, ZkMerkleTree.build(client, "/right"), LIMIT, 0);
+            assertTrue(same.isLeftCached());
+            assertFalse(same.isRightCached());
+            assertNoDifference(same);
+
+            ZkDiffResult result = ZkMerkleTree.diff(ZkMerkleTree.build(client, "/left"), cached, LIMIT, 0);
+            assertEquals(Collections.singletonList("/a/new"), result.getAdded());
+            assertEquals(Collections.singletonList("/a/b"), result.getChanged());
+        } finally {
+            cache.close();
+        }
+    }
+
+    @Test
+    public void contentHashesHoldEveryNodeOfAWalk() {
+        // 按顺序访问 5 个节点, 初始容量只有 2 时同样不能在下一次遍历之前被淘汰
+        ZkMerkleTree.ContentHashes hashes = new ZkMerkleTree.ContentHashes(2);
+        Stat stat = new Stat();
+        for (int pass = 0; pass < 2; pass++) {
+            for (int i = 0; i < 5; i++) {
+                byte[] hash = hashes.visit("/n" + i, stat);
+                if (pass == 0) {
+                    assertNull(hash);
+                    hashes.put("/n" + i, stat, new byte[]{(byte) i});
+                } else {
+                    assertNotNull("/n" + i + " evicted", hash);
+                }
+            }
+            hashes.finished(5);
+        }
+        assertEquals(5, hashes.capacity());
+
+        // 之后不相关的新路径淘汰的是最久未用的旧路径
+        hashes.visit("/other", stat);
+        hashes.put("/other", stat, new byte[0]);
+        hashes.finished(1);
+        assertNull(hashes.get("/n0", stat));
+        assertNotNull(hashes.get("/n4", stat));
+    }
+
+    private ZkDiffResult diff(String left, String right) {
+        return ZkMerkleTree.diff(ZkMerkleTree.build(client, left), ZkMerkleTree.build(client, right), LIMIT, 0);
+    }
+
+    private static void assertNoDifference(ZkDiffResult result) {
+        List<String> none = Collections.emptyList();
+        assertEquals(none, result.getAdded());
+        assertEquals(none, result.getRemoved());
+        assertEquals(none, result.getChanged());
+    }
+
+    /**
+     * 创建节点 (含缺少的父节点), 已存在时覆盖数据
+     */
+    private void write(String path, String data) {
+        byte[] bytes = data == null ? null : data.getBytes(UTF_8);
+        if (zk.client().exists(path)) {
+            zk.client().writeData(path, bytes);
+        } else {
+            zk.client().createPersistent(path, bytes, true);
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package com.sung.zk.ui.server.zk.op;
+
+import com.github.zkclient.EmbeddedZkServer;
+import com.github.zkclient.ZkClient;
+import com.github.zkclient.exception.ZkNoNodeException;
+import org.apache.zookeeper.data.Stat;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Collections;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * 命中, watch 失效, 按字节淘汰, 以及 watcher 数不随反复淘汰与读取增长
+ */
+public class ZkNodeCacheTest {
+
+    private static final long TIMEOUT_MS = 10000;
+
+    /**
+     * 20 字节数据的缓存项约 230 字节, 能放下 4 个
+     */
+    private static final long MAX_BYTES = 1000;
+
+    private static final byte[] DATA = new byte[20];
+
+    private EmbeddedZkServer zk;
+    private ZkClient client;
+    private ZkNodeCache cache;
+
+    @Before
+    public void setUp() throws IOException {
+        zk = EmbeddedZkServer.start();
+        for (int i = 0; i < 6; i++) {
+            zk.client().createPersistent("/e" + i, DATA);
+        }
+        client = zk.newClient();
+        cache = new ZkNodeCache(client, MAX_BYTES);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        client.close();
+        zk.stop();
+    }
+
+    @Test
+    public void hitAfterMiss() throws InterruptedException {
+        Stat stat = new Stat();
+        assertArrayEquals(DATA, cache.readData("/e0", stat));
+        awaitEntries(1);
+        Stat cached = new Stat();
+        assertArrayEquals(DATA, cache.readData("/e0", cached));
+        assertEquals(stat, cached);
+        assertEquals(Collections.emptyList(), cache.getChildren("/e0", null));
+        awaitEntries(2);
+        cache.getChildren("/e0", null);
+        assertEquals(2, cache.getMisses());
+        assertEquals(2, cache.getHits());
+    }
+
+    @Test
+    public void writeInvalidatesTheEntry() throws InterruptedException {
+        cache.readData("/e0", null);
+        cache.getChildren("/e0", null);
+        awaitEntries(2);
+
+        zk.client().writeData("/e0", new byte[]{1});
+        awaitEntries(1);
+        assertArrayEquals(new byte[]{1}, cache.readData("/e0", null));
+        awaitEntries(2);
+
+        zk.client().createPersistent("/e0/c");
+        awaitEntries(1);
+        assertEquals(Collections.singletonList("c"), cache.getChildren("/e0", null));
+        assertEquals(2, cache.getInvalidations());
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedOverMaxBytes() throws InterruptedException {
+        for (int i = 0; i < 4; i++) {
+            cache.readData("/e" + i, null);
+            awaitEntries(i + 1);
+        }
+        // e0 再次使用, e1 成为最久未用的
+        cache.readData("/e0", null);
+        cache.readData("/e4", null);
+        awaitEvictions(1);
+        assertEquals(4, cache.getEntryCount());
+        assertTrue(cache.getBytes() <= MAX_BYTES);
+
+        long misses = cache.getMisses();
+        cache.readData("/e0", null);
+        assertEquals(misses, cache.getMisses());
+        cache.readData("/e1", null);
+        assertEquals(misses + 1, cache.getMisses());
+    }
+
+    @Test
+    public void watcherCountStaysStable() throws InterruptedException {
+        for (int round = 0; round < 5; round++) {
+            for (int i = 0; i < 6; i++) {
+                cache.readData("/e" + i, null);
+            }
+            awaitEvictions(2 + 6 * round);
+        }
+        // 6 个 key 互相淘汰, 每个 key 仍只有一个 watcher
+        assertEquals(6, cache.getWatcherCount());
+
+        for (int i = 0; i < 5; i++) {
+            try {
+                cache.readData("/missing", null);
+                fail();
+            } catch (ZkNoNodeException e) {
+                // 节点不存在
+            }
+            assertNull(cache.getChildren("/missing", null));
+        }
+        // 读取不存在的节点没有留下 watch
+        awaitWatchers(6);
+    }
+
+    @Test
+    public void disconnectInvalidatesButKeepsTheWatchers() throws InterruptedException {
+        cache.readData("/e0", null);
+        cache.getChildren("/e0", null);
+        awaitEntries(2);
+
+        zk.restart();
+        awaitEntries(0);
+        // 重连后 watch 由客户端重新设置, 再次读取复用原来的 watcher
+        cache.readData("/e0", null);
+        cache.getChildren("/e0", null);
+        awaitEntries(2);
+        assertEquals(2, cache.getWatcherCount());
+
+        zk.client().writeData("/e0", new byte[]{2});
+        awaitEntries(1);
+        assertArrayEquals(new byte[]{2}, cache.readData("/e0", null));
+    }
+
+    /**
+     * 结果在读取返回之后才放入缓存
+     */
+    private void awaitEntries(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (cache.getEntryCount() != count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(count, cache.getEntryCount());
+    }
+
+    private void awaitEvictions(long count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (cache.getEvictions() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(cache.getEvictions() >= count);
+    }
+
+    private void awaitWatchers(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (cache.getWatcherCount() != count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(count, cache.getWatcherCount());
+    }
+}
@@ -0,0 +1,241 @@
+package com.sung.zk.ui.server.zk.op;
+
+import com.github.zkclient.EmbeddedZkServer;
+import com.github.zkclient.ZkClient;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 在同一个内嵌服务器上把 /src 复制到 /dst: 全量复制, 复制中的修改, 删除与重建, 目标端已有节点时的冲突,
+ * 以及一直写不进去的节点按加倍的间隔重试后放弃
+ */
+public class ZkReplicatorTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final long TIMEOUT_MS = 10000;
+
+    /**
+     * 第一次重试前的等待, 放弃前共等待 1 + 2 + 4 + 8 倍
+     */
+    private static final long RETRY_MILLIS = 50;
+
+    private EmbeddedZkServer zk;
+    private ZkClient source;
+    private ZkClient target;
+    private ZkReplicator replicator;
+
+    @Before
+    public void setUp() throws IOException {
+        zk = EmbeddedZkServer.start();
+        write("/src", "root");
+        write("/src/a", "a");
+        write("/src/a/b", "b");
+        write("/src/d", "d");
+        source = zk.newClient();
+        target = zk.newClient();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        if (replicator != null) {
+            replicator.stop();
+        }
+        source.close();
+        target.close();
+        zk.stop();
+    }
+
+    @Test
+    public void initialCopyMirrorsTheSubtree() throws InterruptedException {
+        zk.client().createEphemeral("/src/ephemeral", "e".getBytes(UTF_8));
+        start();
+        awaitState(ZkReplicator.State.STREAMING);
+
+        Map<String, String> expected = tree("/src");
+        // 临时节点不复制
+        expected.remove("/ephemeral");
+        assertEquals(expected, tree("/dst"));
+        assertEquals(4, replicator.getCreates());
+        assertEquals(0, replicator.getUpdates());
+        assertEquals(0, replicator.getConflicts());
+        assertEquals(0, replicator.getPending());
+        assertTrue(replicator.getInitialCopyMillis() >= 0);
+        assertFalse(replicator.isOutOfSync());
+    }
+
+    @Test
+    public void streamingAppliesUpdateDeleteAndRecreate() throws InterruptedException {
+        start();
+        awaitState(ZkReplicator.State.STREAMING);
+
+        // 已复制的节点直接 setData
+        write("/src/a", "a2");
+        awaitCount("updates", 1);
+        assertEquals("a2", read("/dst/a"));
+        assertEquals(4, replicator.getCreates());
+
+        zk.client().delete("/src/a/b");
+        awaitCount("deletes", 1);
+        assertFalse(zk.client().exists("/dst/a/b"));
+
+        // 删除后不再视为已复制, 重建时直接 create
+        write("/src/a/b", "b2");
+        awaitCount("creates", 5);
+        assertEquals("b2", read("/dst/a/b"));
+        assertEquals(tree("/src"), tree("/dst"));
+        assertEquals(0, replicator.getConflicts());
+        assertEquals(0, replicator.getErrors());
+    }
+
+    @Test
+    public void existingTargetNodeIsOverwritten() throws InterruptedException {
+        write("/dst/a", "old a");
+        write("/dst/extra", "kept");
+        start();
+        awaitState(ZkReplicator.State.STREAMING);
+
+        Map<String, String> expected = tree("/src");
+        // 目标端原有而源端没有的节点不删除
+        expected.put("/extra", "kept");
+        assertEquals(expected, tree("/dst"));
+        // create 遇到已有节点整批回滚, 按 exists 结果改为 setData
+        assertTrue(replicator.getConflicts() >= 1);
+        assertTrue(replicator.getUpdates() >= 1);
+        assertEquals(0, replicator.getErrors());
+        assertFalse(replicator.isOutOfSync());
+
+        // 冲突后该节点已记为复制过, 再次修改不再冲突
+        long conflicts = replicator.getConflicts();
+        write("/src/a", "a2");
+        awaitCount("updates", replicator.getUpdates() + 1);
+        assertEquals("a2", read("/dst/a"));
+        assertEquals(conflicts, replicator.getConflicts());
+    }
+
+    @Test
+    public void failingWriteIsRetriedThenGivenUp() throws InterruptedException {
+        // 临时节点下不能创建子节点, /dst/a/b 每次写入都会失败
+        ZkClient owner = zk.newClient();
+        try {
+            write("/dst", "old root");
+            owner.createEphemeral("/dst/a", "old a".getBytes(UTF_8));
+            long started = System.currentTimeMillis();
+            start();
+
+            long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+            int retrying = 0;
+            while (retrying == 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(1);
+                retrying = replicator.getRetrying();
+            }
+            assertEquals(1, retrying);
+            // 有变化等待重试时全量复制不算完成
+            assertEquals(ZkReplicator.State.COPYING, replicator.getState());
+            assertFalse(replicator.isOutOfSync());
+
+            deadline = System.currentTimeMillis() + TIMEOUT_MS;
+            while (!replicator.isOutOfSync() && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertTrue(replicator.isOutOfSync());
+            assertTrue(System.currentTimeMillis() - started >= RETRY_MILLIS * (1 + 2 + 4 + 8));
+            assertEquals(1, replicator.getErrors());
+            // 每次写入都先整批失败
+            assertTrue(replicator.getConflicts() >= ZkReplicator.MAX_ATTEMPTS);
+            awaitState(ZkReplicator.State.STREAMING);
+            assertEquals(0, replicator.getRetrying());
+
+            // 逐个写入时同批的其他节点照常写入
+            assertEquals("root", read("/dst"));
+            assertEquals("a", read("/dst/a"));
+            assertEquals("d", read("/dst/d"));
+            assertFalse(zk.client().exists("/dst/a/b"));
+        } finally {
+            owner.close();
+        }
+    }
+
+    private void start() {
+        replicator = new ZkReplicator("source", source, "/src", "target", target, "/dst", RETRY_MILLIS);
+        replicator.start();
+    }
+
+    private void awaitState(ZkReplicator.State state) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (replicator.getState() != state && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(state, replicator.getState());
+    }
+
+    /**
+     * 计数在 multi 返回之后才增加, 等到计数再检查目标端
+     */
+    private void awaitCount(String counter, long count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (count(counter) < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(counter, count, count(counter));
+    }
+
+    private long count(String counter) {
+        if ("creates".equals(counter)) {
+            return replicator.getCreates();
+        }
+        if ("updates".equals(counter)) {
+            return replicator.getUpdates();
+        }
+        return replicator.getDeletes();
+    }
+
+    /**
+     * @return 相对于 root 的路径 (root 为空串) -> 数据
+     */
+    private Map<String, String> tree(String root) {
+        Map<String, String> nodes = new TreeMap<String, String>();
+        collect(root, "", nodes);
+        return nodes;
+    }
+
+    private void collect(String root, String relative, Map<String, String> nodes) {
+        String path = root + relative;
+        String data = read(path);
+        nodes.put(relative, data == null ? "" : data);
+        List<String> children = zk.client().getChildren(path);
+        Collections.sort(children);
+        for (String child : children) {
+            collect(root, relative + "/" + child, nodes);
+        }
+    }
+
+    /**
+     * 创建节点 (含缺少的父节点), 已存在时覆盖数据
+     */
+    private void write(String path, String data) {
+        byte[] bytes = data == null ? null : data.getBytes(UTF_8);
+        if (zk.client().exists(path)) {
+            zk.client().writeData(path, bytes);
+        } else {
+            zk.client().createPersistent(path, bytes, true);
+        }
+    }
+
+    private String read(String path) {
+        byte[] data = zk.client().readData(path);
+        return data == null ? null : new String(data, UTF_8);
+    }
+}
@@ -0,0 +1,148 @@
+package com.sung.zk.ui.server.zk.op;
+
+import com.github.zkclient.EmbeddedZkServer;
+import com.github.zkclient.ZkTreeCache;
+import com.sung.zk.ui.server.zk.entity.ZkSearchResult;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * prefix / glob / substring 查询, 以及索引随 watch 通知更新
+ */
+public class ZkSearchIndexTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final int LIMIT = 100;
+
+    private EmbeddedZkServer zk;
+    private ZkTreeCache cache;
+    private ZkSearchIndex index;
+
+    @Before
+    public void setUp() throws IOException {
+        zk = EmbeddedZkServer.start();
+        write("/app", "");
+        write("/app/server1", "host=alpha.example port=8080");
+        write("/app/server1/conf", "timeout=30");
+        write("/app/server2", "host=beta.example port=8081");
+        write("/app/client", "connects to Alpha");
+        zk.client().createPersistent("/app/bin", new byte[]{0, 1, 2, 'a', 'l', 'p', 'h', 'a'});
+        write("/other", "alpha outside the index root");
+
+        cache = new ZkTreeCache(zk.client(), "/app");
+        index = new ZkSearchIndex(cache);
+        index.start();
+        cache.start();
+        assertTrue(cache.awaitInitialized(10, TimeUnit.SECONDS));
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        index.close();
+        cache.close();
+        zk.stop();
+    }
+
+    @Test
+    public void prefix() {
+        assertEquals(Arrays.asList("/app/server1", "/app/server1/conf", "/app/server2"),
+                search(ZkSearchType.PREFIX, "/app/ser"));
+        assertEquals(Arrays.asList("/app/server1", "/app/server1/conf"),
+                search(ZkSearchType.PREFIX, "/app/server1"));
+        assertEquals(Collections.singletonList("/app/server1/conf"), search(ZkSearchType.PREFIX, "/app/server1/"));
+        // 没有开头的 / 时按绝对路径处理
+        assertEquals(Collections.singletonList("/app/client"), search(ZkSearchType.PREFIX, "app/cl"));
+        assertEquals(Collections.<String>emptyList(), search(ZkSearchType.PREFIX, "/app/x"));
+        assertEquals(Collections.<String>emptyList(), search(ZkSearchType.PREFIX, "/other"));
+    }
+
+    @Test
+    public void glob() {
+        assertEquals(Arrays.asList("/app/server1", "/app/server2"), search(ZkSearchType.GLOB, "/app/server?"));
+        assertEquals(Arrays.asList("/app/client", "/app/server1", "/app/server2"),
+                search(ZkSearchType.GLOB, "/app/*e*"));
+        assertEquals(Collections.singletonList("/app/server1/conf"), search(ZkSearchType.GLOB, "/app/*/conf"));
+        // 不以 / 开头时匹配任意深度
+        assertEquals(Collections.singletonList("/app/server1/conf"), search(ZkSearchType.GLOB, "conf"));
+        assertEquals(Arrays.asList("/app", "/app/bin", "/app/client", "/app/server1", "/app/server1/conf",
+                "/app/server2"), search(ZkSearchType.GLOB, "/app/**"));
+        assertEquals(Collections.<String>emptyList(), search(ZkSearchType.GLOB, "/app/server"));
+    }
+
+    @Test
+    public void substring() {
+        // 不区分大小写, 二进制数据与索引根之外的节点不参与
+        assertEquals(Arrays.asList("/app/client", "/app/server1"), search(ZkSearchType.SUBSTRING, "ALPHA"));
+        // 跨越词边界, 以及词的中间部分
+        assertEquals(Arrays.asList("/app/server1", "/app/server2"), search(ZkSearchType.SUBSTRING, "xample port=80"));
+        assertEquals(Collections.singletonList("/app/server1/conf"), search(ZkSearchType.SUBSTRING, "meout"));
+        assertEquals(Collections.<String>emptyList(), search(ZkSearchType.SUBSTRING, "gamma"));
+    }
+
+    @Test
+    public void limitTruncates() {
+        ZkSearchResult result = index.search(ZkSearchType.PREFIX, "/app/", 2);
+        assertEquals(2, result.getHits().size());
+        assertTrue(result.isTruncated());
+        assertTrue(result.isInitialized());
+        assertFalse(index.search(ZkSearchType.PREFIX, "/app/", 5).isTruncated());
+    }
+
+    @Test
+    public void followsChanges() throws InterruptedException {
+        write("/app/server3", "host=gamma.example");
+        write("/app/client", "connects to gamma");
+        zk.client().delete("/app/server2");
+
+        List<String> expected = Arrays.asList("/app/client", "/app/server3");
+        long deadline = System.currentTimeMillis() + 10000;
+        while (!expected.equals(search(ZkSearchType.SUBSTRING, "gamma")) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertEquals(expected, search(ZkSearchType.SUBSTRING, "gamma"));
+        assertEquals(Collections.singletonList("/app/server1"), search(ZkSearchType.SUBSTRING, "alpha"));
+        while (!search(ZkSearchType.PREFIX, "/app/server2").isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertEquals(Arrays.asList("/app/server1", "/app/server1/conf", "/app/server3"),
+                search(ZkSearchType.PREFIX, "/app/server"));
+    }
+
+    /**
+     * @return 排序后的路径
+     */
+    private List<String> search(ZkSearchType type, String query) {
+        List<String> paths = new ArrayList<String>();
+        for (ZkSearchResult.Hit hit : index.search(type, query, LIMIT).getHits()) {
+            paths.add(hit.getPath());
+        }
+        Collections.sort(paths);
+        return paths;
+    }
+
+    /**
+     * 创建节点 (含缺少的父节点), 已存在时覆盖数据
+     */
+    private void write(String path, String data) {
+        byte[] bytes = data == null ? null : data.getBytes(UTF_8);
+        if (zk.client().exists(path)) {
+            zk.client().writeData(path, bytes);
+        } else {
+            zk.client().createPersistent(path, bytes, true);
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package com.sung.zk.ui.server.zk.op;
+
+import com.github.zkclient.EmbeddedZkServer;
+import com.github.zkclient.IZkDataListener;
+import com.github.zkclient.ZkClient;
+import com.github.zkclient.ZkSubscription;
+import com.sung.zk.ui.server.zk.entity.ZkNodeEvent;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 同一路径的订阅共用监听器, 以及注册监听器时不持有 hub 的锁
+ */
+public class ZkWatchHubTest {
+
+    private static final long TIMEOUT_MS = 10000;
+
+    private EmbeddedZkServer zk;
+    private SlowClient client;
+    private ZkWatchHub hub;
+
+    @Before
+    public void setUp() throws IOException {
+        zk = EmbeddedZkServer.start();
+        zk.client().createPersistent("/fast", true);
+        zk.client().createPersistent("/slow", true);
+        client = new SlowClient(zk.connectString());
+        hub = new ZkWatchHub(client);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        client.release.countDown();
+        hub.close();
+        client.close();
+        zk.stop();
+    }
+
+    @Test
+    public void subscribersOfOnePathShareTheListeners() throws InterruptedException {
+        Recorder first = new Recorder();
+        Recorder second = new Recorder();
+        hub.subscribe("/fast", first);
+        hub.subscribe("/fast", second);
+        assertEquals(1, hub.getPathCount());
+        assertEquals(2, hub.getSubscriberCount());
+
+        zk.client().writeData("/fast", new byte[]{'x'});
+        first.await("data");
+        second.await("data");
+        assertEquals(1, hub.getEvents());
+
+        hub.unsubscribe("/fast", first);
+        assertEquals(1, hub.getPathCount());
+        hub.unsubscribe("/fast", second);
+        assertEquals(0, hub.getPathCount());
+    }
+
+    @Test
+    public void slowSubscribeDoesNotBlockOtherPaths() throws InterruptedException {
+        final Recorder slow = new Recorder();
+        Thread opener = subscribeInBackground("/slow", slow);
+        assertTrue(client.blocked.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+
+        // /slow 的注册仍在进行, 其他路径的订阅, 退订与统计都不等待它
+        Recorder fast = new Recorder();
+        hub.subscribe("/fast", fast);
+        assertEquals(2, hub.getPathCount());
+        hub.unsubscribe("/fast", fast);
+        assertEquals(1, hub.getPathCount());
+
+        // 同一路径的第二个订阅者等到监听器注册完成才返回
+        Recorder waiting = new Recorder();
+        Thread second = subscribeInBackground("/slow", waiting);
+        second.join(200);
+        assertTrue(second.isAlive());
+
+        client.release.countDown();
+        opener.join(TIMEOUT_MS);
+        second.join(TIMEOUT_MS);
+        assertFalse(second.isAlive());
+        zk.client().writeData("/slow", new byte[]{'x'});
+        slow.await("data");
+        waiting.await("data");
+    }
+
+    @Test
+    public void unsubscribeWhileRegisteringDropsTheListeners() throws InterruptedException {
+        Recorder slow = new Recorder();
+        Thread opener = subscribeInBackground("/slow", slow);
+        assertTrue(client.blocked.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        hub.unsubscribe("/slow", slow);
+        assertEquals(0, hub.getPathCount());
+
+        client.release.countDown();
+        opener.join(TIMEOUT_MS);
+        // 注册完成后发现已退订, 立即注销, 之后的变化不再推送
+        Recorder fast = new Recorder();
+        hub.subscribe("/fast", fast);
+        zk.client().writeData("/slow", new byte[]{'x'});
+        zk.client().writeData("/fast", new byte[]{'x'});
+        fast.await("data");
+        assertEquals(Collections.emptyList(), slow.types());
+        assertEquals(1, hub.getEvents());
+    }
+
+    private Thread subscribeInBackground(final String path, final Recorder subscriber) {
+        Thread thread = new Thread() {
+            @Override
+            public void run() {
+                hub.subscribe(path, subscriber);
+            }
+        };
+        thread.start();
+        return thread;
+    }
+
+    /**
+     * 注册 /slow 的 data 监听器时等待 release
+     */
+    private static class SlowClient extends ZkClient {
+        final CountDownLatch blocked = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        SlowClient(String connectString) {
+            super(connectString, 10000);
+        }
+
+        @Override
+        public ZkSubscription watchData(String path, IZkDataListener listener) {
+            if (path.equals("/slow")) {
+                blocked.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return super.watchData(path, listener);
+        }
+    }
+
+    private static class Recorder implements ZkWatchHub.Subscriber {
+        private final List<String> types = new ArrayList<String>();
+
+        @Override
+        public synchronized void onEvent(ZkNodeEvent event) {
+            types.add(event.getType());
+            notifyAll();
+        }
+
+        synchronized List<String> types() {
+            return new ArrayList<String>(types);
+        }
+
+        synchronized void await(String type) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+            while (!types.contains(type)) {
+                long left = deadline - System.currentTimeMillis();
+                assertTrue("no " + type + " event: " + types, left > 0);
+                wait(left);
+            }
+        }
+    }
+}